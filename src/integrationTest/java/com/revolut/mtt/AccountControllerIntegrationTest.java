@@ -79,4 +79,46 @@ public class AccountControllerIntegrationTest {
                 .body("userId", is(userId.intValue()))
                 .body("balance", is(new BigDecimal("21.89")));
     }
+
+    @Test
+    void several_accounts_should_be_fetched_at_once() {
+        // given
+        final Long userId = given()
+                .body(Json.createObjectBuilder().add("username", "ursula").build().toString())
+                .when()
+                .post("/users")
+                .getBody()
+                .jsonPath()
+                .getLong("id");
+        final Long firstAccountId = createAccount(userId, "1.50");
+        final Long secondAccountId = createAccount(userId, "7.00");
+
+        // when
+        final Response fetchResponse = given()
+                .config(RestAssured.config().jsonConfig(jsonConfig().numberReturnType(BIG_DECIMAL)))
+                .queryParam("ids", secondAccountId + ",987654321," + firstAccountId)
+                .when()
+                .get("/accounts");
+
+        // then
+        fetchResponse.then()
+                .statusCode(HttpStatus.SC_OK)
+                .body("accounts.id", contains(secondAccountId.intValue(), firstAccountId.intValue()))
+                .body("accounts.balance", contains(new BigDecimal("7.00"), new BigDecimal("1.50")))
+                .body("missingIds", contains(987654321));
+    }
+
+    private static Long createAccount(final Long userId, final String balance) {
+        return given()
+                .body(Json.createObjectBuilder()
+                        .add("userId", userId)
+                        .add("balance", balance)
+                        .build()
+                        .toString())
+                .when()
+                .post("/accounts")
+                .getBody()
+                .jsonPath()
+                .getLong("id");
+    }
 }
@@ -0,0 +1,104 @@
+package com.revolut.mtt;
+
+import io.restassured.RestAssured;
+import io.restassured.path.json.JsonPath;
+import io.restassured.response.Response;
+import org.apache.http.HttpStatus;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static io.restassured.RestAssured.given;
+import static io.restassured.config.JsonConfig.jsonConfig;
+import static io.restassured.path.json.config.JsonPathConfig.NumberReturnType.BIG_DECIMAL;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(JoobyIntegrationTestExtension.class)
+public class ImportControllerIntegrationTest {
+
+    private static final String NDJSON = "application/x-ndjson";
+
+    @Test
+    void users_and_accounts_should_be_imported_line_by_line() {
+        // import users
+
+        // given
+        final String users = "{\"username\": \"gunther\"}\n"
+                + "{\"username\": \"janice\"}\n"
+                + "\n"
+                + "{\"username\": \"gunther\"}\n"
+                + "{\"username\": \n";
+
+        // when
+        final Response importUsersResponse = given()
+                .contentType(NDJSON)
+                .body(users.getBytes(StandardCharsets.UTF_8))
+                .when()
+                .post("/users/import");
+
+        // then
+        importUsersResponse.then()
+                .statusCode(HttpStatus.SC_OK)
+                .contentType(NDJSON);
+        final List<JsonPath> userResults = lines(importUsersResponse);
+        assertEquals(4, userResults.size());
+        assertEquals(1, userResults.get(0).getInt("line"));
+        assertEquals(2, userResults.get(1).getInt("line"));
+        assertEquals(4, userResults.get(2).getInt("line"));
+        assertNull(userResults.get(2).get("id"));
+        assertEquals("username", userResults.get(2).getString("errors[0].field"));
+        assertEquals(5, userResults.get(3).getInt("line"));
+        assertNull(userResults.get(3).get("id"));
+        final long gunther = userResults.get(0).getLong("id");
+        final long janice = userResults.get(1).getLong("id");
+        given().when()
+                .get("/users/{userId}", janice)
+                .then()
+                .statusCode(HttpStatus.SC_OK)
+                .body("username", is("janice"));
+
+        // import accounts
+
+        // given
+        final String accounts = "{\"userId\": " + gunther + ", \"balance\": 10.50}\n"
+                + "{\"userId\": " + janice + ", \"balance\": 0}\n"
+                + "{\"userId\": 123456789, \"balance\": 1}\n"
+                + "{\"userId\": " + janice + ", \"balance\": 7}\n";
+
+        // when
+        final Response importAccountsResponse = given()
+                .contentType(NDJSON)
+                .body(accounts.getBytes(StandardCharsets.UTF_8))
+                .when()
+                .post("/accounts/import");
+
+        // then
+        importAccountsResponse.then()
+                .statusCode(HttpStatus.SC_OK);
+        final List<JsonPath> accountResults = lines(importAccountsResponse);
+        assertEquals(4, accountResults.size());
+        assertEquals("balance", accountResults.get(1).getString("errors[0].field"));
+        assertEquals("userId", accountResults.get(2).getString("errors[0].field"));
+        assertTrue(accountResults.get(3).getList("errors").isEmpty());
+        final long guntherAccount = accountResults.get(0).getLong("id");
+        given().config(RestAssured.config().jsonConfig(jsonConfig().numberReturnType(BIG_DECIMAL)))
+                .when()
+                .get("/accounts/{accountId}", guntherAccount)
+                .then()
+                .statusCode(HttpStatus.SC_OK)
+                .body("userId", is((int) gunther))
+                .body("balance", is(new BigDecimal("10.50")));
+    }
+
+    private static List<JsonPath> lines(final Response response) {
+        return Arrays.stream(response.asString().split("\n"))
+                .map(JsonPath::from)
+                .collect(Collectors.toList());
+    }
+}
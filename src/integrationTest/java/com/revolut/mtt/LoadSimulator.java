@@ -0,0 +1,243 @@
+package com.revolut.mtt;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Drives concurrent transfers against running service and collects throughput and latency statistics.
+ * Plain http client is used instead of Rest Assured, so requests are not logged.
+ */
+public class LoadSimulator {
+
+    private static final Pattern ID_PATTERN = Pattern.compile("\"id\"\\s*:\\s*(\\d+)");
+
+    private static final Pattern BALANCE_PATTERN = Pattern.compile("\"balance\"\\s*:\\s*([-\\d.eE]+)");
+
+    private final HttpClient httpClient = HttpClient.newHttpClient();
+
+    private final String baseUrl;
+
+    private final List<long[]> accounts = new ArrayList<>();
+
+    public LoadSimulator(final String baseUrl) {
+        this.baseUrl = baseUrl;
+    }
+
+    /**
+     * Creates users with accounts. Every account gets the same initial balance.
+     */
+    public void seed(final int users,
+                     final int accountsPerUser,
+                     final BigDecimal initialBalance) throws IOException, InterruptedException {
+        final String prefix = "load-" + System.nanoTime() + "-";
+        for (int i = 0; i < users; i++) {
+            final long userId = extractId(post("/users", "{\"username\": \"" + prefix + i + "\"}"));
+            for (int j = 0; j < accountsPerUser; j++) {
+                final long accountId = extractId(post("/accounts",
+                        "{\"userId\": " + userId + ", \"balance\": " + initialBalance.toPlainString() + "}"));
+                accounts.add(new long[]{accountId, userId});
+            }
+        }
+    }
+
+    public int accountsNumber() {
+        return accounts.size();
+    }
+
+    /**
+     * Sums balances of all seeded accounts.
+     */
+    public BigDecimal totalBalance() throws IOException, InterruptedException {
+        BigDecimal total = BigDecimal.ZERO;
+        for (final long[] account : accounts) {
+            final HttpResponse<String> response = send(HttpRequest.newBuilder(URI.create(baseUrl + "/accounts/" + account[0]))
+                    .GET()
+                    .build());
+            final Matcher matcher = BALANCE_PATTERN.matcher(response.body());
+            if (!matcher.find()) {
+                throw new IllegalStateException("Unexpected account response: " + response.body());
+            }
+            total = total.add(new BigDecimal(matcher.group(1)));
+        }
+        return total;
+    }
+
+    /**
+     * Sends transfers from given number of threads. Both accounts of a transfer are picked by selector,
+     * end user is always the owner of the source account.
+     */
+    public Report run(final AccountSelector selector,
+                      final int threads,
+                      final int transfers,
+                      final int maxAmount) throws InterruptedException {
+        final ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        final long[] latencies = new long[transfers];
+        final AtomicInteger succeeded = new AtomicInteger();
+        final AtomicInteger rejected = new AtomicInteger();
+        final AtomicInteger lockTimeouts = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(transfers);
+
+        final long started = System.nanoTime();
+        for (int i = 0; i < transfers; i++) {
+            final int index = i;
+            executorService.execute(() -> {
+                try {
+                    final ThreadLocalRandom random = ThreadLocalRandom.current();
+                    final int source = selector.next(random);
+                    int destination;
+                    do {
+                        destination = selector.next(random);
+                    } while (destination == source);
+                    final long[] sourceAccount = accounts.get(source);
+                    final String body = "{\"endUserId\": " + sourceAccount[1]
+                            + ", \"sourceAccountId\": " + sourceAccount[0]
+                            + ", \"destinationAccountId\": " + accounts.get(destination)[0]
+                            + ", \"amount\": " + (1 + random.nextInt(maxAmount)) + "}";
+
+                    final long requestStarted = System.nanoTime();
+                    final HttpResponse<String> response = post("/transfers", body);
+                    latencies[index] = System.nanoTime() - requestStarted;
+
+                    if (response.statusCode() == 200) {
+                        succeeded.incrementAndGet();
+                    } else if (isLockTimeout(response)) {
+                        lockTimeouts.incrementAndGet();
+                    } else if (response.statusCode() == 400) {
+                        rejected.incrementAndGet();
+                    } else {
+                        failed.incrementAndGet();
+                    }
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        final long elapsed = System.nanoTime() - started;
+        executorService.shutdown();
+
+        Arrays.sort(latencies);
+        return new Report(transfers, elapsed, succeeded.get(), rejected.get(), lockTimeouts.get(), failed.get(),
+                percentile(latencies, 0.5), percentile(latencies, 0.99), percentile(latencies, 0.999));
+    }
+
+    private static boolean isLockTimeout(final HttpResponse<String> response) {
+        // database lock timeout results in '423 Locked', in-memory ledger reports account cannot be acquired
+        return response.statusCode() == 423
+                || (response.statusCode() == 400 && response.body().contains("cannot be acquired"));
+    }
+
+    private static long percentile(final long[] sorted, final double percentile) {
+        final int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private HttpResponse<String> post(final String path, final String body) throws IOException, InterruptedException {
+        return send(HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .header("Content-Type", "application/json")
+                .header("Accept", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build());
+    }
+
+    private HttpResponse<String> send(final HttpRequest request) throws IOException, InterruptedException {
+        return httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static long extractId(final HttpResponse<String> response) {
+        final Matcher matcher = ID_PATTERN.matcher(response.body());
+        if (response.statusCode() != 201 || !matcher.find()) {
+            throw new IllegalStateException("Unexpected create response: " + response.body());
+        }
+        return Long.parseLong(matcher.group(1));
+    }
+
+    /**
+     * Picks account index in range [0, accounts number).
+     */
+    public interface AccountSelector {
+
+        int next(Random random);
+
+        static AccountSelector uniform(final int accounts) {
+            return random -> random.nextInt(accounts);
+        }
+
+        /**
+         * Account with index k is picked with probability proportional to 1 / (k + 1)^exponent.
+         */
+        static AccountSelector zipfian(final int accounts, final double exponent) {
+            final double[] cumulative = new double[accounts];
+            double sum = 0;
+            for (int k = 0; k < accounts; k++) {
+                sum += 1 / Math.pow(k + 1, exponent);
+                cumulative[k] = sum;
+            }
+            final double total = sum;
+            return random -> {
+                final int index = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+                return Math.min(index >= 0 ? index : -index - 1, accounts - 1);
+            };
+        }
+    }
+
+    /**
+     * Results of a single simulation run. Latencies are in nanoseconds.
+     */
+    public static class Report {
+
+        final int transfers;
+        final long elapsedNanos;
+        final int succeeded;
+        final int rejected;
+        final int lockTimeouts;
+        final int failed;
+        final long p50;
+        final long p99;
+        final long p999;
+
+        Report(final int transfers, final long elapsedNanos, final int succeeded, final int rejected,
+               final int lockTimeouts, final int failed, final long p50, final long p99, final long p999) {
+            this.transfers = transfers;
+            this.elapsedNanos = elapsedNanos;
+            this.succeeded = succeeded;
+            this.rejected = rejected;
+            this.lockTimeouts = lockTimeouts;
+            this.failed = failed;
+            this.p50 = p50;
+            this.p99 = p99;
+            this.p999 = p999;
+        }
+
+        double throughput() {
+            return transfers / (elapsedNanos / 1e9);
+        }
+
+        double lockTimeoutRate() {
+            return (double) lockTimeouts / transfers;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("transfers=%d, throughput=%.1f/s, succeeded=%d, rejected=%d, lockTimeouts=%d (%.2f%%), "
+                            + "failed=%d, p50=%.2fms, p99=%.2fms, p999=%.2fms",
+                    transfers, throughput(), succeeded, rejected, lockTimeouts, lockTimeoutRate() * 100, failed,
+                    p50 / 1e6, p99 / 1e6, p999 / 1e6);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.revolut.mtt;
+
+import io.restassured.response.Response;
+import org.apache.http.HttpStatus;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import javax.json.Json;
+
+import static io.restassured.RestAssured.get;
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.*;
+
+@ExtendWith(JoobyIntegrationTestExtension.class)
+public class MetricsIntegrationTest {
+
+    @Test
+    void metrics_should_be_exposed_in_prometheus_format() {
+        // given
+        given()
+                .body(Json.createObjectBuilder().add("username", "gunther").build().toString())
+                .when()
+                .post("/users")
+                .then()
+                .statusCode(HttpStatus.SC_CREATED);
+        given()
+                .body(Json.createObjectBuilder().add("username", "").build().toString())
+                .when()
+                .post("/users")
+                .then()
+                .statusCode(HttpStatus.SC_BAD_REQUEST);
+
+        // when
+        final Response metricsResponse = get("/metrics");
+
+        // then
+        metricsResponse.then()
+                .statusCode(HttpStatus.SC_OK)
+                .contentType(startsWith("text/plain"))
+                .body(containsString("mtt_http_request_duration_seconds_count{method=\"POST\",route=\"/users\"} "))
+                .body(containsString("mtt_transaction_completion_seconds_count{outcome=\"commit\"} "))
+                .body(containsString("mtt_validation_failures_total{field=\"username\"} 1\n"))
+                .body(containsString("mtt_db_pool_connections{state=\"active\"} "));
+    }
+
+    @Test
+    void accounts_locked_by_transfers_should_be_exposed_as_hot() {
+        // given
+        final Long userId = given()
+                .body(Json.createObjectBuilder().add("username", "janice").build().toString())
+                .when()
+                .post("/users")
+                .getBody()
+                .jsonPath()
+                .getLong("id");
+        final Long sourceAccountId = createAccount(userId);
+        final Long destinationAccountId = createAccount(userId);
+        given()
+                .body(Json.createObjectBuilder()
+                        .add("endUserId", userId)
+                        .add("sourceAccountId", sourceAccountId)
+                        .add("destinationAccountId", destinationAccountId)
+                        .add("amount", "1.00")
+                        .build()
+                        .toString())
+                .when()
+                .post("/transfers")
+                .then()
+                .statusCode(HttpStatus.SC_OK);
+
+        // when
+        final Response hotAccountsResponse = get("/admin/hot-accounts");
+
+        // then
+        hotAccountsResponse.then()
+                .statusCode(HttpStatus.SC_OK)
+                .body("accountId", hasItems(sourceAccountId.intValue(), destinationAccountId.intValue()))
+                .body("transfers", everyItem(greaterThanOrEqualTo(1)));
+    }
+
+    private static Long createAccount(final Long userId) {
+        return given()
+                .body(Json.createObjectBuilder()
+                        .add("userId", userId)
+                        .add("balance", "10.00")
+                        .build()
+                        .toString())
+                .when()
+                .post("/accounts")
+                .getBody()
+                .jsonPath()
+                .getLong("id");
+    }
+}
@@ -1,6 +1,7 @@
 package com.revolut.mtt;
 
 import io.restassured.RestAssured;
+import io.restassured.http.ContentType;
 import io.restassured.response.Response;
 import org.apache.http.HttpStatus;
 import org.hamcrest.Matchers;
@@ -9,6 +10,7 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 
 import javax.json.Json;
+import javax.json.JsonArray;
 import javax.json.JsonObject;
 import java.math.BigDecimal;
 import java.util.concurrent.*;
@@ -84,6 +86,211 @@ public class TransferControllerIntegrationTest {
                 .body("[0].field", Matchers.is("amount"));
     }
 
+    @Test
+    void amount_with_fractions_of_cent_should_be_rejected() {
+        // given
+        final long chandlerAccount = createAccount(chandler, new BigDecimal("7832.12"));
+        final long joeyAccount = createAccount(joey, new BigDecimal("12.89"));
+        final JsonObject transfer = Json.createObjectBuilder()
+                .add("endUserId", chandler)
+                .add("sourceAccountId", chandlerAccount)
+                .add("destinationAccountId", joeyAccount)
+                .add("amount", new BigDecimal("0.001"))
+                .build();
+
+        // when
+        final Response transferResponse = given().body(transfer.toString())
+                .when()
+                .post("/transfers");
+
+        // then
+        transferResponse.then()
+                .statusCode(HttpStatus.SC_BAD_REQUEST);
+        assertEquals(new BigDecimal("7832.12"), fetchBalance(chandlerAccount));
+    }
+
+    @SuppressWarnings("Duplicates")
+    @Test
+    void batch_transfers_should_be_applied_one_by_one() {
+        // given
+        final long chandlerAccount = createAccount(chandler, new BigDecimal("100.00"));
+        final long joeyAccount = createAccount(joey, new BigDecimal("50.00"));
+        final JsonArray transfers = Json.createArrayBuilder()
+                .add(Json.createObjectBuilder()
+                        .add("endUserId", chandler)
+                        .add("sourceAccountId", chandlerAccount)
+                        .add("destinationAccountId", joeyAccount)
+                        .add("amount", new BigDecimal("60.00")))
+                .add(Json.createObjectBuilder()
+                        .add("endUserId", chandler)
+                        .add("sourceAccountId", chandlerAccount)
+                        .add("destinationAccountId", joeyAccount)
+                        .add("amount", new BigDecimal("60.00")))
+                .add(Json.createObjectBuilder()
+                        .add("endUserId", joey)
+                        .add("sourceAccountId", joeyAccount)
+                        .add("destinationAccountId", chandlerAccount)
+                        .add("amount", new BigDecimal("10.00")))
+                .build();
+
+        // when
+        final Response transferResponse = given().body(transfers.toString())
+                .when()
+                .post("/transfers/batch");
+
+        // then
+        transferResponse.then()
+                .statusCode(HttpStatus.SC_OK)
+                .body("[0].applied", Matchers.is(true))
+                .body("[1].applied", Matchers.is(false))
+                .body("[1].errors[0].field", Matchers.is("amount"))
+                .body("[2].applied", Matchers.is(true));
+        assertEquals(new BigDecimal("50.00"), fetchBalance(chandlerAccount));
+        assertEquals(new BigDecimal("100.00"), fetchBalance(joeyAccount));
+    }
+
+    @SuppressWarnings("Duplicates")
+    @Test
+    void transfer_retried_with_the_same_idempotency_key_should_be_made_once() {
+        // given
+        final long chandlerAccount = createAccount(chandler, new BigDecimal("100.00"));
+        final long joeyAccount = createAccount(joey, new BigDecimal("50.00"));
+        final JsonObject transfer = Json.createObjectBuilder()
+                .add("endUserId", chandler)
+                .add("sourceAccountId", chandlerAccount)
+                .add("destinationAccountId", joeyAccount)
+                .add("amount", new BigDecimal("30.00"))
+                .build();
+        final String idempotencyKey = "transfer-" + chandlerAccount;
+
+        // when
+        final Response transferResponse = given().body(transfer.toString())
+                .header("Idempotency-Key", idempotencyKey)
+                .when()
+                .post("/transfers");
+        final Response retryResponse = given().body(transfer.toString())
+                .header("Idempotency-Key", idempotencyKey)
+                .when()
+                .post("/transfers");
+
+        // then
+        transferResponse.then()
+                .statusCode(HttpStatus.SC_OK);
+        retryResponse.then()
+                .statusCode(HttpStatus.SC_OK)
+                .header("Idempotent-Replayed", "true");
+        assertEquals(new BigDecimal("70.00"), fetchBalance(chandlerAccount));
+        assertEquals(new BigDecimal("80.00"), fetchBalance(joeyAccount));
+    }
+
+    @SuppressWarnings("Duplicates")
+    @Test
+    void split_account_should_be_credited_and_debited() throws Exception {
+        // given
+        final long joeyAccount = createAccount(joey, new BigDecimal("1.00"));
+        given().queryParam("slots", 4)
+                .when()
+                .post("/admin/accounts/{accountId}/split", joeyAccount)
+                .then()
+                .statusCode(HttpStatus.SC_OK);
+        final long[] chandlerAccounts = new long[10];
+        for (int i = 0; i < chandlerAccounts.length; i++) {
+            chandlerAccounts[i] = createAccount(chandler, new BigDecimal("100.00"));
+        }
+        final ExecutorService executorService = Executors.newFixedThreadPool(chandlerAccounts.length);
+
+        // when
+        final CompletableFuture[] futures = new CompletableFuture[chandlerAccounts.length];
+        for (int i = 0; i < chandlerAccounts.length; i++) {
+            final long chandlerAccount = chandlerAccounts[i];
+            futures[i] = CompletableFuture.runAsync(() -> given()
+                    .body(Json.createObjectBuilder()
+                            .add("endUserId", chandler)
+                            .add("sourceAccountId", chandlerAccount)
+                            .add("destinationAccountId", joeyAccount)
+                            .add("amount", new BigDecimal("10.00"))
+                            .build()
+                            .toString())
+                    .post("/transfers")
+                    .then()
+                    .statusCode(HttpStatus.SC_OK), executorService);
+        }
+        CompletableFuture.allOf(futures)
+                .get(20, TimeUnit.SECONDS);
+        final BigDecimal creditedBalance = fetchBalance(joeyAccount);
+        final Response debitResponse = given()
+                .body(Json.createObjectBuilder()
+                        .add("endUserId", joey)
+                        .add("sourceAccountId", joeyAccount)
+                        .add("destinationAccountId", chandlerAccounts[0])
+                        .add("amount", new BigDecimal("50.00"))
+                        .build()
+                        .toString())
+                .post("/transfers");
+        final Response rebalanceResponse = given()
+                .config(RestAssured.config().jsonConfig(jsonConfig().numberReturnType(BIG_DECIMAL)))
+                .when()
+                .post("/admin/accounts/{accountId}/rebalance", joeyAccount);
+
+        // then
+        assertEquals(new BigDecimal("101.00"), creditedBalance);
+        debitResponse.then()
+                .statusCode(HttpStatus.SC_OK);
+        rebalanceResponse.then()
+                .statusCode(HttpStatus.SC_OK)
+                .body("balance", Matchers.is(new BigDecimal("51.00")));
+        assertEquals(new BigDecimal("51.00"), fetchBalance(joeyAccount));
+        executorService.shutdown();
+    }
+
+    @Test
+    void account_transfers_should_be_paged_newest_first() {
+        // given
+        final long chandlerAccount = createAccount(chandler, new BigDecimal("100.00"));
+        final long joeyAccount = createAccount(joey, new BigDecimal("1.00"));
+        for (final String amount : new String[]{"1.00", "2.00", "3.00"}) {
+            given().body(Json.createObjectBuilder()
+                    .add("endUserId", chandler)
+                    .add("sourceAccountId", chandlerAccount)
+                    .add("destinationAccountId", joeyAccount)
+                    .add("amount", new BigDecimal(amount))
+                    .build()
+                    .toString())
+                    .post("/transfers")
+                    .then()
+                    .statusCode(HttpStatus.SC_OK);
+        }
+
+        // when
+        final Response firstPageResponse = given()
+                .config(RestAssured.config().jsonConfig(jsonConfig().numberReturnType(BIG_DECIMAL)))
+                .queryParam("limit", 2)
+                .when()
+                .get("/accounts/{accountId}/transfers", joeyAccount);
+        final long lastTransferId = firstPageResponse.getBody()
+                .jsonPath()
+                .getLong("[1].id");
+        final Response secondPageResponse = given()
+                .config(RestAssured.config().jsonConfig(jsonConfig().numberReturnType(BIG_DECIMAL)))
+                .queryParam("limit", 2)
+                .queryParam("before", lastTransferId)
+                .when()
+                .get("/accounts/{accountId}/transfers", chandlerAccount);
+
+        // then
+        firstPageResponse.then()
+                .statusCode(HttpStatus.SC_OK)
+                .contentType(ContentType.JSON)
+                .body("size()", Matchers.is(2))
+                .body("[0].counterpartyAccountId", Matchers.is((int) chandlerAccount))
+                .body("amount", Matchers.contains(new BigDecimal("3.00"), new BigDecimal("2.00")));
+        secondPageResponse.then()
+                .statusCode(HttpStatus.SC_OK)
+                .body("size()", Matchers.is(1))
+                .body("[0].counterpartyAccountId", Matchers.is((int) joeyAccount))
+                .body("[0].amount", Matchers.is(new BigDecimal("-1.00")));
+    }
+
     @Test
     void test_many_small_transfers_correct_summary_balance() throws Exception {
         // given
@@ -128,7 +335,7 @@ public class TransferControllerIntegrationTest {
         final BigDecimal balance1 = fetchBalance(account1);
         final BigDecimal balance2 = fetchBalance(account2);
         final BigDecimal balance3 = fetchBalance(account3);
-        assertEquals(new BigDecimal(600), balance1.add(balance2).add(balance3));
+        assertEquals(new BigDecimal("600.00"), balance1.add(balance2).add(balance3));
         assertEquals(accountBalances[0].get(), balance1.intValue());
         assertEquals(accountBalances[1].get(), balance2.intValue());
         assertEquals(accountBalances[2].get(), balance3.intValue());
@@ -0,0 +1,65 @@
+package com.revolut.mtt;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Concurrent transfers under uniform and skewed account selection. Sizes are configured with system properties:
+ * 'load.users', 'load.accountsPerUser', 'load.threads', 'load.transfers', 'load.zipfExponent'.
+ * Whatever happens to separate transfers, total balance of all accounts should stay the same.
+ */
+@ExtendWith(JoobyIntegrationTestExtension.class)
+public class TransferLoadSimulationTest {
+
+    private static final BigDecimal INITIAL_BALANCE = new BigDecimal(1000);
+
+    private static final int MAX_AMOUNT = 10;
+
+    private final int users = Integer.getInteger("load.users", 10);
+
+    private final int accountsPerUser = Integer.getInteger("load.accountsPerUser", 5);
+
+    private final int threads = Integer.getInteger("load.threads", 20);
+
+    private final int transfers = Integer.getInteger("load.transfers", 2000);
+
+    private final double zipfExponent = Double.parseDouble(System.getProperty("load.zipfExponent", "1.1"));
+
+    private LoadSimulator simulator;
+
+    @BeforeEach
+    void seed() throws Exception {
+        simulator = new LoadSimulator("http://localhost:8080");
+        simulator.seed(users, accountsPerUser, INITIAL_BALANCE);
+    }
+
+    @Test
+    void money_should_be_conserved_under_uniform_load() throws Exception {
+        runAndVerify("uniform", LoadSimulator.AccountSelector.uniform(simulator.accountsNumber()));
+    }
+
+    @Test
+    void money_should_be_conserved_under_zipfian_load() throws Exception {
+        runAndVerify("zipfian", LoadSimulator.AccountSelector.zipfian(simulator.accountsNumber(), zipfExponent));
+    }
+
+    private void runAndVerify(final String name,
+                              final LoadSimulator.AccountSelector selector) throws Exception {
+        // given
+        final BigDecimal totalBefore = simulator.totalBalance();
+
+        // when
+        final LoadSimulator.Report report = simulator.run(selector, threads, transfers, MAX_AMOUNT);
+        System.out.println("Load simulation '" + name + "': " + report);
+
+        // then
+        assertEquals(0, totalBefore.compareTo(simulator.totalBalance()), "Total balance should not change");
+        assertTrue(report.succeeded > 0, "Some transfers should succeed");
+    }
+}
@@ -0,0 +1,110 @@
+package com.revolut.mtt.benchmark;
+
+import com.revolut.mtt.database.SchemaInit;
+import com.revolut.mtt.repository.AccountRepository;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * In memory H2 database behind Hikari pool, seeded with one user owning a number of accounts.
+ * Accounts are picked with configurable skew: 'hotAccountRatio' share of picks goes to the first account,
+ * others are spread uniformly.
+ */
+public class BenchmarkDatabase {
+
+    static final String INITIAL_BALANCE = "1000000000";
+
+    private final HikariDataSource dataSource;
+
+    private final long userId;
+
+    private final long[] accountIds;
+
+    private final double hotAccountRatio;
+
+    BenchmarkDatabase(final int accounts, final double hotAccountRatio) throws SQLException {
+        // same pool as the service uses
+        final HikariConfig config = new HikariConfig();
+        config.setJdbcUrl("jdbc:h2:mem:mtt-benchmark;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=2000");
+        config.setMaximumPoolSize(64);
+        this.dataSource = new HikariDataSource(config);
+        this.hotAccountRatio = hotAccountRatio;
+        this.accountIds = new long[accounts];
+        try (final Connection connection = dataSource.getConnection()) {
+            SchemaInit.initSchema(connection);
+            this.userId = insert(connection, "insert into app_user (username) values ('benchmark-" + System.nanoTime() + "')");
+            for (int i = 0; i < accounts; i++) {
+                accountIds[i] = insert(connection,
+                        "insert into account (user_id, balance) values (" + userId + ", " + INITIAL_BALANCE + ")");
+            }
+        }
+    }
+
+    HikariDataSource getDataSource() {
+        return dataSource;
+    }
+
+    long getUserId() {
+        return userId;
+    }
+
+    long getHotAccountId() {
+        return accountIds[0];
+    }
+
+    /**
+     * Splits hot account into slots, see {@link AccountRepository#splitAccount(Long, int)}.
+     */
+    void splitHotAccount(final int slots) throws SQLException {
+        try (final Connection connection = dataSource.getConnection()) {
+            new AccountRepository(() -> connection).splitAccount(accountIds[0], slots);
+        }
+    }
+
+    /**
+     * @return any account except the hot one.
+     */
+    long pickColdAccount() {
+        return accountIds[1 + ThreadLocalRandom.current().nextInt(accountIds.length - 1)];
+    }
+
+    long pickAccount() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextDouble() < hotAccountRatio) {
+            return accountIds[0];
+        }
+        return accountIds[random.nextInt(accountIds.length)];
+    }
+
+    /**
+     * @return account id different from the given one.
+     */
+    long pickAccountExcept(final long accountId) {
+        long picked;
+        do {
+            picked = pickAccount();
+        } while (picked == accountId);
+        return picked;
+    }
+
+    void close() {
+        dataSource.close();
+    }
+
+    private static long insert(final Connection connection, final String sql) throws SQLException {
+        try (final PreparedStatement preparedStatement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+            preparedStatement.executeUpdate();
+            try (final ResultSet resultSet = preparedStatement.getGeneratedKeys()) {
+                resultSet.next();
+                return resultSet.getLong(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.revolut.mtt.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+
+/**
+ * Runs benchmarks once per configured thread count and writes results of each run as JSON.
+ * System properties:
+ * 'jmh.include' - benchmarks regexp, all by default;
+ * 'jmh.threads' - comma separated thread counts, '1,4,16' by default;
+ * 'jmh.resultsDir' - directory for JSON results, 'build/reports/jmh' by default.
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        final String include = System.getProperty("jmh.include", ".*Benchmark.*");
+        final String threads = System.getProperty("jmh.threads", "1,4,16");
+        final File resultsDir = new File(System.getProperty("jmh.resultsDir", "build/reports/jmh"));
+        if (!resultsDir.isDirectory() && !resultsDir.mkdirs()) {
+            throw new IllegalStateException("Cannot create results directory " + resultsDir);
+        }
+
+        for (final String threadCount : threads.split(",")) {
+            final int threadsNumber = Integer.parseInt(threadCount.trim());
+            final Options options = new OptionsBuilder()
+                    .include(include)
+                    .threads(threadsNumber)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(new File(resultsDir, "results-" + threadsNumber + "-threads.json").getPath())
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
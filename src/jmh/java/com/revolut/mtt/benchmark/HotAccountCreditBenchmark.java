@@ -0,0 +1,106 @@
+package com.revolut.mtt.benchmark;
+
+import com.revolut.mtt.controller.TransferController;
+import com.revolut.mtt.controller.TransferMode;
+import com.revolut.mtt.database.BenchmarkTransactions;
+import com.revolut.mtt.database.StatementCache;
+import com.revolut.mtt.database.ThreadLocalConnectionProvider;
+import com.revolut.mtt.error.Rejections;
+import com.revolut.mtt.idempotency.IdempotencyStore;
+import com.revolut.mtt.ledger.LedgerJournal;
+import com.revolut.mtt.metrics.HotAccounts;
+import com.revolut.mtt.metrics.Metrics;
+import com.revolut.mtt.model.Transfer;
+import com.revolut.mtt.optimistic.OptimisticConcurrency;
+import com.revolut.mtt.repository.AccountRepository;
+import com.revolut.mtt.repository.IdempotencyKeyRepository;
+import com.revolut.mtt.repository.JournalAccountRepository;
+import com.revolut.mtt.repository.TransferRepository;
+import com.revolut.mtt.repository.UserRepository;
+import com.revolut.mtt.sequencer.TransferSequencer;
+import com.typesafe.config.ConfigFactory;
+import org.jooby.Result;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.SQLException;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transfers from random accounts to a single hot account, e.g. merchant one, with hot account kept regular,
+ * split into slots or with journal ledger engine.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HotAccountCreditBenchmark {
+
+    @Param({"1000"})
+    public int accounts;
+
+    @Param({"locking", "conditional"})
+    public String transferMode;
+
+    /**
+     * 'jdbc' keeps hot account regular, 'split' splits it into slots, 'journal' uses journal ledger engine.
+     */
+    @Param({"jdbc", "split", "journal"})
+    public String storage;
+
+    private BenchmarkDatabase database;
+
+    private ThreadLocalConnectionProvider connectionProvider;
+
+    private LedgerJournal journal;
+
+    private TransferController transferController;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        database = new BenchmarkDatabase(accounts, 0);
+        connectionProvider = new ThreadLocalConnectionProvider(database::getDataSource, new StatementCache(32));
+        final AccountRepository accountRepository;
+        if ("journal".equals(storage)) {
+            journal = new LedgerJournal(100);
+            journal.start(database.getDataSource());
+            accountRepository = new JournalAccountRepository(connectionProvider, journal);
+        } else {
+            if ("split".equals(storage)) {
+                database.splitHotAccount(16);
+            }
+            accountRepository = new AccountRepository(connectionProvider);
+        }
+        // transfers are made without idempotency keys, so store is never used
+        final IdempotencyStore idempotencyStore = new IdempotencyStore(connectionProvider,
+                new IdempotencyKeyRepository(connectionProvider),
+                ConfigFactory.parseString("idempotency { maxSize = 1, window = 1m, waitTimeout = 1s }"));
+        transferController = new TransferController(accountRepository,
+                new UserRepository(connectionProvider), new TransferRepository(connectionProvider), idempotencyStore,
+                BenchmarkTransactions.executor(connectionProvider, 0, 0),
+                new TransferSequencer(1, 1, 1, 0, 1, 10), new Metrics(), new HotAccounts(4096, 20, 60_000),
+                new Rejections(new Metrics(), connectionProvider),
+                new OptimisticConcurrency(4, 1_000_000, TransferMode.of(transferMode) == TransferMode.ADAPTIVE,
+                        0.1, 1000, 16, new Metrics()), transferMode, 1000);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        if (journal != null) {
+            journal.stop();
+        }
+        database.close();
+    }
+
+    @Benchmark
+    public Result creditHotAccount() throws Exception {
+        final Transfer transfer = new Transfer(database.getUserId(), database.pickColdAccount(),
+                database.getHotAccountId(), 100L);
+        BenchmarkTransactions.begin(connectionProvider);
+        final Result result = transferController.createTransfer(transfer, Optional.empty());
+        BenchmarkTransactions.complete(connectionProvider, result);
+        return result;
+    }
+}
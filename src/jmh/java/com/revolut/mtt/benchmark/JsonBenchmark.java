@@ -0,0 +1,68 @@
+package com.revolut.mtt.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.revolut.mtt.json.ModelCodecs;
+import com.revolut.mtt.model.Account;
+import com.revolut.mtt.model.Transfer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson (de)serialization of request and response bodies, with reflective builders of models ('reflective')
+ * or with hand-written {@link ModelCodecs} the service uses ('codec').
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonBenchmark {
+
+    @Param({"reflective", "codec"})
+    public String mapper;
+
+    private ObjectReader transferReader;
+
+    private ObjectWriter accountWriter;
+
+    private ObjectReader accountReader;
+
+    private byte[] transferJson;
+
+    private byte[] accountJson;
+
+    private Account account;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        final ObjectMapper objectMapper = "codec".equals(mapper)
+                ? new ObjectMapper().registerModule(new ModelCodecs())
+                : new ObjectMapper();
+        transferReader = objectMapper.readerFor(Transfer.class);
+        accountReader = objectMapper.readerFor(Account.class);
+        accountWriter = objectMapper.writerFor(Account.class);
+        account = new Account(12L, 3L, 783_212L);
+        accountJson = accountWriter.writeValueAsBytes(account);
+        transferJson = objectMapper.writeValueAsBytes(new Transfer(3L, 12L, 14L, 35000L));
+    }
+
+    @Benchmark
+    public Transfer readTransfer() throws IOException {
+        return transferReader.readValue(transferJson);
+    }
+
+    @Benchmark
+    public Account readAccount() throws IOException {
+        return accountReader.readValue(accountJson);
+    }
+
+    @Benchmark
+    public byte[] writeAccount() throws IOException {
+        return accountWriter.writeValueAsBytes(account);
+    }
+}
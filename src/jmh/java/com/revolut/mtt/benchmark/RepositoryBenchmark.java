@@ -0,0 +1,93 @@
+package com.revolut.mtt.benchmark;
+
+import com.revolut.mtt.model.Account;
+import com.revolut.mtt.model.User;
+import com.revolut.mtt.repository.AccountRepository;
+import com.revolut.mtt.repository.UserRepository;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Repository calls against in memory H2. Each thread works with its own connection.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RepositoryBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Database {
+
+        @Param({"1000"})
+        public int accounts;
+
+        @Param({"0.0", "0.5", "0.9"})
+        public double hotAccountRatio;
+
+        BenchmarkDatabase database;
+
+        @Setup(Level.Trial)
+        public void setUp() throws SQLException {
+            database = new BenchmarkDatabase(accounts, hotAccountRatio);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            database.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Repositories {
+
+        Connection connection;
+
+        AccountRepository accountRepository;
+
+        UserRepository userRepository;
+
+        @Setup(Level.Trial)
+        public void setUp(final Database database) throws SQLException {
+            connection = database.database.getDataSource().getConnection();
+            connection.setAutoCommit(false);
+            accountRepository = new AccountRepository(() -> connection);
+            userRepository = new UserRepository(() -> connection);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws SQLException {
+            connection.close();
+        }
+    }
+
+    @Benchmark
+    public Optional<Account> fetchAccount(final Database database,
+                                          final Repositories repositories) throws SQLException {
+        final Optional<Account> account = repositories.accountRepository.fetchAccount(database.database.pickAccount());
+        repositories.connection.commit();
+        return account;
+    }
+
+    @Benchmark
+    public Optional<Account> fetchAccountWithLock(final Database database,
+                                                  final Repositories repositories) throws SQLException {
+        final Optional<Account> account =
+                repositories.accountRepository.fetchAccount(database.database.pickAccount(), true);
+        repositories.connection.rollback();
+        return account;
+    }
+
+    @Benchmark
+    public Optional<User> fetchUser(final Database database,
+                                    final Repositories repositories) throws SQLException {
+        final Optional<User> user = repositories.userRepository.fetchUser(database.database.getUserId());
+        repositories.connection.commit();
+        return user;
+    }
+}
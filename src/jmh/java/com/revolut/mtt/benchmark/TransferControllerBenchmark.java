@@ -0,0 +1,103 @@
+package com.revolut.mtt.benchmark;
+
+import com.revolut.mtt.controller.TransferController;
+import com.revolut.mtt.controller.TransferMode;
+import com.revolut.mtt.database.BenchmarkTransactions;
+import com.revolut.mtt.database.StatementCache;
+import com.revolut.mtt.database.ThreadLocalConnectionProvider;
+import com.revolut.mtt.error.Rejections;
+import com.revolut.mtt.idempotency.IdempotencyStore;
+import com.revolut.mtt.metrics.HotAccounts;
+import com.revolut.mtt.metrics.Metrics;
+import com.revolut.mtt.model.Transfer;
+import com.revolut.mtt.optimistic.OptimisticConcurrency;
+import com.revolut.mtt.repository.AccountRepository;
+import com.revolut.mtt.repository.IdempotencyKeyRepository;
+import com.revolut.mtt.repository.TransferRepository;
+import com.revolut.mtt.repository.UserRepository;
+import com.revolut.mtt.sequencer.TransferSequencer;
+import com.typesafe.config.ConfigFactory;
+import org.jooby.Result;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.SQLException;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full transfer path: transaction handling, validation, locks and balance updates.
+ * Transfers failed with validation errors, e.g. lock timeouts under heavy skew, are rolled back and counted too.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TransferControllerBenchmark {
+
+    @Param({"1000"})
+    public int accounts;
+
+    @Param({"0.0", "0.5", "0.9"})
+    public double hotAccountRatio;
+
+    @Param({"locking", "conditional", "sequenced", "optimistic", "adaptive"})
+    public String transferMode;
+
+    @Param({"0", "32"})
+    public int statementCacheSize;
+
+    /**
+     * Max transfers committed at once, 0 disables group commit. Not used in sequenced mode.
+     */
+    @Param({"0", "64"})
+    public int groupCommitSize;
+
+    private BenchmarkDatabase database;
+
+    private ThreadLocalConnectionProvider connectionProvider;
+
+    private TransferSequencer transferSequencer;
+
+    private TransferController transferController;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        database = new BenchmarkDatabase(accounts, hotAccountRatio);
+        connectionProvider = new ThreadLocalConnectionProvider(database::getDataSource,
+                new StatementCache(statementCacheSize));
+        // transfers are made without idempotency keys, so store is never used
+        final IdempotencyStore idempotencyStore = new IdempotencyStore(connectionProvider,
+                new IdempotencyKeyRepository(connectionProvider),
+                ConfigFactory.parseString("idempotency { maxSize = 1, window = 1m, waitTimeout = 1s }"));
+        transferSequencer = new TransferSequencer(8, 1024, 128, 1000, 100, 10);
+        if (TransferMode.of(transferMode) == TransferMode.SEQUENCED) {
+            transferSequencer.start(database.getDataSource(), new StatementCache(statementCacheSize));
+        }
+        transferController = new TransferController(new AccountRepository(connectionProvider),
+                new UserRepository(connectionProvider), new TransferRepository(connectionProvider), idempotencyStore,
+                BenchmarkTransactions.executor(connectionProvider, groupCommitSize, 2),
+                transferSequencer, new Metrics(), new HotAccounts(4096, 20, 60_000),
+                new Rejections(new Metrics(), connectionProvider),
+                new OptimisticConcurrency(4, 1_000_000, TransferMode.of(transferMode) == TransferMode.ADAPTIVE,
+                        0.1, 1000, 16, new Metrics()), transferMode, 1000);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        transferSequencer.stop();
+        database.close();
+    }
+
+    @Benchmark
+    public Result createTransfer() throws Exception {
+        final long sourceAccountId = database.pickAccount();
+        final Transfer transfer = new Transfer(database.getUserId(), sourceAccountId,
+                database.pickAccountExcept(sourceAccountId), 100L);
+        BenchmarkTransactions.begin(connectionProvider);
+        final Result result = transferController.createTransfer(transfer, Optional.empty());
+        BenchmarkTransactions.complete(connectionProvider, result);
+        return result;
+    }
+}
@@ -0,0 +1,94 @@
+package com.revolut.mtt.benchmark;
+
+import com.revolut.mtt.controller.TransferController;
+import com.revolut.mtt.database.BenchmarkTransactions;
+import com.revolut.mtt.database.StatementCache;
+import com.revolut.mtt.database.ThreadLocalConnectionProvider;
+import com.revolut.mtt.error.Rejections;
+import com.revolut.mtt.idempotency.IdempotencyStore;
+import com.revolut.mtt.metrics.HotAccounts;
+import com.revolut.mtt.metrics.Metrics;
+import com.revolut.mtt.model.Transfer;
+import com.revolut.mtt.optimistic.OptimisticConcurrency;
+import com.revolut.mtt.repository.AccountRepository;
+import com.revolut.mtt.repository.IdempotencyKeyRepository;
+import com.revolut.mtt.repository.TransferRepository;
+import com.revolut.mtt.repository.UserRepository;
+import com.revolut.mtt.sequencer.TransferSequencer;
+import com.typesafe.config.ConfigFactory;
+import org.jooby.Result;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.SQLException;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of validation on success and rejection paths of a transfer.
+ * 'invalidAmount' is rejected before database is touched, so it shows the pure cost of a rejection,
+ * 'notEnoughAmount' is rejected after accounts are locked and its transaction is rolled back.
+ * Run with '-prof gc' to see allocations per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ValidationBenchmark {
+
+    @Param({"1000"})
+    public int accounts;
+
+    private BenchmarkDatabase database;
+
+    private ThreadLocalConnectionProvider connectionProvider;
+
+    private TransferController transferController;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        database = new BenchmarkDatabase(accounts, 0);
+        connectionProvider = new ThreadLocalConnectionProvider(database::getDataSource, new StatementCache(32));
+        // transfers are made without idempotency keys, so store is never used
+        final IdempotencyStore idempotencyStore = new IdempotencyStore(connectionProvider,
+                new IdempotencyKeyRepository(connectionProvider),
+                ConfigFactory.parseString("idempotency { maxSize = 1, window = 1m, waitTimeout = 1s }"));
+        transferController = new TransferController(new AccountRepository(connectionProvider),
+                new UserRepository(connectionProvider), new TransferRepository(connectionProvider), idempotencyStore,
+                BenchmarkTransactions.executor(connectionProvider, 0, 0),
+                new TransferSequencer(1, 1, 1, 0, 1, 10), new Metrics(), new HotAccounts(4096, 20, 60_000),
+                new Rejections(new Metrics(), connectionProvider),
+                new OptimisticConcurrency(4, 1_000_000, false, 0.1, 1000, 16, new Metrics()), "locking", 1000);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public Result validTransfer() throws Exception {
+        return createTransfer(100L);
+    }
+
+    @Benchmark
+    public Result invalidAmount() throws Exception {
+        return createTransfer(0L);
+    }
+
+    @Benchmark
+    public Result notEnoughAmount() throws Exception {
+        return createTransfer(Long.parseLong(BenchmarkDatabase.INITIAL_BALANCE) + 1);
+    }
+
+    private Result createTransfer(final long amount) throws Exception {
+        final long sourceAccountId = database.pickAccount();
+        final Transfer transfer = new Transfer(database.getUserId(), sourceAccountId,
+                database.pickAccountExcept(sourceAccountId), amount);
+        BenchmarkTransactions.begin(connectionProvider);
+        final Result result = transferController.createTransfer(transfer, Optional.empty());
+        BenchmarkTransactions.complete(connectionProvider, result);
+        return result;
+    }
+}
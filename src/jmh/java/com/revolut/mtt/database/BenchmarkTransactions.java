@@ -0,0 +1,47 @@
+package com.revolut.mtt.database;
+
+import org.jooby.Result;
+import org.jooby.Status;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opens and completes transactions the same way {@link TransactionSupport} does for a request.
+ */
+public final class BenchmarkTransactions {
+
+    private BenchmarkTransactions() {
+    }
+
+    public static void begin(final ThreadLocalConnectionProvider connectionProvider) {
+        connectionProvider.begin(false);
+    }
+
+    /**
+     * @return executor running work on benchmark threads, with group commit of up to 'groupCommitSize' works
+     * within 'groupCommitWindowMillis', or without it if size is 0.
+     */
+    public static TransactionalExecutor executor(final ThreadLocalConnectionProvider connectionProvider,
+                                                 final int groupCommitSize,
+                                                 final long groupCommitWindowMillis) {
+        final GroupCommit groupCommit = groupCommitSize > 0
+                ? new GroupCommit(connectionProvider, groupCommitSize, groupCommitWindowMillis,
+                TimeUnit.SECONDS.toMillis(10))
+                : null;
+        return new TransactionalExecutor(connectionProvider, false, groupCommit);
+    }
+
+    public static void complete(final ThreadLocalConnectionProvider connectionProvider,
+                                final boolean commit) throws SQLException {
+        connectionProvider.complete(commit);
+    }
+
+    /**
+     * Completes transaction with outcome of request, rejected request is rolled back.
+     */
+    public static void complete(final ThreadLocalConnectionProvider connectionProvider,
+                                final Result result) throws SQLException {
+        connectionProvider.complete(!result.status().map(Status::isError).orElse(false));
+    }
+}
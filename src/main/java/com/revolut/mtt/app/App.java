@@ -1,16 +1,27 @@
 package com.revolut.mtt.app;
 
+import com.revolut.mtt.cache.UserCacheModule;
+import com.revolut.mtt.controller.AccountAdminController;
 import com.revolut.mtt.controller.AccountController;
+import com.revolut.mtt.controller.ImportController;
 import com.revolut.mtt.controller.TransferController;
 import com.revolut.mtt.controller.UserController;
 import com.revolut.mtt.error.ErrorHandlingModule;
+import com.revolut.mtt.idempotency.IdempotencyModule;
+import com.revolut.mtt.json.JsonCodec;
 import com.revolut.mtt.database.SchemaInit;
+import com.revolut.mtt.database.SnapshotModule;
 import com.revolut.mtt.database.TransactionSupport;
+import com.revolut.mtt.ledger.LedgerModule;
+import com.revolut.mtt.metrics.Metrics;
+import com.revolut.mtt.metrics.MetricsModule;
+import com.revolut.mtt.optimistic.OptimisticModule;
+import com.revolut.mtt.sequencer.SequencerModule;
+import com.revolut.mtt.streaming.InputStreamParser;
 import org.eclipse.jetty.server.RequestLog;
 import org.jooby.Jooby;
 import org.jooby.RequestLogger;
 import org.jooby.jdbc.Jdbc;
-import org.jooby.json.Jackson;
 
 /**
  * Main Jooby class running REST service.
@@ -18,11 +29,25 @@ import org.jooby.json.Jackson;
 public class App extends Jooby {
 
     {
+        // request body as stream, before json parser takes any body
+        parser(new InputStreamParser());
+
+        // metrics are recorded by modules, so they are shared with them explicitly
+        final Metrics metrics = new Metrics();
+
         // modules
+        use(new MetricsModule(metrics));
         use(new Jdbc());
         use(new SchemaInit());
-        use(new Jackson());
-        use(new TransactionSupport());
+        // restored before ledger start and taken after ledger stop
+        use(new SnapshotModule());
+        use(new JsonCodec());
+        use(new TransactionSupport(metrics));
+        use(new LedgerModule());
+        use(new UserCacheModule());
+        use(new IdempotencyModule());
+        use(new SequencerModule());
+        use(new OptimisticModule(metrics));
         use(new ErrorHandlingModule());
         use("*", new RequestLogger());
 
@@ -30,6 +55,8 @@ public class App extends Jooby {
         use(UserController.class);
         use(AccountController.class);
         use(TransferController.class);
+        use(AccountAdminController.class);
+        use(ImportController.class);
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,30 @@
+package com.revolut.mtt.cache;
+
+import com.google.inject.Binder;
+import com.revolut.mtt.repository.CachedUserRepository;
+import com.revolut.mtt.repository.UserRepository;
+import com.typesafe.config.Config;
+import lombok.extern.slf4j.Slf4j;
+import org.jooby.Env;
+import org.jooby.Jooby;
+import org.jooby.Results;
+
+/**
+ * Puts cache in front of user repository, unless 'users.cache' spec is empty.
+ */
+@Slf4j
+public class UserCacheModule implements Jooby.Module {
+
+    @Override
+    public void configure(final Env env, final Config conf, final Binder binder) throws Throwable {
+        final String cacheSpec = conf.getString("users.cache");
+        if (cacheSpec.isEmpty()) {
+            log.info("Users cache is disabled");
+            return;
+        }
+        log.info("Configure Users Cache Module with spec '{}'", cacheSpec);
+        binder.bind(UserRepository.class).to(CachedUserRepository.class);
+
+        env.router().get("/admin/user-cache", req -> Results.json(req.require(CachedUserRepository.class).stats()));
+    }
+}
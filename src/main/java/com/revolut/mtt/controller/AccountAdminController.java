@@ -0,0 +1,79 @@
+package com.revolut.mtt.controller;
+
+import com.revolut.mtt.error.Rejections;
+import com.revolut.mtt.repository.AccountRepository;
+import com.revolut.mtt.validation.Validation;
+import lombok.extern.slf4j.Slf4j;
+import org.jooby.Result;
+import org.jooby.Results;
+import org.jooby.Status;
+import org.jooby.mvc.POST;
+import org.jooby.mvc.Path;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Entry point for account maintenance operations.
+ */
+@Slf4j
+@Singleton
+@Path("/admin/accounts")
+public class AccountAdminController {
+
+    private static final int MAX_SLOTS = 64;
+
+    private static final Validation INVALID_SLOTS =
+            Validation.invalid("slots", "Slots should be from 0 to " + MAX_SLOTS);
+
+    private static final Validation SPLIT_NOT_SUPPORTED =
+            Validation.invalid(null, "Accounts cannot be split with current ledger engine");
+
+    private final AccountRepository accountRepository;
+
+    private final Rejections rejections;
+
+    @Inject
+    public AccountAdminController(final AccountRepository accountRepository,
+                                  final Rejections rejections) {
+        this.accountRepository = accountRepository;
+        this.rejections = rejections;
+    }
+
+    /**
+     * Splits account balance into 'slots' slots, so concurrent credits to a hot account do not wait for each other.
+     * 0 slots makes account regular again. Only 'jdbc' ledger engine supports split accounts.
+     */
+    @POST
+    @Path("/{accountId}/split")
+    public Result splitAccount(final long accountId, final int slots) throws Exception {
+        if (slots < 0 || slots > MAX_SLOTS) {
+            return rejections.badRequest(INVALID_SLOTS);
+        }
+        if (!accountRepository.isSplitSupported()) {
+            return rejections.badRequest(SPLIT_NOT_SUPPORTED);
+        }
+        if (!accountRepository.splitAccount(accountId, slots)) {
+            return Results.with(Status.NOT_FOUND);
+        }
+        log.info("Account {} is split into {} slots", accountId, slots);
+        return fetchAccount(accountId);
+    }
+
+    /**
+     * Moves balances of account slots to account itself, so debits from it do not need to collect slots.
+     */
+    @POST
+    @Path("/{accountId}/rebalance")
+    public Result rebalanceAccount(final long accountId) throws Exception {
+        return accountRepository.rebalanceAccount(accountId)
+                .map(Results::ok)
+                .orElseGet(() -> Results.with(Status.NOT_FOUND));
+    }
+
+    private Result fetchAccount(final long accountId) throws Exception {
+        return accountRepository.fetchAccount(accountId)
+                .map(Results::ok)
+                .orElseGet(() -> Results.with(Status.NOT_FOUND));
+    }
+}
@@ -1,10 +1,16 @@
 package com.revolut.mtt.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.revolut.mtt.database.ResultCursor;
+import com.revolut.mtt.error.Rejections;
 import com.revolut.mtt.model.Account;
+import com.revolut.mtt.model.AccountTransfer;
+import com.revolut.mtt.model.AccountsResult;
 import com.revolut.mtt.repository.AccountRepository;
+import com.revolut.mtt.repository.TransferRepository;
 import com.revolut.mtt.repository.UserRepository;
-import com.revolut.mtt.validation.ValidationError;
-import com.revolut.mtt.validation.ValidationException;
+import com.revolut.mtt.streaming.JsonArrayStream;
+import com.revolut.mtt.validation.Validation;
 import org.jooby.MediaType;
 import org.jooby.Result;
 import org.jooby.Results;
@@ -16,10 +22,8 @@ import org.jooby.mvc.Path;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
-import java.math.BigDecimal;
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
 
 /**
  * Entry point for account operations.
@@ -28,15 +32,84 @@ import java.util.List;
 @Path("/accounts")
 public class AccountController {
 
+    private static final int DEFAULT_STATEMENT_LIMIT = 100;
+
+    private static final int MAX_STATEMENT_LIMIT = 10_000;
+
+    private static final int MAX_FETCH_IDS = 1000;
+
+    private static final Validation NOT_NUMERIC_IDS = Validation.invalid("ids", "Ids should be numbers");
+
+    private static final Validation INVALID_IDS_NUMBER =
+            Validation.invalid("ids", "Number of ids should be from 1 to " + MAX_FETCH_IDS);
+
+    private static final Validation INVALID_LIMIT =
+            Validation.invalid("limit", "Limit should be from 1 to " + MAX_STATEMENT_LIMIT);
+
+    private static final Validation NO_ACCOUNT = Validation.invalid(null, "Account should not be null");
+
+    private static final Validation NO_USER_ID = Validation.invalid("userId", "User id should not be null");
+
+    private static final Validation USER_NOT_FOUND = Validation.invalid("userId", "User should exist");
+
+    private static final Validation NEGATIVE_BALANCE = Validation.invalid("balance", "Balance should be non-negative");
+
     private final AccountRepository accountRepository;
 
     private final UserRepository userRepository;
 
+    private final TransferRepository transferRepository;
+
+    private final ObjectMapper objectMapper;
+
+    private final Rejections rejections;
+
     @Inject
     public AccountController(final AccountRepository accountRepository,
-                             final UserRepository userRepository) {
+                             final UserRepository userRepository,
+                             final TransferRepository transferRepository,
+                             final ObjectMapper objectMapper,
+                             final Rejections rejections) {
         this.accountRepository = accountRepository;
         this.userRepository = userRepository;
+        this.transferRepository = transferRepository;
+        this.objectMapper = objectMapper;
+        this.rejections = rejections;
+    }
+
+    /**
+     * Returns several accounts at once, e.g. 'ids=1,2,3' or 'ids=1&ids=2'. Accounts are fetched
+     * with a few 'in' queries rather than a query per account. Ids of non-existing accounts are returned separately.
+     */
+    @GET
+    public Result fetchAccounts(final List<String> ids) throws Exception {
+        final Set<Long> accountIds = new LinkedHashSet<>();
+        try {
+            for (final String idsParam : ids) {
+                for (final String id : idsParam.split(",")) {
+                    if (!id.isBlank()) {
+                        accountIds.add(Long.valueOf(id.strip()));
+                    }
+                }
+            }
+        } catch (NumberFormatException e) {
+            return rejections.badRequest(NOT_NUMERIC_IDS);
+        }
+        if (accountIds.isEmpty() || accountIds.size() > MAX_FETCH_IDS) {
+            return rejections.badRequest(INVALID_IDS_NUMBER);
+        }
+        final Map<Long, Account> accounts = accountRepository.fetchAccounts(accountIds);
+        final List<Account> foundAccounts = new ArrayList<>(accounts.size());
+        final List<Long> missingIds = new ArrayList<>();
+        for (final Long accountId : accountIds) {
+            final Account account = accounts.get(accountId);
+            if (account == null) {
+                missingIds.add(accountId);
+            } else {
+                foundAccounts.add(account);
+            }
+        }
+        return Results.ok(new AccountsResult(foundAccounts, missingIds));
     }
 
     @GET
@@ -47,42 +120,53 @@ public class AccountController {
                 .orElseGet(() -> Results.with(Status.NOT_FOUND));
     }
 
+    /**
+     * Returns account transfers, newest first. Page of transfers is written to response while it is read
+     * from database, so it is never kept in memory. Next page starts before the last transfer of previous one:
+     * its id is passed as 'before' parameter. Page with less than 'limit' transfers is the last one.
+     */
+    @GET
+    @Path("/{accountId}/transfers")
+    public Result fetchTransfers(final long accountId,
+                                 final Optional<Long> before,
+                                 final Optional<Integer> limit) throws Exception {
+        final int pageLimit = limit.orElse(DEFAULT_STATEMENT_LIMIT);
+        if (pageLimit < 1 || pageLimit > MAX_STATEMENT_LIMIT) {
+            return rejections.badRequest(INVALID_LIMIT);
+        }
+        if (accountRepository.fetchAccount(accountId).isEmpty()) {
+            return Results.with(Status.NOT_FOUND);
+        }
+        final ResultCursor<AccountTransfer> transfers =
+                transferRepository.fetchTransfers(accountId, before.orElse(null), pageLimit);
+        return Results.ok(new JsonArrayStream<>(transfers, objectMapper))
+                .type(MediaType.json);
+    }
+
     @POST
     public Result createAccount(final @Body Account account) throws Exception {
-        final List<ValidationError> validationErrors = validateNewAccount(account);
-        if (!validationErrors.isEmpty()) {
-            throw new ValidationException(validationErrors);
+        final Validation validation = validateNewAccount(account);
+        if (!validation.isValid()) {
+            return rejections.badRequest(validation);
         }
         final Account createdAccount = accountRepository.createAccount(account);
         return Results.with(createdAccount, Status.CREATED)
                 .type(MediaType.json);
     }
 
-    private List<ValidationError> validateNewAccount(final Account account) throws SQLException {
-        final List<ValidationError> validationErrors = new ArrayList<>();
+    private Validation validateNewAccount(final Account account) throws SQLException {
         if (account == null) {
-            validationErrors.add(ValidationError.builder()
-                    .message("Account should not be null")
-                    .build());
-        } else {
-            if (account.getUserId() == null) {
-                validationErrors.add(ValidationError.builder()
-                        .field("userId")
-                        .message("User id should not be null")
-                        .build());
-            } else if (userRepository.fetchUser(account.getUserId()).isEmpty()) {
-                validationErrors.add(ValidationError.builder()
-                        .field("userId")
-                        .message("User should exist")
-                        .build());
-            }
-            if (account.getBalance().compareTo(BigDecimal.ZERO) < 0) {
-                validationErrors.add(ValidationError.builder()
-                        .field("balance")
-                        .message("Balance should be non-negative")
-                        .build());
-            }
+            return NO_ACCOUNT;
+        }
+        Validation validation = Validation.valid();
+        if (account.getUserId() == null) {
+            validation = NO_USER_ID;
+        } else if (userRepository.fetchUser(account.getUserId()).isEmpty()) {
+            validation = USER_NOT_FOUND;
+        }
+        if (account.getBalance() < 0) {
+            validation = validation.and(NEGATIVE_BALANCE);
         }
-        return validationErrors;
+        return validation;
     }
 }
@@ -0,0 +1,220 @@
+package com.revolut.mtt.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.revolut.mtt.database.TransactionalExecutor;
+import com.revolut.mtt.model.Account;
+import com.revolut.mtt.model.ImportResult;
+import com.revolut.mtt.model.User;
+import com.revolut.mtt.repository.AccountRepository;
+import com.revolut.mtt.repository.UserRepository;
+import com.revolut.mtt.streaming.ImportLimiter;
+import com.revolut.mtt.streaming.NdjsonImportStream;
+import com.revolut.mtt.validation.ValidationError;
+import lombok.extern.slf4j.Slf4j;
+import org.jooby.MediaType;
+import org.jooby.Result;
+import org.jooby.Results;
+import org.jooby.Status;
+import org.jooby.mvc.Body;
+import org.jooby.mvc.POST;
+import org.jooby.mvc.Path;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.io.InputStream;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Entry point for bulk import of users and accounts.
+ * <p>
+ * Request body is newline delimited JSON with one user or account per line, the same as for single creation.
+ * Lines are validated and inserted by chunks of 'import.chunkSize' lines, each chunk is committed separately,
+ * so import never holds locks or memory for long. Response is newline delimited JSON with result of each line:
+ * id of created entity or validation errors. Results are written once their chunk is committed,
+ * so if import fails in the middle, lines with results are imported and the rest ones are not.
+ * Only 'import.maxConcurrent' imports run at once, others get 429 status.
+ */
+@Slf4j
+@Singleton
+public class ImportController {
+
+    private static final MediaType NDJSON = MediaType.valueOf("application/x-ndjson");
+
+    private final UserRepository userRepository;
+
+    private final AccountRepository accountRepository;
+
+    private final TransactionalExecutor transactionalExecutor;
+
+    private final ImportLimiter importLimiter;
+
+    private final ObjectMapper objectMapper;
+
+    private final int chunkSize;
+
+    @Inject
+    public ImportController(final UserRepository userRepository,
+                            final AccountRepository accountRepository,
+                            final TransactionalExecutor transactionalExecutor,
+                            final ImportLimiter importLimiter,
+                            final ObjectMapper objectMapper,
+                            final @Named("import.chunkSize") int chunkSize) {
+        this.userRepository = userRepository;
+        this.accountRepository = accountRepository;
+        this.transactionalExecutor = transactionalExecutor;
+        this.importLimiter = importLimiter;
+        this.objectMapper = objectMapper;
+        this.chunkSize = chunkSize;
+    }
+
+    @POST
+    @Path("/users/import")
+    public Result importUsers(final @Body InputStream body) throws Exception {
+        if (!importLimiter.tryAcquire()) {
+            body.close();
+            return tooManyImports();
+        }
+        log.info("Users import started");
+        return importStream(new NdjsonImportStream<>(body, User.class, objectMapper, chunkSize,
+                users -> {
+                    final List<ImportResult> results = importUsersChunk(users);
+                    transactionalExecutor.commit();
+                    return results;
+                },
+                importLimiter::release));
+    }
+
+    @POST
+    @Path("/accounts/import")
+    public Result importAccounts(final @Body InputStream body) throws Exception {
+        if (!importLimiter.tryAcquire()) {
+            body.close();
+            return tooManyImports();
+        }
+        log.info("Accounts import started");
+        return importStream(new NdjsonImportStream<>(body, Account.class, objectMapper, chunkSize,
+                accounts -> {
+                    final List<ImportResult> results = importAccountsChunk(accounts);
+                    transactionalExecutor.commit();
+                    return results;
+                },
+                importLimiter::release));
+    }
+
+    /**
+     * Validates users the same way as single creation does, but with one query per chunk.
+     * Users whose username is taken concurrently after the check are reported the same as taken before it.
+     */
+    private List<ImportResult> importUsersChunk(final List<User> users) throws SQLException {
+        final Set<String> takenUsernames = new HashSet<>(userRepository.fetchExistingUsernames(users.stream()
+                .filter(user -> user != null && user.getUsername() != null && !user.getUsername().isEmpty())
+                .map(User::getUsername)
+                .collect(Collectors.toList())));
+        final List<List<ValidationError>> errors = new ArrayList<>(users.size());
+        final List<User> validUsers = new ArrayList<>(users.size());
+        for (final User user : users) {
+            final List<ValidationError> userErrors = new ArrayList<>();
+            if (user == null) {
+                userErrors.add(ValidationError.builder()
+                        .message("User should not be null")
+                        .build());
+            } else if (user.getUsername() == null || user.getUsername().isEmpty()) {
+                userErrors.add(ValidationError.builder()
+                        .field("username")
+                        .message("Username should not be empty")
+                        .build());
+            } else if (!takenUsernames.add(user.getUsername())) {
+                // username is either in database or in one of previous lines
+                userErrors.add(ValidationError.builder()
+                        .field("username")
+                        .message("Username already exists")
+                        .build());
+            } else {
+                validUsers.add(user);
+            }
+            errors.add(userErrors);
+        }
+        // username may be taken by a concurrent request since it was checked
+        final Iterator<Optional<User>> createdUsers = userRepository.createUsersIfAbsent(validUsers).iterator();
+        final List<ImportResult> results = new ArrayList<>(users.size());
+        for (final List<ValidationError> userErrors : errors) {
+            final Optional<User> createdUser = userErrors.isEmpty() ? createdUsers.next() : Optional.empty();
+            if (userErrors.isEmpty() && !createdUser.isPresent()) {
+                userErrors.add(ValidationError.builder()
+                        .field("username")
+                        .message("Username already exists")
+                        .build());
+            }
+            results.add(ImportResult.builder()
+                    .id(createdUser.map(User::getId).orElse(null))
+                    .errors(userErrors)
+                    .build());
+        }
+        return results;
+    }
+
+    /**
+     * Validates accounts the same way as single creation does, but with one query per chunk.
+     * Balance should be positive, as required by database.
+     */
+    private List<ImportResult> importAccountsChunk(final List<Account> accounts) throws SQLException {
+        final Set<Long> existingUserIds = userRepository.fetchExistingUserIds(accounts.stream()
+                .filter(account -> account != null && account.getUserId() != null)
+                .map(Account::getUserId)
+                .collect(Collectors.toList()));
+        final List<List<ValidationError>> errors = new ArrayList<>(accounts.size());
+        final List<Account> validAccounts = new ArrayList<>(accounts.size());
+        for (final Account account : accounts) {
+            final List<ValidationError> accountErrors = new ArrayList<>();
+            if (account == null) {
+                accountErrors.add(ValidationError.builder()
+                        .message("Account should not be null")
+                        .build());
+            } else {
+                if (account.getUserId() == null) {
+                    accountErrors.add(ValidationError.builder()
+                            .field("userId")
+                            .message("User id should not be null")
+                            .build());
+                } else if (!existingUserIds.contains(account.getUserId())) {
+                    accountErrors.add(ValidationError.builder()
+                            .field("userId")
+                            .message("User should exist")
+                            .build());
+                }
+                if (account.getBalance() <= 0) {
+                    accountErrors.add(ValidationError.builder()
+                            .field("balance")
+                            .message("Balance should be positive")
+                            .build());
+                }
+                if (accountErrors.isEmpty()) {
+                    validAccounts.add(account);
+                }
+            }
+            errors.add(accountErrors);
+        }
+        final Iterator<Account> createdAccounts = accountRepository.createAccounts(validAccounts).iterator();
+        return errors.stream()
+                .map(accountErrors -> ImportResult.builder()
+                        .id(accountErrors.isEmpty() ? createdAccounts.next().getId() : null)
+                        .errors(accountErrors)
+                        .build())
+                .collect(Collectors.toList());
+    }
+
+    private static Result importStream(final InputStream results) {
+        return Results.ok(results)
+                .type(NDJSON);
+    }
+
+    private static Result tooManyImports() {
+        return Results.json(Collections.singletonList(ValidationError.builder()
+                .message("Too many imports are in progress. Try again later.")
+                .build()))
+                .status(Status.TOO_MANY_REQUESTS);
+    }
+}
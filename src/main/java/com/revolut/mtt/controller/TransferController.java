@@ -1,25 +1,42 @@
 package com.revolut.mtt.controller;
 
+import com.google.common.hash.Hashing;
+import com.revolut.mtt.database.TransactionalExecutor;
+import com.revolut.mtt.error.Rejections;
+import com.revolut.mtt.idempotency.IdempotencyKey;
+import com.revolut.mtt.idempotency.IdempotencyStore;
+import com.revolut.mtt.idempotency.IdempotentRequest;
+import com.revolut.mtt.metrics.Histogram;
+import com.revolut.mtt.metrics.HotAccounts;
+import com.revolut.mtt.metrics.Metrics;
 import com.revolut.mtt.model.Account;
 import com.revolut.mtt.model.Transfer;
+import com.revolut.mtt.model.TransferResult;
 import com.revolut.mtt.model.User;
+import com.revolut.mtt.model.VersionedAccount;
+import com.revolut.mtt.optimistic.OptimisticConcurrency;
 import com.revolut.mtt.repository.AccountRepository;
+import com.revolut.mtt.repository.TransferRepository;
 import com.revolut.mtt.repository.UserRepository;
+import com.revolut.mtt.sequencer.TransferSequencer;
+import com.revolut.mtt.validation.Validation;
 import com.revolut.mtt.validation.ValidationError;
-import com.revolut.mtt.validation.ValidationException;
 import lombok.extern.slf4j.Slf4j;
 import org.jooby.Result;
 import org.jooby.Results;
 import org.jooby.Status;
 import org.jooby.mvc.Body;
+import org.jooby.mvc.Header;
 import org.jooby.mvc.POST;
 import org.jooby.mvc.Path;
 
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Singleton;
-import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.Callable;
 
 /**
  * Entry point for transfer between account operations.
@@ -29,210 +46,670 @@ import java.util.*;
 @Path("/transfers")
 public class TransferController {
 
+    private static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+
+    private static final String IDEMPOTENT_REPLAYED = "Idempotent-Replayed";
+
+    private static final int IDEMPOTENCY_KEY_MAX_LENGTH = 255;
+
+    private static final Validation INVALID_IDEMPOTENCY_KEY = Validation.invalid(IDEMPOTENCY_KEY,
+            "Idempotency key length should be from 1 to " + IDEMPOTENCY_KEY_MAX_LENGTH);
+
+    private static final List<ValidationError> IDEMPOTENCY_KEY_NOT_COMPLETED =
+            Validation.invalid(IDEMPOTENCY_KEY, "Transfer with the same idempotency key is not completed. Try again.")
+                    .getErrors();
+
+    private static final List<ValidationError> IDEMPOTENCY_KEY_REUSED =
+            Validation.invalid(IDEMPOTENCY_KEY, "Idempotency key is already used by another transfer").getErrors();
+
+    private static final Validation NO_TRANSFERS = Validation.invalid(null, "Transfers should not be empty");
+
+    private static final Validation NO_TRANSFER = Validation.invalid(null, "Transfer should not be null");
+
+    private static final Validation AMOUNT_NOT_POSITIVE = Validation.invalid("amount", "Amount should be positive");
+
+    private static final Validation NO_END_USER_ID = Validation.invalid("endUserId", "End user id should not be null");
+
+    private static final Validation NO_SOURCE_ACCOUNT_ID =
+            Validation.invalid("sourceAccountId", "From account id should not be null");
+
+    private static final Validation NO_DESTINATION_ACCOUNT_ID =
+            Validation.invalid("destinationAccountId", "To account id should not be null");
+
+    private static final Validation SAME_ACCOUNT_IDS =
+            Validation.invalid("sourceAccountId", "Account ids should be different")
+                    .and(Validation.invalid("destinationAccountId", "Account ids should be different"));
+
+    private static final Validation END_USER_NOT_FOUND = Validation.invalid("endUserId", "End user should exist");
+
+    private static final Validation SOURCE_ACCOUNT_NOT_ACQUIRED =
+            Validation.invalid("sourceAccountId", "Account should cannot be acquired");
+
+    private static final Validation DESTINATION_ACCOUNT_NOT_ACQUIRED =
+            Validation.invalid("destinationAccountId", "Account should cannot be acquired");
+
+    private static final Validation NOT_ENOUGH_AMOUNT =
+            Validation.invalid("amount", "Account does not have enough amount");
+
+    private static final Validation DESTINATION_BALANCE_OVERFLOW =
+            Validation.invalid("amount", "Destination account balance would overflow");
+
+    private static final Validation NOT_END_USER_ACCOUNT =
+            Validation.invalid("sourceAccountId", "Account does not belong to user");
+
+    private static final Validation SOURCE_ACCOUNT_NOT_UPDATED =
+            Validation.invalid("sourceAccountId", "Account could not be updated. Try again.");
+
+    private static final Validation DESTINATION_ACCOUNT_NOT_UPDATED =
+            Validation.invalid("destinationAccountId", "Account could not be updated. Try again.");
+
+    private static final Validation ACCOUNTS_NOT_UPDATED =
+            Validation.invalid(null, "Accounts could not be updated. Try again.");
+
+    /**
+     * Optimistic attempt found accounts changed and should be retried in a new transaction.
+     */
+    private static final Validation ACCOUNTS_CHANGED =
+            Validation.invalid(null, "Accounts are changed concurrently.");
+
+    /**
+     * Result of transfer attempt which should be retried in a new transaction, never sent to client.
+     */
+    private static final Result RETRY = Results.with(Status.CONFLICT);
+
+    private static final Validation TOO_MANY_TRANSFERS =
+            Validation.invalid(null, "Too many transfers in progress. Try again.");
+
     private final AccountRepository accountRepository;
 
     private final UserRepository userRepository;
 
+    private final TransferRepository transferRepository;
+
+    private final IdempotencyStore idempotencyStore;
+
+    private final TransactionalExecutor transactionalExecutor;
+
+    private final TransferSequencer transferSequencer;
+
+    private final TransferMode transferMode;
+
+    private final Histogram lockWait;
+
+    private final Histogram batchLockWait;
+
+    private final HotAccounts hotAccounts;
+
+    private final Rejections rejections;
+
+    private final OptimisticConcurrency optimisticConcurrency;
+
+    private final int maxBatchSize;
+
+    private final Validation batchTooLarge;
+
     @Inject
     public TransferController(final AccountRepository accountRepository,
-                              final UserRepository userRepository) {
+                              final UserRepository userRepository,
+                              final TransferRepository transferRepository,
+                              final IdempotencyStore idempotencyStore,
+                              final TransactionalExecutor transactionalExecutor,
+                              final TransferSequencer transferSequencer,
+                              final Metrics metrics,
+                              final HotAccounts hotAccounts,
+                              final Rejections rejections,
+                              final OptimisticConcurrency optimisticConcurrency,
+                              final @Named("transfer.mode") String transferMode,
+                              final @Named("transfer.batch.maxSize") int maxBatchSize) {
         this.accountRepository = accountRepository;
         this.userRepository = userRepository;
+        this.transferRepository = transferRepository;
+        this.idempotencyStore = idempotencyStore;
+        this.transactionalExecutor = transactionalExecutor;
+        this.transferSequencer = transferSequencer;
+        this.transferMode = TransferMode.of(transferMode);
+        this.lockWait = metrics.histogram("mtt_account_lock_wait_seconds",
+                "Time to fetch and lock accounts of transfers.", "transfers", "single");
+        this.batchLockWait = metrics.histogram("mtt_account_lock_wait_seconds",
+                "Time to fetch and lock accounts of transfers.", "transfers", "batch");
+        this.hotAccounts = hotAccounts;
+        this.rejections = rejections;
+        this.optimisticConcurrency = optimisticConcurrency;
+        this.maxBatchSize = maxBatchSize;
+        this.batchTooLarge = Validation.invalid(null, "Transfers should not be more than " + maxBatchSize);
     }
 
     /**
      * Implementation is based on database locks. Both accounts are locked to update balance.
+     * In {@link TransferMode#CONDITIONAL} mode accounts are not locked beforehand,
+     * balances are changed with relative updates guarded by conditions instead.
+     * In {@link TransferMode#SEQUENCED} mode transfer is applied by single writer of source account partition,
+     * without row locks contention.
+     * In {@link TransferMode#OPTIMISTIC} mode accounts are read without locks and written only if their versions
+     * have not changed, conflicting transfers are retried from scratch in a new transaction after backoff,
+     * so they do not hold locks while waiting. In {@link TransferMode#ADAPTIVE} mode transfers switch
+     * between optimistic and locking ones by conflict rate.
      * Other options:
-     * 1. Use optimistic locking based on account version. Makes solution a bit complicated, and not really required in a real world.
-     * 2. Lock only source account. However, during update there is a risk of data integrity problems.
+     * 1. Lock only source account. However, during update there is a risk of data integrity problems.
+     * <p>
+     * If 'Idempotency-Key' header is present, transfer is made once per key. Retries of a completed transfer
+     * get the original response without touching accounts, retries of a transfer in flight wait for it to complete.
+     * Failed and rejected transfers do not keep the key, so they can be retried with the same key.
+     * <p>
+     * Invalid transfers are rejected with {@link Rejections} without exceptions, since clients may send lots of them,
+     * e.g. transfers with insufficient funds.
+     * <p>
+     * Transfer may wait on locks, so it's run with {@link TransactionalExecutor}.
+     * If group commit is enabled, transfer is committed together with concurrent ones.
      */
     @POST
-    public Result createTransfer(final @Body Transfer transfer) throws Exception {
-        final List<ValidationError> validationErrors = new ArrayList<>();
+    public Result createTransfer(final @Body Transfer transfer,
+                                 final @Header(IDEMPOTENCY_KEY) Optional<String> idempotencyKey) throws Exception {
+        return transactionalExecutor.execute(() -> {
+            for (int attempt = 1; ; attempt++) {
+                final Result result = createTransferOnce(transfer, idempotencyKey);
+                if (result != RETRY) {
+                    return result;
+                }
+                // rollback releases locks taken by the attempt and its idempotency key, next attempt takes them again
+                transactionalExecutor.rollback();
+                if (attempt >= optimisticConcurrency.getMaxAttempts()) {
+                    log.warn("Accounts {}, {} are changed concurrently, transfer is rejected after {} attempts",
+                            transfer.getSourceAccountId(), transfer.getDestinationAccountId(), attempt);
+                    return rejections.badRequest(ACCOUNTS_NOT_UPDATED);
+                }
+                optimisticConcurrency.backoff(attempt);
+            }
+        });
+    }
+
+    private Result createTransferOnce(final Transfer transfer,
+                                      final Optional<String> idempotencyKey) throws Exception {
+        if (!idempotencyKey.isPresent()) {
+            return applyTransferInGroup(() -> applyTransfer(transfer, null));
+        }
+        final String key = idempotencyKey.get();
+        if (key.isEmpty() || key.length() > IDEMPOTENCY_KEY_MAX_LENGTH) {
+            return rejections.badRequest(INVALID_IDEMPOTENCY_KEY);
+        }
+
+        final String payloadHash = payloadHash(transfer);
+        final Optional<IdempotentRequest> original = idempotencyStore.reserve(key, payloadHash);
+        if (original.isPresent()) {
+            if (!original.get().matches(payloadHash)) {
+                log.info("Idempotency key {} is reused by another transfer", key);
+                return Results.json(IDEMPOTENCY_KEY_REUSED).status(Status.UNPROCESSABLE_ENTITY);
+            }
+            log.info("Transfer with idempotency key {} is already made or in flight", key);
+            return idempotencyStore.await(original.get().getStatus())
+                    .map(status -> Results.with(Status.valueOf(status)).header(IDEMPOTENT_REPLAYED, true))
+                    .orElseGet(() -> Results.json(IDEMPOTENCY_KEY_NOT_COMPLETED).status(Status.CONFLICT));
+        }
+        final IdempotencyKey appliedKey = new IdempotencyKey(key, payloadHash, Status.OK.value());
+        return applyTransferInGroup(() -> {
+            final Result result = applyTransfer(transfer, appliedKey);
+            final Status status = result.status().orElse(Status.OK);
+            // rejected transfer is rolled back, so its key is released
+            if (status.isError()) {
+                return result;
+            }
+            if (transferMode == TransferMode.SEQUENCED) {
+                // key is saved by sequencer in the commit of the debit, which request transaction cannot undo
+                idempotencyStore.completeSaved(key, status.value());
+            } else {
+                idempotencyStore.complete(key, payloadHash, status.value());
+            }
+            return result;
+        });
+    }
+
+    /**
+     * @return hash of all the transfer fields, so retry of a transfer is told from another transfer with the same key.
+     */
+    private static String payloadHash(final Transfer transfer) {
+        return Hashing.sha256().hashString(transfer.getEndUserId() + ":" + transfer.getSourceAccountId() + ":"
+                + transfer.getDestinationAccountId() + ":" + transfer.getAmount(), StandardCharsets.UTF_8).toString();
+    }
+
+    /**
+     * Applies transfer within transaction shared with concurrent transfers, if group commit is enabled.
+     * Sequenced transfers are committed by {@link TransferSequencer} in groups already.
+     */
+    private Result applyTransferInGroup(final Callable<Result> work) throws Exception {
+        if (transferMode == TransferMode.SEQUENCED) {
+            return work.call();
+        }
+        return transactionalExecutor.executeInGroup(work);
+    }
 
+    /**
+     * @param idempotencyKey key to be saved by sequencer with applied transfer, null if transfer has no key.
+     * @return {@link #RETRY} if optimistic attempt found accounts changed.
+     */
+    private Result applyTransfer(final Transfer transfer, final IdempotencyKey idempotencyKey) throws Exception {
         // simple validation before actual calls to repositories
-        //noinspection CollectionAddAllCanBeReplacedWithConstructor
-        validationErrors.addAll(validateTransferData(transfer));
-        if (!validationErrors.isEmpty()) {
-            throw new ValidationException(validationErrors);
+        final Validation transferValidation = validateTransferData(transfer);
+        if (!transferValidation.isValid()) {
+            return rejections.badRequest(transferValidation);
         }
 
         // check user and toAccount first, so locks can be avoided if not required
         final User endUser = userRepository.fetchUser(transfer.getEndUserId())
                 .orElse(null);
-        validationErrors.addAll(validateEndUserExists(endUser));
-        if (!validationErrors.isEmpty()) {
-            throw new ValidationException(validationErrors);
+        final Validation endUserValidation = validateEndUserExists(endUser);
+        if (!endUserValidation.isValid()) {
+            return rejections.badRequest(endUserValidation);
+        }
+
+        if (transferMode == TransferMode.SEQUENCED) {
+            final TransferSequencer.Outcome outcome = transferSequencer.submit(transfer, idempotencyKey).get();
+            final Validation sequencedValidation = validateSequencedOutcome(transfer, outcome);
+            if (!sequencedValidation.isValid()) {
+                return rejections.badRequest(sequencedValidation);
+            }
+            if (outcome == TransferSequencer.Outcome.CREDIT_PENDING) {
+                // debit is committed, credit is retried by sequencer until applied
+                log.warn("Transfer from {} to {} is debited by sequencer, its credit is pending",
+                        transfer.getSourceAccountId(), transfer.getDestinationAccountId());
+                return Results.with(Status.ACCEPTED);
+            }
+            log.info("Transfer from {} to {} is applied by sequencer",
+                    transfer.getSourceAccountId(), transfer.getDestinationAccountId());
+            return Results.with(Status.OK);
+        }
+
+        if (transferMode == TransferMode.CONDITIONAL) {
+            final Validation conditionalValidation = makeConditionalTransfer(transfer);
+            if (!conditionalValidation.isValid()) {
+                return rejections.badRequest(conditionalValidation);
+            }
+            transferRepository.saveTransfer(transfer);
+            log.info("New balances for accounts {}, {} are applied",
+                    transfer.getSourceAccountId(), transfer.getDestinationAccountId());
+            return Results.with(Status.OK);
+        }
+
+        final Validation updateValidation = isOptimistic()
+                ? makeOptimisticTransfer(transfer)
+                : makeLockingTransfer(transfer);
+        if (updateValidation == ACCOUNTS_CHANGED) {
+            return RETRY;
+        }
+        if (!updateValidation.isValid()) {
+            return rejections.badRequest(updateValidation);
+        }
+        transferRepository.saveTransfer(transfer);
+        log.info("New balances for accounts {}, {} are applied",
+                transfer.getSourceAccountId(), transfer.getDestinationAccountId());
+
+        return Results.with(Status.OK);
+    }
+
+    /**
+     * Applies several transfers at once. All involved accounts are locked with a single call in ascending id order,
+     * and new balances are written with a single batch.
+     * Each transfer is validated separately against balances left by previous transfers of the batch.
+     * Invalid transfers are skipped and reported in corresponding results, other transfers are applied.
+     * Batch is rejected as a whole if it has more than 'transfer.batch.maxSize' transfers,
+     * so a single request cannot lock an unbounded number of accounts.
+     */
+    @POST
+    @Path("/batch")
+    public Result createTransfers(final @Body List<Transfer> transfers) throws Exception {
+        return transactionalExecutor.execute(() -> applyTransfers(transfers));
+    }
+
+    private Result applyTransfers(final List<Transfer> transfers) throws Exception {
+        if (transfers == null || transfers.isEmpty()) {
+            return rejections.badRequest(NO_TRANSFERS);
+        }
+        if (transfers.size() > maxBatchSize) {
+            return rejections.badRequest(batchTooLarge);
+        }
+
+        // simple validation before actual calls to repositories
+        final Validation[] validations = new Validation[transfers.size()];
+        final Map<Long, User> endUsers = new HashMap<>();
+        final Set<Long> accountIds = new HashSet<>();
+        for (int i = 0; i < transfers.size(); i++) {
+            final Transfer transfer = transfers.get(i);
+            Validation validation = validateTransferData(transfer);
+            if (validation.isValid()) {
+                final Long endUserId = transfer.getEndUserId();
+                if (!endUsers.containsKey(endUserId)) {
+                    endUsers.put(endUserId, userRepository.fetchUser(endUserId).orElse(null));
+                }
+                validation = validateEndUserExists(endUsers.get(endUserId));
+            }
+            if (validation.isValid()) {
+                accountIds.add(transfer.getSourceAccountId());
+                accountIds.add(transfer.getDestinationAccountId());
+            }
+            validations[i] = validation;
+        }
+
+        log.info("Acquire account locks for {} accounts", accountIds.size());
+        final long lockStartNanos = System.nanoTime();
+        final Map<Long, Account> accounts;
+        try {
+            // each account is charged only its own lock wait
+            accounts = accountRepository.fetchAccountsWithLocks(accountIds, hotAccounts::record);
+        } finally {
+            // wait is recorded on lock timeouts too
+            batchLockWait.record(System.nanoTime() - lockStartNanos);
+        }
+        log.info("Account locks for {} accounts are successfully acquired", accounts.size());
+
+        // validate and apply transfers one by one against current balances
+        final Map<Long, Long> newBalances = new HashMap<>();
+        final List<Transfer> appliedTransfers = new ArrayList<>(transfers.size());
+        final List<TransferResult> results = new ArrayList<>(transfers.size());
+        for (int i = 0; i < transfers.size(); i++) {
+            final Transfer transfer = transfers.get(i);
+            Validation validation = validations[i];
+            if (validation.isValid()) {
+                final Account sourceAccount = accounts.get(transfer.getSourceAccountId());
+                final Account destinationAccount = accounts.get(transfer.getDestinationAccountId());
+                validation = validateAccounts(sourceAccount, destinationAccount, transfer);
+                if (validation.isValid()) {
+                    final Account newSourceAccount = sourceAccount.toBuilder()
+                            .balance(sourceAccount.getBalance() - transfer.getAmount())
+                            .build();
+                    final Account newDestinationAccount = destinationAccount.toBuilder()
+                            .balance(destinationAccount.getBalance() + transfer.getAmount())
+                            .build();
+                    accounts.put(newSourceAccount.getId(), newSourceAccount);
+                    accounts.put(newDestinationAccount.getId(), newDestinationAccount);
+                    newBalances.put(newSourceAccount.getId(), newSourceAccount.getBalance());
+                    newBalances.put(newDestinationAccount.getId(), newDestinationAccount.getBalance());
+                    appliedTransfers.add(transfer);
+                }
+            }
+            results.add(TransferResult.builder()
+                    .index(i)
+                    .applied(validation.isValid())
+                    .errors(validation.getErrors())
+                    .build());
         }
 
+        // make actual transfers
+        if (!newBalances.isEmpty() && !accountRepository.applyBalances(newBalances)) {
+            return rejections.badRequest(ACCOUNTS_NOT_UPDATED);
+        }
+        transferRepository.saveTransfers(appliedTransfers);
+        log.info("New balances for {} accounts are applied", newBalances.size());
+
+        return Results.ok(results);
+    }
+
+    private boolean isOptimistic() {
+        return transferMode == TransferMode.OPTIMISTIC
+                || transferMode == TransferMode.ADAPTIVE && optimisticConcurrency.isOptimistic();
+    }
+
+    private Validation makeLockingTransfer(final Transfer transfer) throws SQLException {
         log.info("Acquire account locks for accounts {}, {}", transfer.getSourceAccountId(), transfer.getDestinationAccountId());
         final Account[] accounts = fetchAccountsWithLocks(transfer);
         final Account sourceAccount = accounts[0];
         final Account destinationAccount = accounts[1];
-        validationErrors.addAll(validateAccountAcquired(sourceAccount, "sourceAccountId"));
-        validationErrors.addAll(validateAccountAcquired(destinationAccount, "destinationAccountId"));
-        validationErrors.addAll(validateSourceHasEnoughAmount(sourceAccount, transfer.getAmount()));
-        validationErrors.addAll(validateAccountBelongsToUser(sourceAccount, transfer.getEndUserId()));
-
-        if (!validationErrors.isEmpty()) {
-            throw new ValidationException(validationErrors);
+        final Validation accountsValidation = validateAccounts(sourceAccount, destinationAccount, transfer);
+        if (!accountsValidation.isValid()) {
+            return accountsValidation;
         }
         log.info("Account locks for accounts {}, {} are successfully acquired",
                 transfer.getSourceAccountId(), transfer.getDestinationAccountId());
 
         // make actual transfer
-        validationErrors.addAll(makeTransfer(sourceAccount, destinationAccount, transfer.getAmount()));
-        if (!validationErrors.isEmpty()) {
-            throw new ValidationException(validationErrors);
+        return makeTransfer(sourceAccount, destinationAccount, transfer.getAmount());
+    }
+
+    /**
+     * Reads accounts without locks and writes new balances only if account versions have not changed since.
+     * Otherwise attempt is retried by {@link #createTransfer} with fresh balances, up to max attempts.
+     * Split accounts are credited to slots, which do not change account version, so such transfers are locking.
+     *
+     * @return {@link #ACCOUNTS_CHANGED} if accounts are changed, transaction is rolled back only then.
+     */
+    private Validation makeOptimisticTransfer(final Transfer transfer) throws SQLException {
+        final VersionedAccount source = accountRepository.fetchVersionedAccount(transfer.getSourceAccountId())
+                .orElse(null);
+        final VersionedAccount destination = accountRepository.fetchVersionedAccount(transfer.getDestinationAccountId())
+                .orElse(null);
+        if (source != null && source.getSlots() > 0 || destination != null && destination.getSlots() > 0) {
+            return makeLockingTransfer(transfer);
+        }
+        final Account sourceAccount = source == null ? null : source.getAccount();
+        final Account destinationAccount = destination == null ? null : destination.getAccount();
+        final Validation accountsValidation = validateAccounts(sourceAccount, destinationAccount, transfer);
+        if (!accountsValidation.isValid()) {
+            return accountsValidation;
         }
-        log.info("New balances for accounts {}, {} are applied",
-                transfer.getSourceAccountId(), transfer.getDestinationAccountId());
 
-        return Results.with(Status.OK);
+        final Map<Long, Long> newBalances = new HashMap<>(4);
+        newBalances.put(sourceAccount.getId(), sourceAccount.getBalance() - transfer.getAmount());
+        newBalances.put(destinationAccount.getId(), destinationAccount.getBalance() + transfer.getAmount());
+        final boolean updated = accountRepository.compareAndSetBalances(Arrays.asList(source, destination),
+                newBalances);
+        optimisticConcurrency.record(!updated);
+        return updated ? Validation.valid() : ACCOUNTS_CHANGED;
     }
 
+    /**
+     * Destination account is not locked if it's split, it's credited to one of its slots instead.
+     */
     private Account[] fetchAccountsWithLocks(final Transfer transfer) throws SQLException {
-        // to prevent deadlocks, always fetch account with lower id first
+        // to prevent deadlocks, always fetch account which comes first in lock order
+        final long startNanos = System.nanoTime();
         final Account sourceAccount;
         final Account destinationAccount;
-        if (transfer.getSourceAccountId() < transfer.getDestinationAccountId()) {
-            sourceAccount = accountRepository.fetchAccount(transfer.getSourceAccountId(), true)
-                    .orElse(null);
-            destinationAccount = accountRepository.fetchAccount(transfer.getDestinationAccountId(), true)
-                    .orElse(null);
-        } else {
-            destinationAccount = accountRepository.fetchAccount(transfer.getDestinationAccountId(), true)
-                    .orElse(null);
-            sourceAccount = accountRepository.fetchAccount(transfer.getSourceAccountId(), true)
-                    .orElse(null);
+        try {
+            if (sourceFirst(transfer)) {
+                sourceAccount = fetchSourceAccountWithLock(transfer);
+                destinationAccount = fetchDestinationAccountWithLock(transfer);
+            } else {
+                destinationAccount = fetchDestinationAccountWithLock(transfer);
+                sourceAccount = fetchSourceAccountWithLock(transfer);
+            }
+        } finally {
+            lockWait.record(System.nanoTime() - startNanos);
         }
         return new Account[] {sourceAccount, destinationAccount};
     }
 
-    private List<ValidationError> makeTransfer(final Account sourceAccount,
-                                               final Account destinationAccount,
-                                               final BigDecimal amount) throws SQLException {
-        final List<ValidationError> errors = new ArrayList<>();
+    /**
+     * Each account is charged only its own lock wait, which is recorded on lock timeouts too,
+     * since they are what hot accounts cause.
+     */
+    private Account fetchSourceAccountWithLock(final Transfer transfer) throws SQLException {
+        final long startNanos = System.nanoTime();
+        try {
+            return accountRepository.fetchAccount(transfer.getSourceAccountId(), true).orElse(null);
+        } finally {
+            hotAccounts.record(transfer.getSourceAccountId(), System.nanoTime() - startNanos);
+        }
+    }
+
+    private Account fetchDestinationAccountWithLock(final Transfer transfer) throws SQLException {
+        final long startNanos = System.nanoTime();
+        try {
+            return accountRepository.fetchAccountForCredit(transfer.getDestinationAccountId()).orElse(null);
+        } finally {
+            hotAccounts.record(transfer.getDestinationAccountId(), System.nanoTime() - startNanos);
+        }
+    }
+
+    private Validation makeTransfer(final Account sourceAccount,
+                                    final Account destinationAccount,
+                                    final long amount) throws SQLException {
         Objects.requireNonNull(sourceAccount);
         Objects.requireNonNull(destinationAccount);
         final boolean sourceUpdated = accountRepository.applyBalance(sourceAccount.getId(),
-                sourceAccount.getBalance().add(amount.negate()));
-        //noinspection CollectionAddAllCanBeReplacedWithConstructor
-        errors.addAll(validateAccountUpdated(sourceUpdated, "sourceAccountId"));
-        final boolean destinationUpdated = accountRepository.applyBalance(destinationAccount.getId(),
-                destinationAccount.getBalance().add(amount));
-        errors.addAll(validateAccountUpdated(destinationUpdated, "destinationAccountId"));
-        return errors;
+                sourceAccount.getBalance() - amount);
+        // relative update, since balance of split account is not read
+        final boolean destinationUpdated = accountRepository.deposit(destinationAccount.getId(), amount);
+        return validateAccountUpdated(sourceUpdated, SOURCE_ACCOUNT_NOT_UPDATED)
+                .and(validateAccountUpdated(destinationUpdated, DESTINATION_ACCOUNT_NOT_UPDATED));
     }
 
-    private List<ValidationError> validateTransferData(final Transfer transfer) {
-        final List<ValidationError> validationErrors = new ArrayList<>();
+    /**
+     * Changes balances with relative updates guarded by conditions, so accounts are not read beforehand.
+     * Updates are made in lock order of accounts to prevent deadlocks.
+     * Errors are derived from updated rows count. Source account is read only if it could not be updated,
+     * to explain the reason.
+     */
+    private Validation makeConditionalTransfer(final Transfer transfer) throws SQLException {
+        final boolean sourceFirst = sourceFirst(transfer);
+        boolean sourceUpdated = false;
+        boolean destinationUpdated = false;
+        if (sourceFirst) {
+            sourceUpdated = withdraw(transfer);
+            if (sourceUpdated) {
+                destinationUpdated = deposit(transfer);
+            }
+        } else {
+            destinationUpdated = deposit(transfer);
+            if (destinationUpdated) {
+                sourceUpdated = withdraw(transfer);
+            }
+        }
+
+        Validation validation = Validation.valid();
+        if (!destinationUpdated && (!sourceFirst || sourceUpdated)) {
+            validation = DESTINATION_ACCOUNT_NOT_ACQUIRED;
+        }
+        if (!sourceUpdated && (sourceFirst || destinationUpdated)) {
+            validation = validation.and(explainSourceNotUpdated(transfer));
+        }
+        return validation;
+    }
+
+    /**
+     * Converts outcome of transfer queued to {@link TransferSequencer}, debited transfer is valid.
+     * Source account is read only if it could not be updated, to explain the reason.
+     */
+    private Validation validateSequencedOutcome(final Transfer transfer,
+                                                final TransferSequencer.Outcome outcome) throws SQLException {
+        if (outcome == TransferSequencer.Outcome.APPLIED || outcome == TransferSequencer.Outcome.CREDIT_PENDING) {
+            return Validation.valid();
+        }
+        if (outcome == TransferSequencer.Outcome.DESTINATION_NOT_FOUND) {
+            return DESTINATION_ACCOUNT_NOT_ACQUIRED;
+        }
+        if (outcome == TransferSequencer.Outcome.REJECTED) {
+            return TOO_MANY_TRANSFERS;
+        }
+        return explainSourceNotUpdated(transfer);
+    }
+
+    private Validation explainSourceNotUpdated(final Transfer transfer) throws SQLException {
+        final Account sourceAccount = accountRepository.fetchAccount(transfer.getSourceAccountId())
+                .orElse(null);
+        final Validation validation = validateAccountAcquired(sourceAccount, SOURCE_ACCOUNT_NOT_ACQUIRED)
+                .and(validateSourceHasEnoughAmount(sourceAccount, transfer.getAmount()))
+                .and(validateAccountBelongsToUser(sourceAccount, transfer.getEndUserId()));
+        // otherwise account has been changed concurrently
+        return validation.isValid() ? SOURCE_ACCOUNT_NOT_UPDATED : validation;
+    }
+
+    private boolean sourceFirst(final Transfer transfer) {
+        return accountRepository.lockOrder()
+                .compare(transfer.getSourceAccountId(), transfer.getDestinationAccountId()) < 0;
+    }
+
+    private boolean withdraw(final Transfer transfer) throws SQLException {
+        return accountRepository.withdraw(transfer.getSourceAccountId(), transfer.getEndUserId(), transfer.getAmount());
+    }
+
+    private boolean deposit(final Transfer transfer) throws SQLException {
+        return accountRepository.deposit(transfer.getDestinationAccountId(), transfer.getAmount());
+    }
+
+    private Validation validateTransferData(final Transfer transfer) {
         if (transfer == null) {
-            validationErrors.add(ValidationError.builder()
-                    .message("Transfer should not be null")
-                    .build());
-            return validationErrors;
+            return NO_TRANSFER;
         }
+        Validation validation = Validation.valid();
 
         // validate amount is positive
-        if (transfer.getAmount() == null || transfer.getAmount().compareTo(BigDecimal.ZERO) <= 0) {
-            validationErrors.add(ValidationError.builder()
-                    .field("amount")
-                    .message("Amount should be positive")
-                    .build());
+        if (transfer.getAmount() <= 0) {
+            validation = AMOUNT_NOT_POSITIVE;
         }
 
         // validate user
         if (transfer.getEndUserId() == null) {
-            validationErrors.add(ValidationError.builder()
-                    .field("endUserId")
-                    .message("End user id should not be null")
-                    .build());
+            validation = validation.and(NO_END_USER_ID);
         }
 
         // validate both accounts
         if (transfer.getSourceAccountId() == null) {
-            validationErrors.add(ValidationError.builder()
-                    .field("sourceAccountId")
-                    .message("From account id should not be null")
-                    .build());
+            validation = validation.and(NO_SOURCE_ACCOUNT_ID);
         }
         if (transfer.getDestinationAccountId() == null) {
-            validationErrors.add(ValidationError.builder()
-                    .field("destinationAccountId")
-                    .message("To account id should not be null")
-                    .build());
+            validation = validation.and(NO_DESTINATION_ACCOUNT_ID);
         }
 
         // validate not same account
         if (transfer.getSourceAccountId() != null &&
                 transfer.getDestinationAccountId() != null &&
                 transfer.getSourceAccountId().equals(transfer.getDestinationAccountId())) {
-            validationErrors.add(ValidationError.builder()
-                    .field("sourceAccountId")
-                    .message("Account ids should be different")
-                    .build());
-            validationErrors.add(ValidationError.builder()
-                    .field("destinationAccountId")
-                    .message("Account ids should be different")
-                    .build());
+            validation = validation.and(SAME_ACCOUNT_IDS);
         }
 
-        return validationErrors;
+        return validation;
     }
 
-    private List<ValidationError> validateEndUserExists(final User endUser) {
-        if (endUser == null) {
-            return Collections.singletonList(ValidationError.builder()
-                    .field("endUserId")
-                    .message("End user should exist")
-                    .build());
-        }
-        return Collections.emptyList();
+    private Validation validateEndUserExists(final User endUser) {
+        return endUser == null ? END_USER_NOT_FOUND : Validation.valid();
     }
 
-    private List<ValidationError> validateAccountAcquired(final Account account,
-                                                          final String field) {
-        if (account == null) {
-            return Collections.singletonList(ValidationError.builder()
-                    .field(field)
-                    .message("Account should cannot be acquired")
-                    .build());
+    /**
+     * Validates locked accounts of transfer against their current balances.
+     */
+    private Validation validateAccounts(final Account sourceAccount,
+                                        final Account destinationAccount,
+                                        final Transfer transfer) {
+        return validateAccountAcquired(sourceAccount, SOURCE_ACCOUNT_NOT_ACQUIRED)
+                .and(validateAccountAcquired(destinationAccount, DESTINATION_ACCOUNT_NOT_ACQUIRED))
+                .and(validateSourceHasEnoughAmount(sourceAccount, transfer.getAmount()))
+                .and(validateDestinationCanReceive(destinationAccount, transfer.getAmount()))
+                .and(validateAccountBelongsToUser(sourceAccount, transfer.getEndUserId()));
+    }
+
+    private Validation validateAccountAcquired(final Account account,
+                                               final Validation notAcquired) {
+        return account == null ? notAcquired : Validation.valid();
+    }
+
+    private Validation validateSourceHasEnoughAmount(final Account account,
+                                                     final long transferAmount) {
+        if (account != null && account.getBalance() < transferAmount) {
+            return NOT_ENOUGH_AMOUNT;
         }
-        return Collections.emptyList();
+        return Validation.valid();
     }
 
-    private List<ValidationError> validateSourceHasEnoughAmount(final Account account,
-                                                                final BigDecimal transferAmount) {
-        if (account != null && account.getBalance().compareTo(transferAmount) < 0) {
-            return Collections.singletonList(ValidationError.builder()
-                    .field("amount")
-                    .message("Account does not have enough amount")
-                    .build());
+    /**
+     * Balances are minor units in 'long', so credit should not overflow it.
+     */
+    private Validation validateDestinationCanReceive(final Account account,
+                                                     final long transferAmount) {
+        if (account != null && account.getBalance() > Long.MAX_VALUE - transferAmount) {
+            return DESTINATION_BALANCE_OVERFLOW;
         }
-        return Collections.emptyList();
+        return Validation.valid();
     }
 
-    private List<ValidationError> validateAccountBelongsToUser(final Account account,
-                                                               final Long endUserId) {
+    private Validation validateAccountBelongsToUser(final Account account,
+                                                    final Long endUserId) {
         if (account != null && endUserId != null
                 && !endUserId.equals(account.getUserId())) {
-            return Collections.singletonList(ValidationError.builder()
-                    .field("sourceAccountId")
-                    .message("Account does not belong to user")
-                    .build());
+            return NOT_END_USER_ACCOUNT;
         }
-        return Collections.emptyList();
+        return Validation.valid();
     }
 
-    private List<ValidationError> validateAccountUpdated(final boolean accountUpdated,
-                                                         final String field) {
-        if (!accountUpdated) {
-            return Collections.singletonList(ValidationError.builder()
-                    .field(field)
-                    .message("Account could not be updated. Try again.")
-                    .build());
-        }
-        return Collections.emptyList();
+    private Validation validateAccountUpdated(final boolean accountUpdated,
+                                              final Validation notUpdated) {
+        return accountUpdated ? Validation.valid() : notUpdated;
     }
 }
@@ -0,0 +1,37 @@
+package com.revolut.mtt.controller;
+
+/**
+ * Ways of making a transfer, selected by 'transfer.mode' property.
+ */
+public enum TransferMode {
+
+    /**
+     * Both accounts are locked and read, then new balances are written.
+     */
+    LOCKING,
+
+    /**
+     * Balances are changed with relative updates guarded by conditions, accounts are not read beforehand.
+     */
+    CONDITIONAL,
+
+    /**
+     * Transfers are queued to single writer partitions by account, see {@link com.revolut.mtt.sequencer.TransferSequencer}.
+     */
+    SEQUENCED,
+
+    /**
+     * Accounts are read without locks and new balances are written only if accounts have not changed since,
+     * otherwise transfer is retried, see {@link com.revolut.mtt.optimistic.OptimisticConcurrency}.
+     */
+    OPTIMISTIC,
+
+    /**
+     * Transfers are optimistic while conflict rate is low and locking while it's high.
+     */
+    ADAPTIVE;
+
+    public static TransferMode of(final String mode) {
+        return valueOf(mode.trim().toUpperCase());
+    }
+}
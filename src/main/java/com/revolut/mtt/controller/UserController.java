@@ -1,9 +1,9 @@
 package com.revolut.mtt.controller;
 
+import com.revolut.mtt.error.Rejections;
 import com.revolut.mtt.model.User;
 import com.revolut.mtt.repository.UserRepository;
-import com.revolut.mtt.validation.ValidationError;
-import com.revolut.mtt.validation.ValidationException;
+import com.revolut.mtt.validation.Validation;
 import org.jooby.MediaType;
 import org.jooby.Result;
 import org.jooby.Results;
@@ -16,8 +16,6 @@ import org.jooby.mvc.Path;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * Entry point for user operations.
@@ -26,11 +24,21 @@ import java.util.List;
 @Path("/users")
 public class UserController {
 
+    private static final Validation NO_USER = Validation.invalid(null, "User should not be null");
+
+    private static final Validation NO_USERNAME = Validation.invalid("username", "Username should not be empty");
+
+    private static final Validation USERNAME_TAKEN = Validation.invalid("username", "Username already exists");
+
     private final UserRepository userRepository;
 
+    private final Rejections rejections;
+
     @Inject
-    public UserController(final UserRepository userRepository) {
+    public UserController(final UserRepository userRepository,
+                          final Rejections rejections) {
         this.userRepository = userRepository;
+        this.rejections = rejections;
     }
 
     @GET
@@ -43,39 +51,28 @@ public class UserController {
 
     @POST
     public Result createUser(final @Body User user) throws Exception {
-        final List<ValidationError> validationErrors = validateNewUser(user);
-        if (!validationErrors.isEmpty()) {
-            throw new ValidationException(validationErrors);
+        final Validation validation = validateNewUser(user);
+        if (!validation.isValid()) {
+            return rejections.badRequest(validation);
         }
         final User createdUser = userRepository.createUser(user);
         return Results.with(createdUser, Status.CREATED)
                 .type(MediaType.json);
     }
 
-    private List<ValidationError> validateNewUser(final User user) throws SQLException {
-        final List<ValidationError> errors = new ArrayList<>();
+    private Validation validateNewUser(final User user) throws SQLException {
         if (user == null) {
-            errors.add(ValidationError.builder()
-                    .message("User should not be null")
-                    .build());
-            return errors;
+            return NO_USER;
         }
 
         if (user.getUsername() == null || user.getUsername().isEmpty()) {
-            errors.add(ValidationError.builder()
-                    .field("username")
-                    .message("Username should not be empty")
-                    .build());
-            return errors;
+            return NO_USERNAME;
         }
 
         if (userRepository.fetchUserByUsername(user.getUsername()).isPresent()) {
-            errors.add(ValidationError.builder()
-                    .field("username")
-                    .message("Username already exists")
-                    .build());
+            return USERNAME_TAKEN;
         }
 
-        return errors;
+        return Validation.valid();
     }
 }
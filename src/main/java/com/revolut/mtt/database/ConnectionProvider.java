@@ -1,7 +1,9 @@
 package com.revolut.mtt.database;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.function.Consumer;
 
 /**
  * Interface for fetching connection to database.
@@ -9,4 +11,50 @@ import java.sql.SQLException;
 public interface ConnectionProvider {
 
     Connection currentConnection() throws SQLException;
+
+    /**
+     * Prepares statement on current connection. Implementations may return cached statements,
+     * so a statement should be closed right after usage and never kept.
+     */
+    default PreparedStatement prepareStatement(final String sql) throws SQLException {
+        return currentConnection().prepareStatement(sql);
+    }
+
+    /**
+     * Same as {@link #prepareStatement(String)}, but allows to fetch generated keys.
+     */
+    default PreparedStatement prepareStatement(final String sql, final int autoGeneratedKeys) throws SQLException {
+        return currentConnection().prepareStatement(sql, autoGeneratedKeys);
+    }
+
+    /**
+     * Runs action once current transaction is successfully completed, e.g. to publish changes to caches.
+     * Without transaction action is run immediately.
+     */
+    default void afterCommit(final Runnable action) {
+        action.run();
+    }
+
+    /**
+     * Runs action once current transaction is rolled back or fails to commit, e.g. to release reserved resources.
+     * Without transaction action is never run.
+     */
+    default void afterRollback(final Runnable action) {
+    }
+
+    /**
+     * Runs action once current transaction is committed or rolled back, with true if it's committed,
+     * e.g. to complete resources which follow database transaction or to reset session settings
+     * before connection is returned to pool. Without transaction action is never run,
+     * so caller completes such resources by itself.
+     */
+    default void afterCompletion(final Consumer<Boolean> action) {
+    }
+
+    /**
+     * Marks current transaction to be rolled back once completed, so request may be rejected without exception
+     * after it has changed something. Without transaction does nothing.
+     */
+    default void setRollbackOnly() {
+    }
 }
@@ -0,0 +1,26 @@
+package com.revolut.mtt.database;
+
+import org.h2.api.ErrorCode;
+
+import java.sql.SQLException;
+
+/**
+ * Recognizes database failures which are handled apart from other errors.
+ */
+public final class DatabaseErrors {
+
+    private DatabaseErrors() {
+    }
+
+    /**
+     * @return whether exception or any of its causes is database lock timeout.
+     */
+    public static boolean isLockTimeout(final Throwable exception) {
+        for (Throwable e = exception; e != null; e = e.getCause()) {
+            if (e instanceof SQLException && ((SQLException) e).getErrorCode() == ErrorCode.LOCK_TIMEOUT_1) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
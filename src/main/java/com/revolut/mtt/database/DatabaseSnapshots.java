@@ -0,0 +1,401 @@
+package com.revolut.mtt.database;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Periodically writes users and accounts to binary snapshot files and restores the latest one on start.
+ * Snapshot is read with a single statement, which sees consistent MVCC view of database without blocking transfers.
+ * Memory ledger engine flushes balances outside of transfers, so its snapshot may capture half of a transfer,
+ * which is completed by replay of its write-ahead journal truncated only after snapshot, see {@link Participant}.
+ * Account balance is written as the effective one of any ledger engine: slots and ledger entries are summed up,
+ * so restored account keeps whole balance in account record.
+ * File layout: magic, version, creation time, user records (id, username), 0, account records
+ * (id, user id, balance, slots), 0, last user id, last account id and CRC32 of preceding bytes.
+ * Ids are never 0, so 0 terminates records.
+ */
+@Slf4j
+public class DatabaseSnapshots {
+
+    private static final int MAGIC = 0x4D54_5453;
+
+    private static final int VERSION = 1;
+
+    private static final String SUFFIX = ".snapshot";
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    /**
+     * Last user id, last account id and checksum.
+     */
+    private static final int TRAILER_SIZE = Long.BYTES * 2 + Integer.BYTES;
+
+    /**
+     * Maximum number of records restored with a single batch.
+     */
+    private static final int BATCH_SIZE = 10_000;
+
+    private final Path dir;
+
+    private final long intervalMillis;
+
+    private final int keep;
+
+    private DataSource dataSource;
+
+    private ScheduledExecutorService executor;
+
+    /**
+     * Creation time of the last snapshot, names of snapshots taken within the same millisecond still differ.
+     */
+    private long lastCreatedAt;
+
+    private volatile Participant participant;
+
+    public DatabaseSnapshots(final Path dir, final long intervalMillis, final int keep) {
+        if (keep < 1) {
+            throw new IllegalArgumentException("At least one snapshot should be kept: " + keep);
+        }
+        this.dir = dir;
+        this.intervalMillis = intervalMillis;
+        this.keep = keep;
+    }
+
+    /**
+     * Sets state kept outside database which every snapshot captures.
+     */
+    public void setParticipant(final Participant participant) {
+        this.participant = participant;
+    }
+
+    /**
+     * Restores the latest valid snapshot if database has no users yet and starts background snapshots.
+     */
+    public void start(final DataSource dataSource) throws SQLException, IOException {
+        this.dataSource = dataSource;
+        Files.createDirectories(dir);
+        // left by interrupted writes
+        for (final Path tmp : list(TMP_SUFFIX)) {
+            Files.delete(tmp);
+        }
+        restoreLatest();
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "database-snapshots");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::writeQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops background snapshots and writes the last one.
+     */
+    public void stop() throws InterruptedException {
+        if (executor != null) {
+            executor.shutdown();
+            executor.awaitTermination(intervalMillis * 10, TimeUnit.MILLISECONDS);
+        }
+        writeQuietly();
+    }
+
+    /**
+     * Writes new snapshot and deletes the oldest ones exceeding 'keep'.
+     *
+     * @return snapshot file.
+     */
+    public synchronized Path write() throws SQLException, IOException {
+        final Participant participant = this.participant;
+        final long token = participant == null ? 0 : participant.prepare();
+        final long createdAt = Math.max(System.currentTimeMillis(), lastCreatedAt + 1);
+        lastCreatedAt = createdAt;
+        final Path file = dir.resolve(String.format("%020d%s", createdAt, SUFFIX));
+        final Path tmp = dir.resolve(file.getFileName() + TMP_SUFFIX);
+        final long startNanos = System.nanoTime();
+        final long[] counts;
+        try (final Connection connection = dataSource.getConnection();
+             final FileOutputStream fileOutput = new FileOutputStream(tmp.toFile())) {
+            final CheckedOutputStream checked =
+                    new CheckedOutputStream(new BufferedOutputStream(fileOutput), new CRC32());
+            final DataOutputStream output = new DataOutputStream(checked);
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(createdAt);
+            counts = writeRecords(connection, output);
+            output.writeInt((int) checked.getChecksum().getValue());
+            output.flush();
+            fileOutput.getFD().sync();
+        } catch (SQLException | IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+        if (participant != null) {
+            // rename is durable once directory is forced
+            try (final FileChannel directory = FileChannel.open(dir, StandardOpenOption.READ)) {
+                directory.force(true);
+            }
+            participant.written(token);
+        }
+        log.info("Snapshot '{}' of {} users and {} accounts is written in {} ms", file, counts[0], counts[1],
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        final List<Path> snapshots = list(SUFFIX);
+        for (final Path snapshot : snapshots.subList(Math.min(keep, snapshots.size()), snapshots.size())) {
+            Files.delete(snapshot);
+        }
+        return file;
+    }
+
+    /**
+     * Restores the latest snapshot which is read completely and matches its checksum.
+     *
+     * @return restored snapshot file, null if database is not empty or there is no valid snapshot.
+     */
+    public Path restoreLatest() throws SQLException, IOException {
+        try (final Connection connection = dataSource.getConnection()) {
+            if (hasUsers(connection)) {
+                log.info("Database is not empty, snapshots are not restored");
+                return null;
+            }
+            for (final Path snapshot : list(SUFFIX)) {
+                final long startNanos = System.nanoTime();
+                // corrupted records never reach database
+                final long[] lastIds = readLastIds(snapshot);
+                if (lastIds == null) {
+                    log.warn("Snapshot '{}' is corrupted and skipped", snapshot);
+                    continue;
+                }
+                // H2 flushes identity and commits on every insert of id greater than identity
+                restartIdentity(connection, "app_user", lastIds[0] + 1);
+                restartIdentity(connection, "account", lastIds[1] + 1);
+                final boolean autoCommit = connection.getAutoCommit();
+                connection.setAutoCommit(false);
+                try {
+                    final long[] counts = restore(connection, snapshot);
+                    connection.commit();
+                    log.info("Snapshot '{}' of {} users and {} accounts is restored in {} ms", snapshot,
+                            counts[0], counts[1], TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+                    return snapshot;
+                } catch (SQLException | IOException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(autoCommit);
+                }
+            }
+            return null;
+        }
+    }
+
+    private void writeQuietly() {
+        try {
+            write();
+        } catch (Exception e) {
+            log.error("Exception during database snapshot", e);
+        }
+    }
+
+    /**
+     * Reads users and then accounts with a single statement, since each statement reads consistent view of database.
+     * Pending credits of sequenced transfers are written as credited already, since they are not part of a snapshot.
+     *
+     * @return numbers of written users and accounts.
+     */
+    private static long[] writeRecords(final Connection connection,
+                                       final DataOutputStream output) throws SQLException, IOException {
+        final long[] counts = new long[2];
+        long lastUserId = 0;
+        long lastAccountId = 0;
+        try (final PreparedStatement preparedStatement = connection.prepareStatement(
+                "select 0 kind, u.id, u.username, 0 user_id, 0 balance, 0 slots from app_user u "
+                        + "union all "
+                        + "select 1, a.id, null, a.user_id, coalesce(s.balance, a.balance) "
+                        + "+ coalesce((select sum(e.amount) from ledger_entry e "
+                        + "where e.account_id = a.id and e.id > coalesce(s.last_entry_id, 0)), 0) "
+                        + "+ case when a.slots > 0 "
+                        + "then (select coalesce(sum(l.balance), 0) from account_slot l where l.account_id = a.id) "
+                        + "else 0 end "
+                        + "+ coalesce((select sum(p.amount) from pending_credit p "
+                        + "where p.destination_account_id = a.id), 0), a.slots "
+                        + "from account a left join balance_snapshot s on s.account_id = a.id "
+                        + "order by kind, id");
+             final ResultSet resultSet = preparedStatement.executeQuery()) {
+            while (resultSet.next()) {
+                if (resultSet.getInt("kind") == 0) {
+                    lastUserId = resultSet.getLong("id");
+                    output.writeLong(lastUserId);
+                    output.writeUTF(resultSet.getString("username"));
+                    counts[0]++;
+                    continue;
+                }
+                if (counts[1]++ == 0) {
+                    output.writeLong(0);
+                }
+                lastAccountId = resultSet.getLong("id");
+                output.writeLong(lastAccountId);
+                output.writeLong(resultSet.getLong("user_id"));
+                output.writeLong(resultSet.getLong("balance"));
+                output.writeInt(resultSet.getInt("slots"));
+            }
+        }
+        if (counts[1] == 0) {
+            output.writeLong(0);
+        }
+        output.writeLong(0);
+        output.writeLong(lastUserId);
+        output.writeLong(lastAccountId);
+        return counts;
+    }
+
+    /**
+     * Inserts records of snapshot within current transaction, split accounts get empty slots.
+     *
+     * @return numbers of restored users and accounts.
+     */
+    private static long[] restore(final Connection connection, final Path snapshot) throws SQLException, IOException {
+        final long[] counts = new long[2];
+        try (final DataInputStream input =
+                     new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot)))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                throw new IOException("Unknown snapshot format");
+            }
+            input.readLong();
+            try (final PreparedStatement preparedStatement =
+                         connection.prepareStatement("insert into app_user (id, username) values (?, ?)")) {
+                for (long id = input.readLong(); id != 0; id = input.readLong()) {
+                    preparedStatement.setLong(1, id);
+                    preparedStatement.setString(2, input.readUTF());
+                    addBatch(preparedStatement, ++counts[0]);
+                }
+                preparedStatement.executeBatch();
+            }
+            try (final PreparedStatement accountStatement = connection.prepareStatement(
+                    "insert into account (id, user_id, balance, slots) values (?, ?, ?, ?)");
+                 final PreparedStatement slotStatement = connection.prepareStatement(
+                         "insert into account_slot (account_id, slot, balance) values (?, ?, 0)")) {
+                long slotCount = 0;
+                for (long id = input.readLong(); id != 0; id = input.readLong()) {
+                    accountStatement.setLong(1, id);
+                    accountStatement.setLong(2, input.readLong());
+                    accountStatement.setLong(3, input.readLong());
+                    final int slots = input.readInt();
+                    accountStatement.setInt(4, slots);
+                    addBatch(accountStatement, ++counts[1]);
+                    for (int slot = 0; slot < slots; slot++) {
+                        slotStatement.setLong(1, id);
+                        slotStatement.setInt(2, slot);
+                        addBatch(slotStatement, ++slotCount);
+                    }
+                }
+                accountStatement.executeBatch();
+                slotStatement.executeBatch();
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Reads snapshot through to verify its checksum.
+     *
+     * @return last user id and last account id, null if checksum does not match.
+     */
+    private static long[] readLastIds(final Path snapshot) throws IOException {
+        final long size = Files.size(snapshot);
+        if (size < TRAILER_SIZE) {
+            return null;
+        }
+        try (final CheckedInputStream checked =
+                     new CheckedInputStream(Files.newInputStream(snapshot), new CRC32())) {
+            final DataInputStream input = new DataInputStream(checked);
+            final byte[] buffer = new byte[64 * 1024];
+            for (long left = size - TRAILER_SIZE; left > 0; left -= buffer.length) {
+                input.readFully(buffer, 0, (int) Math.min(left, buffer.length));
+            }
+            final long[] lastIds = {input.readLong(), input.readLong()};
+            final int checksum = (int) checked.getChecksum().getValue();
+            return input.readInt() == checksum ? lastIds : null;
+        }
+    }
+
+    private static void restartIdentity(final Connection connection,
+                                        final String table,
+                                        final long nextId) throws SQLException {
+        try (final Statement statement = connection.createStatement()) {
+            statement.executeUpdate("alter table " + table + " alter column id restart with " + nextId);
+        }
+    }
+
+    /**
+     * Executes batch once it reaches {@link #BATCH_SIZE}.
+     */
+    private static void addBatch(final PreparedStatement preparedStatement, final long count) throws SQLException {
+        preparedStatement.addBatch();
+        if (count % BATCH_SIZE == 0) {
+            preparedStatement.executeBatch();
+        }
+    }
+
+    private static boolean hasUsers(final Connection connection) throws SQLException {
+        try (final PreparedStatement preparedStatement =
+                     connection.prepareStatement("select exists (select 1 from app_user)");
+             final ResultSet resultSet = preparedStatement.executeQuery()) {
+            return resultSet.next() && resultSet.getBoolean(1);
+        }
+    }
+
+    /**
+     * @return files with suffix from the latest one.
+     */
+    private List<Path> list(final String suffix) throws IOException {
+        try (final Stream<Path> list = Files.list(dir)) {
+            return list.filter(file -> file.getFileName().toString().endsWith(suffix))
+                    .sorted(Comparator.reverseOrder())
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * State kept outside database, which is written to database before snapshot is read
+     * and may be discarded once snapshot is durable.
+     */
+    public interface Participant {
+
+        /**
+         * Called before snapshot is read.
+         *
+         * @return token passed to {@link #written(long)}.
+         */
+        long prepare() throws SQLException, IOException;
+
+        /**
+         * Called once snapshot read after {@link #prepare()} is durable.
+         */
+        void written(long token) throws IOException;
+    }
+}
@@ -0,0 +1,261 @@
+package com.revolut.mtt.database;
+
+import lombok.extern.slf4j.Slf4j;
+import org.jooby.Err;
+import org.jooby.Status;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs work of concurrent requests within one shared transaction, so it's committed at once.
+ * <p>
+ * First work of a group makes its thread a leader. While other groups are being run, leader waits
+ * for other work to join its group, up to 'window' or until group has 'maxSize' works. Then leader runs
+ * all of them one by one on its own thread and commits once. So a group is run right away under low load,
+ * and the more concurrent work there is, the more of it is committed at once.
+ * Every work runs in its own nested transaction, so a failed one is rolled back alone and its exception
+ * is thrown to its caller. Work which marks its transaction rollback only is rolled back alone as well.
+ * Other callers get their results only after the group is committed.
+ * <p>
+ * Groups are run concurrently, each on its own leader thread and connection. Every group holds locks of all
+ * its works until its commit, so groups may wait on locks of each other even if works lock rows in the same order.
+ * Such wait is resolved by database lock timeout: the waiting work is rolled back alone and retried in a later
+ * group, once its own group is committed and its locks are released.
+ * Work which is not started by its leader within 'timeout' is dropped from the group and fails
+ * with 503 status; work which is started already is waited for, since it may be committed.
+ * Work should use database through {@link ConnectionProvider} only, since it's run on leader thread.
+ */
+@Slf4j
+public class GroupCommit {
+
+    private final ThreadLocalConnectionProvider connectionProvider;
+
+    private final int maxSize;
+
+    private final long windowNanos;
+
+    private final long timeoutMillis;
+
+    private final Object groupMonitor = new Object();
+
+    private Group openGroup = new Group();
+
+    /**
+     * Groups which are closed, but not completed yet.
+     */
+    private int closedGroups;
+
+    public GroupCommit(final ThreadLocalConnectionProvider connectionProvider,
+                       final int maxSize,
+                       final long windowMillis,
+                       final long timeoutMillis) {
+        this.connectionProvider = connectionProvider;
+        this.maxSize = maxSize;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Joins work to the open group and waits until the group is committed.
+     *
+     * @return result of work once it's committed.
+     */
+    public <T> T execute(final Callable<T> work) throws Exception {
+        while (true) {
+            final Member<T> member = new Member<>(work);
+            final Group group;
+            final boolean leader;
+            synchronized (groupMonitor) {
+                group = openGroup;
+                group.members.add(member);
+                leader = group.members.size() == 1;
+                if (group.members.size() >= maxSize) {
+                    openGroup = new Group();
+                    groupMonitor.notifyAll();
+                }
+            }
+            if (leader) {
+                lead(group);
+            }
+            final T value;
+            try {
+                value = leader ? member.result.get() : await(member);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception) e.getCause();
+                }
+                throw e;
+            }
+            if (!member.retry) {
+                return value;
+            }
+            log.debug("Work timed out waiting for lock, it's retried in next group");
+        }
+    }
+
+    /**
+     * Waits for work of a follower, which is dropped if it's not started in time.
+     */
+    private <T> T await(final Member<T> member) throws InterruptedException, ExecutionException {
+        try {
+            return member.result.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            if (member.started.compareAndSet(false, true)) {
+                throw new Err(Status.SERVICE_UNAVAILABLE,
+                        new TimeoutException("Work is not started in " + timeoutMillis + " ms. Try again."));
+            }
+            // work is run by leader already and may be committed
+            return member.result.get();
+        }
+    }
+
+    /**
+     * @return number of works in the group which is still open for new work.
+     */
+    int openGroupSize() {
+        synchronized (groupMonitor) {
+            return openGroup.members.size();
+        }
+    }
+
+    private void lead(final Group group) {
+        synchronized (groupMonitor) {
+            final long deadline = System.nanoTime() + windowNanos;
+            long remaining = windowNanos;
+            try {
+                while (openGroup == group && closedGroups > 0 && remaining > 0) {
+                    TimeUnit.NANOSECONDS.timedWait(groupMonitor, remaining);
+                    remaining = deadline - System.nanoTime();
+                }
+            } catch (InterruptedException e) {
+                // group is run anyway, other members wait for it
+                Thread.currentThread().interrupt();
+            }
+            if (openGroup == group) {
+                openGroup = new Group();
+            }
+            closedGroups++;
+        }
+        // leader may run within its own request transaction, which is restored afterwards
+        final ThreadLocalConnectionProvider.Transaction leaderTransaction = connectionProvider.unbind();
+        try {
+            run(group);
+        } finally {
+            if (leaderTransaction != null) {
+                connectionProvider.bind(leaderTransaction);
+            } else {
+                connectionProvider.unbind();
+            }
+            synchronized (groupMonitor) {
+                closedGroups--;
+                groupMonitor.notifyAll();
+            }
+        }
+    }
+
+    private void run(final Group group) {
+        final ThreadLocalConnectionProvider.Transaction transaction = connectionProvider.begin(false);
+        final List<Member<?>> applied = new ArrayList<>(group.members.size());
+        Exception failure = null;
+        try {
+            for (final Member<?> member : group.members) {
+                // follower which gave up waiting is not run
+                if (member.started.compareAndSet(false, true) && apply(transaction, member)) {
+                    applied.add(member);
+                }
+            }
+        } catch (SQLException e) {
+            log.error("Exception during group of {} works, group is rolled back", group.members.size(), e);
+            failure = e;
+        }
+        try {
+            connectionProvider.complete(transaction, failure == null);
+        } catch (SQLException e) {
+            log.error("Exception during commit of {} works", applied.size(), e);
+            failure = e;
+        }
+        log.debug("Group of {} works is completed, {} applied", group.members.size(), applied.size());
+        for (final Member<?> member : group.members) {
+            // work to retry is rolled back already, so it's not affected by group failure
+            if (failure != null && !member.retry) {
+                member.result.completeExceptionally(failure);
+            } else {
+                member.complete();
+            }
+        }
+    }
+
+    /**
+     * Runs work within nested transaction. Failed work is completed with its exception right away,
+     * except work failed with lock timeout, which is marked to be retried once the group is completed.
+     *
+     * @return true if work is applied and waits for commit, otherwise false.
+     * @throws SQLException if nested transaction cannot be started or completed, so the whole group should fail.
+     */
+    private boolean apply(final ThreadLocalConnectionProvider.Transaction transaction,
+                          final Member<?> member) throws SQLException {
+        final ThreadLocalConnectionProvider.Transaction nested = connectionProvider.beginNested(transaction);
+        try {
+            member.call();
+        } catch (Throwable e) {
+            connectionProvider.complete(nested, false);
+            connectionProvider.bind(transaction);
+            if (DatabaseErrors.isLockTimeout(e)) {
+                // lock may be held by concurrent group, which waits for locks of this one until its commit
+                member.retry = true;
+            } else {
+                member.result.completeExceptionally(e);
+            }
+            return false;
+        }
+        connectionProvider.complete(nested, true);
+        connectionProvider.bind(transaction);
+        return true;
+    }
+
+    private static class Group {
+
+        private final List<Member<?>> members = new ArrayList<>();
+    }
+
+    private static class Member<T> {
+
+        private final Callable<T> work;
+
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+
+        /**
+         * Set by leader before work is run, or by follower which gave up waiting.
+         */
+        private final AtomicBoolean started = new AtomicBoolean();
+
+        private T value;
+
+        /**
+         * Set by leader if work failed with lock timeout and should be run again in a later group.
+         */
+        private volatile boolean retry;
+
+        private Member(final Callable<T> work) {
+            this.work = work;
+        }
+
+        private void call() throws Exception {
+            value = work.call();
+        }
+
+        private void complete() {
+            if (!result.isDone()) {
+                result.complete(value);
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.revolut.mtt.database;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Rows of an open result set mapped one at a time, so large results are never loaded at once.
+ * Statement is kept open until cursor is closed.
+ */
+public class ResultCursor<T> implements AutoCloseable {
+
+    private final PreparedStatement preparedStatement;
+
+    private final ResultSet resultSet;
+
+    private final RowMapper<T> rowMapper;
+
+    public ResultCursor(final PreparedStatement preparedStatement,
+                        final ResultSet resultSet,
+                        final RowMapper<T> rowMapper) {
+        this.preparedStatement = preparedStatement;
+        this.resultSet = resultSet;
+        this.rowMapper = rowMapper;
+    }
+
+    /**
+     * @return next row, null if there are no more rows.
+     */
+    public T next() throws SQLException {
+        return resultSet.next() ? rowMapper.map(resultSet) : null;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        try {
+            resultSet.close();
+        } finally {
+            preparedStatement.close();
+        }
+    }
+
+    @FunctionalInterface
+    public interface RowMapper<T> {
+
+        T map(ResultSet resultSet) throws SQLException;
+    }
+}
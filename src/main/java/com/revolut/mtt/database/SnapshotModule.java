@@ -0,0 +1,41 @@
+package com.revolut.mtt.database;
+
+import com.google.inject.Binder;
+import com.typesafe.config.Config;
+import lombok.extern.slf4j.Slf4j;
+import org.jooby.Env;
+import org.jooby.Jooby;
+
+import javax.sql.DataSource;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Module enabling {@link DatabaseSnapshots} if 'db.snapshot.dir' is set. Should be used after schema init
+ * and before ledger, so snapshot is restored before ledger loads balances and taken after ledger flushes them.
+ * Memory ledger engine may flush half of a transfer before snapshot is read, so snapshots require its write-ahead
+ * journal, which is replayed over restored snapshot.
+ */
+@Slf4j
+public class SnapshotModule implements Jooby.Module {
+
+    @Override
+    public void configure(final Env env, final Config conf, final Binder binder) throws Throwable {
+        final String dir = conf.getString("db.snapshot.dir");
+        if (dir.isEmpty()) {
+            return;
+        }
+        // memory ledger flushes balances of a transfer in separate commits, only its journal replay restores both
+        if ("memory".equals(conf.getString("ledger.engine")) && conf.getString("ledger.memory.wal.dir").isEmpty()) {
+            throw new IllegalArgumentException("Snapshots with memory ledger engine require write-ahead journal: "
+                    + "set 'ledger.memory.wal.dir'");
+        }
+        log.info("Database snapshots are written to '{}'", dir);
+        final DatabaseSnapshots snapshots = new DatabaseSnapshots(Paths.get(dir),
+                conf.getDuration("db.snapshot.interval", TimeUnit.MILLISECONDS),
+                conf.getInt("db.snapshot.keep"));
+        binder.bind(DatabaseSnapshots.class).toInstance(snapshots);
+        env.onStart(registry -> snapshots.start(registry.require(DataSource.class)));
+        env.onStop(snapshots::stop);
+    }
+}
@@ -0,0 +1,183 @@
+package com.revolut.mtt.database;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps prepared statements of each physical connection in a bounded LRU map keyed by sql,
+ * so statements are not parsed and planned on every call.
+ * Statements are prepared on the physical connection behind a pooled one, since pool closes statements
+ * of a pooled connection when it is returned. Returned statements should be closed right after usage as usual,
+ * closing only returns them to the cache.
+ */
+@Slf4j
+public class StatementCache {
+
+    private final int maxSize;
+
+    private final Map<Connection, ConnectionStatements> connections = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxSize maximum number of statements cached per connection. Zero disables caching.
+     */
+    public StatementCache(final int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public PreparedStatement prepareStatement(final Connection connection, final String sql) throws SQLException {
+        return prepareStatement(connection, sql, Statement.NO_GENERATED_KEYS);
+    }
+
+    public PreparedStatement prepareStatement(final Connection connection,
+                                              final String sql,
+                                              final int autoGeneratedKeys) throws SQLException {
+        if (maxSize <= 0) {
+            return connection.prepareStatement(sql, autoGeneratedKeys);
+        }
+        final Connection physicalConnection = connection.unwrap(Connection.class);
+        ConnectionStatements statements = connections.get(physicalConnection);
+        if (statements == null) {
+            removeClosedConnections();
+            statements = new ConnectionStatements();
+            connections.put(physicalConnection, statements);
+        }
+
+        final String key = autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS ? "keys:" + sql : sql;
+        CachedStatement cachedStatement = statements.get(key);
+        if (cachedStatement != null && !cachedStatement.inUse && !cachedStatement.delegate.isClosed()) {
+            hits.increment();
+        } else if (cachedStatement != null && cachedStatement.inUse) {
+            // same sql is already being executed on this connection, do not share statement
+            misses.increment();
+            return connection.prepareStatement(sql, autoGeneratedKeys);
+        } else {
+            misses.increment();
+            cachedStatement = new CachedStatement(physicalConnection.prepareStatement(sql, autoGeneratedKeys));
+            statements.put(key, cachedStatement);
+        }
+        cachedStatement.inUse = true;
+        return cachedStatement.proxy;
+    }
+
+    public Stats stats() {
+        final long hitsCount = hits.sum();
+        final long missesCount = misses.sum();
+        final long total = hitsCount + missesCount;
+        return new Stats(hitsCount, missesCount, evictions.sum(), total == 0 ? 0 : (double) hitsCount / total);
+    }
+
+    private void removeClosedConnections() {
+        connections.keySet().removeIf(connection -> {
+            try {
+                return connection.isClosed();
+            } catch (SQLException e) {
+                return true;
+            }
+        });
+    }
+
+    @Value
+    public static class Stats {
+
+        private final long hits;
+
+        private final long misses;
+
+        private final long evictions;
+
+        private final double hitRate;
+    }
+
+    /**
+     * Statements of a single connection. Connection is used by one thread at a time, so no synchronization required.
+     */
+    private class ConnectionStatements extends LinkedHashMap<String, CachedStatement> {
+
+        private ConnectionStatements() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, CachedStatement> eldest) {
+            if (size() <= maxSize) {
+                return false;
+            }
+            evictions.increment();
+            eldest.getValue().evicted = true;
+            if (!eldest.getValue().inUse) {
+                eldest.getValue().closeQuietly();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Prepared statement which is returned to cache on close.
+     */
+    private static class CachedStatement implements InvocationHandler {
+
+        private final PreparedStatement delegate;
+
+        private final PreparedStatement proxy;
+
+        private boolean inUse;
+
+        private boolean evicted;
+
+        private CachedStatement(final PreparedStatement delegate) {
+            this.delegate = delegate;
+            this.proxy = (PreparedStatement) Proxy.newProxyInstance(StatementCache.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, this);
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            if ("close".equals(method.getName()) && method.getParameterCount() == 0) {
+                release();
+                return null;
+            }
+            try {
+                return method.invoke(delegate, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private void release() throws SQLException {
+            inUse = false;
+            if (evicted) {
+                delegate.close();
+            } else {
+                delegate.clearParameters();
+                delegate.clearBatch();
+            }
+        }
+
+        private void closeQuietly() {
+            try {
+                delegate.close();
+            } catch (SQLException e) {
+                log.warn("Cannot close evicted statement", e);
+            }
+        }
+    }
+}
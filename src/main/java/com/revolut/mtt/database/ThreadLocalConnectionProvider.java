@@ -1,20 +1,280 @@
 package com.revolut.mtt.database;
 
+import javax.inject.Provider;
+import javax.sql.DataSource;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Provides already open connection, so different classes could use the same connection within one request/thread.
+ * Transaction is bound to the thread which runs request work, and can be explicitly rebound to another thread,
+ * see {@link TransactionalExecutor}.
+ * Connection is borrowed lazily on first usage, so requests which never touch database do not hold one.
+ * Read only transactions use connections in autocommit mode.
+ * Statements are prepared through {@link StatementCache}.
+ * Transactions may be nested into another one with savepoints, see {@link GroupCommit}.
  */
 public class ThreadLocalConnectionProvider implements ConnectionProvider {
 
-    private final ThreadLocal<Connection> connectionHolder = new ThreadLocal<>();
+    private final ThreadLocal<Transaction> transactionHolder = new ThreadLocal<>();
+
+    private final Provider<DataSource> dataSourceProvider;
+
+    private final StatementCache statementCache;
+
+    public ThreadLocalConnectionProvider(final Provider<DataSource> dataSourceProvider,
+                                         final StatementCache statementCache) {
+        this.dataSourceProvider = dataSourceProvider;
+        this.statementCache = statementCache;
+    }
+
+    /**
+     * @return connection of current transaction, null if there is no transaction.
+     */
+    @Override
+    public Connection currentConnection() throws SQLException {
+        Transaction transaction = transactionHolder.get();
+        if (transaction == null) {
+            return null;
+        }
+        if (transaction.parent != null) {
+            transaction = transaction.parent;
+        }
+        if (transaction.connection == null) {
+            final Connection connection = dataSourceProvider.get().getConnection();
+            if (transaction.readOnly) {
+                connection.setReadOnly(true);
+            } else {
+                connection.setAutoCommit(false);
+            }
+            transaction.connection = connection;
+        }
+        return transaction.connection;
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(final String sql) throws SQLException {
+        return statementCache.prepareStatement(currentConnection(), sql);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(final String sql, final int autoGeneratedKeys) throws SQLException {
+        return statementCache.prepareStatement(currentConnection(), sql, autoGeneratedKeys);
+    }
 
     @Override
-    public Connection currentConnection() {
-        return connectionHolder.get();
+    public void afterCommit(final Runnable action) {
+        final Transaction transaction = transactionHolder.get();
+        if (transaction == null) {
+            action.run();
+        } else {
+            transaction.afterCommitActions.add(action);
+        }
     }
 
-    void setCurrentConnection(final Connection connection) {
-        connectionHolder.set(connection);
+    @Override
+    public void afterRollback(final Runnable action) {
+        final Transaction transaction = transactionHolder.get();
+        if (transaction != null) {
+            transaction.afterRollbackActions.add(action);
+        }
+    }
+
+    @Override
+    public void afterCompletion(final Consumer<Boolean> action) {
+        final Transaction transaction = transactionHolder.get();
+        if (transaction != null) {
+            transaction.afterCommitActions.add(() -> action.accept(true));
+            transaction.afterRollbackActions.add(() -> action.accept(false));
+        }
+    }
+
+    @Override
+    public void setRollbackOnly() {
+        final Transaction transaction = transactionHolder.get();
+        if (transaction != null) {
+            transaction.rollbackOnly = true;
+        }
+    }
+
+    /**
+     * Starts transaction and binds it to current thread. Connection is not borrowed until it's requested.
+     */
+    Transaction begin(final boolean readOnly) {
+        final Transaction transaction = new Transaction(readOnly);
+        transactionHolder.set(transaction);
+        return transaction;
+    }
+
+    /**
+     * Starts transaction nested into parent one and binds it to current thread.
+     * Nested transaction uses connection of parent and starts with a savepoint, so it can be rolled back alone.
+     */
+    Transaction beginNested(final Transaction parent) throws SQLException {
+        transactionHolder.set(parent);
+        final Savepoint savepoint = currentConnection().setSavepoint();
+        final Transaction transaction = new Transaction(false);
+        transaction.parent = parent;
+        transaction.savepoint = savepoint;
+        transactionHolder.set(transaction);
+        return transaction;
+    }
+
+    /**
+     * Binds already started transaction to current thread, e.g. when request work is moved to another thread.
+     */
+    void bind(final Transaction transaction) {
+        transactionHolder.set(transaction);
+    }
+
+    /**
+     * Unbinds transaction from current thread without completing it.
+     *
+     * @return unbound transaction, null if there was no transaction.
+     */
+    Transaction unbind() {
+        final Transaction transaction = transactionHolder.get();
+        transactionHolder.remove();
+        return transaction;
+    }
+
+    /**
+     * Commits work done so far by transaction bound to current thread and runs its commit actions.
+     * Transaction goes on with the same connection, so long running work may release its locks periodically.
+     * Nested transactions cannot be committed alone.
+     */
+    void commit() throws SQLException {
+        final Transaction transaction = transactionHolder.get();
+        if (transaction == null || transaction.connection == null || transaction.readOnly) {
+            return;
+        }
+        if (transaction.parent != null) {
+            throw new IllegalStateException("Nested transaction cannot be committed before its parent");
+        }
+        transaction.connection.commit();
+        final List<Runnable> afterCommitActions = new ArrayList<>(transaction.afterCommitActions);
+        transaction.afterCommitActions.clear();
+        transaction.afterRollbackActions.clear();
+        afterCommitActions.forEach(Runnable::run);
+    }
+
+    /**
+     * Rolls back work done so far by transaction bound to current thread and runs its rollback actions.
+     * Transaction goes on with the same connection, so work may be retried from scratch without holding its locks.
+     * Nested transactions cannot be rolled back alone this way.
+     */
+    void rollback() throws SQLException {
+        final Transaction transaction = transactionHolder.get();
+        if (transaction == null) {
+            return;
+        }
+        if (transaction.parent != null) {
+            throw new IllegalStateException("Nested transaction cannot be rolled back before its parent");
+        }
+        if (transaction.connection != null && !transaction.readOnly) {
+            transaction.connection.rollback();
+        }
+        final List<Runnable> afterRollbackActions = new ArrayList<>(transaction.afterRollbackActions);
+        transaction.afterCommitActions.clear();
+        transaction.afterRollbackActions.clear();
+        transaction.rollbackOnly = false;
+        afterRollbackActions.forEach(Runnable::run);
+    }
+
+    /**
+     * Commits or rolls back transaction bound to current thread.
+     *
+     * @see #complete(Transaction, boolean)
+     */
+    boolean complete(final boolean commit) throws SQLException {
+        return complete(transactionHolder.get(), commit);
+    }
+
+    /**
+     * Commits or rolls back transaction and returns connection to pool. Transaction is unbound from current thread.
+     * Completion actions are run before connection is returned to pool, so they may reset its session settings.
+     * If commit fails, transaction is treated as rolled back.
+     * Nested transaction is rolled back to its savepoint, or its completion actions are passed to parent on commit.
+     * Transaction marked with {@link #setRollbackOnly()} is rolled back even if commit is requested.
+     *
+     * @return true if transaction has used a connection, otherwise false.
+     */
+    boolean complete(final Transaction transaction, final boolean commit) throws SQLException {
+        if (transactionHolder.get() == transaction) {
+            transactionHolder.remove();
+        }
+        if (transaction == null) {
+            return false;
+        }
+        if (transaction.parent != null) {
+            completeNested(transaction, commit && !transaction.rollbackOnly);
+            return true;
+        }
+        final Connection connection = transaction.connection;
+        boolean committed = false;
+        try {
+            if (connection != null && !transaction.readOnly) {
+                if (commit && !transaction.rollbackOnly) {
+                    connection.commit();
+                } else {
+                    connection.rollback();
+                }
+            }
+            committed = commit && !transaction.rollbackOnly;
+        } finally {
+            try {
+                (committed ? transaction.afterCommitActions : transaction.afterRollbackActions).forEach(Runnable::run);
+            } finally {
+                if (connection != null) {
+                    connection.close();
+                }
+            }
+        }
+        return connection != null;
+    }
+
+    private void completeNested(final Transaction transaction, final boolean commit) throws SQLException {
+        final Connection connection = transaction.parent.connection;
+        if (commit) {
+            connection.releaseSavepoint(transaction.savepoint);
+            transaction.parent.afterCommitActions.addAll(transaction.afterCommitActions);
+            transaction.parent.afterRollbackActions.addAll(transaction.afterRollbackActions);
+            return;
+        }
+        try {
+            connection.rollback(transaction.savepoint);
+        } finally {
+            transaction.afterRollbackActions.forEach(Runnable::run);
+        }
+    }
+
+    static class Transaction {
+
+        private final boolean readOnly;
+
+        private Connection connection;
+
+        private Transaction parent;
+
+        private Savepoint savepoint;
+
+        private boolean rollbackOnly;
+
+        private final List<Runnable> afterCommitActions = new ArrayList<>(0);
+
+        private final List<Runnable> afterRollbackActions = new ArrayList<>(0);
+
+        private Transaction(final boolean readOnly) {
+            this.readOnly = readOnly;
+        }
+
+        boolean isRollbackOnly() {
+            return rollbackOnly;
+        }
     }
 }
@@ -1,57 +1,158 @@
 package com.revolut.mtt.database;
 
 import com.google.inject.Binder;
+import com.google.inject.Key;
+import com.google.inject.name.Names;
+import com.revolut.mtt.metrics.Histogram;
+import com.revolut.mtt.metrics.Metrics;
 import com.typesafe.config.Config;
 import lombok.extern.slf4j.Slf4j;
 import org.jooby.Env;
 import org.jooby.Jooby;
+import org.jooby.Response;
+import org.jooby.Results;
 import org.jooby.Router;
+import org.jooby.Status;
 
 import javax.sql.DataSource;
-import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Adds convenient transactions support to routes, so business logic code should not care about connection handling.
+ * Connection is borrowed only when route actually uses it. GET routes run in read only autocommit mode.
+ * Transaction is rolled back if route fails, responds with error status or marks it with
+ * {@link ConnectionProvider#setRollbackOnly()}.
+ * Transaction is kept in request, so route work may be moved to another thread with {@link TransactionalExecutor}.
+ * Latency of commits and rollbacks of transactions which used a connection is recorded to {@link Metrics}.
  */
 @Slf4j
 public class TransactionSupport implements Jooby.Module {
 
+    static final String TRANSACTION = TransactionSupport.class.getName() + ".transaction";
+
+    private final Histogram commitLatency;
+
+    private final Histogram rollbackLatency;
+
+    public TransactionSupport(final Metrics metrics) {
+        this.commitLatency = metrics.histogram("mtt_transaction_completion_seconds",
+                "Time to commit or roll back route transaction.", "outcome", "commit");
+        this.rollbackLatency = metrics.histogram("mtt_transaction_completion_seconds",
+                "Time to commit or roll back route transaction.", "outcome", "rollback");
+    }
+
     @Override
     public void configure(final Env env, final Config conf, final Binder binder) throws Throwable {
         log.info("Configure Transactional Module");
 
-        final ThreadLocalConnectionProvider connectionProvider = new ThreadLocalConnectionProvider();
+        final StatementCache statementCache = new StatementCache(conf.getInt("db.statementCache.size"));
+        final ThreadLocalConnectionProvider connectionProvider =
+                new ThreadLocalConnectionProvider(binder.getProvider(DataSource.class), statementCache);
+        binder.bind(StatementCache.class).toInstance(statementCache);
         binder.bind(ConnectionProvider.class).toInstance(connectionProvider);
 
+        final GroupCommit groupCommit = newGroupCommit(conf, connectionProvider);
+
+        final String execution = conf.getString("db.execution");
+        log.info("Route database work runs on '{}' threads", execution);
+        if ("executor".equals(execution)) {
+            final ExecutorService executor = newExecutor(conf.getInt("db.executor.threads"),
+                    conf.getBoolean("db.executor.virtual"));
+            binder.bind(Key.get(Executor.class, Names.named(TransactionalExecutor.EXECUTOR))).toInstance(executor);
+            binder.bind(TransactionalExecutor.class).toInstance(new TransactionalExecutor(connectionProvider, true, groupCommit));
+            env.onStop(executor::shutdown);
+        } else if ("request".equals(execution)) {
+            binder.bind(TransactionalExecutor.class)
+                    .toInstance(new TransactionalExecutor(connectionProvider, false, groupCommit));
+        } else {
+            throw new IllegalArgumentException("Unknown database execution: " + execution);
+        }
+
         final Router router = env.router();
 
+        router.get("/admin/statement-cache", req -> Results.json(statementCache.stats()));
+
         router.before("*", (req, rsp) -> {
-            log.debug("Init new transaction");
-            final DataSource dataSource = req.require(DataSource.class);
-            final Connection connection = dataSource.getConnection();
-            connection.setAutoCommit(false);
-            connectionProvider.setCurrentConnection(connection);
-            log.debug("Transaction initialized");
+            final boolean readOnly = "GET".equals(req.method());
+            req.set(TRANSACTION, connectionProvider.begin(readOnly));
+            log.debug("Transaction initialized, read only: {}", readOnly);
         });
 
         router.complete("*", (req, rsp, cause) -> {
             log.debug("Complete transaction");
-            // unbind connection from request
-            try(Connection connection = connectionProvider.currentConnection()) {
-                if (connection != null) {
-                    connectionProvider.setCurrentConnection(connection);
-                    if (cause.isPresent()) {
-                        connection.rollback();
-                        log.debug("Transaction rolled back");
-                    } else {
-                        connection.commit();
-                        log.debug("Transaction committed");
-                    }
+            final long startNanos = System.nanoTime();
+            final ThreadLocalConnectionProvider.Transaction transaction = req.get(TRANSACTION);
+            final boolean commit = isSuccessful(rsp, cause) && !transaction.isRollbackOnly();
+            try {
+                if (connectionProvider.complete(transaction, commit)) {
+                    (commit ? commitLatency : rollbackLatency).recordSince(startNanos);
+                    log.debug(commit ? "Transaction committed" : "Transaction rolled back");
+                } else {
+                    log.debug("Transaction did not use connection");
                 }
             } catch (SQLException e) {
                 log.error("Exception during connection handling", e);
             }
         });
     }
+
+    /**
+     * Route transaction is committed only if route is successful. Rejected requests respond with error status
+     * without exception, so they are rolled back the same way as failed ones.
+     *
+     * @return true if route neither failed nor responded with error status.
+     */
+    public static boolean isSuccessful(final Response rsp, final Optional<Throwable> cause) {
+        return !cause.isPresent() && !rsp.status().map(Status::isError).orElse(false);
+    }
+
+    /**
+     * @return group commit if enabled by 'db.groupCommit.maxSize', otherwise null.
+     */
+    private static GroupCommit newGroupCommit(final Config conf,
+                                              final ThreadLocalConnectionProvider connectionProvider) {
+        final int maxSize = conf.getInt("db.groupCommit.maxSize");
+        if (maxSize <= 0) {
+            return null;
+        }
+        // in memory ledger keeps its own transaction per thread, which cannot be shared or nested
+        if (!"jdbc".equals(conf.getString("ledger.engine"))) {
+            throw new IllegalArgumentException("Group commit requires 'jdbc' ledger engine");
+        }
+        final long windowMillis = conf.getDuration("db.groupCommit.window", TimeUnit.MILLISECONDS);
+        log.info("Group commit of up to {} transfers within {} ms", maxSize, windowMillis);
+        return new GroupCommit(connectionProvider, maxSize, windowMillis,
+                conf.getDuration("db.groupCommit.timeout", TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Creates executor with virtual threads if requested and supported by JDK, otherwise with fixed number of threads.
+     */
+    private static ExecutorService newExecutor(final int threads, final boolean virtual) {
+        if (virtual) {
+            try {
+                final ExecutorService executor = (ExecutorService) Executors.class
+                        .getMethod("newVirtualThreadPerTaskExecutor")
+                        .invoke(null);
+                log.info("Database work runs on virtual threads");
+                return executor;
+            } catch (ReflectiveOperationException e) {
+                log.warn("Virtual threads are not supported by JDK {}, fixed thread pool is used",
+                        System.getProperty("java.version"));
+            }
+        }
+        final AtomicInteger counter = new AtomicInteger();
+        log.info("Database work runs on {} threads", threads);
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            final Thread thread = new Thread(runnable, TransactionalExecutor.EXECUTOR + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
 }
@@ -0,0 +1,90 @@
+package com.revolut.mtt.database;
+
+import org.jooby.Deferred;
+import org.jooby.Result;
+
+import java.sql.SQLException;
+import java.util.concurrent.Callable;
+
+/**
+ * Runs route work within request transaction. Work is either run directly on request thread,
+ * or deferred to {@link #EXECUTOR} executor, so request threads are not blocked while transfers wait on locks.
+ * Deferred work gets request transaction explicitly from request and binds it to executor thread.
+ * Parts of work may be committed together with concurrent requests, see {@link #executeInGroup(Callable)}.
+ */
+public class TransactionalExecutor {
+
+    /**
+     * Name of executor running deferred work.
+     */
+    public static final String EXECUTOR = "db";
+
+    private final ThreadLocalConnectionProvider connectionProvider;
+
+    private final boolean deferred;
+
+    private final GroupCommit groupCommit;
+
+    TransactionalExecutor(final ThreadLocalConnectionProvider connectionProvider,
+                          final boolean deferred,
+                          final GroupCommit groupCommit) {
+        this.connectionProvider = connectionProvider;
+        this.deferred = deferred;
+        this.groupCommit = groupCommit;
+    }
+
+    /**
+     * @return executor running work directly on current thread, within transaction bound to it.
+     */
+    public static TransactionalExecutor direct() {
+        return new TransactionalExecutor(null, false, null);
+    }
+
+    public Result execute(final Callable<Result> work) throws Exception {
+        if (!deferred) {
+            return work.call();
+        }
+        // request thread is released, transaction goes with request
+        connectionProvider.unbind();
+        return new Deferred(EXECUTOR, (req, deferredResult) -> {
+            connectionProvider.bind(req.get(TransactionSupport.TRANSACTION));
+            try {
+                deferredResult.resolve(work.call());
+            } catch (Throwable e) {
+                deferredResult.reject(e);
+            } finally {
+                connectionProvider.unbind();
+            }
+        });
+    }
+
+    /**
+     * Commits work done so far within request transaction, the rest of route work goes on in a new one.
+     * Should be called from route work, but not from work run by {@link #executeInGroup(Callable)}.
+     */
+    public void commit() throws SQLException {
+        if (connectionProvider != null) {
+            connectionProvider.commit();
+        }
+    }
+
+    /**
+     * Rolls back work done so far within request transaction, the rest of route work goes on in a new one.
+     * Should be called from route work, but not from work run by {@link #executeInGroup(Callable)}.
+     */
+    public void rollback() throws SQLException {
+        if (connectionProvider != null) {
+            connectionProvider.rollback();
+        }
+    }
+
+    /**
+     * Runs part of route work within transaction shared with concurrent requests if group commit is enabled,
+     * otherwise within request transaction. Should be called from route work.
+     *
+     * @see GroupCommit
+     */
+    public <T> T executeInGroup(final Callable<T> work) throws Exception {
+        return groupCommit == null ? work.call() : groupCommit.execute(work);
+    }
+}
@@ -0,0 +1,517 @@
+package com.revolut.mtt.database;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of account balances in memory-mapped segment files of fixed size.
+ * Balances changed by a transaction are appended as a group of fixed-width records: transaction sequence,
+ * account id, new balance, number of records left in the group and CRC32 checksum of the record.
+ * Appended group becomes durable once background syncer forces it to disk. Syncer waits up to 'syncInterval'
+ * for 'syncBatchSize' records, so concurrent transactions share a single fsync.
+ * Positions are record numbers across segments. Segment is named after its first position, group which does not fit
+ * into the rest of a segment goes to a new one. Segments whose records all precede a checkpoint are deleted.
+ * On open, complete groups are replayed in order. Replay stops at the first torn or stale record:
+ * such record was never acknowledged, so it is overwritten by next appends.
+ */
+@Slf4j
+public class WriteAheadJournal {
+
+    static final int RECORD_SIZE = 32;
+
+    private static final int CHECKSUM_OFFSET = 28;
+
+    /**
+     * Records left value of a record closing segment before the next one.
+     */
+    private static final int SEGMENT_END = -1;
+
+    private static final String SUFFIX = ".wal";
+
+    private final Path dir;
+
+    private final int segmentRecords;
+
+    private final long syncIntervalNanos;
+
+    private final int syncBatchSize;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Signalled to syncer when records are appended or journal is closed.
+     */
+    private final Condition written = lock.newCondition();
+
+    /**
+     * Signalled to appenders when records are forced or journal fails.
+     */
+    private final Condition synced = lock.newCondition();
+
+    /**
+     * Open segments from the oldest one, the last one is appended.
+     */
+    private final Deque<Segment> segments = new ArrayDeque<>();
+
+    /**
+     * First positions of appended groups which are not yet released.
+     */
+    private final NavigableSet<Long> pendingPositions = new TreeSet<>();
+
+    /**
+     * Record being written or read, guarded by lock.
+     */
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+
+    private final CRC32 checksum = new CRC32();
+
+    private long sequence;
+
+    private long writtenPosition;
+
+    private long syncedPosition;
+
+    private IOException failure;
+
+    private boolean running;
+
+    private boolean closed;
+
+    private Thread syncer;
+
+    public WriteAheadJournal(final Path dir,
+                             final long segmentSize,
+                             final long syncIntervalMillis,
+                             final int syncBatchSize) {
+        if (segmentSize < RECORD_SIZE * 2 || segmentSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Journal segment size should be from " + RECORD_SIZE * 2
+                    + " bytes to 2 GB: " + segmentSize);
+        }
+        this.dir = dir;
+        this.segmentRecords = (int) (segmentSize / RECORD_SIZE);
+        this.syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(syncIntervalMillis);
+        this.syncBatchSize = syncBatchSize;
+    }
+
+    /**
+     * Balance consumer without boxing.
+     */
+    @FunctionalInterface
+    public interface BalanceConsumer {
+
+        void accept(long accountId, long balance);
+    }
+
+    /**
+     * Replays complete groups of existing segments to consumer in order of appending and starts syncer.
+     */
+    public void open(final BalanceConsumer consumer) throws IOException {
+        Files.createDirectories(dir);
+        lock.lock();
+        try {
+            final long groups = replay(consumer);
+            log.info("{} transactions replayed from journal in '{}'", groups, dir);
+            syncedPosition = writtenPosition;
+            running = true;
+        } finally {
+            lock.unlock();
+        }
+        syncer = new Thread(this::syncQuietly, "journal-syncer");
+        syncer.setDaemon(true);
+        syncer.start();
+    }
+
+    /**
+     * Stops accepting records and waits until appended ones are forced.
+     */
+    public void close() throws InterruptedException {
+        lock.lock();
+        try {
+            running = false;
+            written.signal();
+        } finally {
+            lock.unlock();
+        }
+        if (syncer != null) {
+            syncer.join();
+        }
+        lock.lock();
+        try {
+            closed = true;
+            synced.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends new balances of a transaction as one group. Group stays pending until {@link #release(long)},
+     * so checkpoint does not pass it before its balances are applied.
+     *
+     * @return position of the group, see {@link #awaitDurable(long)}.
+     */
+    public long append(final Map<Long, Long> balances) throws IOException {
+        if (balances.isEmpty() || balances.size() > segmentRecords) {
+            throw new IllegalArgumentException("Journal group should have from 1 to " + segmentRecords
+                    + " records: " + balances.size());
+        }
+        lock.lock();
+        try {
+            if (failure != null) {
+                throw new IOException("Journal has failed", failure);
+            }
+            if (!running) {
+                throw new IOException("Journal is closed");
+            }
+            Segment segment = segments.getLast();
+            if (writtenPosition + balances.size() > segment.endPosition()) {
+                segment = rotate(segment);
+            }
+            final long position = writtenPosition;
+            final long groupSequence = ++sequence;
+            int left = balances.size();
+            for (final Map.Entry<Long, Long> balance : balances.entrySet()) {
+                write(segment, writtenPosition++, groupSequence, balance.getKey(), balance.getValue(), --left);
+            }
+            pendingPositions.add(position);
+            written.signal();
+            return position;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until group appended at position is forced to disk.
+     */
+    public void awaitDurable(final long position) throws IOException {
+        lock.lock();
+        try {
+            while (syncedPosition <= position) {
+                if (failure != null) {
+                    throw new IOException("Journal has failed", failure);
+                }
+                if (closed) {
+                    throw new IOException("Journal is closed");
+                }
+                synced.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for journal sync");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Releases group once its balances are applied, or discarded and journaled again.
+     */
+    public void release(final long position) {
+        lock.lock();
+        try {
+            pendingPositions.remove(position);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return greatest position such that all groups before it are released.
+     */
+    public long completedPosition() {
+        lock.lock();
+        try {
+            return pendingPositions.isEmpty() ? writtenPosition : pendingPositions.first();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Deletes segments whose records all precede position, since balances before it are persisted elsewhere.
+     * Appended segment is never deleted.
+     */
+    public void checkpoint(final long position) throws IOException {
+        final List<Segment> deleted = new ArrayList<>();
+        lock.lock();
+        try {
+            while (segments.size() > 1 && segments.getFirst().endPosition() <= position) {
+                deleted.add(segments.removeFirst());
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (final Segment segment : deleted) {
+            Files.deleteIfExists(segment.file);
+            log.debug("Journal segment '{}' is truncated after checkpoint at {}", segment.file, position);
+        }
+    }
+
+    private long replay(final BalanceConsumer consumer) throws IOException {
+        final List<Path> files;
+        try (final Stream<Path> list = Files.list(dir)) {
+            files = list.filter(file -> file.getFileName().toString().endsWith(SUFFIX))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        long groups = 0;
+        boolean stopped = false;
+        long[] accountIds = new long[16];
+        long[] balances = new long[16];
+        for (final Path file : files) {
+            if (stopped) {
+                // never acknowledged, since previous segment is torn
+                log.warn("Journal segment '{}' after torn record is deleted", file);
+                Files.delete(file);
+                continue;
+            }
+            final long capacity = Files.size(file) / RECORD_SIZE;
+            if (capacity == 0) {
+                // created, but never mapped
+                Files.delete(file);
+                continue;
+            }
+            final Segment segment = map(file, firstPosition(file), capacity);
+            segments.addLast(segment);
+            final ByteBuffer reader = segment.buffer.duplicate();
+            int index = 0;
+            int groupStart = 0;
+            int groupSize = 0;
+            long groupSequence = 0;
+            int groupLeft = 0;
+            boolean ended = false;
+            while (index < segment.capacity && read(reader, index)) {
+                final long recordSequence = record.getLong(0);
+                final int left = record.getInt(24);
+                if (groupSize == 0) {
+                    if (left == SEGMENT_END && recordSequence == sequence) {
+                        ended = true;
+                        break;
+                    }
+                    if (recordSequence <= sequence || left < 0) {
+                        break;
+                    }
+                    groupStart = index;
+                    groupSequence = recordSequence;
+                } else if (recordSequence != groupSequence || left != groupLeft - 1) {
+                    break;
+                }
+                if (groupSize == accountIds.length) {
+                    accountIds = Arrays.copyOf(accountIds, groupSize * 2);
+                    balances = Arrays.copyOf(balances, groupSize * 2);
+                }
+                accountIds[groupSize] = record.getLong(8);
+                balances[groupSize] = record.getLong(16);
+                groupSize++;
+                groupLeft = left;
+                index++;
+                if (left == 0) {
+                    for (int i = 0; i < groupSize; i++) {
+                        consumer.accept(accountIds[i], balances[i]);
+                    }
+                    sequence = groupSequence;
+                    groupSize = 0;
+                    groups++;
+                }
+            }
+            // records of incomplete group are discarded
+            final int end = groupSize > 0 ? groupStart : index;
+            writtenPosition = segment.firstPosition + end;
+            if (!ended && end < segment.capacity) {
+                stopped = true;
+                clear(segment, end);
+            }
+        }
+        if (segments.isEmpty()) {
+            segments.addLast(create(0));
+        } else if (!stopped) {
+            // last segment is complete, appends go on in the next one
+            segments.addLast(create(segments.getLast().endPosition()));
+            writtenPosition = segments.getLast().firstPosition;
+        }
+        return groups;
+    }
+
+    private Segment rotate(final Segment segment) throws IOException {
+        if (writtenPosition < segment.endPosition()) {
+            write(segment, writtenPosition, sequence, 0, 0, SEGMENT_END);
+        }
+        final Segment next = create(segment.endPosition());
+        segments.addLast(next);
+        writtenPosition = next.firstPosition;
+        return next;
+    }
+
+    private void write(final Segment segment,
+                       final long position,
+                       final long groupSequence,
+                       final long accountId,
+                       final long balance,
+                       final int left) {
+        record.clear();
+        record.putLong(groupSequence).putLong(accountId).putLong(balance).putInt(left);
+        checksum.reset();
+        checksum.update(record.array(), 0, CHECKSUM_OFFSET);
+        record.putInt((int) checksum.getValue());
+        segment.writer.position((int) (position - segment.firstPosition) * RECORD_SIZE);
+        segment.writer.put(record.array());
+    }
+
+    /**
+     * @return true if record at index is read and its checksum matches.
+     */
+    private boolean read(final ByteBuffer reader, final int index) {
+        reader.position(index * RECORD_SIZE);
+        reader.get(record.array());
+        checksum.reset();
+        checksum.update(record.array(), 0, CHECKSUM_OFFSET);
+        return record.getInt(CHECKSUM_OFFSET) == (int) checksum.getValue();
+    }
+
+    /**
+     * Zeroes segment from index, so stale records after next appends are never replayed.
+     */
+    private void clear(final Segment segment, final int index) {
+        final int endOffset = segment.capacity * RECORD_SIZE;
+        for (int offset = index * RECORD_SIZE; offset < endOffset; offset += Long.BYTES) {
+            segment.buffer.putLong(offset, 0);
+        }
+        segment.buffer.force();
+    }
+
+    private Segment create(final long firstPosition) throws IOException {
+        final Path file = dir.resolve(String.format("%020d%s", firstPosition, SUFFIX));
+        return map(file, firstPosition, segmentRecords);
+    }
+
+    private static Segment map(final Path file, final long firstPosition, final long capacity) throws IOException {
+        try (final FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // mapping stays valid after channel is closed, file is extended if it is shorter
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity * RECORD_SIZE);
+            return new Segment(file, firstPosition, (int) capacity, buffer);
+        }
+    }
+
+    private static long firstPosition(final Path file) {
+        final String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    private void syncQuietly() {
+        try {
+            while (sync()) {
+                // keep syncing until closed
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Forces records appended so far, once enough of them are batched or sync interval passes.
+     *
+     * @return false if journal is closed and all records are forced.
+     */
+    private boolean sync() throws InterruptedException {
+        final long target;
+        final List<MappedByteBuffer> buffers = new ArrayList<>();
+        lock.lock();
+        try {
+            while (running && writtenPosition == syncedPosition) {
+                written.await();
+            }
+            if (writtenPosition == syncedPosition) {
+                return false;
+            }
+            long nanos = syncIntervalNanos;
+            while (running && writtenPosition - syncedPosition < syncBatchSize && nanos > 0) {
+                nanos = written.awaitNanos(nanos);
+            }
+            target = writtenPosition;
+            for (final Segment segment : segments) {
+                if (segment.endPosition() > syncedPosition) {
+                    buffers.add(segment.buffer);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        IOException syncFailure = null;
+        try {
+            for (final MappedByteBuffer buffer : buffers) {
+                buffer.force();
+            }
+        } catch (UncheckedIOException e) {
+            syncFailure = e.getCause();
+        } catch (RuntimeException e) {
+            syncFailure = new IOException(e);
+        }
+        lock.lock();
+        try {
+            if (syncFailure != null) {
+                log.error("Journal sync has failed, no more records are accepted", syncFailure);
+                failure = syncFailure;
+                running = false;
+            } else {
+                syncedPosition = target;
+            }
+            synced.signalAll();
+            return syncFailure == null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static class Segment {
+
+        private final Path file;
+
+        private final long firstPosition;
+
+        private final int capacity;
+
+        private final MappedByteBuffer buffer;
+
+        /**
+         * View of buffer positioned by appends.
+         */
+        private final ByteBuffer writer;
+
+        private Segment(final Path file, final long firstPosition, final int capacity, final MappedByteBuffer buffer) {
+            this.file = file;
+            this.firstPosition = firstPosition;
+            this.capacity = capacity;
+            this.buffer = buffer;
+            this.writer = buffer.duplicate();
+        }
+
+        private long endPosition() {
+            return firstPosition + capacity;
+        }
+    }
+}
@@ -1,13 +1,15 @@
 package com.revolut.mtt.error;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.google.inject.Binder;
-import com.revolut.mtt.validation.ValidationException;
+import com.revolut.mtt.database.DatabaseErrors;
 import com.typesafe.config.Config;
 import lombok.extern.slf4j.Slf4j;
 import org.jooby.*;
 
 /**
  * Common errors handling to convert exceptions to http response.
+ * Validation failures are not exceptions, they are converted to response by {@link Rejections}.
  */
 @Slf4j
 public class ErrorHandlingModule implements Jooby.Module {
@@ -16,22 +18,30 @@ public class ErrorHandlingModule implements Jooby.Module {
     public void configure(final Env env, final Config conf, final Binder binder) throws Throwable {
         final Router router = env.router();
 
-        // validation errors
-        router.err(ValidationException.class, (req, rsp, err) -> {
-            final ValidationException validationException = (ValidationException) err.getCause();
-            if (log.isDebugEnabled()) {
-                log.debug("Validation exception appeared", validationException);
-            }
-            rsp.send(Results.json(validationException.getErrors())
-                    .status(Status.BAD_REQUEST));
-        });
-
         // other errors
         router.err((req, rsp, err) -> {
             // handle any other exception
             final Throwable cause = err.getCause();
-            log.error("Unexpected error appeared", cause);
             final String message = cause.getMessage();
+            if (err.statusCode() == Status.BAD_REQUEST.value() || cause instanceof JsonProcessingException) {
+                // body which cannot be read, e.g. amount with fractions of minor unit
+                log.debug("Bad request appeared", cause);
+                rsp.send(Results.json(message).status(Status.BAD_REQUEST));
+                return;
+            }
+            if (err.statusCode() == Status.SERVICE_UNAVAILABLE.value()) {
+                // overload, client may retry later
+                log.warn("Request is not served: {}", message);
+                rsp.send(Results.json(message).status(Status.SERVICE_UNAVAILABLE));
+                return;
+            }
+            if (DatabaseErrors.isLockTimeout(cause)) {
+                // rows are locked by concurrent transactions, client may retry later
+                log.warn("Request is not served, lock timeout: {}", message);
+                rsp.send(Results.json(message).status(Status.LOCKED));
+                return;
+            }
+            log.error("Unexpected error appeared", cause);
             rsp.send(Results.json(message).status(Status.SERVER_ERROR));
         });
     }
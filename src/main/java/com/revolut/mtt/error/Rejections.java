@@ -0,0 +1,66 @@
+package com.revolut.mtt.error;
+
+import com.revolut.mtt.database.ConnectionProvider;
+import com.revolut.mtt.metrics.Counter;
+import com.revolut.mtt.metrics.Metrics;
+import com.revolut.mtt.validation.Validation;
+import com.revolut.mtt.validation.ValidationError;
+import lombok.extern.slf4j.Slf4j;
+import org.jooby.Result;
+import org.jooby.Results;
+import org.jooby.Status;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Converts failed validation to '400 Bad Request' response, so requests are rejected without exceptions.
+ * Current transaction is marked rollback only, since request may be rejected after it has changed something.
+ * Validation failures are counted by field in {@link Metrics}.
+ */
+@Slf4j
+@Singleton
+public class Rejections {
+
+    /**
+     * Field of validation errors which are not bound to a field.
+     */
+    private static final String NO_FIELD = "none";
+
+    private final Metrics metrics;
+
+    private final ConnectionProvider connectionProvider;
+
+    /**
+     * Validation failure counters by field, registered on first failure of a field.
+     */
+    private final Map<String, Counter> validationFailures = new ConcurrentHashMap<>();
+
+    @Inject
+    public Rejections(final Metrics metrics, final ConnectionProvider connectionProvider) {
+        this.metrics = metrics;
+        this.connectionProvider = connectionProvider;
+    }
+
+    public Result badRequest(final Validation validation) {
+        log.debug("Request is rejected: {}", validation);
+        connectionProvider.setRollbackOnly();
+        for (final ValidationError error : validation.getErrors()) {
+            validationFailures(error.getField() == null ? NO_FIELD : error.getField()).increment();
+        }
+        return Results.json(validation.getErrors())
+                .status(Status.BAD_REQUEST);
+    }
+
+    private Counter validationFailures(final String field) {
+        Counter counter = validationFailures.get(field);
+        if (counter == null) {
+            counter = metrics.counter("mtt_validation_failures_total", "Validation errors sent to clients by field.",
+                    "field", field);
+            validationFailures.put(field, counter);
+        }
+        return counter;
+    }
+}
@@ -0,0 +1,19 @@
+package com.revolut.mtt.idempotency;
+
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+/**
+ * Idempotency key with payload hash and response status of a request, to be saved in the commit
+ * which applies the request changes. Made immutable.
+ */
+@Value
+@AllArgsConstructor
+public class IdempotencyKey {
+
+    private final String key;
+
+    private final String payloadHash;
+
+    private final int status;
+}
@@ -0,0 +1,52 @@
+package com.revolut.mtt.idempotency;
+
+import com.google.inject.Binder;
+import com.revolut.mtt.repository.IdempotencyKeyRepository;
+import com.typesafe.config.Config;
+import lombok.extern.slf4j.Slf4j;
+import org.jooby.Env;
+import org.jooby.Jooby;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.Timestamp;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically deletes idempotency keys which are older than 'idempotency.window' from database.
+ * In-memory index of {@link IdempotencyStore} expires keys by itself.
+ */
+@Slf4j
+public class IdempotencyModule implements Jooby.Module {
+
+    @Override
+    public void configure(final Env env, final Config conf, final Binder binder) throws Throwable {
+        final long windowMillis = conf.getDuration("idempotency.window", TimeUnit.MILLISECONDS);
+        final long purgeIntervalMillis = conf.getDuration("idempotency.purgeInterval", TimeUnit.MILLISECONDS);
+        log.info("Configure Idempotency Module with {} ms window", windowMillis);
+
+        final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "idempotency-purge");
+            thread.setDaemon(true);
+            return thread;
+        });
+        env.onStart(registry -> {
+            final DataSource dataSource = registry.require(DataSource.class);
+            executor.scheduleWithFixedDelay(() -> purge(dataSource, windowMillis),
+                    purgeIntervalMillis, purgeIntervalMillis, TimeUnit.MILLISECONDS);
+        });
+        env.onStop(executor::shutdownNow);
+    }
+
+    private static void purge(final DataSource dataSource, final long windowMillis) {
+        try (final Connection connection = dataSource.getConnection()) {
+            final int deleted = new IdempotencyKeyRepository(() -> connection)
+                    .deleteKeys(new Timestamp(System.currentTimeMillis() - windowMillis));
+            log.debug("{} expired idempotency keys are purged", deleted);
+        } catch (Exception e) {
+            log.error("Exception during idempotency keys purge", e);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.revolut.mtt.idempotency;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.revolut.mtt.database.ConnectionProvider;
+import com.revolut.mtt.repository.IdempotencyKeyRepository;
+import com.typesafe.config.Config;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Remembers response statuses of requests by idempotency keys within a time window.
+ * Key is tied to hash of the payload of the request which reserved it, so reuse of a key by another request is told
+ * from a retry.
+ * In-memory index is bounded and answers most of the retries, including retries of requests which are still in flight.
+ * Keys are also saved to database within request transaction, so they are not lost on eviction.
+ */
+@Slf4j
+@Singleton
+public class IdempotencyStore {
+
+    private final ConnectionProvider connectionProvider;
+
+    private final IdempotencyKeyRepository idempotencyKeyRepository;
+
+    private final long waitTimeoutMillis;
+
+    /**
+     * Request which reserved the key, its status is not completed while request is in flight.
+     */
+    private final Cache<String, IdempotentRequest> requests;
+
+    @Inject
+    public IdempotencyStore(final ConnectionProvider connectionProvider,
+                            final IdempotencyKeyRepository idempotencyKeyRepository,
+                            final Config conf) {
+        this.connectionProvider = connectionProvider;
+        this.idempotencyKeyRepository = idempotencyKeyRepository;
+        this.waitTimeoutMillis = conf.getDuration("idempotency.waitTimeout", TimeUnit.MILLISECONDS);
+        this.requests = CacheBuilder.newBuilder()
+                .maximumSize(conf.getLong("idempotency.maxSize"))
+                .expireAfterWrite(conf.getDuration("idempotency.window", TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * Reserves key for current request. Reservation is released if current transaction is rolled back.
+     *
+     * @param payloadHash hash of the payload of current request.
+     * @return empty if key is reserved by current request, otherwise the original request, whose status
+     * may not be completed yet and whose payload may differ from the current one.
+     */
+    public Optional<IdempotentRequest> reserve(final String idempotencyKey,
+                                               final String payloadHash) throws SQLException {
+        final IdempotentRequest cached = requests.getIfPresent(idempotencyKey);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+        // saved request is cached as is, so retries racing with this one compare to the original payload
+        final Optional<IdempotentRequest> saved = idempotencyKeyRepository.fetchRequest(idempotencyKey);
+        final IdempotentRequest reservation = saved.orElseGet(
+                () -> new IdempotentRequest(payloadHash, new CompletableFuture<>()));
+        final IdempotentRequest original = requests.asMap().putIfAbsent(idempotencyKey, reservation);
+        if (original != null || saved.isPresent()) {
+            return Optional.of(original != null ? original : reservation);
+        }
+        connectionProvider.afterRollback(() -> release(idempotencyKey, reservation));
+        return Optional.empty();
+    }
+
+    /**
+     * Saves response status of request which reserved the key. Status becomes visible to retries once
+     * current transaction is committed.
+     */
+    public void complete(final String idempotencyKey, final String payloadHash, final int status) throws SQLException {
+        idempotencyKeyRepository.saveKey(idempotencyKey, payloadHash, status, new Timestamp(System.currentTimeMillis()));
+        connectionProvider.afterCommit(() -> completeSaved(idempotencyKey, status));
+    }
+
+    /**
+     * Makes response status of request which reserved the key visible to retries, once the key is saved
+     * with its status by another commit, e.g. by the one of transfer sequencer.
+     */
+    public void completeSaved(final String idempotencyKey, final int status) {
+        final IdempotentRequest reservation = requests.getIfPresent(idempotencyKey);
+        if (reservation != null) {
+            reservation.getStatus().complete(status);
+        }
+    }
+
+    /**
+     * Waits for the original request to complete.
+     *
+     * @return response status of the original request, empty if it failed or did not complete in time.
+     */
+    public Optional<Integer> await(final CompletableFuture<Integer> original) throws InterruptedException {
+        try {
+            return Optional.of(original.get(waitTimeoutMillis, TimeUnit.MILLISECONDS));
+        } catch (ExecutionException | TimeoutException e) {
+            return Optional.empty();
+        }
+    }
+
+    private void release(final String idempotencyKey, final IdempotentRequest reservation) {
+        requests.asMap().remove(idempotencyKey, reservation);
+        reservation.getStatus().completeExceptionally(new IllegalStateException("Request is not completed"));
+        log.debug("Idempotency key {} is released", idempotencyKey);
+    }
+}
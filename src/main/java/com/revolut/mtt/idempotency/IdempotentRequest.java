@@ -0,0 +1,27 @@
+package com.revolut.mtt.idempotency;
+
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Request which reserved an idempotency key: hash of its payload and its response status,
+ * not completed while request is in flight. Made immutable.
+ */
+@Value
+@AllArgsConstructor
+public class IdempotentRequest {
+
+    private final String payloadHash;
+
+    private final CompletableFuture<Integer> status;
+
+    /**
+     * @return whether a request with given payload hash is a retry of this request rather than another request
+     * reusing its key.
+     */
+    public boolean matches(final String payloadHash) {
+        return this.payloadHash.equals(payloadHash);
+    }
+}
@@ -0,0 +1,92 @@
+package com.revolut.mtt.json;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.revolut.mtt.model.Account;
+
+import java.io.IOException;
+
+/**
+ * Token level JSON codec of {@link Account}.
+ */
+final class AccountCodec {
+
+    private static final SerializableString ID = new SerializedString("id");
+
+    private static final SerializableString USER_ID = new SerializedString("userId");
+
+    private static final SerializableString BALANCE = new SerializedString("balance");
+
+    private AccountCodec() {
+    }
+
+    /**
+     * Mix-in attaching codec to {@link Account}.
+     */
+    @JsonSerialize(using = Serializer.class)
+    @JsonDeserialize(using = Deserializer.class)
+    abstract static class MixIn {
+    }
+
+    static class Serializer extends StdSerializer<Account> {
+
+        Serializer() {
+            super(Account.class);
+        }
+
+        @Override
+        public void serialize(final Account account,
+                              final JsonGenerator generator,
+                              final SerializerProvider provider) throws IOException {
+            generator.writeStartObject();
+            Tokens.writeLong(generator, ID, account.getId());
+            Tokens.writeLong(generator, USER_ID, account.getUserId());
+            Tokens.writeMoney(generator, BALANCE, account.getBalance());
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * Unknown fields are skipped.
+     */
+    static class Deserializer extends StdDeserializer<Account> {
+
+        Deserializer() {
+            super(Account.class);
+        }
+
+        @Override
+        public Account deserialize(final JsonParser parser, final DeserializationContext context) throws IOException {
+            Long id = null;
+            Long userId = null;
+            long balance = 0;
+            for (String field = Tokens.firstField(parser, context, Account.class);
+                 field != null;
+                 field = parser.nextFieldName()) {
+                parser.nextToken();
+                switch (field) {
+                    case "id":
+                        id = Tokens.readLong(parser, context);
+                        break;
+                    case "userId":
+                        userId = Tokens.readLong(parser, context);
+                        break;
+                    case "balance":
+                        balance = Tokens.readMoney(parser, context);
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+            return new Account(id, userId, balance);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.revolut.mtt.json;
+
+import com.google.inject.Binder;
+import com.typesafe.config.Config;
+import lombok.extern.slf4j.Slf4j;
+import org.jooby.Env;
+import org.jooby.Jooby;
+import org.jooby.json.Jackson;
+
+/**
+ * JSON parser and renderer of request and response bodies. Models received and sent on every request
+ * are read and written token by token by {@link ModelCodecs}, without builders and reflection,
+ * anything else falls back to Jackson. Codecs are registered in the shared object mapper,
+ * so streamed and imported models use them too.
+ */
+@Slf4j
+public class JsonCodec implements Jooby.Module {
+
+    private final Jackson jackson = new Jackson().module(new ModelCodecs());
+
+    @Override
+    public void configure(final Env env, final Config conf, final Binder binder) throws Throwable {
+        log.info("Configure Json Codec");
+        jackson.configure(env, conf, binder);
+    }
+}
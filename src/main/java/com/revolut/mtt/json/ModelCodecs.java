@@ -0,0 +1,22 @@
+package com.revolut.mtt.json;
+
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.revolut.mtt.model.Account;
+import com.revolut.mtt.model.Transfer;
+import com.revolut.mtt.model.User;
+
+/**
+ * Jackson module with hand-written serializers and deserializers of {@link Transfer}, {@link Account}
+ * and {@link User}. Jackson looks up builders declared on a model before deserializers of modules,
+ * so codecs are attached with mix-ins, which take precedence over the builders.
+ * Object mappers without this module still use the builders.
+ */
+public class ModelCodecs extends SimpleModule {
+
+    public ModelCodecs() {
+        super("ModelCodecs");
+        setMixInAnnotation(Transfer.class, TransferCodec.MixIn.class);
+        setMixInAnnotation(Account.class, AccountCodec.MixIn.class);
+        setMixInAnnotation(User.class, UserCodec.MixIn.class);
+    }
+}
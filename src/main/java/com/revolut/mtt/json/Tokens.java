@@ -0,0 +1,95 @@
+package com.revolut.mtt.json;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.revolut.mtt.model.Money;
+
+import java.io.IOException;
+
+/**
+ * Reading and writing of model fields. Common tokens are handled directly, others, e.g. numbers as strings,
+ * are delegated to Jackson, so coercions and errors stay the same as with reflective deserialization.
+ */
+final class Tokens {
+
+    private static final Money.Deserializer MONEY_DESERIALIZER = new Money.Deserializer();
+
+    private Tokens() {
+    }
+
+    /**
+     * Moves parser from the start of object to its first field.
+     *
+     * @return name of the first field, or null if object is empty.
+     */
+    static String firstField(final JsonParser parser,
+                             final DeserializationContext context,
+                             final Class<?> type) throws IOException {
+        if (parser.hasToken(JsonToken.START_OBJECT)) {
+            return parser.nextFieldName();
+        }
+        if (parser.hasToken(JsonToken.FIELD_NAME)) {
+            return parser.getCurrentName();
+        }
+        context.handleUnexpectedToken(type, parser);
+        return null;
+    }
+
+    static Long readLong(final JsonParser parser, final DeserializationContext context) throws IOException {
+        if (parser.hasToken(JsonToken.VALUE_NUMBER_INT)) {
+            return parser.getLongValue();
+        }
+        if (parser.hasToken(JsonToken.VALUE_NULL)) {
+            return null;
+        }
+        return context.readValue(parser, Long.class);
+    }
+
+    static String readString(final JsonParser parser, final DeserializationContext context) throws IOException {
+        if (parser.hasToken(JsonToken.VALUE_STRING)) {
+            return parser.getText();
+        }
+        if (parser.hasToken(JsonToken.VALUE_NULL)) {
+            return null;
+        }
+        return context.readValue(parser, String.class);
+    }
+
+    /**
+     * Reads decimal amount as minor units, see {@link Money.Deserializer}.
+     */
+    static long readMoney(final JsonParser parser, final DeserializationContext context) throws IOException {
+        if (parser.hasToken(JsonToken.VALUE_NULL)) {
+            return MONEY_DESERIALIZER.getNullValue(context);
+        }
+        return MONEY_DESERIALIZER.deserialize(parser, context);
+    }
+
+    static void writeLong(final JsonGenerator generator,
+                          final SerializableString field,
+                          final Long value) throws IOException {
+        generator.writeFieldName(field);
+        if (value == null) {
+            generator.writeNull();
+        } else {
+            generator.writeNumber(value);
+        }
+    }
+
+    static void writeString(final JsonGenerator generator,
+                            final SerializableString field,
+                            final String value) throws IOException {
+        generator.writeFieldName(field);
+        generator.writeString(value);
+    }
+
+    static void writeMoney(final JsonGenerator generator,
+                           final SerializableString field,
+                           final long minorUnits) throws IOException {
+        generator.writeFieldName(field);
+        generator.writeNumber(Money.toDecimal(minorUnits));
+    }
+}
@@ -0,0 +1,99 @@
+package com.revolut.mtt.json;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.revolut.mtt.model.Transfer;
+
+import java.io.IOException;
+
+/**
+ * Token level JSON codec of {@link Transfer}.
+ */
+final class TransferCodec {
+
+    private static final SerializableString END_USER_ID = new SerializedString("endUserId");
+
+    private static final SerializableString SOURCE_ACCOUNT_ID = new SerializedString("sourceAccountId");
+
+    private static final SerializableString DESTINATION_ACCOUNT_ID = new SerializedString("destinationAccountId");
+
+    private static final SerializableString AMOUNT = new SerializedString("amount");
+
+    private TransferCodec() {
+    }
+
+    /**
+     * Mix-in attaching codec to {@link Transfer}.
+     */
+    @JsonSerialize(using = Serializer.class)
+    @JsonDeserialize(using = Deserializer.class)
+    abstract static class MixIn {
+    }
+
+    static class Serializer extends StdSerializer<Transfer> {
+
+        Serializer() {
+            super(Transfer.class);
+        }
+
+        @Override
+        public void serialize(final Transfer transfer,
+                              final JsonGenerator generator,
+                              final SerializerProvider provider) throws IOException {
+            generator.writeStartObject();
+            Tokens.writeLong(generator, END_USER_ID, transfer.getEndUserId());
+            Tokens.writeLong(generator, SOURCE_ACCOUNT_ID, transfer.getSourceAccountId());
+            Tokens.writeLong(generator, DESTINATION_ACCOUNT_ID, transfer.getDestinationAccountId());
+            Tokens.writeMoney(generator, AMOUNT, transfer.getAmount());
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * Unknown fields are skipped.
+     */
+    static class Deserializer extends StdDeserializer<Transfer> {
+
+        Deserializer() {
+            super(Transfer.class);
+        }
+
+        @Override
+        public Transfer deserialize(final JsonParser parser, final DeserializationContext context) throws IOException {
+            Long endUserId = null;
+            Long sourceAccountId = null;
+            Long destinationAccountId = null;
+            long amount = 0;
+            for (String field = Tokens.firstField(parser, context, Transfer.class);
+                 field != null;
+                 field = parser.nextFieldName()) {
+                parser.nextToken();
+                switch (field) {
+                    case "endUserId":
+                        endUserId = Tokens.readLong(parser, context);
+                        break;
+                    case "sourceAccountId":
+                        sourceAccountId = Tokens.readLong(parser, context);
+                        break;
+                    case "destinationAccountId":
+                        destinationAccountId = Tokens.readLong(parser, context);
+                        break;
+                    case "amount":
+                        amount = Tokens.readMoney(parser, context);
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+            return new Transfer(endUserId, sourceAccountId, destinationAccountId, amount);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.revolut.mtt.json;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.revolut.mtt.model.User;
+
+import java.io.IOException;
+
+/**
+ * Token level JSON codec of {@link User}.
+ */
+final class UserCodec {
+
+    private static final SerializableString ID = new SerializedString("id");
+
+    private static final SerializableString USERNAME = new SerializedString("username");
+
+    private UserCodec() {
+    }
+
+    /**
+     * Mix-in attaching codec to {@link User}.
+     */
+    @JsonSerialize(using = Serializer.class)
+    @JsonDeserialize(using = Deserializer.class)
+    abstract static class MixIn {
+    }
+
+    static class Serializer extends StdSerializer<User> {
+
+        Serializer() {
+            super(User.class);
+        }
+
+        @Override
+        public void serialize(final User user,
+                              final JsonGenerator generator,
+                              final SerializerProvider provider) throws IOException {
+            generator.writeStartObject();
+            Tokens.writeLong(generator, ID, user.getId());
+            Tokens.writeString(generator, USERNAME, user.getUsername());
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * Unknown fields are skipped.
+     */
+    static class Deserializer extends StdDeserializer<User> {
+
+        Deserializer() {
+            super(User.class);
+        }
+
+        @Override
+        public User deserialize(final JsonParser parser, final DeserializationContext context) throws IOException {
+            Long id = null;
+            String username = null;
+            for (String field = Tokens.firstField(parser, context, User.class);
+                 field != null;
+                 field = parser.nextFieldName()) {
+                parser.nextToken();
+                switch (field) {
+                    case "id":
+                        id = Tokens.readLong(parser, context);
+                        break;
+                    case "username":
+                        username = Tokens.readString(parser, context);
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+            return new User(id, username);
+        }
+    }
+}
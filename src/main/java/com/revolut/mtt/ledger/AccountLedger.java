@@ -0,0 +1,157 @@
+package com.revolut.mtt.ledger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * In memory account balances storage.
+ * Accounts are spread across stripes by id. Each stripe has its own lock, which plays the role of a row lock
+ * for all accounts of the stripe. Every stripe keeps accounts in an open addressing table keyed by primitive id.
+ * Lookups are lock free, since table is replaced as a whole on insert. Inserts are rare comparing to balance updates.
+ */
+public class AccountLedger {
+
+    private final Stripe[] stripes;
+
+    private final int mask;
+
+    private final long lockTimeoutMillis;
+
+    public AccountLedger(final int stripesNumber, final long lockTimeoutMillis) {
+        // round up to power of two, so stripe can be calculated with a mask
+        final int size = Integer.highestOneBit(Math.max(1, stripesNumber - 1)) << 1;
+        this.stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new Stripe();
+        }
+        this.mask = size - 1;
+        this.lockTimeoutMillis = lockTimeoutMillis;
+    }
+
+    /**
+     * @return account if it exists, otherwise null.
+     */
+    public LedgerAccount get(final long accountId) {
+        return stripe(accountId).get(accountId);
+    }
+
+    /**
+     * Adds new account or replaces existing one with the same id.
+     */
+    public void put(final LedgerAccount account) {
+        final Stripe stripe = stripe(account.getId());
+        stripe.lock.lock();
+        try {
+            stripe.put(account);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Locks of accounts should be acquired in ascending stripe index order, since accounts with ascending ids
+     * may belong to stripes in any order.
+     *
+     * @return index of account stripe.
+     */
+    public int stripeIndex(final long accountId) {
+        return hash(accountId) & mask;
+    }
+
+    /**
+     * Acquires lock for account stripe. Lock is reentrant, so each successful call must be followed by {@link #unlock(long)}.
+     *
+     * @return true if lock has been acquired within lock timeout, otherwise false.
+     */
+    public boolean lock(final long accountId) throws InterruptedException {
+        return stripe(accountId).lock.tryLock(lockTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void unlock(final long accountId) {
+        stripe(accountId).lock.unlock();
+    }
+
+    /**
+     * Sets new balance. Caller must hold the account lock.
+     */
+    public void applyBalance(final LedgerAccount account, final long balance) {
+        account.setBalance(balance);
+    }
+
+    public void forEach(final Consumer<LedgerAccount> consumer) {
+        for (final Stripe stripe : stripes) {
+            for (final LedgerAccount account : stripe.table) {
+                if (account != null) {
+                    consumer.accept(account);
+                }
+            }
+        }
+    }
+
+    private Stripe stripe(final long accountId) {
+        return stripes[stripeIndex(accountId)];
+    }
+
+    private static int hash(final long accountId) {
+        // spread sequential ids evenly
+        final long h = accountId * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static class Stripe {
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private volatile LedgerAccount[] table = new LedgerAccount[8];
+
+        private int size;
+
+        private LedgerAccount get(final long accountId) {
+            final LedgerAccount[] current = table;
+            final int tableMask = current.length - 1;
+            int index = hash(accountId) >>> 16 & tableMask;
+            LedgerAccount account;
+            while ((account = current[index]) != null) {
+                if (account.getId() == accountId) {
+                    return account;
+                }
+                index = (index + 1) & tableMask;
+            }
+            return null;
+        }
+
+        private void put(final LedgerAccount account) {
+            final LedgerAccount[] current = table;
+            // keep load factor under 0.5
+            final int length = (size + 1) * 2 > current.length ? current.length * 2 : current.length;
+            final LedgerAccount[] copy = new LedgerAccount[length];
+            boolean replaced = false;
+            for (final LedgerAccount existing : current) {
+                if (existing == null) {
+                    continue;
+                }
+                if (existing.getId() == account.getId()) {
+                    replaced = true;
+                    insert(copy, account);
+                } else {
+                    insert(copy, existing);
+                }
+            }
+            if (!replaced) {
+                insert(copy, account);
+                size++;
+            }
+            table = copy;
+        }
+
+        private static void insert(final LedgerAccount[] table, final LedgerAccount account) {
+            final int tableMask = table.length - 1;
+            int index = hash(account.getId()) >>> 16 & tableMask;
+            while (table[index] != null) {
+                index = (index + 1) & tableMask;
+            }
+            table[index] = account;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.revolut.mtt.ledger;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Account state kept by {@link AccountLedger}. Balance is changed only by the holder of the account lock.
+ * Balance is minor units, see {@link com.revolut.mtt.model.Money}.
+ */
+public class LedgerAccount {
+
+    private final long id;
+
+    private final long userId;
+
+    private volatile long balance;
+
+    /**
+     * Marks that the balance has been changed, but not yet persisted.
+     */
+    private final AtomicBoolean dirty = new AtomicBoolean();
+
+    public LedgerAccount(final long id, final long userId, final long balance) {
+        this.id = id;
+        this.userId = userId;
+        this.balance = balance;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getUserId() {
+        return userId;
+    }
+
+    public long getBalance() {
+        return balance;
+    }
+
+    void setBalance(final long balance) {
+        this.balance = balance;
+    }
+
+    boolean markDirty() {
+        return dirty.compareAndSet(false, true);
+    }
+
+    void markClean() {
+        dirty.set(false);
+    }
+}
@@ -0,0 +1,159 @@
+package com.revolut.mtt.ledger;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Allocates ids of ledger entries and rolls balance snapshots forward over new entries in background.
+ * Entry id stays pending until transaction inserting the entry is completed, so compaction never skips
+ * an entry which is committed after entries with greater ids.
+ */
+@Slf4j
+public class LedgerJournal {
+
+    /**
+     * Maximum number of entry ids compacted in a single transaction.
+     */
+    private static final int BATCH_SIZE = 10_000;
+
+    private final long compactIntervalMillis;
+
+    private final NavigableSet<Long> pendingEntryIds = new TreeSet<>();
+
+    /**
+     * Guards compaction apart from entry ids, so ids are allocated while compaction is in progress.
+     */
+    private final Object compactionLock = new Object();
+
+    private long lastEntryId;
+
+    private long compactedEntryId;
+
+    private DataSource dataSource;
+
+    private ScheduledExecutorService executor;
+
+    public LedgerJournal(final long compactIntervalMillis) {
+        this.compactIntervalMillis = compactIntervalMillis;
+    }
+
+    /**
+     * Loads last entry ids from database and starts background compaction.
+     */
+    public void start(final DataSource dataSource) throws SQLException {
+        this.dataSource = dataSource;
+        try (final Connection connection = dataSource.getConnection()) {
+            synchronized (this) {
+                lastEntryId = fetchLong(connection, "select coalesce(max(id), 0) from ledger_entry");
+            }
+            synchronized (compactionLock) {
+                compactedEntryId = fetchLong(connection, "select coalesce(max(last_entry_id), 0) from balance_snapshot");
+            }
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "ledger-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::compactQuietly, compactIntervalMillis, compactIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops background compaction and compacts remaining entries.
+     */
+    public void stop() throws InterruptedException {
+        if (executor != null) {
+            executor.shutdown();
+            executor.awaitTermination(compactIntervalMillis * 10, TimeUnit.MILLISECONDS);
+        }
+        compactQuietly();
+    }
+
+    /**
+     * @return id for a new ledger entry, which should be released once its transaction is completed.
+     */
+    public synchronized long allocateEntryId() {
+        lastEntryId++;
+        pendingEntryIds.add(lastEntryId);
+        return lastEntryId;
+    }
+
+    public synchronized void releaseEntryId(final long entryId) {
+        pendingEntryIds.remove(entryId);
+    }
+
+    /**
+     * @return greatest entry id such that all entries up to it are either committed or never will be.
+     */
+    synchronized long completedEntryId() {
+        return pendingEntryIds.isEmpty() ? lastEntryId : pendingEntryIds.first() - 1;
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (Exception e) {
+            log.error("Exception during ledger compaction", e);
+        }
+    }
+
+    void compact() throws SQLException {
+        if (dataSource == null) {
+            return;
+        }
+        synchronized (compactionLock) {
+            compact(completedEntryId());
+        }
+    }
+
+    private void compact(final long completedEntryId) throws SQLException {
+        if (completedEntryId <= compactedEntryId) {
+            return;
+        }
+        try (final Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            // snapshot of account has no entries between its 'last_entry_id' and compacted id,
+            // so only entries after compacted id are added
+            try (final PreparedStatement preparedStatement = connection.prepareStatement(
+                    "merge into balance_snapshot (account_id, balance, last_entry_id) key (account_id) "
+                            + "select a.id, coalesce(s.balance, a.balance) + sum(e.amount), ? "
+                            + "from ledger_entry e "
+                            + "join account a on a.id = e.account_id "
+                            + "left join balance_snapshot s on s.account_id = a.id "
+                            + "where e.id > ? and e.id <= ? "
+                            + "group by a.id, a.balance, s.balance")) {
+                while (compactedEntryId < completedEntryId) {
+                    final long toEntryId = Math.min(compactedEntryId + BATCH_SIZE, completedEntryId);
+                    preparedStatement.setLong(1, toEntryId);
+                    preparedStatement.setLong(2, compactedEntryId);
+                    preparedStatement.setLong(3, toEntryId);
+                    preparedStatement.executeUpdate();
+                    connection.commit();
+                    compactedEntryId = toEntryId;
+                }
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+    }
+
+    private static long fetchLong(final Connection connection, final String sql) throws SQLException {
+        try (final PreparedStatement preparedStatement = connection.prepareStatement(sql);
+             final ResultSet resultSet = preparedStatement.executeQuery()) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+}
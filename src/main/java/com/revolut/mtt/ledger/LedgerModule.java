@@ -0,0 +1,102 @@
+package com.revolut.mtt.ledger;
+
+import com.google.inject.Binder;
+import com.revolut.mtt.database.DatabaseSnapshots;
+import com.revolut.mtt.database.WriteAheadJournal;
+import com.revolut.mtt.repository.AccountRepository;
+import com.revolut.mtt.repository.InMemoryAccountRepository;
+import com.revolut.mtt.repository.JournalAccountRepository;
+import com.typesafe.config.Config;
+import lombok.extern.slf4j.Slf4j;
+import org.jooby.Env;
+import org.jooby.Jooby;
+import org.jooby.Router;
+import org.jooby.Status;
+
+import javax.sql.DataSource;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Selects account storage engine according to 'ledger.engine' property.
+ * 'jdbc' keeps balances in database only, 'memory' keeps them in {@link AccountLedger} and persists asynchronously,
+ * optionally writing them ahead to {@link WriteAheadJournal},
+ * 'journal' derives them from append-only ledger entries and snapshots compacted by {@link LedgerJournal}.
+ */
+@Slf4j
+public class LedgerModule implements Jooby.Module {
+
+    private static final String IN_MEMORY_URL = "jdbc:h2:mem:";
+
+    @Override
+    public void configure(final Env env, final Config conf, final Binder binder) throws Throwable {
+        final String engine = conf.getString("ledger.engine");
+        log.info("Configure Ledger Module with '{}' engine", engine);
+        if ("jdbc".equals(engine)) {
+            return;
+        }
+        if ("journal".equals(engine)) {
+            final LedgerJournal journal =
+                    new LedgerJournal(conf.getDuration("ledger.journal.compactInterval", TimeUnit.MILLISECONDS));
+            binder.bind(LedgerJournal.class).toInstance(journal);
+            binder.bind(AccountRepository.class).to(JournalAccountRepository.class);
+            env.onStart(registry -> journal.start(registry.require(DataSource.class)));
+            env.onStop(journal::stop);
+            return;
+        }
+        if (!"memory".equals(engine)) {
+            throw new IllegalArgumentException("Unknown ledger engine: " + engine);
+        }
+
+        final AccountLedger ledger = new AccountLedger(conf.getInt("ledger.memory.stripes"),
+                conf.getDuration("ledger.memory.lockTimeout", TimeUnit.MILLISECONDS));
+        final WriteAheadJournal journal = newJournal(conf);
+        // balances flushed to in memory database are lost on crash, so journal is truncated after snapshots only
+        final boolean durableDatabase = !conf.getString("db.url").startsWith(IN_MEMORY_URL);
+        final boolean snapshots = !conf.getString("db.snapshot.dir").isEmpty();
+        if (journal != null && !durableDatabase && !snapshots) {
+            throw new IllegalArgumentException("Write-ahead journal with in memory database requires snapshots: "
+                    + "set 'db.snapshot.dir' or use persistent 'db.url'");
+        }
+        // snapshot may capture half of a transfer, its journal group is kept until the next snapshot to restore both
+        final LedgerPersister persister = new LedgerPersister(ledger,
+                conf.getDuration("ledger.memory.flushInterval", TimeUnit.MILLISECONDS), journal,
+                durableDatabase && !snapshots);
+        binder.bind(AccountLedger.class).toInstance(ledger);
+        binder.bind(LedgerPersister.class).toInstance(persister);
+        binder.bind(AccountRepository.class).to(InMemoryAccountRepository.class);
+
+        env.onStart(registry -> {
+            if (journal != null && snapshots) {
+                registry.require(DatabaseSnapshots.class).setParticipant(persister);
+            }
+            persister.start(registry.require(DataSource.class));
+        });
+        env.onStop(persister::stop);
+
+        final Router router = env.router();
+        if (journal != null) {
+            // changes are durable before response is sent, so acknowledged transfer survives a crash
+            router.after("*", (req, rsp, result) -> {
+                if (!result.status().map(Status::isError).orElse(false)) {
+                    req.require(InMemoryAccountRepository.class).prepareTransaction();
+                }
+                return result;
+            });
+        }
+    }
+
+    /**
+     * @return write-ahead journal if enabled by 'ledger.memory.wal.dir', otherwise null.
+     */
+    private static WriteAheadJournal newJournal(final Config conf) {
+        final String dir = conf.getString("ledger.memory.wal.dir");
+        if (dir.isEmpty()) {
+            return null;
+        }
+        log.info("Ledger changes are written ahead to journal in '{}'", dir);
+        return new WriteAheadJournal(Paths.get(dir), conf.getBytes("ledger.memory.wal.segmentSize"),
+                conf.getDuration("ledger.memory.wal.syncInterval", TimeUnit.MILLISECONDS),
+                conf.getInt("ledger.memory.wal.syncBatchSize"));
+    }
+}
@@ -0,0 +1,243 @@
+package com.revolut.mtt.ledger;
+
+import com.revolut.mtt.database.DatabaseSnapshots;
+import com.revolut.mtt.database.WriteAheadJournal;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads ledger from database and asynchronously writes changed balances back.
+ * Several changes of the same account between two flushes result in a single update.
+ * With {@link WriteAheadJournal} changed balances are durable before they are applied: journal is replayed
+ * over loaded balances on start, and its segments are truncated once their balances are flushed to durable database.
+ * If database is not durable, segments are truncated only once their balances are captured by
+ * {@link DatabaseSnapshots}.
+ */
+@Slf4j
+public class LedgerPersister implements DatabaseSnapshots.Participant {
+
+    private static final int BATCH_SIZE = 1000;
+
+    private final AccountLedger ledger;
+
+    private final long flushIntervalMillis;
+
+    /**
+     * Null if journal is disabled.
+     */
+    private final WriteAheadJournal journal;
+
+    /**
+     * Whether journal is truncated after flush, false if flushed balances are not durable.
+     */
+    private final boolean checkpointOnFlush;
+
+    private final Queue<LedgerAccount> dirtyAccounts = new ConcurrentLinkedQueue<>();
+
+    private DataSource dataSource;
+
+    private ScheduledExecutorService executor;
+
+    public LedgerPersister(final AccountLedger ledger, final long flushIntervalMillis) {
+        this(ledger, flushIntervalMillis, null);
+    }
+
+    public LedgerPersister(final AccountLedger ledger,
+                           final long flushIntervalMillis,
+                           final WriteAheadJournal journal) {
+        this(ledger, flushIntervalMillis, journal, true);
+    }
+
+    public LedgerPersister(final AccountLedger ledger,
+                           final long flushIntervalMillis,
+                           final WriteAheadJournal journal,
+                           final boolean checkpointOnFlush) {
+        this.ledger = ledger;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.journal = journal;
+        this.checkpointOnFlush = checkpointOnFlush;
+    }
+
+    /**
+     * Loads all accounts to ledger, replays journal over them and starts background flushing.
+     */
+    public void start(final DataSource dataSource) throws SQLException, IOException {
+        this.dataSource = dataSource;
+        load();
+        if (journal != null) {
+            journal.open(this::replay);
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "ledger-persister");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops background flushing and writes remaining changes.
+     */
+    public void stop() throws InterruptedException {
+        if (executor != null) {
+            executor.shutdown();
+            executor.awaitTermination(flushIntervalMillis * 10, TimeUnit.MILLISECONDS);
+        }
+        flushQuietly();
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    /**
+     * Makes new balances durable in journal, so they survive a crash once applied.
+     *
+     * @return journal position to {@link #release(long)} once balances are applied, or -1 if journal is disabled.
+     */
+    public long writeAhead(final Map<Long, Long> balances) throws IOException {
+        if (journal == null) {
+            return -1;
+        }
+        final long position = journal.append(balances);
+        try {
+            journal.awaitDurable(position);
+        } catch (IOException e) {
+            journal.release(position);
+            throw e;
+        }
+        return position;
+    }
+
+    /**
+     * Lets journal be truncated after balances written ahead at position, since they are applied and marked dirty.
+     */
+    public void release(final long position) {
+        if (position >= 0) {
+            journal.release(position);
+        }
+    }
+
+    /**
+     * Schedules account balance for persisting.
+     */
+    public void markDirty(final LedgerAccount account) {
+        if (account.markDirty()) {
+            dirtyAccounts.add(account);
+        }
+    }
+
+    /**
+     * Flushes balances, so snapshot read next captures balances of all groups before returned position.
+     *
+     * @return journal position to truncate once snapshot is durable, or -1 if journal is disabled.
+     */
+    @Override
+    public long prepare() throws SQLException, IOException {
+        // accounts of groups released before position are already in dirty queue
+        final long position = journal == null ? -1 : journal.completedPosition();
+        flush();
+        return position;
+    }
+
+    @Override
+    public void written(final long position) throws IOException {
+        if (position >= 0) {
+            journal.checkpoint(position);
+        }
+    }
+
+    private void load() throws SQLException {
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement =
+                     connection.prepareStatement("select id, user_id, balance from account");
+             final ResultSet resultSet = preparedStatement.executeQuery()) {
+            int loaded = 0;
+            while (resultSet.next()) {
+                ledger.put(new LedgerAccount(resultSet.getLong("id"),
+                        resultSet.getLong("user_id"),
+                        resultSet.getLong("balance")));
+                loaded++;
+            }
+            log.info("{} accounts loaded to ledger", loaded);
+        }
+    }
+
+    private void replay(final long accountId, final long balance) {
+        final LedgerAccount account = ledger.get(accountId);
+        if (account == null) {
+            log.warn("Journaled balance of non existing account {} is skipped", accountId);
+            return;
+        }
+        ledger.applyBalance(account, balance);
+        markDirty(account);
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("Exception during ledger flush", e);
+        }
+    }
+
+    synchronized void flush() throws SQLException, IOException {
+        if (dataSource == null) {
+            return;
+        }
+        // accounts of groups released before checkpoint are already in dirty queue
+        final long checkpoint = journal == null ? 0 : journal.completedPosition();
+        if (!dirtyAccounts.isEmpty()) {
+            write();
+        }
+        if (journal != null && checkpointOnFlush) {
+            journal.checkpoint(checkpoint);
+        }
+    }
+
+    private void write() throws SQLException {
+        final List<LedgerAccount> batch = new ArrayList<>();
+        try (final Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (final PreparedStatement preparedStatement =
+                         connection.prepareStatement("update account set balance = ? where id = ?")) {
+                LedgerAccount account;
+                while ((account = dirtyAccounts.poll()) != null) {
+                    // clean before reading balance, so concurrent change is scheduled again
+                    account.markClean();
+                    preparedStatement.setLong(1, account.getBalance());
+                    preparedStatement.setLong(2, account.getId());
+                    preparedStatement.addBatch();
+                    batch.add(account);
+                    if (batch.size() == BATCH_SIZE) {
+                        preparedStatement.executeBatch();
+                        connection.commit();
+                        batch.clear();
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    preparedStatement.executeBatch();
+                    connection.commit();
+                }
+            } catch (SQLException e) {
+                connection.rollback();
+                // try again on next flush
+                batch.forEach(this::markDirty);
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.revolut.mtt.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonic counter, e.g. of failures.
+ */
+public class Counter implements Metrics.Metric {
+
+    private final LongAdder count = new LongAdder();
+
+    Counter() {
+    }
+
+    public void increment() {
+        count.increment();
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    @Override
+    public void write(final StringBuilder out, final String name, final String labels) {
+        Metrics.writeSample(out, name, labels, count.sum());
+    }
+}
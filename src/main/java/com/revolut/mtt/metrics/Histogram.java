@@ -0,0 +1,77 @@
+package com.revolut.mtt.metrics;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations with fixed buckets from half a millisecond to ten seconds.
+ * Durations are recorded in nanoseconds and written in seconds, as Prometheus expects.
+ * Each bucket counts only its own durations, cumulative counts are summed when histogram is written.
+ */
+public class Histogram implements Metrics.Metric {
+
+    private static final double[] BOUNDS = {0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+    private static final long[] BOUND_NANOS = new long[BOUNDS.length];
+
+    private static final String[] BOUND_LABELS = new String[BOUNDS.length];
+
+    static {
+        for (int i = 0; i < BOUNDS.length; i++) {
+            BOUND_NANOS[i] = (long) (BOUNDS[i] * TimeUnit.SECONDS.toNanos(1));
+            BOUND_LABELS[i] = BigDecimal.valueOf(BOUNDS[i]).stripTrailingZeros().toPlainString();
+        }
+    }
+
+    /**
+     * One more bucket for durations above the last bound.
+     */
+    private final LongAdder[] buckets = new LongAdder[BOUNDS.length + 1];
+
+    private final LongAdder sumNanos = new LongAdder();
+
+    Histogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(final long nanos) {
+        int bucket = 0;
+        while (bucket < BOUND_NANOS.length && nanos > BOUND_NANOS[bucket]) {
+            bucket++;
+        }
+        buckets[bucket].increment();
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * Records time passed since 'startNanos' taken from {@link System#nanoTime()}.
+     */
+    public void recordSince(final long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long count() {
+        long count = 0;
+        for (final LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    @Override
+    public void write(final StringBuilder out, final String name, final String labels) {
+        final String bucketName = name + "_bucket";
+        final String separator = labels.isEmpty() ? "" : labels + ",";
+        long count = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            count += buckets[i].sum();
+            final String bound = i < BOUND_LABELS.length ? BOUND_LABELS[i] : "+Inf";
+            Metrics.writeSample(out, bucketName, separator + "le=\"" + bound + "\"", count);
+        }
+        Metrics.writeSample(out, name + "_sum", labels, sumNanos.sum() / (double) TimeUnit.SECONDS.toNanos(1));
+        Metrics.writeSample(out, name + "_count", labels, count);
+    }
+}
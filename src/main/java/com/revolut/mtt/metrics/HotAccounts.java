@@ -0,0 +1,190 @@
+package com.revolut.mtt.metrics;
+
+import com.revolut.mtt.model.HotAccount;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Finds accounts which transfers wait for the most, with memory which does not depend on number of accounts.
+ * <p>
+ * Transfers and lock wait time of each account are counted in count-min sketches: every account increments
+ * one counter in each of {@link #DEPTH} rows, chosen by its own hash per row, and its estimate is the smallest
+ * of them, since other accounts sharing a counter can only add to it. Accounts with the largest lock wait estimates
+ * are kept in a fixed size top table. All counts are halved every 'halfLife', so accounts which are not hot anymore
+ * leave the table.
+ * <p>
+ * Recording never blocks: the top table is updated only if its lock is free and the account may get into it,
+ * otherwise the account is checked again on its next transfer.
+ */
+public class HotAccounts {
+
+    private static final int DEPTH = 4;
+
+    private static final long[] SEEDS = {0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L};
+
+    private final int width;
+
+    private final AtomicLongArray transfers;
+
+    private final AtomicLongArray lockWaits;
+
+    private final long halfLifeNanos;
+
+    private final AtomicLong nextDecayNanos;
+
+    private final ReentrantLock topLock = new ReentrantLock();
+
+    private final long[] topIds;
+
+    private final long[] topTransfers;
+
+    private final long[] topLockWaits;
+
+    private int topCount;
+
+    /**
+     * Smallest lock wait among top accounts once the table is full, accounts below it are not checked.
+     */
+    private volatile long topThreshold;
+
+    /**
+     * @param width counters per sketch row, rounded up to power of two. More counters give fewer overestimates.
+     * @param topSize number of the hottest accounts kept.
+     * @param halfLifeMillis how often all counts are halved.
+     */
+    public HotAccounts(final int width, final int topSize, final long halfLifeMillis) {
+        this.width = Integer.highestOneBit(Math.max(width - 1, 1)) << 1;
+        this.transfers = new AtomicLongArray(DEPTH * this.width);
+        this.lockWaits = new AtomicLongArray(DEPTH * this.width);
+        this.halfLifeNanos = TimeUnit.MILLISECONDS.toNanos(halfLifeMillis);
+        this.nextDecayNanos = new AtomicLong(System.nanoTime() + halfLifeNanos);
+        this.topIds = new long[topSize];
+        this.topTransfers = new long[topSize];
+        this.topLockWaits = new long[topSize];
+    }
+
+    /**
+     * Counts a transfer which waited 'lockWaitNanos' to lock the account.
+     */
+    public void record(final long accountId, final long lockWaitNanos) {
+        decayIfDue();
+        long transferEstimate = Long.MAX_VALUE;
+        long lockWaitEstimate = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            final int index = row * width + column(accountId, row);
+            transferEstimate = Math.min(transferEstimate, transfers.incrementAndGet(index));
+            lockWaitEstimate = Math.min(lockWaitEstimate, lockWaits.addAndGet(index, lockWaitNanos));
+        }
+        if (lockWaitEstimate >= topThreshold && topLock.tryLock()) {
+            try {
+                updateTop(accountId, transferEstimate, lockWaitEstimate);
+            } finally {
+                topLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return the hottest accounts, the longest lock wait first.
+     */
+    public List<HotAccount> top() {
+        final List<HotAccount> hotAccounts = new ArrayList<>(topIds.length);
+        topLock.lock();
+        try {
+            for (int i = 0; i < topCount; i++) {
+                final double lockWaitMillis = topLockWaits[i] / (double) TimeUnit.MILLISECONDS.toNanos(1);
+                hotAccounts.add(HotAccount.builder()
+                        .accountId(topIds[i])
+                        .transfers(topTransfers[i])
+                        .lockWaitMillis(lockWaitMillis)
+                        .averageLockWaitMillis(topTransfers[i] == 0 ? 0 : lockWaitMillis / topTransfers[i])
+                        .build());
+            }
+        } finally {
+            topLock.unlock();
+        }
+        hotAccounts.sort(Comparator.comparingDouble(HotAccount::getLockWaitMillis).reversed());
+        return hotAccounts;
+    }
+
+    /**
+     * Halves all counts, so recent transfers weigh more than old ones.
+     */
+    void decay() {
+        for (int i = 0; i < transfers.length(); i++) {
+            transfers.getAndUpdate(i, count -> count >> 1);
+            lockWaits.getAndUpdate(i, count -> count >> 1);
+        }
+        topLock.lock();
+        try {
+            for (int i = 0; i < topCount; i++) {
+                topTransfers[i] >>= 1;
+                topLockWaits[i] >>= 1;
+            }
+            updateThreshold();
+        } finally {
+            topLock.unlock();
+        }
+    }
+
+    private void decayIfDue() {
+        final long next = nextDecayNanos.get();
+        if (System.nanoTime() - next >= 0 && nextDecayNanos.compareAndSet(next, next + halfLifeNanos)) {
+            decay();
+        }
+    }
+
+    private void updateTop(final long accountId, final long transferEstimate, final long lockWaitEstimate) {
+        int slot = -1;
+        for (int i = 0; i < topCount; i++) {
+            if (topIds[i] == accountId) {
+                slot = i;
+                break;
+            }
+        }
+        if (slot < 0 && topCount < topIds.length) {
+            slot = topCount++;
+        } else if (slot < 0) {
+            final int coldest = coldestTop();
+            if (topLockWaits[coldest] >= lockWaitEstimate) {
+                return;
+            }
+            slot = coldest;
+        }
+        topIds[slot] = accountId;
+        topTransfers[slot] = transferEstimate;
+        topLockWaits[slot] = lockWaitEstimate;
+        updateThreshold();
+    }
+
+    private void updateThreshold() {
+        topThreshold = topCount < topIds.length ? 0 : topLockWaits[coldestTop()];
+    }
+
+    private int coldestTop() {
+        int coldest = 0;
+        for (int i = 1; i < topCount; i++) {
+            if (topLockWaits[i] < topLockWaits[coldest]) {
+                coldest = i;
+            }
+        }
+        return coldest;
+    }
+
+    /**
+     * Mixes account id with row seed, so accounts sharing a counter in one row rarely share it in others.
+     */
+    private int column(final long accountId, final int row) {
+        long hash = accountId ^ SEEDS[row];
+        hash = (hash ^ (hash >>> 33)) * 0xFF51AFD7ED558CCDL;
+        hash = (hash ^ (hash >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return (int) hash & (width - 1);
+    }
+}
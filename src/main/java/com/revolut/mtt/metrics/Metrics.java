@@ -0,0 +1,134 @@
+package com.revolut.mtt.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Registry of service metrics, written in Prometheus text format.
+ * Metrics are registered once, e.g. on startup or on first usage of a label value, and then recorded through
+ * references kept by callers, so recording only increments counters and never allocates.
+ * Metrics with the same name and different labels are written as one family.
+ * Registering a metric with already registered name and labels returns the existing one.
+ */
+public class Metrics {
+
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+    /**
+     * @param labels label names and values, one after another.
+     */
+    public synchronized Counter counter(final String name, final String help, final String... labels) {
+        return (Counter) family(name, help, "counter").metrics.computeIfAbsent(formatLabels(labels),
+                key -> new Counter());
+    }
+
+    /**
+     * Histogram of durations with default buckets, written in seconds.
+     *
+     * @param labels label names and values, one after another.
+     */
+    public synchronized Histogram histogram(final String name, final String help, final String... labels) {
+        return (Histogram) family(name, help, "histogram").metrics.computeIfAbsent(formatLabels(labels),
+                key -> new Histogram());
+    }
+
+    /**
+     * Gauge is evaluated only when metrics are written.
+     *
+     * @param labels label names and values, one after another.
+     */
+    public synchronized void gauge(final String name,
+                                   final String help,
+                                   final DoubleSupplier value,
+                                   final String... labels) {
+        family(name, help, "gauge").metrics.put(formatLabels(labels),
+                (out, metricName, metricLabels) -> writeSample(out, metricName, metricLabels, value.getAsDouble()));
+    }
+
+    /**
+     * @return all metrics in Prometheus text format.
+     */
+    public synchronized String scrape() {
+        final StringBuilder out = new StringBuilder();
+        for (final Family family : families.values()) {
+            out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+            family.metrics.forEach((labels, metric) -> metric.write(out, family.name, labels));
+        }
+        return out.toString();
+    }
+
+    static void writeSample(final StringBuilder out, final String name, final String labels, final double value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ');
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+
+    static String formatLabels(final String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels should be pairs of name and value");
+        }
+        final StringBuilder out = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append(labels[i]).append("=\"");
+            final String value = labels[i + 1];
+            for (int j = 0; j < value.length(); j++) {
+                final char c = value.charAt(j);
+                if (c == '\\' || c == '"') {
+                    out.append('\\').append(c);
+                } else if (c == '\n') {
+                    out.append("\\n");
+                } else {
+                    out.append(c);
+                }
+            }
+            out.append('"');
+        }
+        return out.toString();
+    }
+
+    private Family family(final String name, final String help, final String type) {
+        final Family family = families.computeIfAbsent(name, key -> new Family(name, help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as " + family.type);
+        }
+        return family;
+    }
+
+    /**
+     * Writes its samples with given name and labels.
+     */
+    interface Metric {
+
+        void write(StringBuilder out, String name, String labels);
+    }
+
+    private static class Family {
+
+        private final String name;
+
+        private final String help;
+
+        private final String type;
+
+        private final Map<String, Metric> metrics = new LinkedHashMap<>();
+
+        private Family(final String name, final String help, final String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.revolut.mtt.metrics;
+
+import com.google.inject.Binder;
+import com.typesafe.config.Config;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import lombok.extern.slf4j.Slf4j;
+import org.jooby.Env;
+import org.jooby.Jooby;
+import org.jooby.MediaType;
+import org.jooby.Results;
+import org.jooby.Router;
+
+import javax.inject.Provider;
+import javax.sql.DataSource;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+
+/**
+ * Exposes service metrics at '/metrics' in Prometheus text format: latency of each route, database pool usage
+ * and metrics recorded by other modules and controllers through {@link Metrics}.
+ * Route latency is measured from request timestamp, taken by Jooby once request is received, till response is sent.
+ * Timestamp is a primitive of request, so recording neither boxes nor allocates, at the cost of millisecond resolution.
+ * The hottest accounts tracked by {@link HotAccounts} are exposed at '/admin/hot-accounts'.
+ */
+@Slf4j
+public class MetricsModule implements Jooby.Module {
+
+    private final Metrics metrics;
+
+    /**
+     * Route latency histograms by method and route pattern, registered on first request of a route.
+     */
+    private final Map<String, Map<String, Histogram>> routeLatencies = new ConcurrentHashMap<>();
+
+    public MetricsModule(final Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void configure(final Env env, final Config conf, final Binder binder) throws Throwable {
+        log.info("Configure Metrics Module");
+        binder.bind(Metrics.class).toInstance(metrics);
+
+        final HotAccounts hotAccounts = new HotAccounts(conf.getInt("hotAccounts.width"),
+                conf.getInt("hotAccounts.topSize"),
+                conf.getDuration("hotAccounts.halfLife", TimeUnit.MILLISECONDS));
+        binder.bind(HotAccounts.class).toInstance(hotAccounts);
+
+        final Provider<DataSource> dataSourceProvider = binder.getProvider(DataSource.class);
+        poolGauge(dataSourceProvider, "active", HikariPoolMXBean::getActiveConnections);
+        poolGauge(dataSourceProvider, "idle", HikariPoolMXBean::getIdleConnections);
+        poolGauge(dataSourceProvider, "total", HikariPoolMXBean::getTotalConnections);
+        metrics.gauge("mtt_db_pool_pending_threads", "Threads waiting for a pooled connection.",
+                () -> poolValue(dataSourceProvider, HikariPoolMXBean::getThreadsAwaitingConnection));
+        metrics.gauge("mtt_db_pool_utilization", "Active connections to maximum pool size ratio.",
+                () -> poolValue(dataSourceProvider, HikariPoolMXBean::getActiveConnections)
+                        / poolValue(dataSourceProvider, pool -> maximumPoolSize(dataSourceProvider)));
+
+        final Router router = env.router();
+
+        router.get("/metrics", req -> Results.ok(metrics.scrape()).type(MediaType.plain));
+        router.get("/admin/hot-accounts", req -> Results.json(hotAccounts.top()));
+
+        router.complete("*", (req, rsp, cause) -> routeLatency(req.method(), req.route().pattern())
+                .record(TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - req.timestamp())));
+    }
+
+    private Histogram routeLatency(final String method, final String pattern) {
+        Map<String, Histogram> methodLatencies = routeLatencies.get(method);
+        if (methodLatencies == null) {
+            routeLatencies.putIfAbsent(method, new ConcurrentHashMap<>());
+            methodLatencies = routeLatencies.get(method);
+        }
+        Histogram latency = methodLatencies.get(pattern);
+        if (latency == null) {
+            latency = metrics.histogram("mtt_http_request_duration_seconds",
+                    "Time from request start till response is sent.", "method", method, "route", pattern);
+            methodLatencies.put(pattern, latency);
+        }
+        return latency;
+    }
+
+    private void poolGauge(final Provider<DataSource> dataSourceProvider,
+                           final String state,
+                           final ToIntFunction<HikariPoolMXBean> value) {
+        metrics.gauge("mtt_db_pool_connections", "Pooled database connections by state.",
+                () -> poolValue(dataSourceProvider, value), "state", state);
+    }
+
+    /**
+     * @return value of pool, or NaN if pool is not started yet or data source is not pooled.
+     */
+    private static double poolValue(final Provider<DataSource> dataSourceProvider,
+                                    final ToIntFunction<HikariPoolMXBean> value) {
+        final DataSource dataSource = dataSourceProvider.get();
+        if (!(dataSource instanceof HikariDataSource)) {
+            return Double.NaN;
+        }
+        final HikariPoolMXBean pool = ((HikariDataSource) dataSource).getHikariPoolMXBean();
+        return pool == null ? Double.NaN : value.applyAsInt(pool);
+    }
+
+    private static int maximumPoolSize(final Provider<DataSource> dataSourceProvider) {
+        return ((HikariDataSource) dataSourceProvider.get()).getMaximumPoolSize();
+    }
+}
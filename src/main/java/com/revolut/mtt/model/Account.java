@@ -3,13 +3,12 @@ package com.revolut.mtt.model;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.annotation.JsonPOJOBuilder;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
-import java.math.BigDecimal;
-
 /**
  * Class representing user account. Assume currency is always the same for sake of simplicity. Made immutable.
  */
@@ -24,10 +23,19 @@ public class Account {
 
     private final Long userId;
 
-    @Builder.Default
-    private final BigDecimal balance = BigDecimal.ZERO;
+    /**
+     * Minor units, see {@link Money}.
+     */
+    @JsonSerialize(using = Money.Serializer.class)
+    private final long balance;
 
     @JsonPOJOBuilder(withPrefix = "")
     public static class AccountBuilder {
+
+        @JsonDeserialize(using = Money.Deserializer.class)
+        public AccountBuilder balance(final long balance) {
+            this.balance = balance;
+            return this;
+        }
     }
 }
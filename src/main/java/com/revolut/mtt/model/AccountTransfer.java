@@ -0,0 +1,34 @@
+package com.revolut.mtt.model;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Value;
+
+import java.time.Instant;
+
+/**
+ * Transfer as seen in account statement. Made immutable.
+ */
+@Value
+@Builder
+@AllArgsConstructor
+public class AccountTransfer {
+
+    /**
+     * Transfer id, same for both accounts of the transfer. Newer transfers have greater ids.
+     */
+    private final Long id;
+
+    private final Long counterpartyAccountId;
+
+    /**
+     * Minor units, see {@link Money}. Negative for debits, positive for credits.
+     */
+    @JsonSerialize(using = Money.Serializer.class)
+    private final long amount;
+
+    @JsonFormat(shape = JsonFormat.Shape.STRING)
+    private final Instant createdAt;
+}
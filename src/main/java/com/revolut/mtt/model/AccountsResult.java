@@ -0,0 +1,26 @@
+package com.revolut.mtt.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * Outcome of fetching several accounts at once. Made immutable.
+ */
+@Value
+@Builder
+@AllArgsConstructor
+public class AccountsResult {
+
+    /**
+     * Found accounts, in the order of requested ids.
+     */
+    private final List<Account> accounts;
+
+    /**
+     * Requested ids of accounts which do not exist.
+     */
+    private final List<Long> missingIds;
+}
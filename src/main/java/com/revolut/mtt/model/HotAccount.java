@@ -0,0 +1,29 @@
+package com.revolut.mtt.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * Contention statistics of an account among the hottest ones. Made immutable.
+ * Values are estimates which decay over time, they may be overestimated but never underestimated.
+ */
+@Value
+@Builder(toBuilder = true)
+@AllArgsConstructor
+public class HotAccount {
+
+    private final long accountId;
+
+    /**
+     * Transfers which locked the account.
+     */
+    private final long transfers;
+
+    /**
+     * Total time transfers waited to lock the account.
+     */
+    private final double lockWaitMillis;
+
+    private final double averageLockWaitMillis;
+}
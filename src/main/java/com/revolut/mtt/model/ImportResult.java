@@ -0,0 +1,29 @@
+package com.revolut.mtt.model;
+
+import com.revolut.mtt.validation.ValidationError;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * Outcome of a single line of import. Made immutable.
+ */
+@Value
+@Builder(toBuilder = true)
+@AllArgsConstructor
+public class ImportResult {
+
+    /**
+     * Line number in imported body, starting from 1.
+     */
+    private final long line;
+
+    /**
+     * Id of created entity, null if line is not imported.
+     */
+    private final Long id;
+
+    private final List<ValidationError> errors;
+}
@@ -0,0 +1,95 @@
+package com.revolut.mtt.model;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+
+/**
+ * Money amounts are kept as 'long' number of minor units, e.g. cents, so transfers add and compare primitives
+ * instead of allocating decimals, and database rows have fixed width. Amounts are decimal only in JSON,
+ * converted by {@link Serializer} and {@link Deserializer}.
+ */
+public final class Money {
+
+    /**
+     * Number of decimal places of minor unit.
+     */
+    public static final int SCALE = 2;
+
+    private Money() {
+    }
+
+    /**
+     * @throws ArithmeticException if amount has fractions of minor unit or does not fit into long.
+     */
+    public static long toMinorUnits(final BigDecimal amount) {
+        return amount.movePointRight(SCALE).longValueExact();
+    }
+
+    public static BigDecimal toDecimal(final long minorUnits) {
+        return BigDecimal.valueOf(minorUnits, SCALE);
+    }
+
+    /**
+     * Writes minor units as decimal number.
+     */
+    public static class Serializer extends StdSerializer<Long> {
+
+        public Serializer() {
+            super(Long.class);
+        }
+
+        @Override
+        public void serialize(final Long minorUnits,
+                              final JsonGenerator generator,
+                              final SerializerProvider provider) throws IOException {
+            generator.writeNumber(toDecimal(minorUnits));
+        }
+    }
+
+    /**
+     * Reads decimal number or string as minor units. Missing amount is zero, so it fails the same validation.
+     */
+    public static class Deserializer extends StdDeserializer<Long> {
+
+        public Deserializer() {
+            super(Long.class);
+        }
+
+        @Override
+        public Long deserialize(final JsonParser parser, final DeserializationContext context) throws IOException {
+            final BigDecimal amount;
+            if (parser.hasToken(JsonToken.VALUE_STRING)) {
+                try {
+                    amount = new BigDecimal(parser.getText().trim());
+                } catch (NumberFormatException e) {
+                    return (Long) context.handleWeirdStringValue(Long.class, parser.getText(),
+                            "not a valid amount");
+                }
+            } else if (parser.hasToken(JsonToken.VALUE_NUMBER_INT) || parser.hasToken(JsonToken.VALUE_NUMBER_FLOAT)) {
+                amount = parser.getDecimalValue();
+            } else {
+                return (Long) context.handleUnexpectedToken(Long.class, parser);
+            }
+            try {
+                return toMinorUnits(amount);
+            } catch (ArithmeticException e) {
+                return (Long) context.handleWeirdNumberValue(Long.class, amount,
+                        "amount should have at most %d decimal places and be less than %s",
+                        SCALE, toDecimal(Long.MAX_VALUE));
+            }
+        }
+
+        @Override
+        public Long getNullValue(final DeserializationContext context) {
+            return 0L;
+        }
+    }
+}
@@ -3,10 +3,9 @@ package com.revolut.mtt.model;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.annotation.JsonPOJOBuilder;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import lombok.*;
 
-import java.math.BigDecimal;
-
 /**
  * Class representing money transfer between two accounts. Made immutable.
  */
@@ -26,9 +25,19 @@ public class Transfer {
 
     private final Long destinationAccountId;
 
-    private final BigDecimal amount;
+    /**
+     * Minor units, see {@link Money}.
+     */
+    @JsonSerialize(using = Money.Serializer.class)
+    private final long amount;
 
     @JsonPOJOBuilder(withPrefix = "")
     public static class TransferBuilder {
+
+        @JsonDeserialize(using = Money.Deserializer.class)
+        public TransferBuilder amount(final long amount) {
+            this.amount = amount;
+            return this;
+        }
     }
 }
@@ -0,0 +1,26 @@
+package com.revolut.mtt.model;
+
+import com.revolut.mtt.validation.ValidationError;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * Outcome of a single transfer within a batch. Made immutable.
+ */
+@Value
+@Builder
+@AllArgsConstructor
+public class TransferResult {
+
+    /**
+     * Position of the transfer in the batch.
+     */
+    private final int index;
+
+    private final boolean applied;
+
+    private final List<ValidationError> errors;
+}
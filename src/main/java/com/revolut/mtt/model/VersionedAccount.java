@@ -0,0 +1,22 @@
+package com.revolut.mtt.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+/**
+ * Account read without lock together with version of its record, which is changed by every balance change.
+ * Made immutable.
+ */
+@Value
+@AllArgsConstructor
+public class VersionedAccount {
+
+    /**
+     * Balance of split account does not include its slots.
+     */
+    private final Account account;
+
+    private final long version;
+
+    private final int slots;
+}
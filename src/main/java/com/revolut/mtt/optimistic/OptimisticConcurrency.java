@@ -0,0 +1,137 @@
+package com.revolut.mtt.optimistic;
+
+import com.revolut.mtt.metrics.Counter;
+import com.revolut.mtt.metrics.Metrics;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Retry policy of optimistic transfers and switch between optimistic and locking transfers.
+ * <p>
+ * Attempts and conflicts are counted in windows of 'window' attempts. In adaptive mode transfers become locking
+ * once conflict rate of a window exceeds 'conflictRate', since then retries cost more than waiting on locks,
+ * and become optimistic again once it drops below half of it. While transfers are locking, every 'probeInterval'-th
+ * transfer is still optimistic, so conflict rate keeps being measured.
+ * <p>
+ * Recording never blocks: attempts and conflicts of the current window are packed into a single atomic long.
+ */
+@Slf4j
+public class OptimisticConcurrency {
+
+    private static final int MAX_BACKOFF_SHIFT = 16;
+
+    private final int maxAttempts;
+
+    private final long backoffNanos;
+
+    private final boolean adaptive;
+
+    private final double conflictRate;
+
+    private final int window;
+
+    private final int probeInterval;
+
+    private final Counter attempts;
+
+    private final Counter conflicts;
+
+    /**
+     * Attempts of the current window in high 32 bits and conflicts in low ones.
+     */
+    private final AtomicLong windowCounts = new AtomicLong();
+
+    private final AtomicLong lockingTransfers = new AtomicLong();
+
+    private volatile double lastConflictRate;
+
+    private volatile boolean optimistic = true;
+
+    /**
+     * @param maxAttempts attempts of a transfer before it's rejected.
+     * @param backoffNanos base delay before retry, doubled with every attempt.
+     * @param adaptive whether transfers switch to locking on high conflict rate.
+     * @param conflictRate conflicts to attempts ratio above which transfers become locking.
+     * @param window attempts within which conflict rate is measured.
+     * @param probeInterval every which transfer is optimistic while transfers are locking.
+     */
+    public OptimisticConcurrency(final int maxAttempts,
+                                 final long backoffNanos,
+                                 final boolean adaptive,
+                                 final double conflictRate,
+                                 final int window,
+                                 final int probeInterval,
+                                 final Metrics metrics) {
+        this.maxAttempts = maxAttempts;
+        this.backoffNanos = backoffNanos;
+        this.adaptive = adaptive;
+        this.conflictRate = conflictRate;
+        this.window = window;
+        this.probeInterval = probeInterval;
+        this.attempts = metrics.counter("mtt_optimistic_attempts_total",
+                "Attempts to write balances of optimistic transfers.");
+        this.conflicts = metrics.counter("mtt_optimistic_conflicts_total",
+                "Attempts of optimistic transfers which found accounts changed concurrently.");
+        metrics.gauge("mtt_optimistic_conflict_rate", "Conflict rate of optimistic transfers within the last window.",
+                () -> lastConflictRate);
+        metrics.gauge("mtt_optimistic_enabled", "Whether transfers are optimistic, 0 while they are locking.",
+                () -> optimistic ? 1 : 0);
+    }
+
+    /**
+     * @return whether the next transfer should be optimistic.
+     */
+    public boolean isOptimistic() {
+        return optimistic || lockingTransfers.incrementAndGet() % probeInterval == 0;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Counts an attempt to write balances and evaluates conflict rate once the window is full.
+     */
+    public void record(final boolean conflict) {
+        attempts.increment();
+        if (conflict) {
+            conflicts.increment();
+        }
+        final long counts = windowCounts.addAndGet((1L << 32) | (conflict ? 1 : 0));
+        // window is evaluated by the attempt which resets it, attempts recorded concurrently retry the reset
+        if (counts >>> 32 >= window && windowCounts.compareAndSet(counts, 0)) {
+            evaluate((int) counts / (double) (counts >>> 32));
+        }
+    }
+
+    /**
+     * Waits before the next attempt for a random time up to base delay doubled with every attempt,
+     * so conflicting transfers do not retry at the same time.
+     *
+     * @param attempt number of failed attempts, from 1.
+     */
+    public void backoff(final int attempt) {
+        if (backoffNanos <= 0) {
+            return;
+        }
+        final long maxNanos = backoffNanos << Math.min(attempt - 1, MAX_BACKOFF_SHIFT);
+        LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(maxNanos));
+    }
+
+    private void evaluate(final double rate) {
+        lastConflictRate = rate;
+        if (!adaptive) {
+            return;
+        }
+        if (optimistic && rate > conflictRate) {
+            log.warn("Conflict rate {} exceeds {}, transfers become locking", rate, conflictRate);
+            optimistic = false;
+        } else if (!optimistic && rate < conflictRate / 2) {
+            log.info("Conflict rate {} is below {}, transfers become optimistic", rate, conflictRate / 2);
+            optimistic = true;
+        }
+    }
+}
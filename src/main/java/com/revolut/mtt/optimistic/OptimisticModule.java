@@ -0,0 +1,44 @@
+package com.revolut.mtt.optimistic;
+
+import com.google.inject.Binder;
+import com.revolut.mtt.controller.TransferMode;
+import com.revolut.mtt.metrics.Metrics;
+import com.typesafe.config.Config;
+import lombok.extern.slf4j.Slf4j;
+import org.jooby.Env;
+import org.jooby.Jooby;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Provides {@link OptimisticConcurrency}, which is used only in 'optimistic' and 'adaptive' transfer modes.
+ */
+@Slf4j
+public class OptimisticModule implements Jooby.Module {
+
+    private final Metrics metrics;
+
+    public OptimisticModule(final Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void configure(final Env env, final Config conf, final Binder binder) throws Throwable {
+        final TransferMode transferMode = TransferMode.of(conf.getString("transfer.mode"));
+        final boolean optimistic = transferMode == TransferMode.OPTIMISTIC || transferMode == TransferMode.ADAPTIVE;
+        if (optimistic && !"jdbc".equals(conf.getString("ledger.engine"))) {
+            throw new IllegalArgumentException("Optimistic transfer modes require 'jdbc' ledger engine");
+        }
+        if (optimistic) {
+            log.info("Configure Optimistic Module in {} mode", transferMode);
+        }
+        binder.bind(OptimisticConcurrency.class).toInstance(new OptimisticConcurrency(
+                conf.getInt("transfer.optimistic.maxAttempts"),
+                conf.getDuration("transfer.optimistic.backoff", TimeUnit.NANOSECONDS),
+                transferMode == TransferMode.ADAPTIVE,
+                conf.getDouble("transfer.adaptive.conflictRate"),
+                conf.getInt("transfer.adaptive.window"),
+                conf.getInt("transfer.adaptive.probeInterval"),
+                metrics));
+    }
+}
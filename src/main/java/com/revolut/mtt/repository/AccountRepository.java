@@ -1,20 +1,35 @@
 package com.revolut.mtt.repository;
 
 import com.revolut.mtt.model.Account;
+import com.revolut.mtt.model.VersionedAccount;
 import com.revolut.mtt.database.ConnectionProvider;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
-import java.math.BigDecimal;
 import java.sql.*;
-import java.util.Optional;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.ObjLongConsumer;
+import java.util.stream.Collectors;
 
 /**
  * Account database operations.
+ * <p>
+ * Account may be split into several slots, so concurrent credits to it do not contend for account record.
+ * Credits of split account go to a random slot, while its balance is a sum of account record and slots.
+ * Debits lock account record and move slot balances to it whenever account record balance is not enough.
+ * Balances are minor units, see {@link com.revolut.mtt.model.Money}.
+ * Credits which would overflow balance are not applied.
+ * Every change of account record increases its version, so optimistic transfers detect concurrent changes.
  */
 @Singleton
 public class AccountRepository {
 
+    /**
+     * Maximum number of ids put to a single 'in' condition.
+     */
+    private static final int IN_CHUNK_SIZE = 500;
+
     private final ConnectionProvider connectionProvider;
 
     @Inject
@@ -28,22 +43,22 @@ public class AccountRepository {
 
     /**
      * Fetches account from database. If 'locked' is true then adds a lock to account record.
+     * Balance of split account includes its slots. Locking split account moves slot balances to account record,
+     * so locked balance can be set with {@link #applyBalance(Long, long)}.
      *
      * @return empty optional if account does not exist or cannot be locked, non-empty otherwise.
      */
     public Optional<Account> fetchAccount(final Long accountId,
                                           final boolean locked) throws SQLException {
-        final Connection connection = connectionProvider.currentConnection();
-
         final String sql = locked
-                ? "select user_id, balance from account where id = ? for update"
-                : "select user_id, balance from account where id = ?";
+                ? "select user_id, balance, slots from account where id = ? for update"
+                : "select user_id, balance, slots from account where id = ?";
 
         PreparedStatement preparedStatement = null;
         ResultSet resultSet = null;
 
         try {
-            preparedStatement = connection.prepareStatement(sql);
+            preparedStatement = connectionProvider.prepareStatement(sql);
             preparedStatement.setLong(1, accountId);
             resultSet = preparedStatement.executeQuery();
             if (!resultSet.next()) {
@@ -51,7 +66,10 @@ public class AccountRepository {
             }
 
             final Long userId = resultSet.getLong("user_id");
-            final BigDecimal balance = resultSet.getBigDecimal("balance");
+            long balance = resultSet.getLong("balance");
+            if (resultSet.getInt("slots") > 0) {
+                balance = Math.addExact(balance, locked ? collectSlots(accountId) : sumSlots(accountId));
+            }
             return Optional.of(new Account(accountId, userId, balance));
         } finally {
             if (resultSet != null) {
@@ -63,16 +81,46 @@ public class AccountRepository {
         }
     }
 
-    public Account createAccount(final Account account) throws SQLException {
-        final Connection connection = connectionProvider.currentConnection();
+    /**
+     * Fetches several accounts without locks. Balances of split accounts include their slots.
+     *
+     * @return accounts by id. Accounts which do not exist are absent.
+     */
+    public Map<Long, Account> fetchAccounts(final Collection<Long> accountIds) throws SQLException {
+        return fetchAccountsIn("select a.id, a.user_id, a.balance + case when a.slots > 0 "
+                + "then (select coalesce(sum(s.balance), 0) from account_slot s where s.account_id = a.id) "
+                + "else 0 end balance from account a where a.id", accountIds);
+    }
+
+    /**
+     * Fetches account which is going to be credited. Account record is locked unless account is split,
+     * split account is credited to its slots without lock, see {@link #deposit(Long, long)}.
+     *
+     * @return empty optional if account does not exist or cannot be locked, non-empty otherwise.
+     */
+    public Optional<Account> fetchAccountForCredit(final Long accountId) throws SQLException {
+        try (final PreparedStatement preparedStatement = connectionProvider.prepareStatement(
+                "select user_id, balance from account where id = ? and slots = 0 for update")) {
+            preparedStatement.setLong(1, accountId);
+            try (final ResultSet resultSet = preparedStatement.executeQuery()) {
+                if (resultSet.next()) {
+                    return Optional.of(new Account(accountId, resultSet.getLong("user_id"),
+                            resultSet.getLong("balance")));
+                }
+            }
+        }
+        // account is either split or does not exist
+        return fetchAccount(accountId, false);
+    }
 
+    public Account createAccount(final Account account) throws SQLException {
         PreparedStatement preparedStatement = null;
         ResultSet resultSet = null;
         try {
-            preparedStatement = connection.prepareStatement("insert into account (user_id, balance) values (?, ?)",
+            preparedStatement = connectionProvider.prepareStatement("insert into account (user_id, balance) values (?, ?)",
                             Statement.RETURN_GENERATED_KEYS);
             preparedStatement.setLong(1, account.getUserId());
-            preparedStatement.setBigDecimal(2, account.getBalance() == null ? BigDecimal.ZERO : account.getBalance());
+            preparedStatement.setLong(2, account.getBalance());
             preparedStatement.executeUpdate();
             resultSet = preparedStatement.getGeneratedKeys();
             resultSet.next();
@@ -90,19 +138,441 @@ public class AccountRepository {
         }
     }
 
+    /**
+     * Creates accounts with a single batch.
+     *
+     * @return created accounts with ids, in the same order.
+     */
+    public List<Account> createAccounts(final List<Account> accounts) throws SQLException {
+        final List<Account> createdAccounts = new ArrayList<>(accounts.size());
+        if (accounts.isEmpty()) {
+            return createdAccounts;
+        }
+        try (final PreparedStatement preparedStatement = connectionProvider.prepareStatement(
+                "insert into account (user_id, balance) values (?, ?)", Statement.RETURN_GENERATED_KEYS)) {
+            for (final Account account : accounts) {
+                preparedStatement.setLong(1, account.getUserId());
+                preparedStatement.setLong(2, account.getBalance());
+                preparedStatement.addBatch();
+            }
+            preparedStatement.executeBatch();
+            try (final ResultSet resultSet = preparedStatement.getGeneratedKeys()) {
+                for (final Account account : accounts) {
+                    resultSet.next();
+                    createdAccounts.add(account.toBuilder()
+                            .id(resultSet.getLong(1))
+                            .build());
+                }
+            }
+        }
+        return createdAccounts;
+    }
+
     /**
      * Sets new balance for account.
      *
      * @return true if balance applied, otherwise false.
      */
-    public boolean applyBalance(final Long accountId, final BigDecimal newBalance) throws SQLException {
-        final Connection connection = connectionProvider.currentConnection();
+    public boolean applyBalance(final Long accountId, final long newBalance) throws SQLException {
         try (final PreparedStatement preparedStatement =
-                connection.prepareStatement("update account set balance = ? where id = ?")) {
-            preparedStatement.setBigDecimal(1, newBalance);
+                connectionProvider.prepareStatement("update account set balance = ?, version = version + 1 where id = ?")) {
+            preparedStatement.setLong(1, newBalance);
             preparedStatement.setLong(2, accountId);
             final int rowsUpdated = preparedStatement.executeUpdate();
             return rowsUpdated == 1;
         }
     }
+
+    /**
+     * Decreases account balance by amount in a single statement.
+     * Account should belong to user and have at least the amount on its balance.
+     * If account record of split account does not have enough amount, slot balances are moved to it first.
+     *
+     * @return true if balance decreased, otherwise false.
+     */
+    public boolean withdraw(final Long accountId,
+                            final Long userId,
+                            final long amount) throws SQLException {
+        if (withdrawFromRecord(accountId, userId, amount)) {
+            return true;
+        }
+        if (fetchSlots(accountId) == 0) {
+            return false;
+        }
+        return fetchAccount(accountId, true).isPresent() && withdrawFromRecord(accountId, userId, amount);
+    }
+
+    private boolean withdrawFromRecord(final Long accountId,
+                                       final Long userId,
+                                       final long amount) throws SQLException {
+        try (final PreparedStatement preparedStatement = connectionProvider.prepareStatement(
+                "update account set balance = balance - ?, version = version + 1 "
+                        + "where id = ? and user_id = ? and balance >= ?")) {
+            preparedStatement.setLong(1, amount);
+            preparedStatement.setLong(2, accountId);
+            preparedStatement.setLong(3, userId);
+            preparedStatement.setLong(4, amount);
+            return preparedStatement.executeUpdate() == 1;
+        }
+    }
+
+    /**
+     * Increases account balance by amount in a single statement.
+     * Split account is credited to a random slot, so its account record is not locked.
+     *
+     * @return true if balance increased, false if account does not exist or its balance would overflow.
+     */
+    public boolean deposit(final Long accountId, final long amount) throws SQLException {
+        try (final PreparedStatement preparedStatement = connectionProvider.prepareStatement(
+                "update account set balance = balance + ?, version = version + 1 "
+                        + "where id = ? and slots = 0 and balance <= ?")) {
+            preparedStatement.setLong(1, amount);
+            preparedStatement.setLong(2, accountId);
+            preparedStatement.setLong(3, Long.MAX_VALUE - amount);
+            if (preparedStatement.executeUpdate() == 1) {
+                return true;
+            }
+        }
+        final int slots = fetchSlots(accountId);
+        if (slots == 0) {
+            return false;
+        }
+        try (final PreparedStatement preparedStatement = connectionProvider.prepareStatement(
+                "update account_slot set balance = balance + ? where account_id = ? and slot = ? and balance <= ?")) {
+            preparedStatement.setLong(1, amount);
+            preparedStatement.setLong(2, accountId);
+            preparedStatement.setInt(3, ThreadLocalRandom.current().nextInt(slots));
+            preparedStatement.setLong(4, Long.MAX_VALUE - amount);
+            return preparedStatement.executeUpdate() == 1;
+        }
+    }
+
+    /**
+     * Splits account into 'slots' slots, so concurrent credits to it do not contend for account record.
+     * Balances of previous slots are moved to account record. Account with 0 slots is not split.
+     *
+     * @return true if account is split, false if account does not exist.
+     */
+    public boolean splitAccount(final Long accountId, final int slots) throws SQLException {
+        if (!fetchAccount(accountId, true).isPresent()) {
+            return false;
+        }
+        try (final PreparedStatement preparedStatement =
+                connectionProvider.prepareStatement("delete from account_slot where account_id = ?")) {
+            preparedStatement.setLong(1, accountId);
+            preparedStatement.executeUpdate();
+        }
+        if (slots > 0) {
+            try (final PreparedStatement preparedStatement = connectionProvider.prepareStatement(
+                    "insert into account_slot (account_id, slot, balance) values (?, ?, 0)")) {
+                for (int slot = 0; slot < slots; slot++) {
+                    preparedStatement.setLong(1, accountId);
+                    preparedStatement.setInt(2, slot);
+                    preparedStatement.addBatch();
+                }
+                preparedStatement.executeBatch();
+            }
+        }
+        try (final PreparedStatement preparedStatement =
+                connectionProvider.prepareStatement("update account set slots = ?, version = version + 1 where id = ?")) {
+            preparedStatement.setInt(1, slots);
+            preparedStatement.setLong(2, accountId);
+            return preparedStatement.executeUpdate() == 1;
+        }
+    }
+
+    /**
+     * @return whether accounts can be split with {@link #splitAccount(Long, int)}.
+     */
+    public boolean isSplitSupported() {
+        return true;
+    }
+
+    /**
+     * Moves slot balances of split account to account record, so next debits do not need to do it.
+     *
+     * @return account with its balance, empty optional if account does not exist.
+     */
+    public Optional<Account> rebalanceAccount(final Long accountId) throws SQLException {
+        return fetchAccount(accountId, true);
+    }
+
+    /**
+     * @return number of account slots, 0 if account is not split or does not exist.
+     */
+    private int fetchSlots(final Long accountId) throws SQLException {
+        try (final PreparedStatement preparedStatement =
+                connectionProvider.prepareStatement("select slots from account where id = ?")) {
+            preparedStatement.setLong(1, accountId);
+            try (final ResultSet resultSet = preparedStatement.executeQuery()) {
+                return resultSet.next() ? resultSet.getInt(1) : 0;
+            }
+        }
+    }
+
+    private long sumSlots(final Long accountId) throws SQLException {
+        try (final PreparedStatement preparedStatement = connectionProvider.prepareStatement(
+                "select coalesce(sum(balance), 0) from account_slot where account_id = ?")) {
+            preparedStatement.setLong(1, accountId);
+            try (final ResultSet resultSet = preparedStatement.executeQuery()) {
+                resultSet.next();
+                return resultSet.getLong(1);
+            }
+        }
+    }
+
+    /**
+     * Moves slot balances to account record. Account record should be locked already, slots are locked here,
+     * so locks are always taken in the same order.
+     *
+     * @return moved amount.
+     */
+    private long collectSlots(final Long accountId) throws SQLException {
+        long collected = 0;
+        try (final PreparedStatement preparedStatement = connectionProvider.prepareStatement(
+                "select balance from account_slot where account_id = ? for update")) {
+            preparedStatement.setLong(1, accountId);
+            try (final ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    collected = Math.addExact(collected, resultSet.getLong(1));
+                }
+            }
+        }
+        if (collected == 0) {
+            return collected;
+        }
+        try (final PreparedStatement preparedStatement = connectionProvider.prepareStatement(
+                "update account_slot set balance = 0 where account_id = ?")) {
+            preparedStatement.setLong(1, accountId);
+            preparedStatement.executeUpdate();
+        }
+        try (final PreparedStatement preparedStatement = connectionProvider.prepareStatement(
+                "update account set balance = balance + ?, version = version + 1 where id = ?")) {
+            preparedStatement.setLong(1, collected);
+            preparedStatement.setLong(2, accountId);
+            preparedStatement.executeUpdate();
+        }
+        return collected;
+    }
+
+    /**
+     * Order in which transfers lock accounts, so concurrent transfers cannot deadlock each other.
+     *
+     * @return ascending id order, since account rows are locked one by one.
+     */
+    public Comparator<Long> lockOrder() {
+        return Comparator.naturalOrder();
+    }
+
+    /**
+     * Fetches accounts from database and locks them. Locks are taken in ascending id order,
+     * so concurrent callers cannot deadlock each other. Slot balances of split accounts are moved to account records.
+     * Slots of split account are locked right after its record and before records of greater ids,
+     * so callers never hold a greater record while waiting on slots locked by credits in id order.
+     *
+     * @return accounts by id. Accounts which do not exist are absent.
+     */
+    public Map<Long, Account> fetchAccountsWithLocks(final Collection<Long> accountIds) throws SQLException {
+        final List<Long> sortedIds = accountIds.stream()
+                .distinct()
+                .sorted()
+                .collect(Collectors.toList());
+        final Set<Long> splitAccountIds = fetchSplitAccountIds(sortedIds);
+        final Map<Long, Account> accounts = new HashMap<>();
+        int from = 0;
+        for (int to = 1; to <= sortedIds.size(); to++) {
+            // records are locked by ranges ending with split account, so its slots are collected next
+            if (to == sortedIds.size() || to - from == IN_CHUNK_SIZE
+                    || splitAccountIds.contains(sortedIds.get(to - 1))) {
+                lockAccounts(sortedIds.subList(from, to), accounts);
+                from = to;
+            }
+        }
+        return accounts;
+    }
+
+    /**
+     * Fetches accounts and locks them one by one in {@link #lockOrder()}, so wait of each lock can be told apart.
+     * Locking a single account is the same as {@link #fetchAccount(Long, boolean)}.
+     *
+     * @param lockWaits gets id and lock wait in nanoseconds of every account, even if it cannot be locked.
+     * @return accounts by id. Accounts which do not exist or cannot be locked are absent.
+     */
+    public Map<Long, Account> fetchAccountsWithLocks(final Collection<Long> accountIds,
+                                                     final ObjLongConsumer<Long> lockWaits) throws SQLException {
+        final Set<Long> sortedAccountIds = new TreeSet<>(lockOrder());
+        sortedAccountIds.addAll(accountIds);
+        final Map<Long, Account> accounts = new HashMap<>();
+        for (final Long accountId : sortedAccountIds) {
+            final long startNanos = System.nanoTime();
+            try {
+                fetchAccount(accountId, true).ifPresent(account -> accounts.put(accountId, account));
+            } finally {
+                lockWaits.accept(accountId, System.nanoTime() - startNanos);
+            }
+        }
+        return accounts;
+    }
+
+    /**
+     * Reads which of the accounts are split without locks, so records can be locked by ranges.
+     */
+    private Set<Long> fetchSplitAccountIds(final List<Long> accountIds) throws SQLException {
+        final Connection connection = connectionProvider.currentConnection();
+        final Set<Long> splitAccountIds = new HashSet<>();
+        for (int from = 0; from < accountIds.size(); from += IN_CHUNK_SIZE) {
+            final List<Long> chunk = accountIds.subList(from, Math.min(from + IN_CHUNK_SIZE, accountIds.size()));
+            final String sql = "select id from account where slots > 0 and id in ("
+                    + String.join(", ", Collections.nCopies(chunk.size(), "?"))
+                    + ")";
+            try (final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+                for (int i = 0; i < chunk.size(); i++) {
+                    preparedStatement.setLong(i + 1, chunk.get(i));
+                }
+                try (final ResultSet resultSet = preparedStatement.executeQuery()) {
+                    while (resultSet.next()) {
+                        splitAccountIds.add(resultSet.getLong("id"));
+                    }
+                }
+            }
+        }
+        return splitAccountIds;
+    }
+
+    /**
+     * Locks records of sorted accounts with a single statement, then collects slots of split ones in id order.
+     * Account split after its ids were read has its slots collected after the rest of the range.
+     */
+    private void lockAccounts(final List<Long> sortedIds, final Map<Long, Account> accounts) throws SQLException {
+        final Connection connection = connectionProvider.currentConnection();
+        final List<Long> splitAccountIds = new ArrayList<>();
+        final String sql = "select id, user_id, balance, slots from account where id in ("
+                + String.join(", ", Collections.nCopies(sortedIds.size(), "?"))
+                + ") order by id for update";
+        try (final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            for (int i = 0; i < sortedIds.size(); i++) {
+                preparedStatement.setLong(i + 1, sortedIds.get(i));
+            }
+            try (final ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    final Long accountId = resultSet.getLong("id");
+                    accounts.put(accountId, new Account(accountId,
+                            resultSet.getLong("user_id"),
+                            resultSet.getLong("balance")));
+                    if (resultSet.getInt("slots") > 0) {
+                        splitAccountIds.add(accountId);
+                    }
+                }
+            }
+        }
+        for (final Long accountId : splitAccountIds) {
+            final Account account = accounts.get(accountId);
+            accounts.put(accountId, account.toBuilder()
+                    .balance(Math.addExact(account.getBalance(), collectSlots(accountId)))
+                    .build());
+        }
+    }
+
+    /**
+     * Resolves accounts by chunks of ids, so a single query never gets too many parameters.
+     * Each chunk is appended to 'sql' as 'in' condition, selected columns should be id, user_id and balance.
+     *
+     * @return accounts by id. Accounts which do not exist are absent.
+     */
+    protected Map<Long, Account> fetchAccountsIn(final String sql,
+                                                 final Collection<Long> accountIds) throws SQLException {
+        final Connection connection = connectionProvider.currentConnection();
+        final List<Long> distinctIds = new ArrayList<>(new LinkedHashSet<>(accountIds));
+        final Map<Long, Account> accounts = new HashMap<>();
+        for (int from = 0; from < distinctIds.size(); from += IN_CHUNK_SIZE) {
+            final List<Long> chunk = distinctIds.subList(from, Math.min(from + IN_CHUNK_SIZE, distinctIds.size()));
+            try (final PreparedStatement preparedStatement = connection.prepareStatement(sql + " in ("
+                    + String.join(", ", Collections.nCopies(chunk.size(), "?"))
+                    + ")")) {
+                for (int i = 0; i < chunk.size(); i++) {
+                    preparedStatement.setLong(i + 1, chunk.get(i));
+                }
+                try (final ResultSet resultSet = preparedStatement.executeQuery()) {
+                    while (resultSet.next()) {
+                        final Long accountId = resultSet.getLong("id");
+                        accounts.put(accountId, new Account(accountId,
+                                resultSet.getLong("user_id"),
+                                resultSet.getLong("balance")));
+                    }
+                }
+            }
+        }
+        return accounts;
+    }
+
+    /**
+     * Fetches account without lock together with version of its record, see {@link #compareAndSetBalances}.
+     *
+     * @return account with its record version, empty optional if account does not exist.
+     */
+    public Optional<VersionedAccount> fetchVersionedAccount(final Long accountId) throws SQLException {
+        try (final PreparedStatement preparedStatement = connectionProvider.prepareStatement(
+                "select user_id, balance, version, slots from account where id = ?")) {
+            preparedStatement.setLong(1, accountId);
+            try (final ResultSet resultSet = preparedStatement.executeQuery()) {
+                if (!resultSet.next()) {
+                    return Optional.empty();
+                }
+                return Optional.of(new VersionedAccount(
+                        new Account(accountId, resultSet.getLong("user_id"), resultSet.getLong("balance")),
+                        resultSet.getLong("version"),
+                        resultSet.getInt("slots")));
+            }
+        }
+    }
+
+    /**
+     * Sets new balances of accounts only if their records have not changed since accounts were fetched.
+     * Records are updated in ascending id order. Once a record turns out to be changed, current transaction
+     * is marked rollback only, so records updated so far are not committed and should be rolled back by caller.
+     *
+     * @param newBalances new balances by account id, one for each of 'accounts'.
+     * @return true if all balances are set, false if any record has changed.
+     */
+    public boolean compareAndSetBalances(final Collection<VersionedAccount> accounts,
+                                         final Map<Long, Long> newBalances) throws SQLException {
+        final List<VersionedAccount> sortedAccounts = new ArrayList<>(accounts);
+        sortedAccounts.sort(Comparator.comparing(versionedAccount -> versionedAccount.getAccount().getId()));
+        try (final PreparedStatement preparedStatement = connectionProvider.prepareStatement(
+                "update account set balance = ?, version = version + 1 where id = ? and version = ?")) {
+            for (int i = 0; i < sortedAccounts.size(); i++) {
+                final VersionedAccount versionedAccount = sortedAccounts.get(i);
+                final Long accountId = versionedAccount.getAccount().getId();
+                preparedStatement.setLong(1, newBalances.get(accountId));
+                preparedStatement.setLong(2, accountId);
+                preparedStatement.setLong(3, versionedAccount.getVersion());
+                if (preparedStatement.executeUpdate() != 1) {
+                    connectionProvider.setRollbackOnly();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sets new balances for several accounts with a single batch.
+     *
+     * @return true if all balances applied, otherwise false.
+     */
+    public boolean applyBalances(final Map<Long, Long> newBalances) throws SQLException {
+        try (final PreparedStatement preparedStatement =
+                connectionProvider.prepareStatement("update account set balance = ?, version = version + 1 where id = ?")) {
+            for (final Map.Entry<Long, Long> newBalance : newBalances.entrySet()) {
+                preparedStatement.setLong(1, newBalance.getValue());
+                preparedStatement.setLong(2, newBalance.getKey());
+                preparedStatement.addBatch();
+            }
+            boolean allApplied = true;
+            for (final int rowsUpdated : preparedStatement.executeBatch()) {
+                allApplied &= rowsUpdated == 1;
+            }
+            return allApplied;
+        }
+    }
 }
@@ -0,0 +1,105 @@
+package com.revolut.mtt.repository;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.revolut.mtt.database.ConnectionProvider;
+import com.revolut.mtt.model.User;
+import lombok.Value;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * User operations with read-through cache in front of database. Users never change after creation,
+ * so cached users are never invalidated, only evicted by size or time according to cache spec.
+ * Misses are cached as well. New users are put to cache once their transaction is committed.
+ */
+@Singleton
+public class CachedUserRepository extends UserRepository {
+
+    private final ConnectionProvider connectionProvider;
+
+    private final Cache<Long, Optional<User>> usersById;
+
+    private final Cache<String, Optional<User>> usersByUsername;
+
+    /**
+     * @param cacheSpec Guava cache spec, e.g. "maximumSize=100000,expireAfterWrite=10m".
+     */
+    @Inject
+    public CachedUserRepository(final ConnectionProvider connectionProvider,
+                                final @Named("users.cache") String cacheSpec) {
+        super(connectionProvider);
+        this.connectionProvider = connectionProvider;
+        this.usersById = CacheBuilder.from(cacheSpec).recordStats().build();
+        this.usersByUsername = CacheBuilder.from(cacheSpec).recordStats().build();
+    }
+
+    @Override
+    public Optional<User> fetchUser(final Long userId) throws SQLException {
+        try {
+            return usersById.get(userId, () -> super.fetchUser(userId));
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    @Override
+    public Optional<User> fetchUserByUsername(final String username) throws SQLException {
+        try {
+            return usersByUsername.get(username, () -> super.fetchUserByUsername(username));
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    @Override
+    public User createUser(final User user) throws SQLException {
+        final User createdUser = super.createUser(user);
+        connectionProvider.afterCommit(() -> {
+            usersById.put(createdUser.getId(), Optional.of(createdUser));
+            usersByUsername.put(createdUser.getUsername(), Optional.of(createdUser));
+        });
+        return createdUser;
+    }
+
+    @Override
+    public List<User> createUsers(final List<User> users) throws SQLException {
+        final List<User> createdUsers = super.createUsers(users);
+        connectionProvider.afterCommit(() -> createdUsers.forEach(createdUser -> {
+            usersById.put(createdUser.getId(), Optional.of(createdUser));
+            usersByUsername.put(createdUser.getUsername(), Optional.of(createdUser));
+        }));
+        return createdUsers;
+    }
+
+    public Stats stats() {
+        final CacheStats stats = usersById.stats().plus(usersByUsername.stats());
+        return new Stats(stats.hitCount(), stats.missCount(), stats.evictionCount(), stats.hitRate());
+    }
+
+    private static SQLException unwrap(final ExecutionException e) {
+        if (e.getCause() instanceof SQLException) {
+            return (SQLException) e.getCause();
+        }
+        return new SQLException(e.getCause());
+    }
+
+    @Value
+    public static class Stats {
+
+        private final long hits;
+
+        private final long misses;
+
+        private final long evictions;
+
+        private final double hitRate;
+    }
+}
@@ -0,0 +1,85 @@
+package com.revolut.mtt.repository;
+
+import com.revolut.mtt.database.ConnectionProvider;
+import com.revolut.mtt.idempotency.IdempotentRequest;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Idempotency keys database operations. Key is saved within the transaction of the request it belongs to,
+ * so a key is stored if and only if the request changes are stored.
+ */
+@Singleton
+public class IdempotencyKeyRepository {
+
+    private final ConnectionProvider connectionProvider;
+
+    @Inject
+    public IdempotencyKeyRepository(final ConnectionProvider connectionProvider) {
+        this.connectionProvider = connectionProvider;
+    }
+
+    /**
+     * @return payload hash and response status of request with given key, empty if key is not saved.
+     */
+    public Optional<IdempotentRequest> fetchRequest(final String idempotencyKey) throws SQLException {
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        try {
+            preparedStatement = connectionProvider.prepareStatement(
+                    "select payload_hash, status from idempotency_key where idempotency_key = ?");
+            preparedStatement.setString(1, idempotencyKey);
+            resultSet = preparedStatement.executeQuery();
+            if (!resultSet.next()) {
+                return Optional.empty();
+            }
+            return Optional.of(new IdempotentRequest(resultSet.getString("payload_hash"),
+                    CompletableFuture.completedFuture(resultSet.getInt("status"))));
+        } finally {
+            if (resultSet != null) {
+                resultSet.close();
+            }
+            if (preparedStatement != null) {
+                preparedStatement.close();
+            }
+        }
+    }
+
+    /**
+     * Deletes keys saved before given time.
+     *
+     * @return number of deleted keys.
+     */
+    public int deleteKeys(final Timestamp createdBefore) throws SQLException {
+        try (final PreparedStatement preparedStatement = connectionProvider.prepareStatement(
+                "delete from idempotency_key where created_at < ?")) {
+            preparedStatement.setTimestamp(1, createdBefore);
+            return preparedStatement.executeUpdate();
+        }
+    }
+
+    /**
+     * Saves key with payload hash and response status. Fails if the key is already saved, which prevents
+     * the same request to be applied twice even if the key is not known by in-memory index.
+     */
+    public void saveKey(final String idempotencyKey,
+                        final String payloadHash,
+                        final int status,
+                        final Timestamp createdAt) throws SQLException {
+        try (final PreparedStatement preparedStatement = connectionProvider.prepareStatement(
+                "insert into idempotency_key (idempotency_key, payload_hash, status, created_at) values (?, ?, ?, ?)")) {
+            preparedStatement.setString(1, idempotencyKey);
+            preparedStatement.setString(2, payloadHash);
+            preparedStatement.setInt(3, status);
+            preparedStatement.setTimestamp(4, createdAt);
+            preparedStatement.executeUpdate();
+        }
+    }
+}
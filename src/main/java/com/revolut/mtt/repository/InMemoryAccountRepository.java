@@ -0,0 +1,349 @@
+package com.revolut.mtt.repository;
+
+import com.revolut.mtt.database.ConnectionProvider;
+import com.revolut.mtt.ledger.AccountLedger;
+import com.revolut.mtt.ledger.LedgerAccount;
+import com.revolut.mtt.ledger.LedgerPersister;
+import com.revolut.mtt.model.Account;
+import com.revolut.mtt.model.VersionedAccount;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.*;
+
+/**
+ * Account operations backed by {@link AccountLedger}. Balances are kept in memory and persisted asynchronously.
+ * Account creation still goes to database within current transaction, so ids and constraints stay the same.
+ * Changes made within a request are visible to other requests only after {@link #completeTransaction(boolean)},
+ * which is called once database transaction of the request is committed or rolled back, so ledger changes
+ * are discarded if database commit fails.
+ * If write-ahead journal is enabled, changes are made durable by {@link #prepareTransaction()} before that.
+ */
+@Slf4j
+@Singleton
+public class InMemoryAccountRepository extends AccountRepository {
+
+    private final ConnectionProvider connectionProvider;
+
+    private final AccountLedger ledger;
+
+    private final LedgerPersister persister;
+
+    private final ThreadLocal<LedgerTransaction> transactionHolder = new ThreadLocal<>();
+
+    @Inject
+    public InMemoryAccountRepository(final ConnectionProvider connectionProvider,
+                                     final AccountLedger ledger,
+                                     final LedgerPersister persister) {
+        super(connectionProvider);
+        this.connectionProvider = connectionProvider;
+        this.ledger = ledger;
+        this.persister = persister;
+    }
+
+    /**
+     * Fetches account from ledger. If 'locked' is true then locks account until transaction is completed.
+     *
+     * @return empty optional if account does not exist or cannot be locked, non-empty otherwise.
+     */
+    @Override
+    public Optional<Account> fetchAccount(final Long accountId,
+                                          final boolean locked) throws SQLException {
+        final LedgerTransaction transaction = locked ? currentTransaction() : activeTransaction();
+        if (locked && !lock(transaction, accountId)) {
+            return Optional.empty();
+        }
+        final LedgerAccount account = findAccount(transaction, accountId);
+        if (account == null) {
+            if (locked) {
+                unlock(transaction, accountId);
+            }
+            return Optional.empty();
+        }
+        final Long pendingBalance = transaction == null ? null : transaction.pendingBalances.get(accountId);
+        final long balance = pendingBalance == null ? account.getBalance() : pendingBalance;
+        return Optional.of(new Account(accountId, account.getUserId(), balance));
+    }
+
+    @Override
+    public Map<Long, Account> fetchAccounts(final Collection<Long> accountIds) throws SQLException {
+        final Map<Long, Account> accounts = new HashMap<>();
+        for (final Long accountId : accountIds) {
+            fetchAccount(accountId, false).ifPresent(account -> accounts.put(accountId, account));
+        }
+        return accounts;
+    }
+
+    /**
+     * Locks account like {@link #fetchAccount(Long, boolean)}, since accounts are never split in ledger.
+     */
+    @Override
+    public Optional<Account> fetchAccountForCredit(final Long accountId) throws SQLException {
+        return fetchAccount(accountId, true);
+    }
+
+    /**
+     * Ledger stripe locks are not kept until account records are written, so accounts are not split in ledger.
+     */
+    @Override
+    public boolean splitAccount(final Long accountId, final int slots) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Accounts cannot be split with in memory ledger");
+    }
+
+    @Override
+    public boolean isSplitSupported() {
+        return false;
+    }
+
+    /**
+     * Balances are kept in ledger, so account records have no meaningful version.
+     */
+    @Override
+    public Optional<VersionedAccount> fetchVersionedAccount(final Long accountId) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Optimistic transfers are not supported with in memory ledger");
+    }
+
+    @Override
+    public boolean compareAndSetBalances(final Collection<VersionedAccount> accounts,
+                                         final Map<Long, Long> newBalances) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Optimistic transfers are not supported with in memory ledger");
+    }
+
+    @Override
+    public Account createAccount(final Account account) throws SQLException {
+        final Account createdAccount = super.createAccount(account);
+        currentTransaction().createdAccounts.add(
+                new LedgerAccount(createdAccount.getId(), createdAccount.getUserId(), createdAccount.getBalance()));
+        return createdAccount;
+    }
+
+    /**
+     * Accounts created in bulk are put to ledger once database transaction is committed,
+     * since bulk creation may commit several times within one request.
+     */
+    @Override
+    public List<Account> createAccounts(final List<Account> accounts) throws SQLException {
+        final List<Account> createdAccounts = super.createAccounts(accounts);
+        connectionProvider.afterCommit(() -> createdAccounts.forEach(createdAccount -> ledger.put(
+                new LedgerAccount(createdAccount.getId(), createdAccount.getUserId(), createdAccount.getBalance()))));
+        return createdAccounts;
+    }
+
+    /**
+     * Sets new balance for account. Account is locked if it was not locked before.
+     *
+     * @return true if balance applied, otherwise false.
+     */
+    @Override
+    public boolean applyBalance(final Long accountId, final long newBalance) throws SQLException {
+        final LedgerTransaction transaction = currentTransaction();
+        if (!lock(transaction, accountId)) {
+            return false;
+        }
+        if (findAccount(transaction, accountId) == null) {
+            unlock(transaction, accountId);
+            return false;
+        }
+        // mirrors database check constraint
+        if (newBalance <= 0) {
+            throw new SQLIntegrityConstraintViolationException("Check constraint violation: balance > 0");
+        }
+        transaction.pendingBalances.put(accountId, newBalance);
+        return true;
+    }
+
+    @Override
+    public boolean withdraw(final Long accountId,
+                            final Long userId,
+                            final long amount) throws SQLException {
+        final Optional<Account> account = fetchAccount(accountId, true);
+        if (account.isEmpty()
+                || !account.get().getUserId().equals(userId)
+                || account.get().getBalance() < amount) {
+            return false;
+        }
+        return applyBalance(accountId, account.get().getBalance() - amount);
+    }
+
+    @Override
+    public boolean deposit(final Long accountId, final long amount) throws SQLException {
+        final Optional<Account> account = fetchAccount(accountId, true);
+        return account.isPresent()
+                && account.get().getBalance() <= Long.MAX_VALUE - amount
+                && applyBalance(accountId, account.get().getBalance() + amount);
+    }
+
+    /**
+     * Accounts are locked by stripes, so they are ordered by stripe index first. Accounts of the same stripe
+     * come one after another and only the first of them waits for the stripe lock, which is reentrant.
+     */
+    @Override
+    public Comparator<Long> lockOrder() {
+        return Comparator.<Long>comparingInt(ledger::stripeIndex).thenComparing(Comparator.naturalOrder());
+    }
+
+    /**
+     * Locks distinct accounts in {@link #lockOrder()}.
+     *
+     * @return accounts by id. Accounts which do not exist or cannot be locked are absent.
+     */
+    @Override
+    public Map<Long, Account> fetchAccountsWithLocks(final Collection<Long> accountIds) throws SQLException {
+        final Set<Long> sortedAccountIds = new TreeSet<>(lockOrder());
+        sortedAccountIds.addAll(accountIds);
+        final Map<Long, Account> accounts = new HashMap<>();
+        for (final Long accountId : sortedAccountIds) {
+            fetchAccount(accountId, true).ifPresent(account -> accounts.put(accountId, account));
+        }
+        return accounts;
+    }
+
+    @Override
+    public boolean applyBalances(final Map<Long, Long> newBalances) throws SQLException {
+        boolean allApplied = true;
+        for (final Map.Entry<Long, Long> newBalance : newBalances.entrySet()) {
+            allApplied &= applyBalance(newBalance.getKey(), newBalance.getValue());
+        }
+        return allApplied;
+    }
+
+    /**
+     * Writes changes made by current thread ahead to journal and waits until they are durable, keeping locks.
+     * Does nothing if journal is disabled, there are no changes or they are already written.
+     */
+    public void prepareTransaction() throws IOException {
+        final LedgerTransaction transaction = activeTransaction();
+        if (transaction == null || transaction.pendingBalances.isEmpty() || transaction.journalPosition >= 0) {
+            return;
+        }
+        transaction.journalPosition = persister.writeAhead(transaction.pendingBalances);
+    }
+
+    /**
+     * Publishes or discards changes made by current thread and releases its locks.
+     * Changes are published only once they are durable, see {@link #prepareTransaction()}.
+     */
+    public void completeTransaction(final boolean commit) throws IOException {
+        final LedgerTransaction transaction = activeTransaction();
+        if (transaction != null) {
+            completeTransaction(transaction, commit);
+        }
+    }
+
+    private void completeTransaction(final LedgerTransaction transaction, final boolean commit) throws IOException {
+        if (transactionHolder.get() == transaction) {
+            transactionHolder.remove();
+        }
+        if (transaction.completed) {
+            return;
+        }
+        transaction.completed = true;
+        try {
+            if (commit) {
+                prepareTransaction();
+                transaction.createdAccounts.forEach(ledger::put);
+                for (final Map.Entry<Long, Long> entry : transaction.pendingBalances.entrySet()) {
+                    final LedgerAccount account = findAccount(transaction, entry.getKey());
+                    ledger.applyBalance(account, entry.getValue());
+                    persister.markDirty(account);
+                }
+            } else if (transaction.journalPosition >= 0) {
+                // discarded changes are already durable, so current balances are written over them
+                final Map<Long, Long> balances = new HashMap<>();
+                for (final Long accountId : transaction.pendingBalances.keySet()) {
+                    balances.put(accountId, findAccount(transaction, accountId).getBalance());
+                }
+                persister.release(persister.writeAhead(balances));
+            }
+        } finally {
+            persister.release(transaction.journalPosition);
+            for (final Long accountId : transaction.lockedAccounts) {
+                ledger.unlock(accountId);
+            }
+        }
+    }
+
+    /**
+     * Starts ledger transaction if there is none, which is completed together with database transaction.
+     */
+    private LedgerTransaction currentTransaction() {
+        LedgerTransaction transaction = activeTransaction();
+        if (transaction == null) {
+            final LedgerTransaction newTransaction = new LedgerTransaction();
+            transactionHolder.set(newTransaction);
+            connectionProvider.afterCompletion(commit -> {
+                try {
+                    completeTransaction(newTransaction, commit);
+                } catch (IOException e) {
+                    log.error("Exception during ledger journal handling", e);
+                }
+            });
+            transaction = newTransaction;
+        }
+        return transaction;
+    }
+
+    /**
+     * @return transaction of current thread, null if there is none or it is already completed.
+     */
+    private LedgerTransaction activeTransaction() {
+        final LedgerTransaction transaction = transactionHolder.get();
+        return transaction == null || transaction.completed ? null : transaction;
+    }
+
+    private LedgerAccount findAccount(final LedgerTransaction transaction, final long accountId) {
+        final LedgerAccount account = ledger.get(accountId);
+        if (account != null || transaction == null) {
+            return account;
+        }
+        for (final LedgerAccount createdAccount : transaction.createdAccounts) {
+            if (createdAccount.getId() == accountId) {
+                return createdAccount;
+            }
+        }
+        return null;
+    }
+
+    private boolean lock(final LedgerTransaction transaction, final long accountId) throws SQLException {
+        if (transaction.lockedAccounts.contains(accountId)) {
+            return true;
+        }
+        try {
+            if (!ledger.lock(accountId)) {
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while acquiring account lock", e);
+        }
+        transaction.lockedAccounts.add(accountId);
+        return true;
+    }
+
+    private void unlock(final LedgerTransaction transaction, final long accountId) {
+        transaction.lockedAccounts.remove(accountId);
+        ledger.unlock(accountId);
+    }
+
+    private static class LedgerTransaction {
+
+        private final Set<Long> lockedAccounts = new LinkedHashSet<>();
+
+        private final Map<Long, Long> pendingBalances = new HashMap<>();
+
+        private final List<LedgerAccount> createdAccounts = new ArrayList<>();
+
+        /**
+         * Position of changes written ahead to journal, -1 if they are not written.
+         */
+        private long journalPosition = -1;
+
+        private boolean completed;
+    }
+}
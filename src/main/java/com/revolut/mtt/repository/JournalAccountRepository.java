@@ -0,0 +1,261 @@
+package com.revolut.mtt.repository;
+
+import com.revolut.mtt.database.ConnectionProvider;
+import com.revolut.mtt.ledger.LedgerJournal;
+import com.revolut.mtt.model.Account;
+import com.revolut.mtt.model.VersionedAccount;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Account operations backed by append-only ledger. Balance changes are inserted to 'ledger_entry' table
+ * and account balance is its latest snapshot plus entries made after it, see {@link LedgerJournal}.
+ * Account record keeps opening balance. Debits lock account record, so balance cannot go below zero,
+ * while credits are inserted without any locks. Since credits may be committed while account is locked,
+ * new balance is applied as a difference with balance read with lock rather than with current one.
+ */
+@Singleton
+public class JournalAccountRepository extends AccountRepository {
+
+    private final ConnectionProvider connectionProvider;
+
+    private final LedgerJournal journal;
+
+    /**
+     * Balances of accounts locked by transactions, by transaction connections.
+     */
+    private final Map<Connection, Map<Long, Long>> lockedBalances = new ConcurrentHashMap<>();
+
+    @Inject
+    public JournalAccountRepository(final ConnectionProvider connectionProvider,
+                                    final LedgerJournal journal) {
+        super(connectionProvider);
+        this.connectionProvider = connectionProvider;
+        this.journal = journal;
+    }
+
+    /**
+     * Fetches account with its balance. If 'locked' is true then adds a lock to account record.
+     *
+     * @return empty optional if account does not exist or cannot be locked, non-empty otherwise.
+     */
+    @Override
+    public Optional<Account> fetchAccount(final Long accountId,
+                                          final boolean locked) throws SQLException {
+        if (locked && !lock(accountId)) {
+            return Optional.empty();
+        }
+        try (final PreparedStatement preparedStatement = connectionProvider.prepareStatement(
+                "select a.user_id, coalesce(s.balance, a.balance) + coalesce((select sum(e.amount) from ledger_entry e "
+                        + "where e.account_id = a.id and e.id > coalesce(s.last_entry_id, 0)), 0) balance "
+                        + "from account a left join balance_snapshot s on s.account_id = a.id where a.id = ?")) {
+            preparedStatement.setLong(1, accountId);
+            try (final ResultSet resultSet = preparedStatement.executeQuery()) {
+                if (!resultSet.next()) {
+                    return Optional.empty();
+                }
+                final long balance = resultSet.getLong("balance");
+                if (locked) {
+                    rememberLockedBalance(accountId, balance);
+                }
+                return Optional.of(new Account(accountId, resultSet.getLong("user_id"), balance));
+            }
+        }
+    }
+
+    @Override
+    public Map<Long, Account> fetchAccounts(final Collection<Long> accountIds) throws SQLException {
+        return fetchAccountsIn("select a.id, a.user_id, coalesce(s.balance, a.balance) "
+                + "+ coalesce((select sum(e.amount) from ledger_entry e "
+                + "where e.account_id = a.id and e.id > coalesce(s.last_entry_id, 0)), 0) balance "
+                + "from account a left join balance_snapshot s on s.account_id = a.id where a.id", accountIds);
+    }
+
+    /**
+     * Credits are inserted as ledger entries, so account is not locked.
+     */
+    @Override
+    public Optional<Account> fetchAccountForCredit(final Long accountId) throws SQLException {
+        return fetchAccount(accountId, false);
+    }
+
+    /**
+     * Credits are not contended in ledger, so accounts are never split.
+     */
+    @Override
+    public boolean splitAccount(final Long accountId, final int slots) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Accounts cannot be split with journal ledger");
+    }
+
+    @Override
+    public boolean isSplitSupported() {
+        return false;
+    }
+
+    /**
+     * Balances are kept in ledger entries, so account records have no meaningful version.
+     */
+    @Override
+    public Optional<VersionedAccount> fetchVersionedAccount(final Long accountId) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Optimistic transfers are not supported with journal ledger");
+    }
+
+    @Override
+    public boolean compareAndSetBalances(final Collection<VersionedAccount> accounts,
+                                         final Map<Long, Long> newBalances) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Optimistic transfers are not supported with journal ledger");
+    }
+
+    /**
+     * Inserts difference between new balance and balance read with lock as ledger entry.
+     * Account is locked if it was not locked before.
+     *
+     * @return true if balance applied, otherwise false.
+     */
+    @Override
+    public boolean applyBalance(final Long accountId, final long newBalance) throws SQLException {
+        Long balance = fetchLockedBalance(accountId);
+        if (balance == null) {
+            final Optional<Account> account = fetchAccount(accountId, true);
+            if (account.isEmpty()) {
+                return false;
+            }
+            balance = account.get().getBalance();
+        }
+        checkBalance(newBalance);
+        final long amount = Math.subtractExact(newBalance, balance);
+        if (amount != 0 && !insertEntry(accountId, amount)) {
+            return false;
+        }
+        rememberLockedBalance(accountId, newBalance);
+        return true;
+    }
+
+    @Override
+    public boolean withdraw(final Long accountId,
+                            final Long userId,
+                            final long amount) throws SQLException {
+        final Optional<Account> account = fetchAccount(accountId, true);
+        if (account.isEmpty()
+                || !account.get().getUserId().equals(userId)
+                || account.get().getBalance() < amount) {
+            return false;
+        }
+        final long newBalance = account.get().getBalance() - amount;
+        checkBalance(newBalance);
+        if (!insertEntry(accountId, -amount)) {
+            return false;
+        }
+        rememberLockedBalance(accountId, newBalance);
+        return true;
+    }
+
+    @Override
+    public boolean deposit(final Long accountId, final long amount) throws SQLException {
+        if (!insertEntry(accountId, amount)) {
+            return false;
+        }
+        final Long balance = fetchLockedBalance(accountId);
+        if (balance != null) {
+            rememberLockedBalance(accountId, Math.addExact(balance, amount));
+        }
+        return true;
+    }
+
+    /**
+     * Locks accounts in ascending id order.
+     *
+     * @return accounts by id. Accounts which do not exist or cannot be locked are absent.
+     */
+    @Override
+    public Map<Long, Account> fetchAccountsWithLocks(final Collection<Long> accountIds) throws SQLException {
+        final Map<Long, Account> accounts = new HashMap<>();
+        for (final Long accountId : new TreeSet<>(accountIds)) {
+            fetchAccount(accountId, true).ifPresent(account -> accounts.put(accountId, account));
+        }
+        return accounts;
+    }
+
+    @Override
+    public boolean applyBalances(final Map<Long, Long> newBalances) throws SQLException {
+        boolean allApplied = true;
+        for (final Map.Entry<Long, Long> newBalance : newBalances.entrySet()) {
+            allApplied &= applyBalance(newBalance.getKey(), newBalance.getValue());
+        }
+        return allApplied;
+    }
+
+    private boolean lock(final Long accountId) throws SQLException {
+        try (final PreparedStatement preparedStatement =
+                connectionProvider.prepareStatement("select id from account where id = ? for update")) {
+            preparedStatement.setLong(1, accountId);
+            try (final ResultSet resultSet = preparedStatement.executeQuery()) {
+                return resultSet.next();
+            }
+        }
+    }
+
+    /**
+     * @return balance of account locked by current transaction, null if account is not locked.
+     */
+    private Long fetchLockedBalance(final Long accountId) throws SQLException {
+        final Map<Long, Long> balances = lockedBalances.get(connectionProvider.currentConnection());
+        return balances == null ? null : balances.get(accountId);
+    }
+
+    /**
+     * Remembers balance of account locked by current transaction until transaction is completed.
+     */
+    private void rememberLockedBalance(final Long accountId, final long balance) throws SQLException {
+        final Connection connection = connectionProvider.currentConnection();
+        Map<Long, Long> balances = lockedBalances.get(connection);
+        if (balances == null) {
+            balances = new HashMap<>();
+            lockedBalances.put(connection, balances);
+            connectionProvider.afterCommit(() -> lockedBalances.remove(connection));
+            connectionProvider.afterRollback(() -> lockedBalances.remove(connection));
+        }
+        balances.put(accountId, balance);
+    }
+
+    /**
+     * Inserts ledger entry if account exists. Entry id is released once current transaction is completed.
+     *
+     * @return true if entry inserted, otherwise false.
+     */
+    private boolean insertEntry(final Long accountId, final long amount) throws SQLException {
+        final long entryId = journal.allocateEntryId();
+        try (final PreparedStatement preparedStatement = connectionProvider.prepareStatement(
+                "insert into ledger_entry (id, account_id, amount, created_at) "
+                        + "select ?, id, ?, current_timestamp from account where id = ?")) {
+            preparedStatement.setLong(1, entryId);
+            preparedStatement.setLong(2, amount);
+            preparedStatement.setLong(3, accountId);
+            final boolean inserted = preparedStatement.executeUpdate() == 1;
+            connectionProvider.afterCommit(() -> journal.releaseEntryId(entryId));
+            connectionProvider.afterRollback(() -> journal.releaseEntryId(entryId));
+            return inserted;
+        } catch (SQLException | RuntimeException e) {
+            journal.releaseEntryId(entryId);
+            throw e;
+        }
+    }
+
+    /**
+     * Mirrors account balance check constraint.
+     */
+    private static void checkBalance(final long newBalance) throws SQLException {
+        if (newBalance <= 0) {
+            throw new SQLIntegrityConstraintViolationException("Check constraint violation: balance > 0");
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.revolut.mtt.repository;
+
+import com.revolut.mtt.database.ConnectionProvider;
+import com.revolut.mtt.model.Transfer;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Outbox of credits of transfers whose source is already debited. Credit is saved in the commit of the debit
+ * and deleted in the commit of the credit, so money in flight between accounts survives restarts.
+ */
+public class PendingCreditRepository {
+
+    private final ConnectionProvider connectionProvider;
+
+    public PendingCreditRepository(final ConnectionProvider connectionProvider) {
+        this.connectionProvider = connectionProvider;
+    }
+
+    /**
+     * @return id of the saved credit.
+     */
+    public long savePendingCredit(final Transfer transfer) throws SQLException {
+        try (final PreparedStatement preparedStatement = connectionProvider.prepareStatement(
+                "insert into pending_credit (end_user_id, source_account_id, destination_account_id, amount) "
+                        + "values (?, ?, ?, ?)", Statement.RETURN_GENERATED_KEYS)) {
+            preparedStatement.setLong(1, transfer.getEndUserId());
+            preparedStatement.setLong(2, transfer.getSourceAccountId());
+            preparedStatement.setLong(3, transfer.getDestinationAccountId());
+            preparedStatement.setLong(4, transfer.getAmount());
+            preparedStatement.executeUpdate();
+            try (final ResultSet resultSet = preparedStatement.getGeneratedKeys()) {
+                resultSet.next();
+                return resultSet.getLong(1);
+            }
+        }
+    }
+
+    public void deletePendingCredit(final long id) throws SQLException {
+        try (final PreparedStatement preparedStatement = connectionProvider.prepareStatement(
+                "delete from pending_credit where id = ?")) {
+            preparedStatement.setLong(1, id);
+            preparedStatement.executeUpdate();
+        }
+    }
+
+    /**
+     * @return transfers of pending credits by credit id, in order they were debited.
+     */
+    public Map<Long, Transfer> fetchPendingCredits() throws SQLException {
+        final Map<Long, Transfer> pendingCredits = new LinkedHashMap<>();
+        try (final PreparedStatement preparedStatement = connectionProvider.prepareStatement(
+                "select id, end_user_id, source_account_id, destination_account_id, amount "
+                        + "from pending_credit order by id");
+             final ResultSet resultSet = preparedStatement.executeQuery()) {
+            while (resultSet.next()) {
+                pendingCredits.put(resultSet.getLong("id"), new Transfer(resultSet.getLong("end_user_id"),
+                        resultSet.getLong("source_account_id"),
+                        resultSet.getLong("destination_account_id"),
+                        resultSet.getLong("amount")));
+            }
+        }
+        return pendingCredits;
+    }
+}
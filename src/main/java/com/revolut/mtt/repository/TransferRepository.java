@@ -0,0 +1,142 @@
+package com.revolut.mtt.repository;
+
+import com.revolut.mtt.database.ConnectionProvider;
+import com.revolut.mtt.database.ResultCursor;
+import com.revolut.mtt.model.AccountTransfer;
+import com.revolut.mtt.model.Transfer;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Transfer history database operations. Each transfer is kept as two rows, one for each of its accounts,
+ * so account statement is read from a single index range, newest transfers first.
+ */
+@Slf4j
+@Singleton
+public class TransferRepository {
+
+    /**
+     * Number of rows fetched from database at once while statement is read.
+     */
+    private static final int FETCH_SIZE = 100;
+
+    private final ConnectionProvider connectionProvider;
+
+    @Inject
+    public TransferRepository(final ConnectionProvider connectionProvider) {
+        this.connectionProvider = connectionProvider;
+    }
+
+    public void saveTransfer(final Transfer transfer) throws SQLException {
+        saveTransfers(Collections.singletonList(transfer));
+    }
+
+    /**
+     * Saves transfers to history of their accounts with a single batch.
+     */
+    public void saveTransfers(final List<Transfer> transfers) throws SQLException {
+        if (transfers.isEmpty()) {
+            return;
+        }
+        final long[] transferIds = nextTransferIds(transfers.size());
+        try (final PreparedStatement preparedStatement = connectionProvider.prepareStatement(
+                "insert into account_transfer (account_id, transfer_id, counterparty_account_id, amount, created_at) "
+                        + "values (?, ?, ?, ?, current_timestamp)")) {
+            for (int i = 0; i < transfers.size(); i++) {
+                final Transfer transfer = transfers.get(i);
+                preparedStatement.setLong(1, transfer.getSourceAccountId());
+                preparedStatement.setLong(2, transferIds[i]);
+                preparedStatement.setLong(3, transfer.getDestinationAccountId());
+                preparedStatement.setLong(4, -transfer.getAmount());
+                preparedStatement.addBatch();
+                preparedStatement.setLong(1, transfer.getDestinationAccountId());
+                preparedStatement.setLong(2, transferIds[i]);
+                preparedStatement.setLong(3, transfer.getSourceAccountId());
+                preparedStatement.setLong(4, transfer.getAmount());
+                preparedStatement.addBatch();
+            }
+            preparedStatement.executeBatch();
+        }
+    }
+
+    /**
+     * Opens cursor over account transfers older than 'beforeTransferId', newest first.
+     * Rows are read lazily while cursor is iterated, so it should be closed once read, within current transaction.
+     *
+     * @param beforeTransferId id of the last transfer of previous page, null for the first page.
+     */
+    public ResultCursor<AccountTransfer> fetchTransfers(final Long accountId,
+                                                        final Long beforeTransferId,
+                                                        final int limit) throws SQLException {
+        final Connection connection = connectionProvider.currentConnection();
+        setLazyQueryExecution(connection, true);
+        // lazy execution is a setting of physical connection, so it's reset before connection is returned to pool
+        connectionProvider.afterCompletion(committed -> resetLazyQueryExecution(connection));
+        PreparedStatement preparedStatement = null;
+        try {
+            // account id is in 'order by', so H2 reads rows in index order and stops at limit
+            preparedStatement = connectionProvider.prepareStatement(
+                    "select transfer_id, counterparty_account_id, amount, created_at from account_transfer "
+                            + "where account_id = ? and transfer_id < ? "
+                            + "order by account_id, transfer_id desc limit ?");
+            preparedStatement.setFetchSize(FETCH_SIZE);
+            preparedStatement.setLong(1, accountId);
+            preparedStatement.setLong(2, beforeTransferId == null ? Long.MAX_VALUE : beforeTransferId);
+            preparedStatement.setInt(3, limit);
+            final ResultSet resultSet = preparedStatement.executeQuery();
+            return new ResultCursor<>(preparedStatement, resultSet,
+                    row -> AccountTransfer.builder()
+                            .id(row.getLong("transfer_id"))
+                            .counterpartyAccountId(row.getLong("counterparty_account_id"))
+                            .amount(row.getLong("amount"))
+                            .createdAt(row.getTimestamp("created_at").toInstant())
+                            .build());
+        } catch (SQLException | RuntimeException e) {
+            if (preparedStatement != null) {
+                preparedStatement.close();
+            }
+            throw e;
+        }
+    }
+
+    private long[] nextTransferIds(final int count) throws SQLException {
+        final long[] transferIds = new long[count];
+        try (final PreparedStatement preparedStatement = connectionProvider.prepareStatement(
+                "select next value for transfer_seq from system_range(1, ?)")) {
+            preparedStatement.setInt(1, count);
+            try (final ResultSet resultSet = preparedStatement.executeQuery()) {
+                for (int i = 0; i < count && resultSet.next(); i++) {
+                    transferIds[i] = resultSet.getLong(1);
+                }
+            }
+        }
+        return transferIds;
+    }
+
+    /**
+     * Without lazy execution H2 builds whole result in memory before returning the first row,
+     * fetch size is only a hint for embedded database.
+     */
+    private static void setLazyQueryExecution(final Connection connection, final boolean lazy) throws SQLException {
+        try (final Statement statement = connection.createStatement()) {
+            statement.execute(lazy ? "set lazy_query_execution true" : "set lazy_query_execution false");
+        }
+    }
+
+    private static void resetLazyQueryExecution(final Connection connection) {
+        try {
+            setLazyQueryExecution(connection, false);
+        } catch (SQLException e) {
+            log.warn("Lazy query execution cannot be reset", e);
+        }
+    }
+}
@@ -6,7 +6,7 @@ import com.revolut.mtt.database.ConnectionProvider;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.sql.*;
-import java.util.Optional;
+import java.util.*;
 
 /**
  * User database operations.
@@ -14,6 +14,11 @@ import java.util.Optional;
 @Singleton
 public class UserRepository {
 
+    /**
+     * Maximum number of values put to a single 'in' condition.
+     */
+    private static final int IN_CHUNK_SIZE = 500;
+
     private final ConnectionProvider connectionProvider;
 
     @Inject
@@ -22,12 +27,10 @@ public class UserRepository {
     }
 
     public Optional<User> fetchUser(final Long userId) throws SQLException {
-        final Connection connection = connectionProvider.currentConnection();
-
         PreparedStatement preparedStatement = null;
         ResultSet resultSet = null;
         try {
-            preparedStatement = connection.prepareStatement("select username from app_user where id = ?");
+            preparedStatement = connectionProvider.prepareStatement("select username from app_user where id = ?");
             preparedStatement.setLong(1, userId);
             resultSet = preparedStatement.executeQuery();
             if (!resultSet.next()) {
@@ -46,13 +49,11 @@ public class UserRepository {
     }
 
     public Optional<User> fetchUserByUsername(final String username) throws SQLException {
-        final Connection connection = connectionProvider.currentConnection();
-
         PreparedStatement preparedStatement = null;
         ResultSet resultSet = null;
 
         try {
-            preparedStatement = connection.prepareStatement("select id from app_user where username = ?");
+            preparedStatement = connectionProvider.prepareStatement("select id from app_user where username = ?");
             preparedStatement.setString(1, username);
             resultSet = preparedStatement.executeQuery();
 
@@ -73,13 +74,11 @@ public class UserRepository {
     }
 
     public User createUser(final User user) throws SQLException {
-        final Connection connection = connectionProvider.currentConnection();
-
         PreparedStatement preparedStatement = null;
         ResultSet resultSet = null;
 
         try {
-            preparedStatement = connection.prepareStatement("insert into app_user (username) values (?)",
+            preparedStatement = connectionProvider.prepareStatement("insert into app_user (username) values (?)",
                     Statement.RETURN_GENERATED_KEYS);
             preparedStatement.setString(1, user.getUsername());
             preparedStatement.executeUpdate();
@@ -98,4 +97,122 @@ public class UserRepository {
             }
         }
     }
+
+    /**
+     * Creates users with a single batch.
+     *
+     * @return created users with ids, in the same order.
+     */
+    public List<User> createUsers(final List<User> users) throws SQLException {
+        final List<User> createdUsers = new ArrayList<>(users.size());
+        if (users.isEmpty()) {
+            return createdUsers;
+        }
+        try (final PreparedStatement preparedStatement = connectionProvider.prepareStatement(
+                "insert into app_user (username) values (?)", Statement.RETURN_GENERATED_KEYS)) {
+            for (final User user : users) {
+                preparedStatement.setString(1, user.getUsername());
+                preparedStatement.addBatch();
+            }
+            preparedStatement.executeBatch();
+            try (final ResultSet resultSet = preparedStatement.getGeneratedKeys()) {
+                for (final User user : users) {
+                    resultSet.next();
+                    createdUsers.add(user.toBuilder()
+                            .id(resultSet.getLong(1))
+                            .build());
+                }
+            }
+        }
+        return createdUsers;
+    }
+
+    /**
+     * Creates users with a single batch, or one by one if some usernames are taken since they were checked,
+     * e.g. by concurrent requests. Failed batch is rolled back to a savepoint first, so no user is created twice.
+     *
+     * @return created users with ids in the same order, empty for users whose username is taken.
+     */
+    public List<Optional<User>> createUsersIfAbsent(final List<User> users) throws SQLException {
+        final Connection connection = connectionProvider.currentConnection();
+        final List<Optional<User>> createdUsers = new ArrayList<>(users.size());
+        Savepoint savepoint = connection.setSavepoint();
+        try {
+            for (final User createdUser : createUsers(users)) {
+                createdUsers.add(Optional.of(createdUser));
+            }
+            connection.releaseSavepoint(savepoint);
+            return createdUsers;
+        } catch (SQLException e) {
+            if (!isConstraintViolation(e)) {
+                throw e;
+            }
+            connection.rollback(savepoint);
+        }
+        for (final User user : users) {
+            savepoint = connection.setSavepoint();
+            try {
+                createdUsers.add(Optional.of(createUser(user)));
+                connection.releaseSavepoint(savepoint);
+            } catch (SQLException e) {
+                if (!isConstraintViolation(e)) {
+                    throw e;
+                }
+                connection.rollback(savepoint);
+                createdUsers.add(Optional.empty());
+            }
+        }
+        return createdUsers;
+    }
+
+    /**
+     * @return usernames of existing users among given ones.
+     */
+    public Set<String> fetchExistingUsernames(final Collection<String> usernames) throws SQLException {
+        return fetchExisting("username", String.class, usernames);
+    }
+
+    /**
+     * @return ids of existing users among given ones.
+     */
+    public Set<Long> fetchExistingUserIds(final Collection<Long> userIds) throws SQLException {
+        return fetchExisting("id", Long.class, userIds);
+    }
+
+    private <T> Set<T> fetchExisting(final String column,
+                                     final Class<T> type,
+                                     final Collection<T> values) throws SQLException {
+        final Connection connection = connectionProvider.currentConnection();
+        final List<T> distinctValues = new ArrayList<>(new HashSet<>(values));
+        final Set<T> existingValues = new HashSet<>();
+        for (int from = 0; from < distinctValues.size(); from += IN_CHUNK_SIZE) {
+            final List<T> chunk = distinctValues.subList(from, Math.min(from + IN_CHUNK_SIZE, distinctValues.size()));
+            final String sql = "select " + column + " from app_user where " + column + " in ("
+                    + String.join(", ", Collections.nCopies(chunk.size(), "?"))
+                    + ")";
+            try (final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+                for (int i = 0; i < chunk.size(); i++) {
+                    preparedStatement.setObject(i + 1, chunk.get(i));
+                }
+                try (final ResultSet resultSet = preparedStatement.executeQuery()) {
+                    while (resultSet.next()) {
+                        existingValues.add(resultSet.getObject(1, type));
+                    }
+                }
+            }
+        }
+        return existingValues;
+    }
+
+    /**
+     * @return whether exception or any of exceptions chained to it, e.g. of a batch, is integrity constraint violation.
+     */
+    private static boolean isConstraintViolation(final SQLException exception) {
+        for (SQLException e = exception; e != null; e = e.getNextException()) {
+            if (e.getSQLState() != null && e.getSQLState().startsWith("23")) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
@@ -0,0 +1,40 @@
+package com.revolut.mtt.sequencer;
+
+import com.google.inject.Binder;
+import com.revolut.mtt.controller.TransferMode;
+import com.revolut.mtt.database.StatementCache;
+import com.typesafe.config.Config;
+import lombok.extern.slf4j.Slf4j;
+import org.jooby.Env;
+import org.jooby.Jooby;
+
+import javax.sql.DataSource;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Provides {@link TransferSequencer}, which is started only in 'sequenced' transfer mode.
+ */
+@Slf4j
+public class SequencerModule implements Jooby.Module {
+
+    @Override
+    public void configure(final Env env, final Config conf, final Binder binder) throws Throwable {
+        final TransferSequencer sequencer = new TransferSequencer(conf.getInt("transfer.sequencer.partitions"),
+                conf.getInt("transfer.sequencer.capacity"),
+                conf.getInt("transfer.sequencer.batchSize"),
+                conf.getDuration("transfer.sequencer.submitTimeout", TimeUnit.MILLISECONDS),
+                conf.getInt("transfer.sequencer.creditAttempts"),
+                conf.getDuration("transfer.sequencer.creditBackoff", TimeUnit.MILLISECONDS));
+        binder.bind(TransferSequencer.class).toInstance(sequencer);
+        if (TransferMode.of(conf.getString("transfer.mode")) != TransferMode.SEQUENCED) {
+            return;
+        }
+        if (!"jdbc".equals(conf.getString("ledger.engine"))) {
+            throw new IllegalArgumentException("Sequenced transfer mode requires 'jdbc' ledger engine");
+        }
+        log.info("Configure Sequencer Module");
+        env.onStart(registry -> sequencer.start(registry.require(DataSource.class),
+                registry.require(StatementCache.class)));
+        env.onStop(sequencer::stop);
+    }
+}
@@ -0,0 +1,454 @@
+package com.revolut.mtt.sequencer;
+
+import com.revolut.mtt.database.ConnectionProvider;
+import com.revolut.mtt.database.StatementCache;
+import com.revolut.mtt.idempotency.IdempotencyKey;
+import com.revolut.mtt.model.Transfer;
+import com.revolut.mtt.repository.AccountRepository;
+import com.revolut.mtt.repository.IdempotencyKeyRepository;
+import com.revolut.mtt.repository.PendingCreditRepository;
+import com.revolut.mtt.repository.TransferRepository;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Timestamp;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Applies transfers with single writer per partition of accounts, so account rows are never contended.
+ * <p>
+ * Each partition has a bounded ring buffer drained by its own writer thread with its own connection.
+ * Writer applies up to 'batchSize' queued operations and commits them at once. Every operation is isolated
+ * with a savepoint, so a failed one does not affect others in the same commit.
+ * <p>
+ * Transfer is sequenced by partition of its source account: source is debited there first.
+ * If destination account belongs to another partition, credit is forwarded to that partition
+ * only after debit is committed. So operations of every account are applied in order of its partition queue,
+ * and money is never credited before it's debited.
+ * <p>
+ * Forwarded credit is saved to {@link PendingCreditRepository} in the commit of the debit and deleted in the commit
+ * of the credit, so credits lost with a crash or a stop timeout are applied on the next start. Failed credit
+ * is retried until applied, after a delay of 'creditBackoff' doubled with every failure. Transfer whose credit
+ * has failed 'creditAttempts' times is reported as {@link Outcome#CREDIT_PENDING}, never as applied.
+ * Idempotency key of transfer is saved in the commit of the debit too, so a committed transfer is never applied twice.
+ */
+@Slf4j
+public class TransferSequencer {
+
+    /**
+     * Outcome of sequenced transfer.
+     */
+    public enum Outcome {
+        APPLIED,
+        SOURCE_NOT_UPDATED,
+        DESTINATION_NOT_FOUND,
+        /**
+         * Source is debited, but credit has failed 'creditAttempts' times and is still retried until applied.
+         */
+        CREDIT_PENDING,
+        /**
+         * Transfer was not accepted because partition queue is full, nothing is changed.
+         */
+        REJECTED
+    }
+
+    private static final int MAX_CREDIT_BACKOFF_SHIFT = 12;
+
+    private final Partition[] partitions;
+
+    private final int batchSize;
+
+    private final long submitTimeoutMillis;
+
+    private final int creditAttempts;
+
+    private final long creditBackoffNanos;
+
+    /**
+     * Credits which are debited but not committed yet, writers do not stop until all of them are applied.
+     */
+    private final AtomicInteger pendingCredits = new AtomicInteger();
+
+    private volatile boolean running;
+
+    public TransferSequencer(final int partitions,
+                             final int capacity,
+                             final int batchSize,
+                             final long submitTimeoutMillis,
+                             final int creditAttempts,
+                             final long creditBackoffMillis) {
+        this.partitions = new Partition[partitions];
+        for (int i = 0; i < partitions; i++) {
+            this.partitions[i] = new Partition(i, capacity);
+        }
+        this.batchSize = batchSize;
+        this.submitTimeoutMillis = submitTimeoutMillis;
+        this.creditAttempts = creditAttempts;
+        this.creditBackoffNanos = TimeUnit.MILLISECONDS.toNanos(creditBackoffMillis);
+    }
+
+    /**
+     * Starts writer threads, each with its own connection and statements prepared with given cache.
+     * Pending credits left by the previous run are queued first.
+     */
+    public void start(final DataSource dataSource, final StatementCache statementCache) throws SQLException {
+        running = true;
+        final Map<Long, Transfer> credits;
+        try (final Connection connection = dataSource.getConnection()) {
+            credits = new PendingCreditRepository(() -> connection).fetchPendingCredits();
+        }
+        for (final Map.Entry<Long, Transfer> credit : credits.entrySet()) {
+            final Operation operation = new Operation(credit.getValue(), null);
+            operation.credit = true;
+            operation.pendingCreditId = credit.getKey();
+            pendingCredits.incrementAndGet();
+            // writer is not started yet, so its outbox can be filled
+            partitionOf(credit.getValue().getDestinationAccountId()).outbox.add(operation);
+        }
+        if (!credits.isEmpty()) {
+            log.info("{} pending credits are queued", credits.size());
+        }
+        for (final Partition partition : partitions) {
+            partition.start(dataSource.getConnection(), statementCache);
+        }
+        log.info("Transfer sequencer started with {} partitions", partitions.length);
+    }
+
+    /**
+     * Stops writer threads once queued operations are applied.
+     */
+    public void stop() throws InterruptedException {
+        running = false;
+        for (final Partition partition : partitions) {
+            partition.stop();
+        }
+    }
+
+    public CompletableFuture<Outcome> submit(final Transfer transfer) throws InterruptedException {
+        return submit(transfer, null);
+    }
+
+    /**
+     * Queues transfer to partition of its source account. Transfer data and end user should be validated already.
+     *
+     * @param idempotencyKey key saved in the commit of the debit, null if transfer has no key.
+     * @return outcome of transfer, completed once transfer is committed or failed.
+     */
+    public CompletableFuture<Outcome> submit(final Transfer transfer,
+                                             final IdempotencyKey idempotencyKey) throws InterruptedException {
+        final Operation operation = new Operation(transfer, idempotencyKey);
+        final Partition partition = partitionOf(transfer.getSourceAccountId());
+        if (!partition.queue.offer(operation, submitTimeoutMillis, TimeUnit.MILLISECONDS)) {
+            operation.outcome.complete(Outcome.REJECTED);
+        }
+        return operation.outcome;
+    }
+
+    int partitionIndex(final Long accountId) {
+        return Math.floorMod(Long.hashCode(accountId), partitions.length);
+    }
+
+    private Partition partitionOf(final Long accountId) {
+        return partitions[partitionIndex(accountId)];
+    }
+
+    private static class Operation {
+
+        private final Transfer transfer;
+
+        private final IdempotencyKey idempotencyKey;
+
+        private final CompletableFuture<Outcome> outcome = new CompletableFuture<>();
+
+        /**
+         * False while source is not debited, true for credit forwarded to destination partition.
+         */
+        private boolean credit;
+
+        /**
+         * Id of credit saved with debit, deleted once credit is applied.
+         */
+        private long pendingCreditId;
+
+        private int failedCredits;
+
+        /**
+         * {@link System#nanoTime()} after which failed credit is forwarded again.
+         */
+        private long retryNanos;
+
+        private Operation(final Transfer transfer, final IdempotencyKey idempotencyKey) {
+            this.transfer = transfer;
+            this.idempotencyKey = idempotencyKey;
+        }
+    }
+
+    private class Partition implements Runnable {
+
+        private final int index;
+
+        private final BlockingQueue<Operation> queue;
+
+        /**
+         * Credits which could not be forwarded because destination queue was full. Accessed by writer thread only.
+         */
+        private final Deque<Operation> outbox = new ArrayDeque<>();
+
+        /**
+         * Failed credits waiting for their backoff, the earliest first. Accessed by writer thread only.
+         */
+        private final Queue<Operation> delayedCredits =
+                new PriorityQueue<>(Comparator.comparingLong(operation -> operation.retryNanos));
+
+        private Thread writer;
+
+        private Connection connection;
+
+        private AccountRepository accountRepository;
+
+        private TransferRepository transferRepository;
+
+        private PendingCreditRepository pendingCreditRepository;
+
+        private IdempotencyKeyRepository idempotencyKeyRepository;
+
+        private Partition(final int index, final int capacity) {
+            this.index = index;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        private void start(final Connection connection, final StatementCache statementCache) throws SQLException {
+            connection.setAutoCommit(false);
+            this.connection = connection;
+            final ConnectionProvider connectionProvider = new ConnectionProvider() {
+                @Override
+                public Connection currentConnection() {
+                    return connection;
+                }
+
+                @Override
+                public PreparedStatement prepareStatement(final String sql) throws SQLException {
+                    return statementCache.prepareStatement(connection, sql);
+                }
+            };
+            this.accountRepository = new AccountRepository(connectionProvider);
+            this.transferRepository = new TransferRepository(connectionProvider);
+            this.pendingCreditRepository = new PendingCreditRepository(connectionProvider);
+            this.idempotencyKeyRepository = new IdempotencyKeyRepository(connectionProvider);
+            writer = new Thread(this, "transfer-sequencer-" + index);
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        private void stop() throws InterruptedException {
+            if (writer != null) {
+                writer.join(TimeUnit.SECONDS.toMillis(10));
+            }
+        }
+
+        @Override
+        public void run() {
+            final List<Operation> batch = new ArrayList<>(batchSize);
+            try {
+                while (running || !queue.isEmpty() || pendingCredits.get() > 0) {
+                    releaseDelayedCredits();
+                    forwardCredits();
+                    final Operation first = queue.poll(pollTimeoutNanos(), TimeUnit.NANOSECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                    applyBatch(batch);
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                closeConnection();
+            }
+        }
+
+        private void applyBatch(final List<Operation> batch) {
+            final List<Outcome> outcomes = new ArrayList<>(batch.size());
+            for (final Operation operation : batch) {
+                outcomes.add(apply(operation));
+            }
+            try {
+                connection.commit();
+            } catch (SQLException e) {
+                log.error("Exception during commit of {} transfers", batch.size(), e);
+                rollback();
+                for (final Operation operation : batch) {
+                    if (operation.credit) {
+                        // money is already debited, so credit is never lost
+                        retryCredit(operation);
+                    } else {
+                        operation.outcome.complete(Outcome.SOURCE_NOT_UPDATED);
+                    }
+                }
+                return;
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                final Operation operation = batch.get(i);
+                final Outcome outcome = outcomes.get(i);
+                if (outcome == null) {
+                    if (operation.credit) {
+                        retryCredit(operation);
+                    } else {
+                        // debited, destination belongs to another partition
+                        operation.credit = true;
+                        pendingCredits.incrementAndGet();
+                        outbox.add(operation);
+                    }
+                } else {
+                    if (operation.credit) {
+                        pendingCredits.decrementAndGet();
+                    }
+                    operation.outcome.complete(outcome);
+                }
+            }
+        }
+
+        /**
+         * Forwards failed credit again once its backoff passes. Once it has failed 'creditAttempts' times,
+         * its transfer is reported as {@link Outcome#CREDIT_PENDING}, but credit is still retried until applied.
+         */
+        private void retryCredit(final Operation operation) {
+            operation.failedCredits++;
+            operation.retryNanos = System.nanoTime()
+                    + (creditBackoffNanos << Math.min(operation.failedCredits - 1, MAX_CREDIT_BACKOFF_SHIFT));
+            delayedCredits.add(operation);
+            if (operation.failedCredits == creditAttempts) {
+                log.error("Credit {} of {} to account {} failed {} times, it's retried until applied",
+                        operation.pendingCreditId, operation.transfer.getAmount(),
+                        operation.transfer.getDestinationAccountId(), operation.failedCredits);
+                operation.outcome.complete(Outcome.CREDIT_PENDING);
+            }
+        }
+
+        private void releaseDelayedCredits() {
+            final long now = System.nanoTime();
+            while (!delayedCredits.isEmpty() && delayedCredits.peek().retryNanos - now <= 0) {
+                outbox.add(delayedCredits.poll());
+            }
+        }
+
+        /**
+         * @return how long writer may wait for new operations before credits should be forwarded.
+         */
+        private long pollTimeoutNanos() {
+            if (!outbox.isEmpty()) {
+                return TimeUnit.MILLISECONDS.toNanos(1);
+            }
+            final long idleNanos = TimeUnit.MILLISECONDS.toNanos(100);
+            if (delayedCredits.isEmpty()) {
+                return idleNanos;
+            }
+            return Math.max(0, Math.min(idleNanos, delayedCredits.peek().retryNanos - System.nanoTime()));
+        }
+
+        /**
+         * @return outcome of operation, null if credit should be forwarded to destination partition.
+         */
+        private Outcome apply(final Operation operation) {
+            final Transfer transfer = operation.transfer;
+            Savepoint savepoint = null;
+            try {
+                savepoint = connection.setSavepoint();
+                if (operation.credit) {
+                    if (!accountRepository.deposit(transfer.getDestinationAccountId(), transfer.getAmount())) {
+                        throw new SQLException("Debited transfer cannot be credited to account "
+                                + transfer.getDestinationAccountId());
+                    }
+                    pendingCreditRepository.deletePendingCredit(operation.pendingCreditId);
+                    return Outcome.APPLIED;
+                }
+                // accounts are never deleted, so destination cannot disappear before credit
+                if (!accountRepository.fetchAccount(transfer.getDestinationAccountId()).isPresent()) {
+                    return Outcome.DESTINATION_NOT_FOUND;
+                }
+                if (!accountRepository.withdraw(transfer.getSourceAccountId(), transfer.getEndUserId(),
+                        transfer.getAmount())) {
+                    return Outcome.SOURCE_NOT_UPDATED;
+                }
+                // history of both accounts is saved with debit, so it's saved once
+                transferRepository.saveTransfer(transfer);
+                if (operation.idempotencyKey != null) {
+                    final IdempotencyKey key = operation.idempotencyKey;
+                    idempotencyKeyRepository.saveKey(key.getKey(), key.getPayloadHash(), key.getStatus(),
+                            new Timestamp(System.currentTimeMillis()));
+                }
+                if (partitionOf(transfer.getDestinationAccountId()) != this) {
+                    operation.pendingCreditId = pendingCreditRepository.savePendingCredit(transfer);
+                    return null;
+                }
+                if (!accountRepository.deposit(transfer.getDestinationAccountId(), transfer.getAmount())) {
+                    connection.rollback(savepoint);
+                    return Outcome.DESTINATION_NOT_FOUND;
+                }
+                return Outcome.APPLIED;
+            } catch (SQLException e) {
+                log.warn("Transfer from {} to {} is not applied", transfer.getSourceAccountId(),
+                        transfer.getDestinationAccountId(), e);
+                rollback(savepoint);
+                // debited money should be credited anyway, so credit is retried
+                return operation.credit ? null : Outcome.SOURCE_NOT_UPDATED;
+            }
+        }
+
+        private void forwardCredits() {
+            Operation operation;
+            while ((operation = outbox.peek()) != null) {
+                if (!partitionOf(operation.transfer.getDestinationAccountId()).queue.offer(operation)) {
+                    return;
+                }
+                outbox.poll();
+            }
+        }
+
+        private void rollback(final Savepoint savepoint) {
+            if (savepoint == null) {
+                return;
+            }
+            try {
+                connection.rollback(savepoint);
+            } catch (SQLException e) {
+                log.error("Exception during rollback to savepoint", e);
+            }
+        }
+
+        private void rollback() {
+            try {
+                connection.rollback();
+            } catch (SQLException e) {
+                log.error("Exception during rollback", e);
+            }
+        }
+
+        private void closeConnection() {
+            try {
+                connection.close();
+            } catch (SQLException | RuntimeException e) {
+                // pool may be closed already, since it's stopped before sequencer
+                log.warn("Connection cannot be closed: {}", e.toString());
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.revolut.mtt.streaming;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Limits number of imports running at once, so they do not take all pooled connections from other requests.
+ */
+@Singleton
+public class ImportLimiter {
+
+    private final Semaphore permits;
+
+    @Inject
+    public ImportLimiter(final @Named("import.maxConcurrent") int maxConcurrent) {
+        this.permits = new Semaphore(maxConcurrent);
+    }
+
+    /**
+     * @return true if import may start, then {@link #release()} should be called once it's finished.
+     */
+    public boolean tryAcquire() {
+        return permits.tryAcquire();
+    }
+
+    public void release() {
+        permits.release();
+    }
+}
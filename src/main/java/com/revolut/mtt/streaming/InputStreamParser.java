@@ -0,0 +1,45 @@
+package com.revolut.mtt.streaming;
+
+import com.google.inject.TypeLiteral;
+import com.typesafe.config.Config;
+import org.jooby.Parser;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Gives request body as input stream, so large bodies are read without loading them to memory.
+ * Server keeps bodies up to 'server.http.RequestBufferSize' in memory, larger ones are copied
+ * to a temporary file deleted once stream is closed. Bodies of unknown length are kept in memory by server,
+ * so large ones should be sent with content length.
+ */
+public class InputStreamParser implements Parser {
+
+    @Override
+    public Object parse(final TypeLiteral<?> type, final Context ctx) throws Throwable {
+        if (type.getRawType() != InputStream.class) {
+            return ctx.next();
+        }
+        final Config conf = ctx.require(Config.class);
+        final long bufferSize = conf.getBytes("server.http.RequestBufferSize");
+        return ctx.ifbody(body -> {
+            if (body.length() < bufferSize) {
+                return new ByteArrayInputStream(body.bytes());
+            }
+            final Path tmpdir = Files.createDirectories(Paths.get(conf.getString("application.tmpdir")));
+            final Path file = Files.createTempFile(tmpdir, "body", ".tmp");
+            try (final OutputStream out = Files.newOutputStream(file)) {
+                body.writeTo(out);
+            } catch (Exception e) {
+                Files.delete(file);
+                throw e;
+            }
+            return Files.newInputStream(file, StandardOpenOption.DELETE_ON_CLOSE);
+        });
+    }
+}
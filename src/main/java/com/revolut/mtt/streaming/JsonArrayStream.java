@@ -0,0 +1,51 @@
+package com.revolut.mtt.streaming;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.revolut.mtt.database.ResultCursor;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+/**
+ * Response body serializing rows of a cursor to JSON array while it is being read by server.
+ * Cursor is closed once all rows are read, on failure or when stream is closed.
+ */
+public class JsonArrayStream<T> extends JsonStream {
+
+    private final ResultCursor<T> cursor;
+
+    private final ObjectMapper objectMapper;
+
+    private boolean started;
+
+    public JsonArrayStream(final ResultCursor<T> cursor, final ObjectMapper objectMapper) throws IOException {
+        super(objectMapper);
+        this.cursor = cursor;
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    protected boolean writeNext(final JsonGenerator generator) throws IOException, SQLException {
+        if (!started) {
+            started = true;
+            generator.writeStartArray();
+        }
+        final T row = cursor.next();
+        if (row == null) {
+            generator.writeEndArray();
+            return false;
+        }
+        objectMapper.writeValue(generator, row);
+        return true;
+    }
+
+    @Override
+    protected void release() throws IOException {
+        try {
+            cursor.close();
+        } catch (SQLException e) {
+            throw new IOException("Exception while closing cursor", e);
+        }
+    }
+}
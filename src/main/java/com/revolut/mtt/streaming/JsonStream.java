@@ -0,0 +1,129 @@
+package com.revolut.mtt.streaming;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.SQLException;
+
+/**
+ * Response body serializing JSON content part by part while it is being read by server.
+ * Only a small buffer of serialized content is kept in memory, whatever the size of content is.
+ * Resources are released once all content is read, on failure or when stream is closed.
+ */
+public abstract class JsonStream extends InputStream {
+
+    /**
+     * Content is serialized until buffer reaches this size.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Buffer buffer = new Buffer();
+
+    private final JsonGenerator generator;
+
+    private int position;
+
+    private boolean finished;
+
+    protected JsonStream(final ObjectMapper objectMapper) throws IOException {
+        this.generator = objectMapper.getFactory().createGenerator(buffer);
+        // several root values are separated by subclasses, e.g. with new lines
+        this.generator.setRootValueSeparator(null);
+    }
+
+    /**
+     * Writes next part of content, e.g. a row.
+     *
+     * @return false if there is no more content, otherwise true.
+     */
+    protected abstract boolean writeNext(JsonGenerator generator) throws IOException, SQLException;
+
+    /**
+     * Releases resources used to produce content. Called once.
+     */
+    protected abstract void release() throws IOException;
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return buffer.byteAt(position++);
+    }
+
+    @Override
+    public int read(final byte[] bytes, final int offset, final int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        final int read = Math.min(length, buffer.size() - position);
+        buffer.copyTo(position, bytes, offset, read);
+        position += read;
+        return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!finished) {
+            finished = true;
+            release();
+        }
+    }
+
+    /**
+     * Serializes next part of content if buffer is fully read.
+     *
+     * @return false if there is nothing left to read.
+     */
+    private boolean fill() throws IOException {
+        if (position < buffer.size()) {
+            return true;
+        }
+        if (finished) {
+            return false;
+        }
+        buffer.reset();
+        position = 0;
+        try {
+            while (buffer.size() < BUFFER_SIZE) {
+                if (!writeNext(generator)) {
+                    generator.flush();
+                    close();
+                    break;
+                }
+                generator.flush();
+            }
+        } catch (SQLException e) {
+            close();
+            throw new IOException("Exception while writing content", e);
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+        return buffer.size() > 0;
+    }
+
+    /**
+     * Gives access to written bytes without copying them.
+     */
+    private static class Buffer extends ByteArrayOutputStream {
+
+        private Buffer() {
+            super(BUFFER_SIZE * 2);
+        }
+
+        private int byteAt(final int index) {
+            return buf[index] & 0xff;
+        }
+
+        private void copyTo(final int index, final byte[] bytes, final int offset, final int length) {
+            System.arraycopy(buf, index, bytes, offset, length);
+        }
+    }
+}
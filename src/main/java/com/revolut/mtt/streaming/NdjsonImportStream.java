@@ -0,0 +1,127 @@
+package com.revolut.mtt.streaming;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.revolut.mtt.model.ImportResult;
+import com.revolut.mtt.validation.ValidationError;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Response body importing newline delimited JSON entities of request body while response is being read by server.
+ * Request body is read by chunks of 'chunkSize' lines, so only one chunk is kept in memory.
+ * Result of each line is written as newline delimited JSON once its chunk is imported. Blank lines are skipped.
+ * Request body is closed once import is finished, on failure or when stream is closed.
+ */
+public class NdjsonImportStream<T> extends JsonStream {
+
+    private final BufferedReader reader;
+
+    private final ObjectReader entityReader;
+
+    private final ObjectMapper objectMapper;
+
+    private final int chunkSize;
+
+    private final ChunkImporter<T> importer;
+
+    private final Runnable onClose;
+
+    private long lineNumber;
+
+    private boolean endOfBody;
+
+    public NdjsonImportStream(final InputStream body,
+                              final Class<T> type,
+                              final ObjectMapper objectMapper,
+                              final int chunkSize,
+                              final ChunkImporter<T> importer,
+                              final Runnable onClose) throws IOException {
+        super(objectMapper);
+        this.reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        this.entityReader = objectMapper.readerFor(type);
+        this.objectMapper = objectMapper;
+        this.chunkSize = chunkSize;
+        this.importer = importer;
+        this.onClose = onClose;
+    }
+
+    @Override
+    protected boolean writeNext(final JsonGenerator generator) throws IOException, SQLException {
+        if (endOfBody) {
+            return false;
+        }
+        final List<ImportResult> results = new ArrayList<>(chunkSize);
+        final List<T> entities = new ArrayList<>(chunkSize);
+        final List<Integer> entityPositions = new ArrayList<>(chunkSize);
+        final List<Long> entityLines = new ArrayList<>(chunkSize);
+        while (results.size() < chunkSize) {
+            final String line = reader.readLine();
+            if (line == null) {
+                endOfBody = true;
+                break;
+            }
+            lineNumber++;
+            if (line.isBlank()) {
+                continue;
+            }
+            try {
+                entities.add(entityReader.readValue(line));
+                entityPositions.add(results.size());
+                entityLines.add(lineNumber);
+                results.add(null);
+            } catch (JsonProcessingException e) {
+                results.add(ImportResult.builder()
+                        .line(lineNumber)
+                        .errors(Collections.singletonList(ValidationError.builder()
+                                .message("Line should be a valid JSON")
+                                .build()))
+                        .build());
+            }
+        }
+        if (!entities.isEmpty()) {
+            final List<ImportResult> importResults = importer.importChunk(entities);
+            for (int i = 0; i < entities.size(); i++) {
+                results.set(entityPositions.get(i), importResults.get(i).toBuilder()
+                        .line(entityLines.get(i))
+                        .build());
+            }
+        }
+        for (final ImportResult result : results) {
+            objectMapper.writeValue(generator, result);
+            generator.writeRaw('\n');
+        }
+        return !results.isEmpty();
+    }
+
+    @Override
+    protected void release() throws IOException {
+        try {
+            reader.close();
+        } finally {
+            onClose.run();
+        }
+    }
+
+    /**
+     * Validates and saves a chunk of entities.
+     */
+    @FunctionalInterface
+    public interface ChunkImporter<T> {
+
+        /**
+         * @return results of entities in the same order. Line numbers are set by stream.
+         */
+        List<ImportResult> importChunk(List<T> entities) throws SQLException;
+    }
+}
@@ -0,0 +1,65 @@
+package com.revolut.mtt.validation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of validation, returned to caller instead of thrown. Made immutable.
+ * Valid result is a shared constant, so passed validation allocates nothing. Failed results are usually constants
+ * too, since most errors do not depend on request, and only combining several of them allocates.
+ */
+public final class Validation {
+
+    private static final Validation VALID = new Validation(Collections.emptyList());
+
+    private final List<ValidationError> errors;
+
+    private Validation(final List<ValidationError> errors) {
+        this.errors = errors;
+    }
+
+    public static Validation valid() {
+        return VALID;
+    }
+
+    public static Validation invalid(final ValidationError error) {
+        return new Validation(Collections.singletonList(error));
+    }
+
+    public static Validation invalid(final String field, final String message) {
+        return invalid(ValidationError.builder()
+                .field(field)
+                .message(message)
+                .build());
+    }
+
+    /**
+     * Combines errors of both results, errors of this result go first.
+     */
+    public Validation and(final Validation other) {
+        if (other.isValid()) {
+            return this;
+        }
+        if (isValid()) {
+            return other;
+        }
+        final List<ValidationError> combined = new ArrayList<>(errors.size() + other.errors.size());
+        combined.addAll(errors);
+        combined.addAll(other.errors);
+        return new Validation(Collections.unmodifiableList(combined));
+    }
+
+    public boolean isValid() {
+        return errors.isEmpty();
+    }
+
+    public List<ValidationError> getErrors() {
+        return errors;
+    }
+
+    @Override
+    public String toString() {
+        return isValid() ? "valid" : "Validation errors: " + errors;
+    }
+}
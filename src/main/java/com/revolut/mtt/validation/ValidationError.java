@@ -1,16 +1,18 @@
 package com.revolut.mtt.validation;
 
+import lombok.AllArgsConstructor;
 import lombok.Builder;
-import lombok.Data;
+import lombok.Value;
 
 /**
- * Common validation error.
+ * Common validation error. Made immutable, so the same error may be reported by any number of requests.
  */
-@Data
+@Value
 @Builder
+@AllArgsConstructor
 public class ValidationError {
 
-    private String field;
+    private final String field;
 
-    private String message;
+    private final String message;
 }
@@ -1,20 +0,0 @@
-package com.revolut.mtt.validation;
-
-import java.util.List;
-
-/**
- * Common validation exception.
- */
-public class ValidationException extends RuntimeException {
-
-    private final List<ValidationError> errors;
-
-    public ValidationException(final List<ValidationError> errors) {
-        super("Validation errors: " + errors.toString());
-        this.errors = errors;
-    }
-
-    public List<ValidationError> getErrors() {
-        return errors;
-    }
-}
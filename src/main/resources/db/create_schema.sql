@@ -5,10 +5,84 @@ create table app_user (
 
 create index app_user_username_idx on app_user(username);
 
+-- money is kept in minor units, e.g. cents
 create table account (
     id bigint auto_increment primary key,
     user_id bigint not null,
-    balance decimal not null check balance > 0,
+    balance bigint not null check balance > 0,
+    slots int default 0 not null,
+    -- increased by every change of balance or slots, so optimistic transfers detect concurrent changes
+    version bigint default 0 not null,
 
     foreign key (user_id) references app_user(id)
-);
\ No newline at end of file
+);
+
+-- user may own many accounts, so account updates by id and user should use primary key rather than user index
+alter table account alter column user_id selectivity 1;
+
+-- part of split account balance, credits are spread across slots of account
+create table account_slot (
+    account_id bigint not null,
+    slot int not null,
+    balance bigint not null check balance >= 0,
+
+    primary key (account_id, slot),
+    foreign key (account_id) references account(id)
+);
+
+-- append-only journal of balance changes used by 'journal' ledger engine, debits are negative and credits positive
+create table ledger_entry (
+    id bigint primary key,
+    account_id bigint not null,
+    amount bigint not null,
+    created_at timestamp not null,
+
+    foreign key (account_id) references account(id)
+);
+
+create index ledger_entry_account_id_idx on ledger_entry(account_id, id);
+
+-- account balance including its ledger entries up to 'last_entry_id', rolled forward by compaction
+create table balance_snapshot (
+    account_id bigint primary key,
+    balance bigint not null,
+    last_entry_id bigint not null,
+
+    foreign key (account_id) references account(id)
+);
+
+-- transfer history, one row per account side of transfer: debits have negative amount and credits positive one
+create sequence transfer_seq;
+
+create table account_transfer (
+    account_id bigint not null,
+    transfer_id bigint not null,
+    counterparty_account_id bigint not null,
+    amount bigint not null,
+    created_at timestamp not null,
+
+    foreign key (account_id) references account(id)
+);
+
+-- statement is read newest first from a cursor, so index order matches it
+create unique index account_transfer_account_id_idx on account_transfer(account_id, transfer_id desc);
+
+-- credits of sequenced transfers debited in another partition, saved with the debit and deleted with the credit
+create table pending_credit (
+    id bigint auto_increment primary key,
+    end_user_id bigint not null,
+    source_account_id bigint not null,
+    destination_account_id bigint not null,
+    amount bigint not null,
+
+    foreign key (destination_account_id) references account(id)
+);
+
+create table idempotency_key (
+    idempotency_key varchar (255) primary key,
+    payload_hash char (64) not null,
+    status int not null,
+    created_at timestamp not null
+);
+
+create index idempotency_key_created_at_idx on idempotency_key(created_at);
\ No newline at end of file
@@ -0,0 +1,119 @@
+package com.revolut.mtt.controller;
+
+import com.revolut.mtt.error.Rejections;
+import com.revolut.mtt.metrics.Metrics;
+import com.revolut.mtt.model.Account;
+import com.revolut.mtt.repository.AccountRepository;
+import com.revolut.mtt.validation.ValidationError;
+import org.jooby.Result;
+import org.jooby.Status;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class AccountAdminControllerTest {
+
+    @InjectMocks
+    private AccountAdminController accountAdminController;
+
+    @Mock
+    private AccountRepository accountRepository;
+
+    @Spy
+    private Rejections rejections = new Rejections(new Metrics(), () -> null);
+
+    @Test
+    void account_should_be_split() throws Exception {
+        // given
+        final Account account = new Account(1L, 2L, 10000L);
+        when(accountRepository.isSplitSupported())
+                .thenReturn(true);
+        when(accountRepository.splitAccount(1L, 8))
+                .thenReturn(true);
+        when(accountRepository.fetchAccount(1L))
+                .thenReturn(Optional.of(account));
+
+        // when
+        final Result result = accountAdminController.splitAccount(1L, 8);
+
+        // then
+        assertEquals(Optional.of(Status.OK), result.status());
+        assertEquals(account, result.get());
+        verify(accountRepository).splitAccount(1L, 8);
+    }
+
+    @Test
+    void slots_should_be_limited() throws Exception {
+        // when
+        final List<ValidationError> validationErrors = rejectedErrors(accountAdminController.splitAccount(1L, 65));
+
+        // then
+        assertEquals(1, validationErrors.size());
+        assertEquals("slots", validationErrors.get(0).getField());
+        verify(accountRepository, never()).splitAccount(anyLong(), anyInt());
+    }
+
+    @Test
+    void non_existing_account_should_not_be_split() throws Exception {
+        // given
+        when(accountRepository.isSplitSupported())
+                .thenReturn(true);
+        when(accountRepository.splitAccount(1L, 8))
+                .thenReturn(false);
+
+        // when
+        final Result result = accountAdminController.splitAccount(1L, 8);
+
+        // then
+        assertEquals(Optional.of(Status.NOT_FOUND), result.status());
+    }
+
+    @Test
+    void account_should_not_be_split_if_ledger_engine_does_not_support_it() throws Exception {
+        // given
+        when(accountRepository.isSplitSupported())
+                .thenReturn(false);
+
+        // when
+        final List<ValidationError> validationErrors = rejectedErrors(accountAdminController.splitAccount(1L, 8));
+
+        // then
+        assertEquals(1, validationErrors.size());
+        verify(accountRepository, never()).splitAccount(anyLong(), anyInt());
+    }
+
+    @Test
+    void rebalanced_account_should_be_returned() throws Exception {
+        // given
+        final Account account = new Account(1L, 2L, 10000L);
+        when(accountRepository.rebalanceAccount(1L))
+                .thenReturn(Optional.of(account));
+
+        // when
+        final Result result = accountAdminController.rebalanceAccount(1L);
+
+        // then
+        assertEquals(Optional.of(Status.OK), result.status());
+        assertEquals(account, result.get());
+    }
+
+    /**
+     * @return errors of request rejected with '400 Bad Request'.
+     */
+    private static List<ValidationError> rejectedErrors(final Result result) {
+        assertEquals(Optional.of(Status.BAD_REQUEST), result.status());
+        return result.get();
+    }
+}
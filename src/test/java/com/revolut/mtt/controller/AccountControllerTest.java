@@ -1,25 +1,38 @@
 package com.revolut.mtt.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.revolut.mtt.database.ResultCursor;
+import com.revolut.mtt.error.Rejections;
+import com.revolut.mtt.metrics.Metrics;
 import com.revolut.mtt.model.Account;
+import com.revolut.mtt.model.AccountTransfer;
+import com.revolut.mtt.model.AccountsResult;
 import com.revolut.mtt.model.User;
 import com.revolut.mtt.repository.AccountRepository;
+import com.revolut.mtt.repository.TransferRepository;
 import com.revolut.mtt.repository.UserRepository;
 import com.revolut.mtt.validation.ValidationError;
-import com.revolut.mtt.validation.ValidationException;
 import org.jooby.Result;
 import org.jooby.Status;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 
-import java.math.BigDecimal;
-import java.sql.SQLException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -35,12 +48,24 @@ class AccountControllerTest {
     @Mock
     private UserRepository userRepository;
 
+    @Mock
+    private TransferRepository transferRepository;
+
+    @Spy
+    private Rejections rejections = new Rejections(new Metrics(), () -> null);
+
+    @Spy
+    private ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+
+    @Mock
+    private ResultCursor<AccountTransfer> transferCursor;
+
     @Test
     void existing_account_should_be_returned_from_repository() throws Exception {
         // given
         final long accountId = 1L;
         final long userId = 2L;
-        final BigDecimal balance = new BigDecimal(100);
+        final long balance = 10000L;
         when(accountRepository.fetchAccount(accountId))
                 .thenReturn(Optional.of(new Account(accountId, userId, balance)));
 
@@ -54,10 +79,39 @@ class AccountControllerTest {
         assertNotNull(account);
         assertEquals(1L, account.getId());
         assertEquals(2L, account.getUserId());
-        assertEquals(new BigDecimal(100), account.getBalance());
+        assertEquals(10000L, account.getBalance());
         verify(accountRepository).fetchAccount(accountId);
     }
 
+    @Test
+    void several_accounts_should_be_returned_with_missing_ids() throws Exception {
+        // given
+        when(accountRepository.fetchAccounts(Set.of(3L, 1L, 2L)))
+                .thenReturn(Map.of(
+                        1L, new Account(1L, 5L, 100L),
+                        3L, new Account(3L, 6L, 1000L)));
+
+        // when
+        final Result accountsResult = accountController.fetchAccounts(List.of("3,1", "2", "1"));
+
+        // then
+        assertEquals(Optional.of(Status.OK), accountsResult.status());
+        final AccountsResult accounts = accountsResult.get();
+        assertEquals(List.of(new Account(3L, 6L, 1000L), new Account(1L, 5L, 100L)),
+                accounts.getAccounts());
+        assertEquals(List.of(2L), accounts.getMissingIds());
+    }
+
+    @Test
+    void several_accounts_should_be_requested_with_numeric_ids() throws Exception {
+        // when
+        final List<ValidationError> errors = rejectedErrors(accountController.fetchAccounts(List.of("1,abc")));
+
+        // then
+        assertEquals(1, errors.size());
+        assertEquals("ids", errors.get(0).getField());
+    }
+
     @Test
     void non_existing_account_should_return_not_found_status() throws Exception {
         // given
@@ -75,9 +129,9 @@ class AccountControllerTest {
     @Test
     void account_should_be_created_and_saved_in_repository() throws Exception {
         // given
-        final Account account = new Account(null, 2L, new BigDecimal(150));
+        final Account account = new Account(null, 2L, 15000L);
         when(accountRepository.createAccount(account))
-                .thenReturn(new Account(1L, 2L, new BigDecimal(150)));
+                .thenReturn(new Account(1L, 2L, 15000L));
         when(userRepository.fetchUser(2L))
                 .thenReturn(Optional.of(new User(2L, "phoebe")));
 
@@ -91,60 +145,113 @@ class AccountControllerTest {
         assertNotNull(createdAccount);
         assertEquals(1L, createdAccount.getId());
         assertEquals(2L, createdAccount.getUserId());
-        assertEquals(new BigDecimal(150), createdAccount.getBalance());
+        assertEquals(15000L, createdAccount.getBalance());
         verify(accountRepository).createAccount(account);
         verify(userRepository).fetchUser(2L);
     }
 
     @Test
-    void account_should_have_user_id() {
+    void account_should_have_user_id() throws Exception {
         // given
-        final Account account = new Account(null, null, new BigDecimal(10));
+        final Account account = new Account(null, null, 1000L);
 
         // when
-        final ValidationException validationException =
-                assertThrows(ValidationException.class, () -> accountController.createAccount(account));
+        final List<ValidationError> errors = rejectedErrors(accountController.createAccount(account));
 
         // then
-        final List<ValidationError> errors = validationException.getErrors();
         assertEquals(1, errors.size());
         final ValidationError error = errors.get(0);
         assertEquals("userId", error.getField());
     }
 
     @Test
-    void account_should_have_existing_user() throws SQLException {
+    void account_should_have_existing_user() throws Exception {
         // given
-        final Account account = new Account(null, 3L, new BigDecimal(10));
+        final Account account = new Account(null, 3L, 1000L);
         when(userRepository.fetchUser(3L))
                 .thenReturn(Optional.empty());
 
         // when
-        final ValidationException validationException =
-                assertThrows(ValidationException.class, () -> accountController.createAccount(account));
+        final List<ValidationError> errors = rejectedErrors(accountController.createAccount(account));
 
         // then
-        final List<ValidationError> errors = validationException.getErrors();
         assertEquals(1, errors.size());
         final ValidationError error = errors.get(0);
         assertEquals("userId", error.getField());
     }
 
     @Test
-    void account_should_have_non_negative() throws SQLException {
+    void account_should_have_non_negative() throws Exception {
         // given
-        final Account account = new Account(null, 2L, new BigDecimal(-10));
+        final Account account = new Account(null, 2L, -1000L);
         when(userRepository.fetchUser(2L))
                 .thenReturn(Optional.of(new User(2L, "phoebe")));
 
         // when
-        final ValidationException validationException =
-                assertThrows(ValidationException.class, () -> accountController.createAccount(account));
+        final List<ValidationError> errors = rejectedErrors(accountController.createAccount(account));
 
         // then
-        final List<ValidationError> errors = validationException.getErrors();
         assertEquals(1, errors.size());
         final ValidationError error = errors.get(0);
         assertEquals("balance", error.getField());
     }
-}
\ No newline at end of file
+
+    @Test
+    void account_transfers_should_be_streamed_as_json_array() throws Exception {
+        // given
+        final long accountId = 1L;
+        when(accountRepository.fetchAccount(accountId))
+                .thenReturn(Optional.of(new Account(accountId, 2L, 10000L)));
+        when(transferRepository.fetchTransfers(accountId, 7L, 2))
+                .thenReturn(transferCursor);
+        when(transferCursor.next())
+                .thenReturn(new AccountTransfer(6L, 3L, -150L, Instant.parse("2019-06-01T10:15:30Z")))
+                .thenReturn(new AccountTransfer(5L, 4L, 1000L, Instant.parse("2019-06-01T10:15:00Z")))
+                .thenReturn(null);
+
+        // when
+        final Result transfersResult = accountController.fetchTransfers(accountId, Optional.of(7L), Optional.of(2));
+
+        // then
+        assertEquals(Optional.of(Status.OK), transfersResult.status());
+        final String json;
+        try (final InputStream body = transfersResult.get()) {
+            json = new String(body.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        assertEquals("[{\"id\":6,\"counterpartyAccountId\":3,\"amount\":-1.50,\"createdAt\":\"2019-06-01T10:15:30Z\"},"
+                + "{\"id\":5,\"counterpartyAccountId\":4,\"amount\":10.00,\"createdAt\":\"2019-06-01T10:15:00Z\"}]", json);
+        verify(transferCursor).close();
+    }
+
+    @Test
+    void transfers_of_non_existing_account_should_return_not_found_status() throws Exception {
+        // given
+        final long accountId = 4L;
+
+        // when
+        final Result transfersResult = accountController.fetchTransfers(accountId, Optional.empty(), Optional.empty());
+
+        // then
+        assertEquals(Optional.of(Status.NOT_FOUND), transfersResult.status());
+        verify(transferRepository, never()).fetchTransfers(any(), any(), anyInt());
+    }
+
+    @Test
+    void transfers_limit_should_not_exceed_maximum() throws Exception {
+        // when
+        final List<ValidationError> errors =
+                rejectedErrors(accountController.fetchTransfers(1L, Optional.empty(), Optional.of(10_001)));
+
+        // then
+        assertEquals(1, errors.size());
+        assertEquals("limit", errors.get(0).getField());
+    }
+
+    /**
+     * @return errors of request rejected with '400 Bad Request'.
+     */
+    private static List<ValidationError> rejectedErrors(final Result result) {
+        assertEquals(Optional.of(Status.BAD_REQUEST), result.status());
+        return result.get();
+    }
+}
@@ -0,0 +1,152 @@
+package com.revolut.mtt.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.revolut.mtt.database.TransactionalExecutor;
+import com.revolut.mtt.model.Account;
+import com.revolut.mtt.model.User;
+import com.revolut.mtt.repository.AccountRepository;
+import com.revolut.mtt.repository.UserRepository;
+import com.revolut.mtt.streaming.ImportLimiter;
+import org.jooby.Result;
+import org.jooby.Status;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ImportControllerTest {
+
+    @Mock
+    private UserRepository userRepository;
+
+    @Mock
+    private AccountRepository accountRepository;
+
+    @Mock
+    private TransactionalExecutor transactionalExecutor;
+
+    private final ImportLimiter importLimiter = new ImportLimiter(1);
+
+    private ImportController importController;
+
+    @BeforeEach
+    void setUp() {
+        importController = new ImportController(userRepository, accountRepository, transactionalExecutor,
+                importLimiter, new ObjectMapper(), 2);
+    }
+
+    @Test
+    void users_should_be_imported_and_committed_by_chunks() throws Exception {
+        // given
+        final InputStream body = body("{\"username\":\"monica\"}\n{\"username\":\"ross\"}\n\n"
+                + "{\"username\":\"monica\"}\nnot a json\n{\"username\":\"\"}\n");
+        when(userRepository.fetchExistingUsernames(anyCollection()))
+                .thenReturn(Set.of("ross"))
+                .thenReturn(Set.of("monica"))
+                .thenReturn(Collections.emptySet());
+        when(userRepository.createUsersIfAbsent(List.of(User.builder().username("monica").build())))
+                .thenReturn(List.of(Optional.of(new User(7L, "monica"))));
+
+        // when
+        final Result importResult = importController.importUsers(body);
+        final List<String> lines = readLines(importResult);
+
+        // then
+        assertEquals(Optional.of(Status.OK), importResult.status());
+        assertEquals(List.of(
+                "{\"line\":1,\"id\":7,\"errors\":[]}",
+                "{\"line\":2,\"id\":null,\"errors\":[{\"field\":\"username\",\"message\":\"Username already exists\"}]}",
+                "{\"line\":4,\"id\":null,\"errors\":[{\"field\":\"username\",\"message\":\"Username already exists\"}]}",
+                "{\"line\":5,\"id\":null,\"errors\":[{\"field\":null,\"message\":\"Line should be a valid JSON\"}]}",
+                "{\"line\":6,\"id\":null,\"errors\":[{\"field\":\"username\",\"message\":\"Username should not be empty\"}]}"),
+                lines);
+        verify(transactionalExecutor, times(3)).commit();
+        assertTrue(importLimiter.tryAcquire());
+    }
+
+    @Test
+    void user_taken_concurrently_should_be_reported_in_its_line() throws Exception {
+        // given
+        final InputStream body = body("{\"username\":\"monica\"}\n{\"username\":\"ross\"}\n");
+        when(userRepository.fetchExistingUsernames(anyCollection()))
+                .thenReturn(Collections.emptySet());
+        when(userRepository.createUsersIfAbsent(List.of(User.builder().username("monica").build(),
+                User.builder().username("ross").build())))
+                .thenReturn(List.of(Optional.of(new User(7L, "monica")), Optional.empty()));
+
+        // when
+        final List<String> lines = readLines(importController.importUsers(body));
+
+        // then
+        assertEquals(List.of(
+                "{\"line\":1,\"id\":7,\"errors\":[]}",
+                "{\"line\":2,\"id\":null,\"errors\":[{\"field\":\"username\",\"message\":\"Username already exists\"}]}"),
+                lines);
+    }
+
+    @Test
+    void accounts_should_be_validated_by_chunk() throws Exception {
+        // given
+        final InputStream body = body("{\"userId\":1,\"balance\":10}\n{\"userId\":2,\"balance\":5}\n"
+                + "{\"userId\":1,\"balance\":0}\n");
+        when(userRepository.fetchExistingUserIds(anyCollection()))
+                .thenReturn(Set.of(1L))
+                .thenReturn(Set.of(1L));
+        when(accountRepository.createAccounts(List.of(new Account(null, 1L, 1000L))))
+                .thenReturn(List.of(new Account(3L, 1L, 1000L)));
+        when(accountRepository.createAccounts(Collections.emptyList()))
+                .thenReturn(Collections.emptyList());
+
+        // when
+        final List<String> lines = readLines(importController.importAccounts(body));
+
+        // then
+        assertEquals(List.of(
+                "{\"line\":1,\"id\":3,\"errors\":[]}",
+                "{\"line\":2,\"id\":null,\"errors\":[{\"field\":\"userId\",\"message\":\"User should exist\"}]}",
+                "{\"line\":3,\"id\":null,\"errors\":[{\"field\":\"balance\",\"message\":\"Balance should be positive\"}]}"),
+                lines);
+        verify(userRepository).fetchExistingUserIds(List.of(1L, 2L));
+        verify(transactionalExecutor, times(2)).commit();
+    }
+
+    @Test
+    void import_should_be_rejected_if_too_many_imports_are_in_progress() throws Exception {
+        // given
+        assertTrue(importLimiter.tryAcquire());
+        final InputStream body = mock(InputStream.class);
+
+        // when
+        final Result importResult = importController.importUsers(body);
+
+        // then
+        assertEquals(Optional.of(Status.TOO_MANY_REQUESTS), importResult.status());
+        verify(body).close();
+        verifyZeroInteractions(userRepository);
+    }
+
+    private static InputStream body(final String lines) {
+        return new ByteArrayInputStream(lines.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<String> readLines(final Result result) throws IOException {
+        try (final InputStream stream = result.get()) {
+            return List.of(new String(stream.readAllBytes(), StandardCharsets.UTF_8).split("\n"));
+        }
+    }
+}
@@ -1,24 +1,36 @@
 package com.revolut.mtt.controller;
 
+import com.revolut.mtt.database.ConnectionProvider;
+import com.revolut.mtt.database.TransactionalExecutor;
+import com.revolut.mtt.error.Rejections;
+import com.revolut.mtt.idempotency.IdempotencyStore;
+import com.revolut.mtt.idempotency.IdempotentRequest;
+import com.revolut.mtt.metrics.HotAccounts;
+import com.revolut.mtt.metrics.Metrics;
 import com.revolut.mtt.model.Account;
+import com.revolut.mtt.model.HotAccount;
 import com.revolut.mtt.model.Transfer;
+import com.revolut.mtt.model.TransferResult;
 import com.revolut.mtt.model.User;
+import com.revolut.mtt.model.VersionedAccount;
+import com.revolut.mtt.optimistic.OptimisticConcurrency;
 import com.revolut.mtt.repository.AccountRepository;
+import com.revolut.mtt.repository.TransferRepository;
 import com.revolut.mtt.repository.UserRepository;
+import com.revolut.mtt.sequencer.TransferSequencer;
 import com.revolut.mtt.validation.ValidationError;
-import com.revolut.mtt.validation.ValidationException;
 import org.jooby.Result;
 import org.jooby.Status;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
-import java.math.BigDecimal;
 import java.sql.SQLException;
-import java.util.Optional;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -34,100 +46,142 @@ class TransferControllerTest {
     @Mock
     private UserRepository userRepository;
 
-    @InjectMocks
+    @Mock
+    private TransferRepository transferRepository;
+
+    @Mock
+    private IdempotencyStore idempotencyStore;
+
+    @Mock
+    private TransferSequencer transferSequencer;
+
+    @Mock
+    private ConnectionProvider connectionProvider;
+
+    private final HotAccounts hotAccounts = new HotAccounts(64, 4, 60_000);
+
     private TransferController transferController;
 
-    private final Transfer correctTransfer = new Transfer(1L, 2L, 3L, BigDecimal.TEN);
+    private TransferController conditionalTransferController;
 
-    private final User correctUser = new User(1L, "rachel");
+    private TransferController sequencedTransferController;
+
+    private TransferController optimisticTransferController;
 
-    private final Account correctSourceAccount = new Account(2L, 1L, new BigDecimal(100));
+    private final TransactionalExecutor optimisticExecutor = spy(TransactionalExecutor.direct());
 
-    private final Account correctDestinationAccount = new Account(3L, 1L, new BigDecimal(200));
+    private final Transfer correctTransfer = new Transfer(1L, 2L, 3L, 1000L);
+
+    private final User correctUser = new User(1L, "rachel");
+
+    private final Account correctSourceAccount = new Account(2L, 1L, 10000L);
+
+    private final Account correctDestinationAccount = new Account(3L, 1L, 20000L);
+
+    @BeforeEach
+    void setUp() {
+        lenient().when(accountRepository.lockOrder())
+                .thenReturn(Comparator.naturalOrder());
+        final Rejections rejections = new Rejections(new Metrics(), connectionProvider);
+        final OptimisticConcurrency optimisticConcurrency =
+                new OptimisticConcurrency(3, 0, false, 0.1, 1000, 16, new Metrics());
+        transferController = new TransferController(accountRepository, userRepository, transferRepository,
+                idempotencyStore, TransactionalExecutor.direct(), transferSequencer, new Metrics(), hotAccounts,
+                rejections, optimisticConcurrency, "locking", 3);
+        conditionalTransferController = new TransferController(accountRepository, userRepository, transferRepository,
+                idempotencyStore, TransactionalExecutor.direct(), transferSequencer, new Metrics(), hotAccounts,
+                rejections, optimisticConcurrency, "conditional", 3);
+        sequencedTransferController = new TransferController(accountRepository, userRepository, transferRepository,
+                idempotencyStore, TransactionalExecutor.direct(), transferSequencer, new Metrics(), hotAccounts,
+                rejections, optimisticConcurrency, "sequenced", 3);
+        optimisticTransferController = new TransferController(accountRepository, userRepository, transferRepository,
+                idempotencyStore, optimisticExecutor, transferSequencer, new Metrics(), hotAccounts,
+                rejections, optimisticConcurrency, "optimistic", 3);
+    }
 
     @Test
     void transfer_amount_should_be_positive() throws Exception {
         // given
         final Transfer zeroTransfer = correctTransfer.toBuilder()
-                .amount(BigDecimal.ZERO)
+                .amount(0L)
                 .build();
         final Transfer negativeTransfer = correctTransfer.toBuilder()
-                .amount(BigDecimal.ONE.negate())
+                .amount(-100L)
                 .build();
 
         // when
-        final ValidationException ztValidationException =
-                assertThrows(ValidationException.class, () -> transferController.createTransfer(zeroTransfer));
-        final ValidationException ntValidationException =
-                assertThrows(ValidationException.class, () -> transferController.createTransfer(negativeTransfer));
+        final List<ValidationError> ztValidationErrors =
+                rejectedErrors(transferController.createTransfer(zeroTransfer, Optional.empty()));
+        final List<ValidationError> ntValidationErrors =
+                rejectedErrors(transferController.createTransfer(negativeTransfer, Optional.empty()));
 
         // then
-        assertEquals(1, ztValidationException.getErrors().size());
-        final ValidationError ztError = ztValidationException.getErrors().get(0);
+        assertEquals(1, ztValidationErrors.size());
+        final ValidationError ztError = ztValidationErrors.get(0);
         assertEquals("amount", ztError.getField());
-        assertEquals(1, ntValidationException.getErrors().size());
-        final ValidationError ntError = ntValidationException.getErrors().get(0);
+        assertEquals(1, ntValidationErrors.size());
+        final ValidationError ntError = ntValidationErrors.get(0);
         assertEquals("amount", ntError.getField());
         verifyTransferDidNotHappen(zeroTransfer);
         verifyTransferDidNotHappen(negativeTransfer);
     }
 
     @Test
-    void transfer_end_user_id_should_not_be_null() throws SQLException {
+    void transfer_end_user_id_should_not_be_null() throws Exception {
         // given
         final Transfer transfer = correctTransfer.toBuilder()
                 .endUserId(null)
                 .build();
 
         // when
-        final ValidationException validationException =
-                assertThrows(ValidationException.class, () -> transferController.createTransfer(transfer));
+        final List<ValidationError> validationErrors =
+                rejectedErrors(transferController.createTransfer(transfer, Optional.empty()));
 
         // then
-        assertEquals(1, validationException.getErrors().size());
-        final ValidationError error = validationException.getErrors().get(0);
+        assertEquals(1, validationErrors.size());
+        final ValidationError error = validationErrors.get(0);
         assertEquals("endUserId", error.getField());
         verifyTransferDidNotHappen(transfer);
     }
 
     @Test
-    void transfer_source_account_id_should_not_be_null() throws SQLException {
+    void transfer_source_account_id_should_not_be_null() throws Exception {
         // given
         final Transfer transfer = correctTransfer.toBuilder()
                 .sourceAccountId(null)
                 .build();
 
         // when
-        final ValidationException validationException =
-                assertThrows(ValidationException.class, () -> transferController.createTransfer(transfer));
+        final List<ValidationError> validationErrors =
+                rejectedErrors(transferController.createTransfer(transfer, Optional.empty()));
 
         // then
-        assertEquals(1, validationException.getErrors().size());
-        final ValidationError error = validationException.getErrors().get(0);
+        assertEquals(1, validationErrors.size());
+        final ValidationError error = validationErrors.get(0);
         assertEquals("sourceAccountId", error.getField());
         verifyTransferDidNotHappen(transfer);
     }
 
     @Test
-    void transfer_destination_account_id_should_not_be_null() throws SQLException {
+    void transfer_destination_account_id_should_not_be_null() throws Exception {
         // given
         final Transfer transfer = correctTransfer.toBuilder()
                 .destinationAccountId(null)
                 .build();
 
         // when
-        final ValidationException validationException =
-                assertThrows(ValidationException.class, () -> transferController.createTransfer(transfer));
+        final List<ValidationError> validationErrors =
+                rejectedErrors(transferController.createTransfer(transfer, Optional.empty()));
 
         // then
-        assertEquals(1, validationException.getErrors().size());
-        final ValidationError error = validationException.getErrors().get(0);
+        assertEquals(1, validationErrors.size());
+        final ValidationError error = validationErrors.get(0);
         assertEquals("destinationAccountId", error.getField());
         verifyTransferDidNotHappen(transfer);
     }
 
     @Test
-    void transfer_source_and_destination_account_ids_should_be_different() throws SQLException {
+    void transfer_source_and_destination_account_ids_should_be_different() throws Exception {
         // given
         final Transfer transfer = correctTransfer.toBuilder()
                 .sourceAccountId(2L)
@@ -135,12 +189,12 @@ class TransferControllerTest {
                 .build();
 
         // when
-        final ValidationException validationException =
-                assertThrows(ValidationException.class, () -> transferController.createTransfer(transfer));
+        final List<ValidationError> validationErrors =
+                rejectedErrors(transferController.createTransfer(transfer, Optional.empty()));
 
         // then
-        assertEquals(2, validationException.getErrors().size());
-        final Set<String> errorFields = validationException.getErrors().stream()
+        assertEquals(2, validationErrors.size());
+        final Set<String> errorFields = validationErrors.stream()
                 .map(ValidationError::getField)
                 .collect(Collectors.toSet());
         assertTrue(errorFields.contains("sourceAccountId"));
@@ -149,36 +203,36 @@ class TransferControllerTest {
     }
 
     @Test
-    void transfer_end_user_should_exist() throws SQLException {
+    void transfer_end_user_should_exist() throws Exception {
         // given
         final Transfer transfer = correctTransfer;
 
         // when
-        final ValidationException validationException =
-                assertThrows(ValidationException.class, () -> transferController.createTransfer(transfer));
+        final List<ValidationError> validationErrors =
+                rejectedErrors(transferController.createTransfer(transfer, Optional.empty()));
 
         // then
-        assertEquals(1, validationException.getErrors().size());
-        final ValidationError error = validationException.getErrors().get(0);
+        assertEquals(1, validationErrors.size());
+        final ValidationError error = validationErrors.get(0);
         assertEquals("endUserId", error.getField());
         verify(userRepository).fetchUser(1L);
         verifyTransferDidNotHappen(transfer);
     }
 
     @Test
-    void transfer_should_not_happen_if_accounts_cannot_be_acquired() throws SQLException {
+    void transfer_should_not_happen_if_accounts_cannot_be_acquired() throws Exception {
         // given
         final Transfer transfer = correctTransfer;
         when(userRepository.fetchUser(1L))
                 .thenReturn(Optional.of(correctUser));
 
         // when
-        final ValidationException validationException =
-                assertThrows(ValidationException.class, () -> transferController.createTransfer(transfer));
+        final List<ValidationError> validationErrors =
+                rejectedErrors(transferController.createTransfer(transfer, Optional.empty()));
 
         // then
-        assertEquals(2, validationException.getErrors().size());
-        final Set<String> errorFields = validationException.getErrors().stream()
+        assertEquals(2, validationErrors.size());
+        final Set<String> errorFields = validationErrors.stream()
                 .map(ValidationError::getField)
                 .collect(Collectors.toSet());
         assertTrue(errorFields.contains("sourceAccountId"));
@@ -188,32 +242,73 @@ class TransferControllerTest {
     }
 
     @Test
-    void transfer_should_not_happen_if_amount_exceeds_source_account_balance() throws SQLException {
+    void transfer_should_not_happen_if_amount_exceeds_source_account_balance() throws Exception {
         // given
         final Transfer transfer = correctTransfer.toBuilder()
-                .amount(new BigDecimal(100_000))
+                .amount(10_000_000L)
                 .build();
         when(userRepository.fetchUser(1L))
                 .thenReturn(Optional.of(correctUser));
         when(accountRepository.fetchAccount(2L, true))
                 .thenReturn(Optional.of(correctSourceAccount));
-        when(accountRepository.fetchAccount(3L, true))
+        when(accountRepository.fetchAccountForCredit(3L))
                 .thenReturn(Optional.of(correctDestinationAccount));
 
         // when
-        final ValidationException validationException =
-                assertThrows(ValidationException.class, () -> transferController.createTransfer(transfer));
+        final List<ValidationError> validationErrors =
+                rejectedErrors(transferController.createTransfer(transfer, Optional.empty()));
 
         // then
-        assertEquals(1, validationException.getErrors().size());
-        final ValidationError error = validationException.getErrors().get(0);
+        assertEquals(1, validationErrors.size());
+        final ValidationError error = validationErrors.get(0);
         assertEquals("amount", error.getField());
         verifyAccountsLocked(transfer);
         verifyTransferDidNotHappen(transfer);
     }
 
     @Test
-    void transfer_should_not_happen_if_source_account_does_not_belong_to_end_user() throws SQLException {
+    void accounts_locked_by_transfer_should_be_tracked_as_hot() throws SQLException {
+        // given
+        when(userRepository.fetchUser(1L))
+                .thenReturn(Optional.of(correctUser));
+        when(accountRepository.fetchAccount(2L, true))
+                .thenThrow(new SQLException("Timeout trying to lock table"));
+
+        // when
+        assertThrows(SQLException.class, () -> transferController.createTransfer(correctTransfer, Optional.empty()));
+
+        // then
+        assertEquals(Set.of(2L), hotAccounts.top().stream()
+                .map(HotAccount::getAccountId)
+                .collect(Collectors.toSet()));
+        assertEquals(1L, hotAccounts.top().get(0).getTransfers());
+    }
+
+    @Test
+    void each_account_should_be_charged_only_its_own_lock_wait() throws Exception {
+        // given
+        when(userRepository.fetchUser(1L))
+                .thenReturn(Optional.of(correctUser));
+        when(accountRepository.fetchAccount(2L, true))
+                .thenAnswer(invocation -> {
+                    Thread.sleep(50);
+                    return Optional.of(correctSourceAccount);
+                });
+        when(accountRepository.fetchAccountForCredit(3L))
+                .thenReturn(Optional.empty());
+
+        // when
+        transferController.createTransfer(correctTransfer, Optional.empty());
+
+        // then
+        final Map<Long, HotAccount> top = hotAccounts.top().stream()
+                .collect(Collectors.toMap(HotAccount::getAccountId, hotAccount -> hotAccount));
+        assertTrue(top.get(2L).getLockWaitMillis() >= 50);
+        assertTrue(top.get(3L).getLockWaitMillis() < 50);
+    }
+
+    @Test
+    void transfer_should_not_happen_if_source_account_does_not_belong_to_end_user() throws Exception {
         // given
         final Transfer transfer = correctTransfer;
         when(userRepository.fetchUser(1L))
@@ -222,43 +317,44 @@ class TransferControllerTest {
                 .thenReturn(Optional.of(correctSourceAccount.toBuilder()
                         .userId(2L)
                         .build()));
-        when(accountRepository.fetchAccount(3L, true))
+        when(accountRepository.fetchAccountForCredit(3L))
                 .thenReturn(Optional.of(correctDestinationAccount));
 
         // when
-        final ValidationException validationException =
-                assertThrows(ValidationException.class, () -> transferController.createTransfer(transfer));
+        final List<ValidationError> validationErrors =
+                rejectedErrors(transferController.createTransfer(transfer, Optional.empty()));
 
         // then
-        assertEquals(1, validationException.getErrors().size());
-        final ValidationError error = validationException.getErrors().get(0);
+        assertEquals(1, validationErrors.size());
+        final ValidationError error = validationErrors.get(0);
         assertEquals("sourceAccountId", error.getField());
         verifyAccountsLocked(transfer);
         verifyTransferDidNotHappen(transfer);
     }
 
     @Test
-    void transfer_should_not_happen_if_at_least_one_account_cannot_be_updated() throws SQLException {
+    void transfer_should_not_happen_if_at_least_one_account_cannot_be_updated() throws Exception {
         // given
         when(userRepository.fetchUser(1L))
                 .thenReturn(Optional.of(correctUser));
         when(accountRepository.fetchAccount(2L, true))
                 .thenReturn(Optional.of(correctSourceAccount));
-        when(accountRepository.fetchAccount(3L, true))
+        when(accountRepository.fetchAccountForCredit(3L))
                 .thenReturn(Optional.of(correctDestinationAccount));
 
         // when
-        final ValidationException validationException =
-                assertThrows(ValidationException.class, () -> transferController.createTransfer(correctTransfer));
+        final List<ValidationError> validationErrors =
+                rejectedErrors(transferController.createTransfer(correctTransfer, Optional.empty()));
 
         // then
-        assertEquals(2, validationException.getErrors().size());
-        final Set<String> errorFields = validationException.getErrors().stream()
+        assertEquals(2, validationErrors.size());
+        final Set<String> errorFields = validationErrors.stream()
                 .map(ValidationError::getField)
                 .collect(Collectors.toSet());
         assertTrue(errorFields.contains("sourceAccountId"));
         assertTrue(errorFields.contains("destinationAccountId"));
         verifyAccountsLocked(correctTransfer);
+        verify(connectionProvider).setRollbackOnly();
     }
 
     @Test
@@ -268,32 +364,503 @@ class TransferControllerTest {
                 .thenReturn(Optional.of(correctUser));
         when(accountRepository.fetchAccount(2L, true))
                 .thenReturn(Optional.of(correctSourceAccount));
-        when(accountRepository.fetchAccount(3L, true))
+        when(accountRepository.fetchAccountForCredit(3L))
                 .thenReturn(Optional.of(correctDestinationAccount));
-        when(accountRepository.applyBalance(correctTransfer.getSourceAccountId(), new BigDecimal(90)))
+        when(accountRepository.applyBalance(correctTransfer.getSourceAccountId(), 9000L))
                 .thenReturn(true);
-        when(accountRepository.applyBalance(correctTransfer.getDestinationAccountId(), new BigDecimal(210)))
+        when(accountRepository.deposit(correctTransfer.getDestinationAccountId(), 1000L))
                 .thenReturn(true);
 
         // when
-        final Result transferResult = transferController.createTransfer(correctTransfer);
+        final Result transferResult = transferController.createTransfer(correctTransfer, Optional.empty());
 
         // then
         assertNotNull(transferResult);
         assertTrue(transferResult.status().isPresent());
         assertEquals(Status.OK, transferResult.status().get());
         verifyAccountsLocked(correctTransfer);
-        verify(accountRepository).applyBalance(correctTransfer.getSourceAccountId(), new BigDecimal(90));
-        verify(accountRepository).applyBalance(correctTransfer.getDestinationAccountId(), new BigDecimal(210));
+        verify(accountRepository).applyBalance(correctTransfer.getSourceAccountId(), 9000L);
+        verify(accountRepository).deposit(correctTransfer.getDestinationAccountId(), 1000L);
+        verify(transferRepository).saveTransfer(correctTransfer);
+    }
+
+    @Test
+    void conditional_transfer_should_happen_for_correct_data() throws Exception {
+        // given
+        when(userRepository.fetchUser(1L))
+                .thenReturn(Optional.of(correctUser));
+        when(accountRepository.withdraw(2L, 1L, 1000L))
+                .thenReturn(true);
+        when(accountRepository.deposit(3L, 1000L))
+                .thenReturn(true);
+
+        // when
+        final Result transferResult = conditionalTransferController.createTransfer(correctTransfer, Optional.empty());
+
+        // then
+        assertEquals(Optional.of(Status.OK), transferResult.status());
+        verify(accountRepository).withdraw(2L, 1L, 1000L);
+        verify(accountRepository).deposit(3L, 1000L);
+        verify(accountRepository, never()).fetchAccount(any(), anyBoolean());
+        verify(accountRepository, never()).fetchAccount(any());
+        verify(transferRepository).saveTransfer(correctTransfer);
+    }
+
+    @Test
+    void conditional_transfer_should_update_account_with_lower_id_first() throws Exception {
+        // given
+        final Transfer transfer = correctTransfer.toBuilder()
+                .sourceAccountId(3L)
+                .destinationAccountId(2L)
+                .build();
+        when(userRepository.fetchUser(1L))
+                .thenReturn(Optional.of(correctUser));
+        when(accountRepository.deposit(2L, 1000L))
+                .thenReturn(true);
+        when(accountRepository.withdraw(3L, 1L, 1000L))
+                .thenReturn(true);
+
+        // when
+        conditionalTransferController.createTransfer(transfer, Optional.empty());
+
+        // then
+        final InOrder inOrder = inOrder(accountRepository);
+        inOrder.verify(accountRepository).deposit(2L, 1000L);
+        inOrder.verify(accountRepository).withdraw(3L, 1L, 1000L);
+    }
+
+    @Test
+    void conditional_transfer_should_explain_why_source_account_was_not_updated() throws Exception {
+        // given
+        final Transfer transfer = correctTransfer.toBuilder()
+                .amount(10_000_000L)
+                .build();
+        when(userRepository.fetchUser(1L))
+                .thenReturn(Optional.of(correctUser));
+        when(accountRepository.fetchAccount(2L))
+                .thenReturn(Optional.of(correctSourceAccount));
+
+        // when
+        final List<ValidationError> validationErrors =
+                rejectedErrors(conditionalTransferController.createTransfer(transfer, Optional.empty()));
+
+        // then
+        assertEquals(1, validationErrors.size());
+        assertEquals("amount", validationErrors.get(0).getField());
+        verify(accountRepository, never()).deposit(any(), anyLong());
+    }
+
+    @Test
+    void conditional_transfer_should_fail_if_destination_account_was_not_updated() throws Exception {
+        // given
+        when(userRepository.fetchUser(1L))
+                .thenReturn(Optional.of(correctUser));
+        when(accountRepository.withdraw(2L, 1L, 1000L))
+                .thenReturn(true);
+
+        // when
+        final List<ValidationError> validationErrors =
+                rejectedErrors(conditionalTransferController.createTransfer(correctTransfer, Optional.empty()));
+
+        // then
+        assertEquals(1, validationErrors.size());
+        assertEquals("destinationAccountId", validationErrors.get(0).getField());
+    }
+
+    @Test
+    void sequenced_transfer_should_be_applied_by_sequencer() throws Exception {
+        // given
+        when(userRepository.fetchUser(1L))
+                .thenReturn(Optional.of(correctUser));
+        when(transferSequencer.submit(correctTransfer, null))
+                .thenReturn(CompletableFuture.completedFuture(TransferSequencer.Outcome.APPLIED));
+
+        // when
+        final Result transferResult = sequencedTransferController.createTransfer(correctTransfer, Optional.empty());
+
+        // then
+        assertEquals(Optional.of(Status.OK), transferResult.status());
+        verifyZeroInteractions(accountRepository);
+    }
+
+    @Test
+    void sequenced_transfer_with_pending_credit_should_be_accepted_only() throws Exception {
+        // given
+        when(idempotencyStore.reserve(eq("key-1"), anyString()))
+                .thenReturn(Optional.empty());
+        when(userRepository.fetchUser(1L))
+                .thenReturn(Optional.of(correctUser));
+        when(transferSequencer.submit(eq(correctTransfer), any()))
+                .thenReturn(CompletableFuture.completedFuture(TransferSequencer.Outcome.CREDIT_PENDING));
+
+        // when
+        final Result transferResult = sequencedTransferController.createTransfer(correctTransfer, Optional.of("key-1"));
+
+        // then
+        assertEquals(Optional.of(Status.ACCEPTED), transferResult.status());
+        verify(idempotencyStore).completeSaved("key-1", Status.ACCEPTED.value());
+    }
+
+    @Test
+    void sequenced_transfer_with_idempotency_key_should_have_key_saved_by_sequencer() throws Exception {
+        // given
+        when(idempotencyStore.reserve(eq("key-1"), anyString()))
+                .thenReturn(Optional.empty());
+        when(userRepository.fetchUser(1L))
+                .thenReturn(Optional.of(correctUser));
+        when(transferSequencer.submit(eq(correctTransfer), any()))
+                .thenReturn(CompletableFuture.completedFuture(TransferSequencer.Outcome.APPLIED));
+
+        // when
+        final Result transferResult = sequencedTransferController.createTransfer(correctTransfer, Optional.of("key-1"));
+
+        // then
+        assertEquals(Optional.of(Status.OK), transferResult.status());
+        verify(transferSequencer).submit(eq(correctTransfer),
+                argThat(key -> key.getKey().equals("key-1") && key.getStatus() == Status.OK.value()));
+        verify(idempotencyStore).completeSaved("key-1", Status.OK.value());
+        verify(idempotencyStore, never()).complete(any(), any(), anyInt());
+    }
+
+    @Test
+    void sequenced_transfer_should_explain_why_source_account_was_not_updated() throws Exception {
+        // given
+        final Transfer transfer = correctTransfer.toBuilder()
+                .amount(10_000_000L)
+                .build();
+        when(userRepository.fetchUser(1L))
+                .thenReturn(Optional.of(correctUser));
+        when(transferSequencer.submit(transfer, null))
+                .thenReturn(CompletableFuture.completedFuture(TransferSequencer.Outcome.SOURCE_NOT_UPDATED));
+        when(accountRepository.fetchAccount(2L))
+                .thenReturn(Optional.of(correctSourceAccount));
+
+        // when
+        final List<ValidationError> validationErrors =
+                rejectedErrors(sequencedTransferController.createTransfer(transfer, Optional.empty()));
+
+        // then
+        assertEquals(1, validationErrors.size());
+        assertEquals("amount", validationErrors.get(0).getField());
+    }
+
+    @Test
+    void sequenced_transfer_should_fail_if_not_accepted() throws Exception {
+        // given
+        when(userRepository.fetchUser(1L))
+                .thenReturn(Optional.of(correctUser));
+        when(transferSequencer.submit(correctTransfer, null))
+                .thenReturn(CompletableFuture.completedFuture(TransferSequencer.Outcome.REJECTED));
+
+        // when
+        final List<ValidationError> validationErrors =
+                rejectedErrors(sequencedTransferController.createTransfer(correctTransfer, Optional.empty()));
+
+        // then
+        assertEquals(1, validationErrors.size());
+        verifyZeroInteractions(accountRepository);
+    }
+
+    @Test
+    void optimistic_transfer_should_write_balances_if_accounts_have_not_changed() throws Exception {
+        // given
+        final VersionedAccount source = new VersionedAccount(correctSourceAccount, 5L, 0);
+        final VersionedAccount destination = new VersionedAccount(correctDestinationAccount, 7L, 0);
+        when(userRepository.fetchUser(1L))
+                .thenReturn(Optional.of(correctUser));
+        when(accountRepository.fetchVersionedAccount(2L))
+                .thenReturn(Optional.of(source));
+        when(accountRepository.fetchVersionedAccount(3L))
+                .thenReturn(Optional.of(destination));
+        when(accountRepository.compareAndSetBalances(Arrays.asList(source, destination), newBalances(9000L, 21000L)))
+                .thenReturn(true);
+
+        // when
+        final Result transferResult = optimisticTransferController.createTransfer(correctTransfer, Optional.empty());
+
+        // then
+        assertEquals(Optional.of(Status.OK), transferResult.status());
+        verify(accountRepository, never()).fetchAccount(any(), anyBoolean());
+        verify(transferRepository).saveTransfer(correctTransfer);
+    }
+
+    @Test
+    void optimistic_transfer_should_be_retried_with_fresh_balances_on_conflict() throws Exception {
+        // given
+        final VersionedAccount staleSource = new VersionedAccount(correctSourceAccount, 5L, 0);
+        final VersionedAccount freshSource = new VersionedAccount(new Account(2L, 1L, 4000L), 6L, 0);
+        final VersionedAccount destination = new VersionedAccount(correctDestinationAccount, 7L, 0);
+        when(userRepository.fetchUser(1L))
+                .thenReturn(Optional.of(correctUser));
+        when(accountRepository.fetchVersionedAccount(2L))
+                .thenReturn(Optional.of(staleSource))
+                .thenReturn(Optional.of(freshSource));
+        when(accountRepository.fetchVersionedAccount(3L))
+                .thenReturn(Optional.of(destination));
+        when(accountRepository.compareAndSetBalances(Arrays.asList(staleSource, destination),
+                newBalances(9000L, 21000L)))
+                .thenReturn(false);
+        when(accountRepository.compareAndSetBalances(Arrays.asList(freshSource, destination),
+                newBalances(3000L, 21000L)))
+                .thenReturn(true);
+
+        // when
+        final Result transferResult = optimisticTransferController.createTransfer(correctTransfer, Optional.empty());
+
+        // then
+        assertEquals(Optional.of(Status.OK), transferResult.status());
+        final InOrder inOrder = inOrder(accountRepository, optimisticExecutor);
+        inOrder.verify(accountRepository).compareAndSetBalances(Arrays.asList(staleSource, destination),
+                newBalances(9000L, 21000L));
+        inOrder.verify(optimisticExecutor).rollback();
+        inOrder.verify(accountRepository).compareAndSetBalances(Arrays.asList(freshSource, destination),
+                newBalances(3000L, 21000L));
+        verify(transferRepository).saveTransfer(correctTransfer);
+    }
+
+    @Test
+    void optimistic_transfer_should_fail_after_max_attempts() throws Exception {
+        // given
+        when(userRepository.fetchUser(1L))
+                .thenReturn(Optional.of(correctUser));
+        when(accountRepository.fetchVersionedAccount(2L))
+                .thenReturn(Optional.of(new VersionedAccount(correctSourceAccount, 5L, 0)));
+        when(accountRepository.fetchVersionedAccount(3L))
+                .thenReturn(Optional.of(new VersionedAccount(correctDestinationAccount, 7L, 0)));
+        when(accountRepository.compareAndSetBalances(any(), any()))
+                .thenReturn(false);
+
+        // when
+        final List<ValidationError> validationErrors =
+                rejectedErrors(optimisticTransferController.createTransfer(correctTransfer, Optional.empty()));
+
+        // then
+        assertEquals(1, validationErrors.size());
+        verify(accountRepository, times(3)).compareAndSetBalances(any(), any());
+        verify(optimisticExecutor, times(3)).rollback();
+        verify(transferRepository, never()).saveTransfer(any());
+    }
+
+    @Test
+    void optimistic_transfer_to_split_account_should_lock_accounts() throws Exception {
+        // given
+        when(userRepository.fetchUser(1L))
+                .thenReturn(Optional.of(correctUser));
+        when(accountRepository.fetchVersionedAccount(2L))
+                .thenReturn(Optional.of(new VersionedAccount(correctSourceAccount, 5L, 0)));
+        when(accountRepository.fetchVersionedAccount(3L))
+                .thenReturn(Optional.of(new VersionedAccount(correctDestinationAccount, 7L, 4)));
+        when(accountRepository.fetchAccount(2L, true))
+                .thenReturn(Optional.of(correctSourceAccount));
+        when(accountRepository.fetchAccountForCredit(3L))
+                .thenReturn(Optional.of(correctDestinationAccount));
+        when(accountRepository.applyBalance(2L, 9000L))
+                .thenReturn(true);
+        when(accountRepository.deposit(3L, 1000L))
+                .thenReturn(true);
+
+        // when
+        final Result transferResult = optimisticTransferController.createTransfer(correctTransfer, Optional.empty());
+
+        // then
+        assertEquals(Optional.of(Status.OK), transferResult.status());
+        verifyAccountsLocked(correctTransfer);
+        verify(accountRepository, never()).compareAndSetBalances(any(), any());
+    }
+
+    @Test
+    void transfer_with_new_idempotency_key_should_happen_and_complete_key() throws Exception {
+        // given
+        when(idempotencyStore.reserve(eq("key-1"), anyString()))
+                .thenReturn(Optional.empty());
+        when(userRepository.fetchUser(1L))
+                .thenReturn(Optional.of(correctUser));
+        when(accountRepository.withdraw(2L, 1L, 1000L))
+                .thenReturn(true);
+        when(accountRepository.deposit(3L, 1000L))
+                .thenReturn(true);
+
+        // when
+        final Result transferResult = conditionalTransferController.createTransfer(correctTransfer, Optional.of("key-1"));
+
+        // then
+        assertEquals(Optional.of(Status.OK), transferResult.status());
+        verify(accountRepository).withdraw(2L, 1L, 1000L);
+        verify(idempotencyStore).complete(eq("key-1"), anyString(), eq(Status.OK.value()));
+    }
+
+    @Test
+    void transfer_with_known_idempotency_key_should_be_replayed() throws Exception {
+        // given
+        final CompletableFuture<Integer> original = CompletableFuture.completedFuture(Status.OK.value());
+        when(idempotencyStore.reserve(eq("key-1"), anyString()))
+                .thenAnswer(invocation -> Optional.of(new IdempotentRequest(invocation.getArgument(1), original)));
+        when(idempotencyStore.await(original))
+                .thenReturn(Optional.of(Status.OK.value()));
+
+        // when
+        final Result transferResult = transferController.createTransfer(correctTransfer, Optional.of("key-1"));
+
+        // then
+        assertEquals(Optional.of(Status.OK), transferResult.status());
+        assertEquals(true, transferResult.headers().get("Idempotent-Replayed"));
+        verifyZeroInteractions(userRepository, accountRepository);
+        verify(idempotencyStore, never()).complete(any(), any(), anyInt());
+    }
+
+    @Test
+    void transfer_with_idempotency_key_of_failed_request_should_conflict() throws Exception {
+        // given
+        final CompletableFuture<Integer> original = new CompletableFuture<>();
+        when(idempotencyStore.reserve(eq("key-1"), anyString()))
+                .thenAnswer(invocation -> Optional.of(new IdempotentRequest(invocation.getArgument(1), original)));
+        when(idempotencyStore.await(original))
+                .thenReturn(Optional.empty());
+
+        // when
+        final Result transferResult = transferController.createTransfer(correctTransfer, Optional.of("key-1"));
+
+        // then
+        assertEquals(Optional.of(Status.CONFLICT), transferResult.status());
+        verifyZeroInteractions(userRepository, accountRepository);
+    }
+
+    @Test
+    void transfer_reusing_idempotency_key_of_another_transfer_should_be_unprocessable() throws Exception {
+        // given
+        final CompletableFuture<Integer> original = CompletableFuture.completedFuture(Status.OK.value());
+        when(idempotencyStore.reserve(eq("key-1"), anyString()))
+                .thenReturn(Optional.of(new IdempotentRequest("hash-of-another-transfer", original)));
+
+        // when
+        final Result transferResult = transferController.createTransfer(correctTransfer, Optional.of("key-1"));
+
+        // then
+        assertEquals(Optional.of(Status.UNPROCESSABLE_ENTITY), transferResult.status());
+        verifyZeroInteractions(userRepository, accountRepository);
+        verify(idempotencyStore, never()).await(any());
+    }
+
+    @Test
+    void failed_transfer_should_not_complete_idempotency_key() throws Exception {
+        // given
+        when(idempotencyStore.reserve(eq("key-1"), anyString()))
+                .thenReturn(Optional.empty());
+
+        // when
+        rejectedErrors(transferController.createTransfer(correctTransfer, Optional.of("key-1")));
+
+        // then
+        verify(idempotencyStore, never()).complete(any(), any(), anyInt());
+    }
+
+    @Test
+    void batch_should_not_be_empty() throws Exception {
+        // when
+        final List<ValidationError> validationErrors =
+                rejectedErrors(transferController.createTransfers(Collections.emptyList()));
+
+        // then
+        assertEquals(1, validationErrors.size());
+    }
+
+    @Test
+    void batch_should_not_be_larger_than_max_size() throws Exception {
+        // when
+        final List<ValidationError> validationErrors =
+                rejectedErrors(transferController.createTransfers(Collections.nCopies(4, correctTransfer)));
+
+        // then
+        assertEquals(1, validationErrors.size());
+        verifyZeroInteractions(accountRepository);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void batch_should_apply_valid_transfers_and_report_invalid_ones() throws Exception {
+        // given
+        final Transfer secondTransfer = correctTransfer.toBuilder()
+                .amount(9500L)
+                .build();
+        final Transfer thirdTransfer = correctTransfer.toBuilder()
+                .sourceAccountId(3L)
+                .destinationAccountId(2L)
+                .endUserId(null)
+                .build();
+        final List<Transfer> transfers = Arrays.asList(correctTransfer, secondTransfer, thirdTransfer);
+        when(userRepository.fetchUser(1L))
+                .thenReturn(Optional.of(correctUser));
+        final Map<Long, Account> accounts = new HashMap<>();
+        accounts.put(2L, correctSourceAccount);
+        accounts.put(3L, correctDestinationAccount);
+        when(accountRepository.fetchAccountsWithLocks(eq(new HashSet<>(Arrays.asList(2L, 3L))), any()))
+                .thenReturn(accounts);
+        final Map<Long, Long> newBalances = new HashMap<>();
+        newBalances.put(2L, 9000L);
+        newBalances.put(3L, 21000L);
+        when(accountRepository.applyBalances(newBalances))
+                .thenReturn(true);
+
+        // when
+        final Result batchResult = transferController.createTransfers(transfers);
+
+        // then
+        assertEquals(Optional.of(Status.OK), batchResult.status());
+        final List<TransferResult> results = batchResult.get();
+        assertEquals(3, results.size());
+        assertTrue(results.get(0).isApplied());
+        assertFalse(results.get(1).isApplied());
+        assertEquals("amount", results.get(1).getErrors().get(0).getField());
+        assertFalse(results.get(2).isApplied());
+        assertEquals("endUserId", results.get(2).getErrors().get(0).getField());
+        verify(userRepository, times(1)).fetchUser(1L);
+        verify(accountRepository).applyBalances(newBalances);
+        verify(transferRepository).saveTransfers(Collections.singletonList(correctTransfer));
+        verify(accountRepository, never()).fetchAccount(any(), anyBoolean());
+    }
+
+    @Test
+    void batch_should_fail_if_accounts_cannot_be_updated() throws Exception {
+        // given
+        when(userRepository.fetchUser(1L))
+                .thenReturn(Optional.of(correctUser));
+        final Map<Long, Account> accounts = new HashMap<>();
+        accounts.put(2L, correctSourceAccount);
+        accounts.put(3L, correctDestinationAccount);
+        when(accountRepository.fetchAccountsWithLocks(any(), any()))
+                .thenReturn(accounts);
+
+        // when
+        final List<ValidationError> validationErrors =
+                rejectedErrors(transferController.createTransfers(Collections.singletonList(correctTransfer)));
+
+        // then
+        assertEquals(1, validationErrors.size());
     }
 
     private void verifyAccountsLocked(final Transfer transfer) throws SQLException {
         verify(accountRepository).fetchAccount(transfer.getSourceAccountId(), true);
-        verify(accountRepository).fetchAccount(transfer.getDestinationAccountId(), true);
+        verify(accountRepository).fetchAccountForCredit(transfer.getDestinationAccountId());
     }
 
     private void verifyTransferDidNotHappen(final Transfer transfer) throws SQLException {
-        verify(accountRepository, never()).applyBalance(eq(transfer.getSourceAccountId()), any());
-        verify(accountRepository, never()).applyBalance(eq(transfer.getDestinationAccountId()), any());
+        verify(accountRepository, never()).applyBalance(eq(transfer.getSourceAccountId()), anyLong());
+        verify(accountRepository, never()).deposit(eq(transfer.getDestinationAccountId()), anyLong());
+        verify(transferRepository, never()).saveTransfer(any());
+    }
+
+    private static Map<Long, Long> newBalances(final long sourceBalance, final long destinationBalance) {
+        final Map<Long, Long> newBalances = new HashMap<>();
+        newBalances.put(2L, sourceBalance);
+        newBalances.put(3L, destinationBalance);
+        return newBalances;
+    }
+
+    /**
+     * @return errors of request rejected with '400 Bad Request'.
+     */
+    private static List<ValidationError> rejectedErrors(final Result result) {
+        assertEquals(Optional.of(Status.BAD_REQUEST), result.status());
+        return result.get();
     }
-}
\ No newline at end of file
+}
@@ -1,18 +1,19 @@
 package com.revolut.mtt.controller;
 
+import com.revolut.mtt.error.Rejections;
+import com.revolut.mtt.metrics.Metrics;
 import com.revolut.mtt.model.User;
 import com.revolut.mtt.repository.UserRepository;
 import com.revolut.mtt.validation.ValidationError;
-import com.revolut.mtt.validation.ValidationException;
 import org.jooby.Result;
 import org.jooby.Status;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 
-import java.sql.SQLException;
 import java.util.List;
 import java.util.Optional;
 
@@ -29,6 +30,9 @@ class UserControllerTest {
     @Mock
     private UserRepository userRepository;
 
+    @Spy
+    private Rejections rejections = new Rejections(new Metrics(), () -> null);
+
     @Test
     void existing_user_should_be_returned_from_repository() throws Exception {
         // given
@@ -78,36 +82,40 @@ class UserControllerTest {
     }
 
     @Test
-    void user_without_username_should_not_be_created() {
+    void user_without_username_should_not_be_created() throws Exception {
         // given
         final User user = User.builder().build();
 
         // when
-        final ValidationException validationException =
-                assertThrows(ValidationException.class, () -> userController.createUser(user));
+        final List<ValidationError> errors = rejectedErrors(userController.createUser(user));
 
         // then
-        final List<ValidationError> errors = validationException.getErrors();
         assertEquals(1, errors.size());
         final ValidationError error = errors.get(0);
         assertEquals("username", error.getField());
     }
 
     @Test
-    void user_with_existing_username_should_not_be_created() throws SQLException {
+    void user_with_existing_username_should_not_be_created() throws Exception {
         // given
         final User user = new User(null, "phoebe");
         when(userRepository.fetchUserByUsername("phoebe"))
                 .thenReturn(Optional.of(new User(1L, "phoebe")));
 
         // when
-        final ValidationException validationException =
-                assertThrows(ValidationException.class, () -> userController.createUser(user));
+        final List<ValidationError> errors = rejectedErrors(userController.createUser(user));
 
         // then
-        final List<ValidationError> errors = validationException.getErrors();
         assertEquals(1, errors.size());
         final ValidationError error = errors.get(0);
         assertEquals("username", error.getField());
     }
-}
\ No newline at end of file
+
+    /**
+     * @return errors of request rejected with '400 Bad Request'.
+     */
+    private static List<ValidationError> rejectedErrors(final Result result) {
+        assertEquals(Optional.of(Status.BAD_REQUEST), result.status());
+        return result.get();
+    }
+}
@@ -0,0 +1,191 @@
+package com.revolut.mtt.database;
+
+import com.github.database.rider.core.api.connection.ConnectionHolder;
+import com.github.database.rider.core.api.dataset.DataSet;
+import com.github.database.rider.junit5.DBUnitExtension;
+import com.revolut.mtt.model.Account;
+import com.revolut.mtt.model.User;
+import com.revolut.mtt.repository.AccountRepository;
+import com.revolut.mtt.repository.UserRepository;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(DBUnitExtension.class)
+class DatabaseSnapshotsTest {
+
+    private static final String URL = "jdbc:h2:mem:mtt-test;DB_CLOSE_DELAY=-1";
+
+    private static ConnectionHolder connectionHolder = () -> DriverManager.getConnection(URL);
+
+    @TempDir
+    Path dir;
+
+    private DatabaseSnapshots snapshots;
+
+    private AccountRepository accountRepository;
+
+    private UserRepository userRepository;
+
+    @BeforeAll
+    static void beforeAll() throws SQLException {
+        SchemaInit.initSchema(connectionHolder.getConnection());
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        final JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL(URL);
+        this.snapshots = new DatabaseSnapshots(dir, 60_000, 2);
+        this.snapshots.start(dataSource);
+        this.accountRepository = new AccountRepository(connectionHolder::getConnection);
+        this.userRepository = new UserRepository(connectionHolder::getConnection);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        snapshots.stop();
+    }
+
+    @Test
+    @DataSet("split_account.yml")
+    void snapshot_should_be_restored_into_empty_database() throws Exception {
+        // given
+        final Path snapshot = snapshots.write();
+        clearDatabase();
+
+        // when
+        final Path restored = snapshots.restoreLatest();
+
+        // then
+        assertEquals(snapshot, restored);
+        assertEquals(Optional.of(new User(2L, "rachel")), userRepository.fetchUser(2L));
+        assertEquals(Optional.of(new Account(10L, 1L, 10031L)), accountRepository.fetchAccount(10L));
+        assertEquals(Optional.of(new Account(20L, 2L, 42967L)), accountRepository.fetchAccount(20L));
+        assertEquals(2L, count("select count(*) from account_slot where account_id = 20 and balance = 0"));
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void corrupted_snapshot_should_be_skipped() throws Exception {
+        // given
+        final Path previous = snapshots.write();
+        accountRepository.applyBalance(10L, 500L);
+        final Path latest = snapshots.write();
+        try (final RandomAccessFile file = new RandomAccessFile(latest.toFile(), "rw")) {
+            file.seek(file.length() / 2);
+            final int value = file.read();
+            file.seek(file.length() / 2);
+            file.write(value ^ 0xFF);
+        }
+        clearDatabase();
+
+        // when
+        final Path restored = snapshots.restoreLatest();
+
+        // then
+        assertEquals(previous, restored);
+        assertEquals(Optional.of(10031L), accountRepository.fetchAccount(10L).map(Account::getBalance));
+        assertEquals(4L, count("select count(*) from app_user"));
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void snapshot_should_not_be_restored_into_populated_database() throws Exception {
+        // given
+        snapshots.write();
+        accountRepository.applyBalance(10L, 500L);
+
+        // when
+        final Path restored = snapshots.restoreLatest();
+
+        // then
+        assertNull(restored);
+        assertEquals(Optional.of(500L), accountRepository.fetchAccount(10L).map(Account::getBalance));
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void oldest_snapshots_should_be_deleted() throws Exception {
+        // when
+        snapshots.write();
+        final Path second = snapshots.write();
+        final Path third = snapshots.write();
+
+        // then
+        try (final Stream<Path> files = Files.list(dir)) {
+            assertArrayEquals(new Path[]{third, second}, files.sorted((a, b) -> b.compareTo(a)).toArray());
+        }
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void participant_should_be_captured_by_snapshot() throws Exception {
+        // given
+        final List<Long> writtenTokens = new ArrayList<>();
+        snapshots.setParticipant(new DatabaseSnapshots.Participant() {
+            @Override
+            public long prepare() throws SQLException {
+                accountRepository.applyBalance(10L, 777L);
+                return 42L;
+            }
+
+            @Override
+            public void written(final long token) throws IOException {
+                try (final Stream<Path> files = Files.list(dir)) {
+                    assertEquals(1, files.count());
+                }
+                writtenTokens.add(token);
+            }
+        });
+
+        // when
+        snapshots.write();
+        snapshots.setParticipant(null);
+        clearDatabase();
+        snapshots.restoreLatest();
+
+        // then
+        assertEquals(Collections.singletonList(42L), writtenTokens);
+        assertEquals(Optional.of(777L), accountRepository.fetchAccount(10L).map(Account::getBalance));
+    }
+
+    private static void clearDatabase() throws SQLException {
+        try (final Connection connection = connectionHolder.getConnection();
+             final Statement statement = connection.createStatement()) {
+            statement.executeUpdate("delete from account_slot");
+            statement.executeUpdate("delete from account");
+            statement.executeUpdate("delete from app_user");
+        }
+    }
+
+    private static long count(final String sql) throws SQLException {
+        try (final Connection connection = connectionHolder.getConnection();
+             final Statement statement = connection.createStatement();
+             final ResultSet resultSet = statement.executeQuery(sql)) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+}
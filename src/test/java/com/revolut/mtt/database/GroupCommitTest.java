@@ -0,0 +1,245 @@
+package com.revolut.mtt.database;
+
+import org.h2.api.ErrorCode;
+import org.jooby.Err;
+import org.jooby.Status;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class GroupCommitTest {
+
+    @Mock
+    private DataSource dataSource;
+
+    @Mock
+    private Connection connection;
+
+    @Mock
+    private Savepoint savepoint;
+
+    private ThreadLocalConnectionProvider connectionProvider;
+
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        connectionProvider = new ThreadLocalConnectionProvider(() -> dataSource, new StatementCache(0));
+        executor = Executors.newFixedThreadPool(5);
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(connection.setSavepoint()).thenReturn(savepoint);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void single_work_should_be_committed_right_away() throws Exception {
+        // given
+        final GroupCommit groupCommit = new GroupCommit(connectionProvider, 10, TimeUnit.SECONDS.toMillis(10), TimeUnit.SECONDS.toMillis(10));
+
+        // when
+        final String result = groupCommit.execute(() -> "applied");
+
+        // then
+        assertEquals("applied", result);
+        verify(connection).releaseSavepoint(savepoint);
+        verify(connection).commit();
+        assertNull(connectionProvider.currentConnection());
+    }
+
+    @Test
+    void work_arrived_while_group_is_run_should_be_committed_at_once() throws Exception {
+        // given
+        final GroupCommit groupCommit = new GroupCommit(connectionProvider, 3, TimeUnit.SECONDS.toMillis(10), TimeUnit.SECONDS.toMillis(10));
+        final CountDownLatch release = runBlockingGroup(groupCommit);
+
+        // when
+        final Future<Connection> first = executor.submit(() -> groupCommit.execute(connectionProvider::currentConnection));
+        final Future<Connection> second = executor.submit(() -> groupCommit.execute(connectionProvider::currentConnection));
+        awaitGroupSize(groupCommit, 2);
+        release.countDown();
+
+        // then
+        assertSame(connection, first.get(5, TimeUnit.SECONDS));
+        assertSame(connection, second.get(5, TimeUnit.SECONDS));
+        verify(dataSource, times(2)).getConnection();
+        verify(connection, times(2)).commit();
+    }
+
+    @Test
+    void failed_work_should_be_rolled_back_alone() throws Exception {
+        // given
+        final GroupCommit groupCommit = new GroupCommit(connectionProvider, 3, TimeUnit.SECONDS.toMillis(10), TimeUnit.SECONDS.toMillis(10));
+        final CountDownLatch release = runBlockingGroup(groupCommit);
+        final AtomicBoolean rolledBack = new AtomicBoolean();
+
+        // when
+        final Future<String> failed = executor.submit(() -> groupCommit.execute(() -> {
+            connectionProvider.afterRollback(() -> rolledBack.set(true));
+            throw new IllegalStateException("failed");
+        }));
+        final Future<String> applied = executor.submit(() -> groupCommit.execute(() -> "applied"));
+        awaitGroupSize(groupCommit, 2);
+        release.countDown();
+
+        // then
+        final ExecutionException exception = assertThrows(ExecutionException.class,
+                () -> failed.get(5, TimeUnit.SECONDS));
+        assertTrue(exception.getCause() instanceof IllegalStateException);
+        assertEquals("applied", applied.get(5, TimeUnit.SECONDS));
+        assertTrue(rolledBack.get());
+        verify(connection).rollback(savepoint);
+        verify(connection, times(2)).commit();
+    }
+
+    @Test
+    void commit_failure_should_fail_whole_group() throws Exception {
+        // given
+        final GroupCommit groupCommit = new GroupCommit(connectionProvider, 1, 10, TimeUnit.SECONDS.toMillis(10));
+        final AtomicBoolean rolledBack = new AtomicBoolean();
+        doThrow(new SQLException("commit failed")).when(connection).commit();
+
+        // when
+        assertThrows(SQLException.class, () -> groupCommit.execute(() -> {
+            connectionProvider.afterRollback(() -> rolledBack.set(true));
+            return "applied";
+        }));
+
+        // then
+        assertTrue(rolledBack.get());
+    }
+
+    @Test
+    void groups_should_be_run_concurrently() throws Exception {
+        // given
+        final GroupCommit groupCommit = new GroupCommit(connectionProvider, 1, 10, TimeUnit.SECONDS.toMillis(10));
+        final CountDownLatch release = runBlockingGroup(groupCommit);
+
+        // when
+        final Future<String> applied = executor.submit(() -> groupCommit.execute(() -> "applied"));
+
+        // then
+        assertEquals("applied", applied.get(5, TimeUnit.SECONDS));
+        release.countDown();
+    }
+
+    @Test
+    void work_not_started_in_time_should_fail_and_not_be_run() throws Exception {
+        // given
+        final GroupCommit groupCommit = new GroupCommit(connectionProvider, 3, TimeUnit.SECONDS.toMillis(10), 100);
+        final CountDownLatch release = runBlockingGroup(groupCommit);
+        final AtomicBoolean run = new AtomicBoolean();
+
+        // when
+        final Future<String> leader = executor.submit(() -> groupCommit.execute(() -> "applied"));
+        awaitGroupSize(groupCommit, 1);
+        final Err exception = assertThrows(Err.class, () -> groupCommit.execute(() -> run.getAndSet(true)));
+        release.countDown();
+
+        // then
+        assertEquals(Status.SERVICE_UNAVAILABLE.value(), exception.statusCode());
+        assertEquals("applied", leader.get(5, TimeUnit.SECONDS));
+        assertFalse(run.get());
+    }
+
+    @Test
+    void work_timed_out_on_lock_of_concurrent_group_should_be_retried_in_later_group() throws Exception {
+        // given
+        final GroupCommit groupCommit = new GroupCommit(connectionProvider, 2, TimeUnit.SECONDS.toMillis(10), TimeUnit.SECONDS.toMillis(10));
+        final Semaphore firstAccount = new Semaphore(1);
+        final Semaphore secondAccount = new Semaphore(1);
+        // both groups lock their first account before locking the other one
+        final CountDownLatch firstLocked = new CountDownLatch(1);
+        final CountDownLatch secondLocked = new CountDownLatch(1);
+        final AtomicInteger lockTimeouts = new AtomicInteger();
+        final CountDownLatch release = runBlockingGroup(groupCommit);
+
+        // when
+        final Future<String> first = executor.submit(() -> groupCommit.execute(() -> {
+            lock(firstAccount, lockTimeouts);
+            firstLocked.countDown();
+            return secondLocked.await(5, TimeUnit.SECONDS) ? "first" : "second is not locked";
+        }));
+        awaitGroupSize(groupCommit, 1);
+        final Future<String> firstThenSecond = executor.submit(() -> groupCommit.execute(() -> {
+            lock(secondAccount, lockTimeouts);
+            return "first then second";
+        }));
+        firstLocked.await(5, TimeUnit.SECONDS);
+        final Future<String> second = executor.submit(() -> groupCommit.execute(() -> {
+            lock(secondAccount, lockTimeouts);
+            secondLocked.countDown();
+            return "second";
+        }));
+        awaitGroupSize(groupCommit, 1);
+        final Future<String> secondThenFirst = executor.submit(() -> groupCommit.execute(() -> {
+            lock(firstAccount, lockTimeouts);
+            return "second then first";
+        }));
+        release.countDown();
+
+        // then
+        assertEquals("first", first.get(5, TimeUnit.SECONDS));
+        assertEquals("first then second", firstThenSecond.get(5, TimeUnit.SECONDS));
+        assertEquals("second", second.get(5, TimeUnit.SECONDS));
+        assertEquals("second then first", secondThenFirst.get(5, TimeUnit.SECONDS));
+        assertTrue(lockTimeouts.get() > 0);
+        verify(connection, atLeast(lockTimeouts.get())).rollback(savepoint);
+    }
+
+    /**
+     * Acquires account lock, which is held until group is completed, like database row lock.
+     */
+    private void lock(final Semaphore account, final AtomicInteger lockTimeouts) throws Exception {
+        if (!account.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+            lockTimeouts.incrementAndGet();
+            throw new SQLException("Timeout trying to lock table", "HYT00", ErrorCode.LOCK_TIMEOUT_1);
+        }
+        connectionProvider.afterCompletion(committed -> account.release());
+    }
+
+    /**
+     * Starts group which is run until returned latch is released, so next work is collected into one group.
+     */
+    private CountDownLatch runBlockingGroup(final GroupCommit groupCommit) throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        executor.submit(() -> groupCommit.execute(() -> {
+            started.countDown();
+            return release.await(5, TimeUnit.SECONDS);
+        }));
+        started.await(5, TimeUnit.SECONDS);
+        return release;
+    }
+
+    private void awaitGroupSize(final GroupCommit groupCommit, final int size) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (groupCommit.openGroupSize() < size && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+}
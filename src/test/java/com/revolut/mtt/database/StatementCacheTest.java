@@ -0,0 +1,103 @@
+package com.revolut.mtt.database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StatementCacheTest {
+
+    private Connection connection;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:mtt-statement-cache");
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    @Test
+    void closed_statement_should_be_reused() throws SQLException {
+        // given
+        final StatementCache statementCache = new StatementCache(2);
+
+        // when
+        final int first = selectValue(statementCache, 1);
+        final int second = selectValue(statementCache, 2);
+
+        // then
+        assertEquals(1, first);
+        assertEquals(2, second);
+        assertEquals(1, statementCache.stats().getHits());
+        assertEquals(1, statementCache.stats().getMisses());
+        assertEquals(0.5, statementCache.stats().getHitRate());
+    }
+
+    @Test
+    void statement_in_use_should_not_be_shared() throws SQLException {
+        // given
+        final StatementCache statementCache = new StatementCache(2);
+
+        // when
+        try (final PreparedStatement first = statementCache.prepareStatement(connection, "select 1");
+             final PreparedStatement second = statementCache.prepareStatement(connection, "select 1")) {
+
+            // then
+            assertNotSame(first, second);
+        }
+        assertEquals(0, statementCache.stats().getHits());
+    }
+
+    @Test
+    void least_recently_used_statement_should_be_evicted() throws SQLException {
+        // given
+        final StatementCache statementCache = new StatementCache(2);
+
+        // when
+        statementCache.prepareStatement(connection, "select 1").close();
+        statementCache.prepareStatement(connection, "select 2").close();
+        statementCache.prepareStatement(connection, "select 1").close();
+        statementCache.prepareStatement(connection, "select 3").close();
+        statementCache.prepareStatement(connection, "select 1").close();
+        statementCache.prepareStatement(connection, "select 2").close();
+
+        // then
+        assertEquals(2, statementCache.stats().getHits());
+        assertEquals(4, statementCache.stats().getMisses());
+        assertEquals(2, statementCache.stats().getEvictions());
+    }
+
+    @Test
+    void zero_size_should_disable_cache() throws SQLException {
+        // given
+        final StatementCache statementCache = new StatementCache(0);
+
+        // when
+        selectValue(statementCache, 1);
+        selectValue(statementCache, 1);
+
+        // then
+        assertEquals(0, statementCache.stats().getHits());
+        assertEquals(0, statementCache.stats().getMisses());
+    }
+
+    private int selectValue(final StatementCache statementCache, final int value) throws SQLException {
+        try (final PreparedStatement preparedStatement = statementCache.prepareStatement(connection, "select ?")) {
+            preparedStatement.setInt(1, value);
+            try (final ResultSet resultSet = preparedStatement.executeQuery()) {
+                resultSet.next();
+                return resultSet.getInt(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.revolut.mtt.database;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ThreadLocalConnectionProviderTest {
+
+    @Mock
+    private DataSource dataSource;
+
+    @Mock
+    private Connection connection;
+
+    private ThreadLocalConnectionProvider connectionProvider;
+
+    @BeforeEach
+    void setUp() {
+        connectionProvider = new ThreadLocalConnectionProvider(() -> dataSource, new StatementCache(0));
+    }
+
+    @Test
+    void connection_should_not_be_borrowed_if_not_used() throws SQLException {
+        // when
+        connectionProvider.begin(false);
+        final boolean connectionUsed = connectionProvider.complete(true);
+
+        // then
+        assertFalse(connectionUsed);
+        verifyZeroInteractions(dataSource);
+    }
+
+    @Test
+    void connection_should_be_borrowed_once_and_committed() throws SQLException {
+        // given
+        when(dataSource.getConnection()).thenReturn(connection);
+
+        // when
+        connectionProvider.begin(false);
+        final Connection first = connectionProvider.currentConnection();
+        final Connection second = connectionProvider.currentConnection();
+        final boolean connectionUsed = connectionProvider.complete(true);
+
+        // then
+        assertSame(connection, first);
+        assertSame(connection, second);
+        assertTrue(connectionUsed);
+        verify(dataSource, times(1)).getConnection();
+        verify(connection).setAutoCommit(false);
+        verify(connection).commit();
+        verify(connection).close();
+        assertNull(connectionProvider.currentConnection());
+    }
+
+    @Test
+    void connection_should_be_rolled_back_on_failure() throws SQLException {
+        // given
+        when(dataSource.getConnection()).thenReturn(connection);
+
+        // when
+        connectionProvider.begin(false);
+        connectionProvider.currentConnection();
+        connectionProvider.complete(false);
+
+        // then
+        verify(connection).rollback();
+        verify(connection, never()).commit();
+        verify(connection).close();
+    }
+
+    @Test
+    void rollback_only_connection_should_be_rolled_back_on_commit() throws SQLException {
+        // given
+        when(dataSource.getConnection()).thenReturn(connection);
+
+        // when
+        connectionProvider.begin(false);
+        connectionProvider.currentConnection();
+        connectionProvider.setRollbackOnly();
+        connectionProvider.complete(true);
+
+        // then
+        verify(connection).rollback();
+        verify(connection, never()).commit();
+        verify(connection).close();
+    }
+
+    @Test
+    void read_only_connection_should_stay_in_autocommit_mode() throws SQLException {
+        // given
+        when(dataSource.getConnection()).thenReturn(connection);
+
+        // when
+        connectionProvider.begin(true);
+        connectionProvider.currentConnection();
+        connectionProvider.complete(true);
+
+        // then
+        verify(connection).setReadOnly(true);
+        verify(connection, never()).setAutoCommit(false);
+        verify(connection, never()).commit();
+        verify(connection).close();
+    }
+
+    @Test
+    void after_commit_actions_should_run_only_on_commit() throws SQLException {
+        // given
+        final List<String> actions = new ArrayList<>();
+
+        // when
+        connectionProvider.begin(false);
+        connectionProvider.afterCommit(() -> actions.add("rolled back"));
+        connectionProvider.complete(false);
+        connectionProvider.begin(false);
+        connectionProvider.afterCommit(() -> actions.add("committed"));
+        final boolean runBeforeCommit = !actions.isEmpty();
+        connectionProvider.complete(true);
+
+        // then
+        assertFalse(runBeforeCommit);
+        assertEquals(Collections.singletonList("committed"), actions);
+    }
+
+    @Test
+    void completion_actions_should_run_before_connection_is_returned_to_pool() throws SQLException {
+        // given
+        when(dataSource.getConnection()).thenReturn(connection);
+        final Runnable action = mock(Runnable.class);
+
+        // when
+        connectionProvider.begin(false);
+        connectionProvider.currentConnection();
+        connectionProvider.afterCompletion(committed -> action.run());
+        connectionProvider.complete(true);
+
+        // then
+        final InOrder inOrder = inOrder(connection, action);
+        inOrder.verify(connection).commit();
+        inOrder.verify(action).run();
+        inOrder.verify(connection).close();
+    }
+
+    @Test
+    void work_rolled_back_so_far_should_not_affect_the_rest_of_transaction() throws SQLException {
+        // given
+        when(dataSource.getConnection()).thenReturn(connection);
+        final List<String> actions = new ArrayList<>();
+
+        // when
+        connectionProvider.begin(false);
+        connectionProvider.currentConnection();
+        connectionProvider.afterCommit(() -> actions.add("first committed"));
+        connectionProvider.afterRollback(() -> actions.add("first rolled back"));
+        connectionProvider.setRollbackOnly();
+        connectionProvider.rollback();
+        connectionProvider.afterCommit(() -> actions.add("second committed"));
+        connectionProvider.complete(true);
+
+        // then
+        assertEquals(Arrays.asList("first rolled back", "second committed"), actions);
+        verify(connection).rollback();
+        verify(connection).commit();
+        verify(connection).close();
+    }
+
+    @Test
+    void after_rollback_actions_should_run_if_commit_fails() throws SQLException {
+        // given
+        final List<String> actions = new ArrayList<>();
+        when(dataSource.getConnection()).thenReturn(connection);
+        doThrow(new SQLException("commit failed")).when(connection).commit();
+
+        // when
+        connectionProvider.begin(false);
+        connectionProvider.currentConnection();
+        connectionProvider.afterCommit(() -> actions.add("committed"));
+        connectionProvider.afterRollback(() -> actions.add("rolled back"));
+        assertThrows(SQLException.class, () -> connectionProvider.complete(true));
+
+        // then
+        assertEquals(Collections.singletonList("rolled back"), actions);
+        verify(connection).close();
+    }
+
+    @Test
+    void work_committed_in_the_middle_should_not_be_rolled_back_with_the_rest() throws SQLException {
+        // given
+        final List<String> actions = new ArrayList<>();
+        when(dataSource.getConnection()).thenReturn(connection);
+
+        // when
+        connectionProvider.begin(false);
+        connectionProvider.currentConnection();
+        connectionProvider.afterCommit(() -> actions.add("first committed"));
+        connectionProvider.afterRollback(() -> actions.add("first rolled back"));
+        connectionProvider.commit();
+        final Connection afterCommit = connectionProvider.currentConnection();
+        connectionProvider.afterCommit(() -> actions.add("second committed"));
+        connectionProvider.afterRollback(() -> actions.add("second rolled back"));
+        connectionProvider.complete(false);
+
+        // then
+        assertSame(connection, afterCommit);
+        assertEquals(List.of("first committed", "second rolled back"), actions);
+        verify(dataSource, times(1)).getConnection();
+        verify(connection).commit();
+        verify(connection).rollback();
+    }
+}
@@ -0,0 +1,94 @@
+package com.revolut.mtt.database;
+
+import org.jooby.Deferred;
+import org.jooby.Request;
+import org.jooby.Result;
+import org.jooby.Results;
+import org.jooby.Status;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class TransactionalExecutorTest {
+
+    @Mock
+    private DataSource dataSource;
+
+    @Mock
+    private Connection connection;
+
+    @Mock
+    private Request request;
+
+    private ThreadLocalConnectionProvider connectionProvider;
+
+    @BeforeEach
+    void setUp() {
+        connectionProvider = new ThreadLocalConnectionProvider(() -> dataSource, new StatementCache(0));
+    }
+
+    @Test
+    void direct_executor_should_run_work_immediately() throws Exception {
+        // when
+        final Result result = TransactionalExecutor.direct().execute(() -> Results.with(Status.OK));
+
+        // then
+        assertFalse(result instanceof Deferred);
+        assertEquals(Status.OK, result.status().orElse(null));
+    }
+
+    @Test
+    void deferred_work_should_run_within_request_transaction() throws Exception {
+        // given
+        when(dataSource.getConnection()).thenReturn(connection);
+        final ThreadLocalConnectionProvider.Transaction transaction = connectionProvider.begin(false);
+        when(request.get(TransactionSupport.TRANSACTION)).thenReturn(transaction);
+        final TransactionalExecutor transactionalExecutor = new TransactionalExecutor(connectionProvider, true, null);
+        final AtomicReference<Connection> workConnection = new AtomicReference<>();
+        final AtomicReference<Object> resolved = new AtomicReference<>();
+
+        // when
+        final Result result = transactionalExecutor.execute(() -> {
+            workConnection.set(connectionProvider.currentConnection());
+            return Results.with(Status.OK);
+        });
+        final Connection requestThreadConnection = connectionProvider.currentConnection();
+        ((Deferred) result).handler(request, (value, error) -> resolved.set(value));
+        connectionProvider.complete(transaction, true);
+
+        // then
+        assertNull(requestThreadConnection);
+        assertSame(connection, workConnection.get());
+        assertNotNull(resolved.get());
+        assertNull(connectionProvider.currentConnection());
+        verify(connection).commit();
+    }
+
+    @Test
+    void deferred_work_failure_should_reject_result() throws Exception {
+        // given
+        final ThreadLocalConnectionProvider.Transaction transaction = connectionProvider.begin(false);
+        when(request.get(TransactionSupport.TRANSACTION)).thenReturn(transaction);
+        final TransactionalExecutor transactionalExecutor = new TransactionalExecutor(connectionProvider, true, null);
+        final AtomicReference<Throwable> rejected = new AtomicReference<>();
+
+        // when
+        final Result result = transactionalExecutor.execute(() -> {
+            throw new IllegalStateException("failed");
+        });
+        ((Deferred) result).handler(request, (value, error) -> rejected.set(error));
+
+        // then
+        assertTrue(rejected.get() instanceof IllegalStateException);
+    }
+}
@@ -0,0 +1,142 @@
+package com.revolut.mtt.database;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteAheadJournalTest {
+
+    private static final long SEGMENT_SIZE = WriteAheadJournal.RECORD_SIZE * 4;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void durable_groups_should_be_replayed_in_order() throws Exception {
+        // given
+        final WriteAheadJournal journal = open(new ArrayList<>());
+        journal.awaitDurable(journal.append(group(10, 100, 20, 200)));
+        journal.awaitDurable(journal.append(group(10, 150)));
+        journal.close();
+
+        // when
+        final List<String> replayed = new ArrayList<>();
+        open(replayed).close();
+
+        // then
+        assertEquals(Arrays.asList("10=100", "20=200", "10=150"), replayed);
+    }
+
+    @Test
+    void torn_group_should_not_be_replayed() throws Exception {
+        // given
+        final WriteAheadJournal journal = open(new ArrayList<>());
+        journal.awaitDurable(journal.append(group(10, 100)));
+        journal.awaitDurable(journal.append(group(10, 150, 20, 250)));
+        journal.close();
+        tear(segmentFiles().get(0), 2);
+
+        // when
+        final List<String> replayed = new ArrayList<>();
+        final WriteAheadJournal reopened = open(replayed);
+        reopened.awaitDurable(reopened.append(group(30, 300)));
+        reopened.close();
+        final List<String> replayedAfterAppend = new ArrayList<>();
+        open(replayedAfterAppend).close();
+
+        // then
+        assertEquals(Collections.singletonList("10=100"), replayed);
+        assertEquals(Arrays.asList("10=100", "30=300"), replayedAfterAppend);
+    }
+
+    @Test
+    void segments_before_checkpoint_should_be_deleted() throws Exception {
+        // given
+        final WriteAheadJournal journal = open(new ArrayList<>());
+        final long first = journal.append(group(10, 100));
+        final long second = journal.append(group(20, 200, 30, 300));
+        final long third = journal.append(group(10, 150, 30, 350));
+        journal.awaitDurable(third);
+        final int segmentsBeforeCheckpoint = segmentFiles().size();
+
+        // when
+        journal.release(first);
+        journal.release(second);
+        journal.checkpoint(journal.completedPosition());
+        journal.close();
+        final List<String> replayed = new ArrayList<>();
+        open(replayed).close();
+
+        // then
+        assertEquals(2, segmentsBeforeCheckpoint);
+        assertEquals(Arrays.asList("10=150", "30=350"), replayed);
+    }
+
+    @Test
+    void pending_group_should_not_be_passed_by_checkpoint() throws Exception {
+        // given
+        final WriteAheadJournal journal = open(new ArrayList<>());
+        final long first = journal.append(group(10, 100, 20, 200));
+        final long second = journal.append(group(10, 150, 20, 250));
+        final long third = journal.append(group(30, 300));
+        journal.awaitDurable(third);
+
+        // when
+        journal.release(second);
+        journal.release(third);
+        final long completedPosition = journal.completedPosition();
+        journal.checkpoint(completedPosition);
+        journal.close();
+        final List<String> replayed = new ArrayList<>();
+        open(replayed).close();
+
+        // then
+        assertEquals(first, completedPosition);
+        assertEquals(Arrays.asList("10=100", "20=200", "10=150", "20=250", "30=300"), replayed);
+    }
+
+    private WriteAheadJournal open(final List<String> replayed) throws IOException {
+        final WriteAheadJournal journal = new WriteAheadJournal(dir, SEGMENT_SIZE, 0, 1);
+        journal.open((accountId, balance) -> replayed.add(accountId + "=" + balance));
+        return journal;
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (final Stream<Path> list = Files.list(dir)) {
+            return list.sorted().collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Overwrites part of record as if crash happened in the middle of writing it.
+     */
+    private static void tear(final Path segment, final int index) throws IOException {
+        try (final FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{1, 2, 3}), (long) index * WriteAheadJournal.RECORD_SIZE + 16);
+        }
+    }
+
+    private static Map<Long, Long> group(final long... balances) {
+        final Map<Long, Long> group = new LinkedHashMap<>();
+        for (int i = 0; i < balances.length; i += 2) {
+            group.put(balances[i], balances[i + 1]);
+        }
+        return group;
+    }
+}
@@ -0,0 +1,109 @@
+package com.revolut.mtt.idempotency;
+
+import com.github.database.rider.core.api.connection.ConnectionHolder;
+import com.revolut.mtt.database.ConnectionProvider;
+import com.revolut.mtt.database.SchemaInit;
+import com.revolut.mtt.repository.IdempotencyKeyRepository;
+import com.typesafe.config.ConfigFactory;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IdempotencyStoreTest {
+
+    private static ConnectionHolder connectionHolder = () -> DriverManager.getConnection("jdbc:h2:mem:mtt-test;DB_CLOSE_DELAY=-1");
+
+    private final ConnectionProvider connectionProvider = connectionHolder::getConnection;
+
+    private IdempotencyStore idempotencyStore;
+
+    @BeforeAll
+    static void beforeAll() throws SQLException {
+        SchemaInit.initSchema(connectionHolder.getConnection());
+    }
+
+    @BeforeEach
+    void setUp() {
+        idempotencyStore = newStore();
+    }
+
+    @Test
+    void new_key_should_be_reserved() throws Exception {
+        // when
+        final Optional<IdempotentRequest> original = idempotencyStore.reserve("new-key", "hash");
+
+        // then
+        assertFalse(original.isPresent());
+    }
+
+    @Test
+    void retry_should_get_status_of_request_in_flight() throws Exception {
+        // given
+        idempotencyStore.reserve("in-flight-key", "hash");
+
+        // when
+        final Optional<IdempotentRequest> original = idempotencyStore.reserve("in-flight-key", "hash");
+        final boolean completedBefore = original.map(request -> request.getStatus().isDone()).orElse(true);
+        idempotencyStore.complete("in-flight-key", "hash", 200);
+
+        // then
+        assertFalse(completedBefore);
+        assertEquals(Optional.of(200), idempotencyStore.await(original.get().getStatus()));
+    }
+
+    @Test
+    void completed_key_should_be_found_in_database_if_not_in_memory() throws Exception {
+        // given
+        idempotencyStore.reserve("completed-key", "hash");
+        idempotencyStore.complete("completed-key", "hash", 200);
+
+        // when
+        final Optional<IdempotentRequest> original = newStore().reserve("completed-key", "hash");
+
+        // then
+        assertTrue(original.isPresent());
+        assertEquals(Optional.of(200), idempotencyStore.await(original.get().getStatus()));
+    }
+
+    @Test
+    void saved_key_should_keep_payload_hash_of_original_request() throws Exception {
+        // given
+        idempotencyStore.reserve("reused-key", "hash");
+        idempotencyStore.complete("reused-key", "hash", 200);
+
+        // when
+        final Optional<IdempotentRequest> original = newStore().reserve("reused-key", "another-hash");
+
+        // then
+        assertTrue(original.isPresent());
+        assertTrue(original.get().matches("hash"));
+        assertFalse(original.get().matches("another-hash"));
+    }
+
+    @Test
+    void waiting_for_request_in_flight_should_time_out() throws Exception {
+        // given
+        idempotencyStore.reserve("slow-key", "hash");
+        final CompletableFuture<Integer> original = idempotencyStore.reserve("slow-key", "hash")
+                .orElseThrow(AssertionError::new)
+                .getStatus();
+
+        // when
+        final Optional<Integer> status = idempotencyStore.await(original);
+
+        // then
+        assertFalse(status.isPresent());
+    }
+
+    private IdempotencyStore newStore() {
+        return new IdempotencyStore(connectionProvider, new IdempotencyKeyRepository(connectionProvider),
+                ConfigFactory.parseString("idempotency { maxSize = 10, window = 1m, waitTimeout = 100ms }"));
+    }
+}
@@ -0,0 +1,92 @@
+package com.revolut.mtt.json;
+
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.revolut.mtt.model.Account;
+import com.revolut.mtt.model.Transfer;
+import com.revolut.mtt.model.User;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ModelCodecsTest {
+
+    private final ObjectMapper reflectiveMapper = new ObjectMapper();
+
+    private final ObjectMapper codecMapper = new ObjectMapper().registerModule(new ModelCodecs());
+
+    @Test
+    void models_should_be_written_the_same_as_by_reflection() throws Exception {
+        // given
+        final List<Object> models = Arrays.asList(
+                new Transfer(1L, 2L, 3L, 1250L),
+                new Transfer(null, 2L, null, 0L),
+                new Account(10L, 1L, -5L),
+                new User(4L, "monica \"mon\""),
+                new User(null, null));
+
+        for (final Object model : models) {
+            // when
+            final String json = codecMapper.writeValueAsString(model);
+
+            // then
+            assertEquals(reflectiveMapper.writeValueAsString(model), json);
+        }
+    }
+
+    @Test
+    void models_should_be_read_the_same_as_by_reflection() throws Exception {
+        // given
+        final String transferJson = "{\"endUserId\":\"1\",\"sourceAccountId\":2,\"destinationAccountId\":null,"
+                + "\"amount\":\"12.34\"}";
+        final String accountJson = "{\"userId\":1,\"balance\":100.5,\"id\":7}";
+        final String userJson = "{\"username\":\"joey\"}";
+
+        // when
+        final Transfer transfer = codecMapper.readValue(transferJson, Transfer.class);
+        final Account account = codecMapper.readValue(accountJson, Account.class);
+        final User user = codecMapper.readValue(userJson, User.class);
+
+        // then
+        assertEquals(new Transfer(1L, 2L, null, 1234L), transfer);
+        assertEquals(reflectiveMapper.readValue(transferJson, Transfer.class), transfer);
+        assertEquals(new Account(7L, 1L, 10050L), account);
+        assertEquals(reflectiveMapper.readValue(accountJson, Account.class), account);
+        assertEquals(new User(null, "joey"), user);
+        assertEquals(reflectiveMapper.readValue(userJson, User.class), user);
+        assertEquals(0L, codecMapper.readValue("{\"amount\":null}", Transfer.class).getAmount());
+    }
+
+    @Test
+    void unknown_fields_should_be_skipped() throws Exception {
+        // given
+        final String json = "{\"sourceAccountId\":2,\"note\":{\"text\":[1,{\"amount\":5}]},\"amount\":1,\"tag\":null}";
+
+        // when
+        final Transfer transfer = codecMapper.readValue(json, Transfer.class);
+
+        // then
+        assertEquals(new Transfer(null, 2L, null, 100L), transfer);
+    }
+
+    @Test
+    void malformed_models_should_be_rejected() {
+        // when
+        final JsonMappingException fractionsException = assertThrows(JsonMappingException.class,
+                () -> codecMapper.readValue("{\"amount\":0.001}", Transfer.class));
+        final JsonMappingException idException = assertThrows(JsonMappingException.class,
+                () -> codecMapper.readValue("{\"userId\":\"abc\"}", Account.class));
+        final JsonMappingException arrayException = assertThrows(JsonMappingException.class,
+                () -> codecMapper.readValue("[1]", User.class));
+
+        // then
+        assertThat(fractionsException.getMessage(), containsString("at most 2 decimal places"));
+        assertThat(idException.getMessage(), containsString("abc"));
+        assertThat(arrayException.getMessage(), containsString("User"));
+    }
+}
@@ -0,0 +1,55 @@
+package com.revolut.mtt.metrics;
+
+import com.revolut.mtt.model.HotAccount;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HotAccountsTest {
+
+    @Test
+    void accounts_waited_for_the_most_should_be_on_top() {
+        // given
+        final HotAccounts hotAccounts = new HotAccounts(1024, 2, 60_000);
+
+        // when
+        for (long accountId = 1; accountId <= 1000; accountId++) {
+            hotAccounts.record(accountId, TimeUnit.MICROSECONDS.toNanos(10));
+        }
+        for (int i = 0; i < 100; i++) {
+            hotAccounts.record(42L, TimeUnit.MILLISECONDS.toNanos(2));
+            hotAccounts.record(7L, TimeUnit.MILLISECONDS.toNanos(1));
+        }
+
+        // then
+        final List<HotAccount> top = hotAccounts.top();
+        assertEquals(List.of(42L, 7L), top.stream().map(HotAccount::getAccountId).collect(Collectors.toList()));
+        assertTrue(top.get(0).getTransfers() >= 101);
+        assertTrue(top.get(0).getLockWaitMillis() >= 200.01);
+        assertEquals(2.0, top.get(0).getAverageLockWaitMillis(), 0.1);
+    }
+
+    @Test
+    void accounts_which_are_not_hot_anymore_should_leave_top() {
+        // given
+        final HotAccounts hotAccounts = new HotAccounts(1024, 1, 60_000);
+        for (int i = 0; i < 100; i++) {
+            hotAccounts.record(42L, TimeUnit.MILLISECONDS.toNanos(1));
+        }
+
+        // when
+        for (int i = 0; i < 10; i++) {
+            hotAccounts.decay();
+        }
+        hotAccounts.record(7L, TimeUnit.MILLISECONDS.toNanos(1));
+
+        // then
+        final List<HotAccount> top = hotAccounts.top();
+        assertEquals(1, top.size());
+        assertEquals(7L, top.get(0).getAccountId());
+    }
+}
@@ -0,0 +1,74 @@
+package com.revolut.mtt.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsTest {
+
+    @Test
+    void histogram_should_be_written_with_cumulative_buckets() {
+        // given
+        final Metrics metrics = new Metrics();
+        final Histogram histogram = metrics.histogram("latency_seconds", "Latency.", "route", "/users");
+
+        // when
+        histogram.record(TimeUnit.MICROSECONDS.toNanos(300));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(3));
+        histogram.record(TimeUnit.SECONDS.toNanos(20));
+
+        // then
+        final String scrape = metrics.scrape();
+        assertThat(scrape, containsString("# TYPE latency_seconds histogram\n"));
+        assertThat(scrape, containsString("latency_seconds_bucket{route=\"/users\",le=\"0.0005\"} 1\n"));
+        assertThat(scrape, containsString("latency_seconds_bucket{route=\"/users\",le=\"0.0025\"} 1\n"));
+        assertThat(scrape, containsString("latency_seconds_bucket{route=\"/users\",le=\"0.005\"} 2\n"));
+        assertThat(scrape, containsString("latency_seconds_bucket{route=\"/users\",le=\"10\"} 2\n"));
+        assertThat(scrape, containsString("latency_seconds_bucket{route=\"/users\",le=\"+Inf\"} 3\n"));
+        assertThat(scrape, containsString("latency_seconds_sum{route=\"/users\"} 20.0033\n"));
+        assertThat(scrape, containsString("latency_seconds_count{route=\"/users\"} 3\n"));
+    }
+
+    @Test
+    void metrics_with_same_name_should_be_written_as_one_family() {
+        // given
+        final Metrics metrics = new Metrics();
+        final Counter nameFailures = metrics.counter("failures_total", "Failures.", "field", "name");
+        final Counter quotedFailures = metrics.counter("failures_total", "Failures.", "field", "\"quoted\"");
+        metrics.gauge("connections", "Connections.", () -> 7);
+
+        // when
+        nameFailures.increment();
+        metrics.counter("failures_total", "Failures.", "field", "name").increment();
+        quotedFailures.increment();
+
+        // then
+        assertEquals(2, nameFailures.count());
+        assertEquals("# HELP failures_total Failures.\n"
+                        + "# TYPE failures_total counter\n"
+                        + "failures_total{field=\"name\"} 2\n"
+                        + "failures_total{field=\"\\\"quoted\\\"\"} 1\n"
+                        + "# HELP connections Connections.\n"
+                        + "# TYPE connections gauge\n"
+                        + "connections 7\n",
+                metrics.scrape());
+    }
+
+    @Test
+    void metric_name_should_not_be_reused_by_another_type() {
+        // given
+        final Metrics metrics = new Metrics();
+        metrics.counter("failures_total", "Failures.");
+
+        // when
+        final IllegalArgumentException exception = assertThrows(IllegalArgumentException.class,
+                () -> metrics.histogram("failures_total", "Failures."));
+
+        // then
+        assertThat(exception.getMessage(), containsString("counter"));
+    }
+}
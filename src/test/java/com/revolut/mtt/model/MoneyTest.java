@@ -0,0 +1,52 @@
+package com.revolut.mtt.model;
+
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.*;
+
+class MoneyTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void decimal_amount_should_be_read_as_minor_units() throws Exception {
+        // given
+        final String json = "{\"sourceAccountId\":10,\"destinationAccountId\":20,\"amount\":12.5}";
+
+        // when
+        final Transfer transfer = objectMapper.readValue(json, Transfer.class);
+
+        // then
+        assertEquals(1250L, transfer.getAmount());
+        assertEquals(1234L, objectMapper.readValue("{\"amount\":\"12.34\"}", Transfer.class).getAmount());
+    }
+
+    @Test
+    void minor_units_should_be_written_as_decimal_amount() throws Exception {
+        // given
+        final Account account = Account.builder().id(10L).userId(1L).balance(500L).build();
+
+        // when
+        final String json = objectMapper.writeValueAsString(account);
+
+        // then
+        assertThat(json, containsString("\"balance\":5.00"));
+    }
+
+    @Test
+    void amount_with_fractions_of_minor_unit_should_be_rejected() {
+        // given
+        final String json = "{\"sourceAccountId\":10,\"destinationAccountId\":20,\"amount\":0.001}";
+
+        // when
+        final JsonMappingException exception = assertThrows(JsonMappingException.class,
+                () -> objectMapper.readValue(json, Transfer.class));
+
+        // then
+        assertThat(exception.getMessage(), containsString("at most 2 decimal places"));
+    }
+}
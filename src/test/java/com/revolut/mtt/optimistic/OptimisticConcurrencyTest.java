@@ -0,0 +1,77 @@
+package com.revolut.mtt.optimistic;
+
+import com.revolut.mtt.metrics.Metrics;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OptimisticConcurrencyTest {
+
+    @Test
+    void transfers_should_become_locking_on_high_conflict_rate_and_optimistic_again_on_low_one() {
+        // given
+        final Metrics metrics = new Metrics();
+        final OptimisticConcurrency concurrency = new OptimisticConcurrency(4, 0, true, 0.1, 10, 1000, metrics);
+
+        // when
+        recordWindow(concurrency, 2);
+        final boolean optimisticOnHighRate = concurrency.isOptimistic();
+        recordWindow(concurrency, 0);
+        final boolean optimisticOnLowRate = concurrency.isOptimistic();
+
+        // then
+        assertFalse(optimisticOnHighRate);
+        assertTrue(optimisticOnLowRate);
+        assertTrue(metrics.scrape().contains("mtt_optimistic_attempts_total 20"));
+        assertTrue(metrics.scrape().contains("mtt_optimistic_conflicts_total 2"));
+    }
+
+    @Test
+    void transfers_should_stay_locking_until_conflict_rate_drops_below_half_of_threshold() {
+        // given
+        final OptimisticConcurrency concurrency = new OptimisticConcurrency(4, 0, true, 0.2, 10, 1000, new Metrics());
+        recordWindow(concurrency, 3);
+
+        // when
+        recordWindow(concurrency, 1);
+
+        // then
+        assertFalse(concurrency.isOptimistic());
+    }
+
+    @Test
+    void every_probe_interval_transfer_should_be_optimistic_while_locking() {
+        // given
+        final OptimisticConcurrency concurrency = new OptimisticConcurrency(4, 0, true, 0.1, 10, 4, new Metrics());
+        recordWindow(concurrency, 10);
+
+        // when
+        int optimisticTransfers = 0;
+        for (int i = 0; i < 40; i++) {
+            if (concurrency.isOptimistic()) {
+                optimisticTransfers++;
+            }
+        }
+
+        // then
+        assertEquals(10, optimisticTransfers);
+    }
+
+    @Test
+    void transfers_should_stay_optimistic_if_not_adaptive() {
+        // given
+        final OptimisticConcurrency concurrency = new OptimisticConcurrency(4, 0, false, 0.1, 10, 1000, new Metrics());
+
+        // when
+        recordWindow(concurrency, 10);
+
+        // then
+        assertTrue(concurrency.isOptimistic());
+    }
+
+    private static void recordWindow(final OptimisticConcurrency concurrency, final int conflicts) {
+        for (int i = 0; i < 10; i++) {
+            concurrency.record(i < conflicts);
+        }
+    }
+}
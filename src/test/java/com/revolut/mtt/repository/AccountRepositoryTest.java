@@ -4,16 +4,25 @@ import com.github.database.rider.core.api.connection.ConnectionHolder;
 import com.github.database.rider.core.api.dataset.DataSet;
 import com.github.database.rider.junit5.DBUnitExtension;
 import com.revolut.mtt.model.Account;
+import com.revolut.mtt.model.VersionedAccount;
+import com.revolut.mtt.database.ConnectionProvider;
 import com.revolut.mtt.database.SchemaInit;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 
-import java.math.BigDecimal;
+import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.Optional;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -48,7 +57,7 @@ class AccountRepositoryTest {
         final Account account = optionalAccount.get();
         assertEquals(10L, account.getId());
         assertEquals(1L, account.getUserId());
-        assertEquals(new BigDecimal("100.31"), account.getBalance());
+        assertEquals(10031L, account.getBalance());
     }
 
     @Test
@@ -70,7 +79,7 @@ class AccountRepositoryTest {
         // given
         final Account newAccount = Account.builder()
                 .userId(3L)
-                .balance(new BigDecimal(123))
+                .balance(12300L)
                 .build();
 
         // when
@@ -80,7 +89,26 @@ class AccountRepositoryTest {
         assertNotNull(account);
         assertNotNull(account.getId());
         assertEquals(3L, account.getUserId());
-        assertEquals(new BigDecimal(123), account.getBalance());
+        assertEquals(12300L, account.getBalance());
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void should_create_new_accounts_in_order() throws SQLException {
+        // given
+        final List<Account> newAccounts = List.of(
+                Account.builder().userId(3L).balance(150L).build(),
+                Account.builder().userId(1L).balance(1000L).build());
+
+        // when
+        final List<Account> accounts = accountRepository.createAccounts(newAccounts);
+
+        // then
+        assertEquals(2, accounts.size());
+        assertEquals(3L, accounts.get(0).getUserId());
+        assertEquals(1L, accounts.get(1).getUserId());
+        assertEquals(Optional.of(accounts.get(0)), accountRepository.fetchAccount(accounts.get(0).getId()));
+        assertEquals(Optional.of(accounts.get(1)), accountRepository.fetchAccount(accounts.get(1).getId()));
     }
 
     @Test
@@ -88,18 +116,18 @@ class AccountRepositoryTest {
     void should_apply_balance_to_existing_account() throws SQLException {
         // given
         final Long accountId = 30L;
-        final BigDecimal newBalance = new BigDecimal("31.21");
+        final long newBalance = 3121L;
 
         // when
         final boolean balanceApplied = accountRepository.applyBalance(accountId, newBalance);
-        final BigDecimal balance = accountRepository.fetchAccount(accountId)
+        final Long balance = accountRepository.fetchAccount(accountId)
                 .map(Account::getBalance)
                 .orElse(null);
 
         // then
         assertTrue(balanceApplied);
         assertNotNull(balance);
-        assertEquals(new BigDecimal("31.21"), balance);
+        assertEquals(3121L, balance);
     }
 
     @Test
@@ -107,7 +135,7 @@ class AccountRepositoryTest {
     void should_not_apply_balance_to_non_existing_account() throws SQLException {
         // given
         final Long accountId = 24L;
-        final BigDecimal newBalance = new BigDecimal(1_000_000);
+        final long newBalance = 100_000_000L;
 
         // when
         final boolean balanceApplied = accountRepository.applyBalance(accountId, newBalance);
@@ -115,4 +143,310 @@ class AccountRepositoryTest {
         // then
         assertFalse(balanceApplied);
     }
-}
\ No newline at end of file
+
+    @Test
+    @DataSet("existing_users.yml")
+    void should_fetch_existing_accounts_with_locks() throws SQLException {
+        // given
+        final List<Long> accountIds = Arrays.asList(30L, 10L, 24L, 10L);
+
+        // when
+        final Map<Long, Account> accounts = accountRepository.fetchAccountsWithLocks(accountIds);
+
+        // then
+        assertEquals(2, accounts.size());
+        assertEquals(10031L, accounts.get(10L).getBalance());
+        assertEquals(1412L, accounts.get(30L).getBalance());
+        assertEquals(4L, accounts.get(30L).getUserId());
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void should_report_lock_wait_of_each_account() throws SQLException {
+        // given
+        final List<Long> accountIds = Arrays.asList(30L, 10L, 24L, 10L);
+        final List<Long> waitedAccountIds = new ArrayList<>();
+
+        // when
+        final Map<Long, Account> accounts = accountRepository.fetchAccountsWithLocks(accountIds,
+                (accountId, lockWaitNanos) -> waitedAccountIds.add(accountId));
+
+        // then
+        assertEquals(2, accounts.size());
+        assertEquals(10031L, accounts.get(10L).getBalance());
+        assertEquals(1412L, accounts.get(30L).getBalance());
+        assertEquals(Arrays.asList(10L, 24L, 30L), waitedAccountIds);
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void should_apply_balances_to_existing_accounts() throws SQLException {
+        // given
+        final Map<Long, Long> newBalances = new HashMap<>();
+        newBalances.put(10L, 111L);
+        newBalances.put(20L, 222L);
+
+        // when
+        final boolean balancesApplied = accountRepository.applyBalances(newBalances);
+
+        // then
+        assertTrue(balancesApplied);
+        assertEquals(111L, accountRepository.fetchAccount(10L).map(Account::getBalance).orElse(null));
+        assertEquals(222L, accountRepository.fetchAccount(20L).map(Account::getBalance).orElse(null));
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void should_not_apply_balances_if_account_does_not_exist() throws SQLException {
+        // given
+        final Map<Long, Long> newBalances = new HashMap<>();
+        newBalances.put(10L, 111L);
+        newBalances.put(24L, 222L);
+
+        // when
+        final boolean balancesApplied = accountRepository.applyBalances(newBalances);
+
+        // then
+        assertFalse(balancesApplied);
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void should_withdraw_from_account_of_user_with_enough_balance() throws SQLException {
+        // when
+        final boolean withdrawn = accountRepository.withdraw(10L, 1L, 31L);
+        final boolean withdrawnFromOtherUser = accountRepository.withdraw(20L, 1L, 67L);
+        final boolean withdrawnTooMuch = accountRepository.withdraw(30L, 4L, 1413L);
+
+        // then
+        assertTrue(withdrawn);
+        assertFalse(withdrawnFromOtherUser);
+        assertFalse(withdrawnTooMuch);
+        assertEquals(10000L, accountRepository.fetchAccount(10L).map(Account::getBalance).orElse(null));
+        assertEquals(42167L, accountRepository.fetchAccount(20L).map(Account::getBalance).orElse(null));
+        assertEquals(1412L, accountRepository.fetchAccount(30L).map(Account::getBalance).orElse(null));
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void should_deposit_to_existing_account() throws SQLException {
+        // when
+        final boolean deposited = accountRepository.deposit(30L, 88L);
+        final boolean depositedToNonExisting = accountRepository.deposit(24L, 88L);
+
+        // then
+        assertTrue(deposited);
+        assertFalse(depositedToNonExisting);
+        assertEquals(1500L, accountRepository.fetchAccount(30L).map(Account::getBalance).orElse(null));
+    }
+
+    @Test
+    @DataSet("split_account.yml")
+    void balance_of_split_account_should_include_slots() throws SQLException {
+        // when
+        final Long balance = accountRepository.fetchAccount(20L).map(Account::getBalance).orElse(null);
+
+        // then
+        assertEquals(42967L, balance);
+        assertEquals(42167L, fetchRecordBalance(20L));
+    }
+
+    @Test
+    @DataSet("split_account.yml")
+    void should_fetch_several_accounts_by_chunks() throws SQLException {
+        // given
+        final List<Long> accountIds = new ArrayList<>();
+        for (long accountId = 1000; accountId < 1600; accountId++) {
+            accountIds.add(accountId);
+        }
+        accountIds.add(20L);
+        accountIds.add(10L);
+
+        // when
+        final Map<Long, Account> accounts = accountRepository.fetchAccounts(accountIds);
+
+        // then
+        assertEquals(Set.of(10L, 20L), accounts.keySet());
+        assertEquals(10031L, accounts.get(10L).getBalance());
+        assertEquals(42967L, accounts.get(20L).getBalance());
+        assertEquals(2L, accounts.get(20L).getUserId());
+    }
+
+    @Test
+    @DataSet("split_account.yml")
+    void deposit_to_split_account_should_go_to_slot() throws SQLException {
+        // when
+        final boolean deposited = accountRepository.deposit(20L, 33L);
+
+        // then
+        assertTrue(deposited);
+        assertEquals(43000L, accountRepository.fetchAccount(20L).map(Account::getBalance).orElse(null));
+        assertEquals(42167L, fetchRecordBalance(20L));
+    }
+
+    @Test
+    @DataSet("split_account.yml")
+    void split_account_should_not_be_locked_for_credit() throws SQLException {
+        // when
+        final Optional<Account> account = accountRepository.fetchAccountForCredit(20L);
+        final Optional<Account> regularAccount = accountRepository.fetchAccountForCredit(10L);
+        final Optional<Account> nonExistingAccount = accountRepository.fetchAccountForCredit(24L);
+
+        // then
+        assertTrue(account.isPresent());
+        assertTrue(regularAccount.isPresent());
+        assertFalse(nonExistingAccount.isPresent());
+    }
+
+    @Test
+    @DataSet("split_account.yml")
+    void locking_split_account_should_move_slot_balances_to_account() throws SQLException {
+        // when
+        final Long lockedBalance = accountRepository.fetchAccount(20L, true).map(Account::getBalance).orElse(null);
+        final Map<Long, Account> accounts = accountRepository.fetchAccountsWithLocks(Arrays.asList(10L, 20L));
+
+        // then
+        assertEquals(42967L, lockedBalance);
+        assertEquals(42967L, fetchRecordBalance(20L));
+        assertEquals(42967L, accounts.get(20L).getBalance());
+    }
+
+    @Test
+    @DataSet("split_account.yml")
+    void slots_of_split_account_should_be_locked_before_greater_accounts() throws Exception {
+        // given
+        accountRepository.splitAccount(20L, 0);
+        accountRepository.splitAccount(10L, 2);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (final Connection crediting = connectionHolder.getConnection();
+             final Connection locking = connectionHolder.getConnection()) {
+            crediting.setAutoCommit(false);
+            locking.setAutoCommit(false);
+            try (final PreparedStatement preparedStatement = crediting.prepareStatement(
+                    "update account_slot set balance = balance + 1 where account_id = 10")) {
+                preparedStatement.executeUpdate();
+            }
+
+            // when
+            final Future<Map<Long, Account>> locked = executor.submit(() ->
+                    new AccountRepository(() -> locking).fetchAccountsWithLocks(Arrays.asList(20L, 10L)));
+            // let locking transaction wait on slots, then crediting one goes on in id order
+            Thread.sleep(200);
+            final boolean credited = new AccountRepository(() -> crediting).deposit(20L, 1L);
+            crediting.commit();
+            final Map<Long, Account> accounts = locked.get(5, TimeUnit.SECONDS);
+            locking.commit();
+
+            // then
+            assertTrue(credited);
+            assertEquals(10033L, accounts.get(10L).getBalance());
+            assertEquals(42968L, accounts.get(20L).getBalance());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @DataSet("split_account.yml")
+    void withdraw_from_split_account_should_use_slots_if_account_is_short() throws SQLException {
+        // when
+        final boolean withdrawn = accountRepository.withdraw(20L, 2L, 42500L);
+        final boolean withdrawnTooMuch = accountRepository.withdraw(20L, 2L, 500L);
+
+        // then
+        assertTrue(withdrawn);
+        assertFalse(withdrawnTooMuch);
+        assertEquals(467L, accountRepository.fetchAccount(20L).map(Account::getBalance).orElse(null));
+    }
+
+    @Test
+    @DataSet("split_account.yml")
+    void split_account_should_be_split_again_with_slot_balances_kept() throws SQLException {
+        // when
+        final boolean split = accountRepository.splitAccount(20L, 4);
+        final boolean deposited = accountRepository.deposit(20L, 33L);
+        final boolean nonExistingSplit = accountRepository.splitAccount(24L, 4);
+
+        // then
+        assertTrue(split);
+        assertTrue(deposited);
+        assertFalse(nonExistingSplit);
+        assertEquals(42967L, fetchRecordBalance(20L));
+        assertEquals(43000L, accountRepository.fetchAccount(20L).map(Account::getBalance).orElse(null));
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void balances_should_be_set_if_accounts_have_not_changed() throws SQLException {
+        // given
+        final Connection connection = connectionHolder.getConnection();
+        connection.setAutoCommit(false);
+        final AccountRepository transactionalRepository = new AccountRepository(() -> connection);
+        final VersionedAccount source = transactionalRepository.fetchVersionedAccount(10L).orElse(null);
+        final VersionedAccount destination = transactionalRepository.fetchVersionedAccount(20L).orElse(null);
+        final Map<Long, Long> newBalances = new HashMap<>();
+        newBalances.put(10L, 31L);
+        newBalances.put(20L, 52167L);
+
+        // when
+        final boolean balancesSet = transactionalRepository.compareAndSetBalances(
+                Arrays.asList(destination, source), newBalances);
+        connection.commit();
+
+        // then
+        assertTrue(balancesSet);
+        assertEquals(31L, accountRepository.fetchAccount(10L).map(Account::getBalance).orElse(null));
+        assertEquals(52167L, accountRepository.fetchAccount(20L).map(Account::getBalance).orElse(null));
+        assertEquals(source.getVersion() + 1,
+                accountRepository.fetchVersionedAccount(10L).map(VersionedAccount::getVersion).orElse(null));
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void transaction_should_be_rolled_back_only_if_any_account_has_changed() throws SQLException {
+        // given
+        final Connection connection = connectionHolder.getConnection();
+        connection.setAutoCommit(false);
+        final AtomicBoolean rollbackOnly = new AtomicBoolean();
+        final AccountRepository transactionalRepository = new AccountRepository(new ConnectionProvider() {
+            @Override
+            public Connection currentConnection() {
+                return connection;
+            }
+
+            @Override
+            public void setRollbackOnly() {
+                rollbackOnly.set(true);
+            }
+        });
+        final VersionedAccount source = transactionalRepository.fetchVersionedAccount(10L).orElse(null);
+        final VersionedAccount destination = transactionalRepository.fetchVersionedAccount(20L).orElse(null);
+        accountRepository.deposit(20L, 100L);
+        final Map<Long, Long> newBalances = new HashMap<>();
+        newBalances.put(10L, 31L);
+        newBalances.put(20L, 52167L);
+
+        // when
+        final boolean balancesSet = transactionalRepository.compareAndSetBalances(
+                Arrays.asList(source, destination), newBalances);
+        connection.rollback();
+
+        // then
+        assertFalse(balancesSet);
+        assertTrue(rollbackOnly.get());
+        assertEquals(10031L, accountRepository.fetchAccount(10L).map(Account::getBalance).orElse(null));
+        assertEquals(42267L, accountRepository.fetchAccount(20L).map(Account::getBalance).orElse(null));
+    }
+
+    private Long fetchRecordBalance(final Long accountId) throws SQLException {
+        try (final Connection connection = connectionHolder.getConnection();
+             final PreparedStatement preparedStatement =
+                     connection.prepareStatement("select balance from account where id = ?")) {
+            preparedStatement.setLong(1, accountId);
+            try (final ResultSet resultSet = preparedStatement.executeQuery()) {
+                resultSet.next();
+                return resultSet.getLong(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.revolut.mtt.repository;
+
+import com.github.database.rider.core.api.connection.ConnectionHolder;
+import com.github.database.rider.core.api.dataset.DataSet;
+import com.github.database.rider.junit5.DBUnitExtension;
+import com.revolut.mtt.database.SchemaInit;
+import com.revolut.mtt.model.User;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(DBUnitExtension.class)
+class CachedUserRepositoryTest {
+
+    private CachedUserRepository userRepository;
+
+    private static ConnectionHolder connectionHolder = () -> DriverManager.getConnection("jdbc:h2:mem:mtt-test;DB_CLOSE_DELAY=-1");
+
+    @BeforeAll
+    static void beforeAll() throws SQLException {
+        SchemaInit.initSchema(connectionHolder.getConnection());
+    }
+
+    @BeforeEach
+    void setUp() {
+        this.userRepository = new CachedUserRepository(connectionHolder::getConnection, "maximumSize=2");
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void user_should_be_fetched_from_database_once() throws SQLException {
+        // when
+        final Optional<User> first = userRepository.fetchUser(2L);
+        final Optional<User> second = userRepository.fetchUser(2L);
+
+        // then
+        assertEquals("rachel", first.map(User::getUsername).orElse(null));
+        assertEquals(first, second);
+        assertEquals(1, userRepository.stats().getMisses());
+        assertEquals(1, userRepository.stats().getHits());
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void missing_user_should_be_cached() throws SQLException {
+        // when
+        final Optional<User> first = userRepository.fetchUserByUsername("gunther");
+        final Optional<User> second = userRepository.fetchUserByUsername("gunther");
+
+        // then
+        assertFalse(first.isPresent());
+        assertFalse(second.isPresent());
+        assertEquals(1, userRepository.stats().getMisses());
+        assertEquals(1, userRepository.stats().getHits());
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void created_user_should_be_put_to_cache() throws SQLException {
+        // given
+        userRepository.fetchUserByUsername("janice");
+
+        // when
+        final User createdUser = userRepository.createUser(User.builder()
+                .username("janice")
+                .build());
+        final Optional<User> userById = userRepository.fetchUser(createdUser.getId());
+        final Optional<User> userByUsername = userRepository.fetchUserByUsername("janice");
+
+        // then
+        assertEquals(Optional.of(createdUser), userById);
+        assertEquals(Optional.of(createdUser), userByUsername);
+        assertEquals(1, userRepository.stats().getMisses());
+        assertEquals(2, userRepository.stats().getHits());
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void cache_should_be_bounded() throws SQLException {
+        // when
+        userRepository.fetchUser(1L);
+        userRepository.fetchUser(2L);
+        userRepository.fetchUser(3L);
+
+        // then
+        assertEquals(1, userRepository.stats().getEvictions());
+    }
+}
@@ -0,0 +1,330 @@
+package com.revolut.mtt.repository;
+
+import com.github.database.rider.core.api.connection.ConnectionHolder;
+import com.github.database.rider.core.api.dataset.DataSet;
+import com.github.database.rider.junit5.DBUnitExtension;
+import com.revolut.mtt.database.ConnectionProvider;
+import com.revolut.mtt.database.SchemaInit;
+import com.revolut.mtt.database.WriteAheadJournal;
+import com.revolut.mtt.ledger.AccountLedger;
+import com.revolut.mtt.ledger.LedgerPersister;
+import com.revolut.mtt.model.Account;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(DBUnitExtension.class)
+class InMemoryAccountRepositoryTest {
+
+    private static final String URL = "jdbc:h2:mem:mtt-test;DB_CLOSE_DELAY=-1";
+
+    private static ConnectionHolder connectionHolder = () -> DriverManager.getConnection(URL);
+
+    private AccountRepository jdbcAccountRepository;
+
+    private InMemoryAccountRepository accountRepository;
+
+    private AccountLedger ledger;
+
+    private LedgerPersister persister;
+
+    @BeforeAll
+    static void beforeAll() throws SQLException {
+        SchemaInit.initSchema(connectionHolder.getConnection());
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        final JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL(URL);
+        this.ledger = new AccountLedger(16, 100);
+        this.persister = new LedgerPersister(ledger, 60_000);
+        this.persister.start(dataSource);
+        this.accountRepository = new InMemoryAccountRepository(connectionHolder::getConnection, ledger, persister);
+        this.jdbcAccountRepository = new AccountRepository(connectionHolder::getConnection);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        accountRepository.completeTransaction(false);
+        persister.stop();
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void should_fetch_loaded_account_by_id() throws SQLException {
+        // when
+        final Optional<Account> optionalAccount = accountRepository.fetchAccount(10L);
+
+        // then
+        assertTrue(optionalAccount.isPresent());
+        final Account account = optionalAccount.get();
+        assertEquals(10L, account.getId());
+        assertEquals(1L, account.getUserId());
+        assertEquals(10031L, account.getBalance());
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void should_fetch_several_loaded_accounts() throws SQLException {
+        // when
+        final Map<Long, Account> accounts = accountRepository.fetchAccounts(List.of(10L, 20L, 123L));
+
+        // then
+        assertEquals(2, accounts.size());
+        assertEquals(10031L, accounts.get(10L).getBalance());
+        assertEquals(42167L, accounts.get(20L).getBalance());
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void should_not_fetch_non_existing_account() throws SQLException {
+        // when
+        final Optional<Account> optionalAccount = accountRepository.fetchAccount(123L, true);
+
+        // then
+        assertFalse(optionalAccount.isPresent());
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void applied_balance_should_be_visible_to_others_only_after_commit() throws Exception {
+        // given
+        final Long accountId = 30L;
+
+        // when
+        final boolean balanceApplied = accountRepository.applyBalance(accountId, 3121L);
+        final long ownBalance = fetchBalance(accountId);
+        final long otherBalanceBeforeCommit = CompletableFuture.supplyAsync(() -> fetchBalance(accountId)).get();
+        accountRepository.completeTransaction(true);
+        final long otherBalanceAfterCommit = CompletableFuture.supplyAsync(() -> fetchBalance(accountId)).get();
+
+        // then
+        assertTrue(balanceApplied);
+        assertEquals(3121L, ownBalance);
+        assertEquals(1412L, otherBalanceBeforeCommit);
+        assertEquals(3121L, otherBalanceAfterCommit);
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void applied_balance_should_be_discarded_on_rollback() throws Exception {
+        // given
+        final Long accountId = 30L;
+
+        // when
+        accountRepository.applyBalance(accountId, 3121L);
+        accountRepository.completeTransaction(false);
+
+        // then
+        assertEquals(1412L, fetchBalance(accountId));
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void applied_balance_should_follow_outcome_of_database_transaction() throws Exception {
+        // given
+        final List<Consumer<Boolean>> completions = new ArrayList<>();
+        final InMemoryAccountRepository transactionalRepository = new InMemoryAccountRepository(
+                new ConnectionProvider() {
+                    @Override
+                    public Connection currentConnection() throws SQLException {
+                        return connectionHolder.getConnection();
+                    }
+
+                    @Override
+                    public void afterCompletion(final Consumer<Boolean> action) {
+                        completions.add(action);
+                    }
+                }, ledger, persister);
+
+        // when
+        transactionalRepository.applyBalance(30L, 3121L);
+        completions.get(0).accept(false);
+        final long balanceAfterFailedCommit = fetchBalance(30L);
+        transactionalRepository.applyBalance(30L, 5000L);
+        completions.get(1).accept(true);
+
+        // then
+        assertEquals(1412L, balanceAfterFailedCommit);
+        assertEquals(5000L, fetchBalance(30L));
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void locked_account_should_not_be_acquired_by_another_transaction() throws Exception {
+        // given
+        final Long accountId = 20L;
+        accountRepository.fetchAccount(accountId, true);
+
+        // when
+        final boolean acquiredWhileLocked = CompletableFuture.supplyAsync(() -> isAcquired(accountId)).get();
+        accountRepository.completeTransaction(true);
+        final boolean acquiredAfterCommit = CompletableFuture.supplyAsync(() -> isAcquired(accountId)).get();
+
+        // then
+        assertFalse(acquiredWhileLocked);
+        assertTrue(acquiredAfterCommit);
+    }
+
+    @Test
+    void accounts_should_be_locked_in_stripe_order() {
+        // when
+        final List<Long> orderedIds = LongStream.rangeClosed(1, 64).boxed()
+                .sorted(accountRepository.lockOrder())
+                .collect(Collectors.toList());
+
+        // then
+        for (int i = 1; i < orderedIds.size(); i++) {
+            assertTrue(ledger.stripeIndex(orderedIds.get(i - 1)) <= ledger.stripeIndex(orderedIds.get(i)));
+        }
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void should_not_apply_balance_to_non_existing_account() throws SQLException {
+        // when
+        final boolean balanceApplied = accountRepository.applyBalance(24L, 100_000_000L);
+
+        // then
+        assertFalse(balanceApplied);
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void committed_balance_should_be_persisted_to_database() throws Exception {
+        // given
+        final Long accountId = 10L;
+
+        // when
+        accountRepository.applyBalance(accountId, 1234L);
+        accountRepository.completeTransaction(true);
+        persister.stop();
+
+        // then
+        final Long persistedBalance = jdbcAccountRepository.fetchAccount(accountId)
+                .map(Account::getBalance)
+                .orElse(null);
+        assertEquals(1234L, persistedBalance);
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void journaled_balances_should_be_replayed_on_start(@TempDir final Path journalDir) throws Exception {
+        // given
+        final AccountLedger crashedLedger = new AccountLedger(16, 100);
+        final WriteAheadJournal crashedJournal = new WriteAheadJournal(journalDir, 4096, 0, 1);
+        final JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL(URL);
+        final LedgerPersister crashedPersister = new LedgerPersister(crashedLedger, 60_000, crashedJournal);
+        crashedPersister.start(dataSource);
+        final InMemoryAccountRepository crashedRepository =
+                new InMemoryAccountRepository(connectionHolder::getConnection, crashedLedger, crashedPersister);
+        crashedRepository.applyBalance(10L, 1234L);
+        crashedRepository.prepareTransaction();
+        crashedRepository.completeTransaction(true);
+        crashedRepository.applyBalance(20L, 5000L);
+        crashedRepository.prepareTransaction();
+        crashedRepository.completeTransaction(false);
+        // ledger is never flushed, as if service crashed
+        crashedJournal.close();
+
+        // when
+        final AccountLedger restartedLedger = new AccountLedger(16, 100);
+        final LedgerPersister restartedPersister =
+                new LedgerPersister(restartedLedger, 60_000, new WriteAheadJournal(journalDir, 4096, 0, 1));
+        restartedPersister.start(dataSource);
+        final Optional<Long> persistedBalance = jdbcAccountRepository.fetchAccount(10L).map(Account::getBalance);
+        final InMemoryAccountRepository restartedRepository =
+                new InMemoryAccountRepository(connectionHolder::getConnection, restartedLedger, restartedPersister);
+        final Optional<Long> replayedBalance = restartedRepository.fetchAccount(10L).map(Account::getBalance);
+        final Optional<Long> compensatedBalance = restartedRepository.fetchAccount(20L).map(Account::getBalance);
+        restartedPersister.stop();
+
+        // then
+        assertEquals(Optional.of(10031L), persistedBalance);
+        assertEquals(Optional.of(1234L), replayedBalance);
+        assertEquals(Optional.of(42167L), compensatedBalance);
+        assertEquals(Optional.of(1234L), jdbcAccountRepository.fetchAccount(10L).map(Account::getBalance));
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void journal_should_be_truncated_only_after_snapshot_if_database_is_not_durable(@TempDir final Path journalDir)
+            throws Exception {
+        // given
+        final JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL(URL);
+        final LedgerPersister journaledPersister =
+                new LedgerPersister(ledger, 60_000, new WriteAheadJournal(journalDir, 4096, 0, 1), false);
+        journaledPersister.start(dataSource);
+        final InMemoryAccountRepository journaledRepository =
+                new InMemoryAccountRepository(connectionHolder::getConnection, ledger, journaledPersister);
+        // a segment of 4096 bytes fits 128 records
+        for (long balance = 1; balance <= 130; balance++) {
+            journaledRepository.applyBalance(10L, balance);
+            journaledRepository.prepareTransaction();
+            journaledRepository.completeTransaction(true);
+        }
+
+        // when
+        journaledPersister.stop();
+        final long segmentsAfterFlush = countFiles(journalDir);
+        journaledPersister.written(journaledPersister.prepare());
+
+        // then
+        assertEquals(Optional.of(130L), jdbcAccountRepository.fetchAccount(10L).map(Account::getBalance));
+        assertEquals(2, segmentsAfterFlush);
+        assertEquals(1, countFiles(journalDir));
+    }
+
+    private static long countFiles(final Path dir) throws IOException {
+        try (final Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+
+    private Long fetchBalance(final Long accountId) {
+        try {
+            return accountRepository.fetchAccount(accountId)
+                    .map(Account::getBalance)
+                    .orElse(null);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private boolean isAcquired(final Long accountId) {
+        try {
+            try {
+                return accountRepository.fetchAccount(accountId, true).isPresent();
+            } finally {
+                accountRepository.completeTransaction(false);
+            }
+        } catch (SQLException | IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
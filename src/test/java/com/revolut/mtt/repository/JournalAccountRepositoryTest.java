@@ -0,0 +1,235 @@
+package com.revolut.mtt.repository;
+
+import com.github.database.rider.core.api.connection.ConnectionHolder;
+import com.github.database.rider.core.api.dataset.DataSet;
+import com.github.database.rider.junit5.DBUnitExtension;
+import com.revolut.mtt.database.ConnectionProvider;
+import com.revolut.mtt.database.SchemaInit;
+import com.revolut.mtt.ledger.LedgerJournal;
+import com.revolut.mtt.model.Account;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(DBUnitExtension.class)
+class JournalAccountRepositoryTest {
+
+    private static final String URL = "jdbc:h2:mem:mtt-test;DB_CLOSE_DELAY=-1";
+
+    private static ConnectionHolder connectionHolder = () -> DriverManager.getConnection(URL);
+
+    private LedgerJournal journal;
+
+    private JournalAccountRepository accountRepository;
+
+    @BeforeAll
+    static void beforeAll() throws SQLException {
+        SchemaInit.initSchema(connectionHolder.getConnection());
+    }
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        final JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL(URL);
+        this.journal = new LedgerJournal(60_000);
+        this.journal.start(dataSource);
+        this.accountRepository = new JournalAccountRepository(connectionHolder::getConnection, journal);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        journal.stop();
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void should_fetch_account_with_opening_balance() throws SQLException {
+        // when
+        final Optional<Account> optionalAccount = accountRepository.fetchAccount(10L, true);
+
+        // then
+        assertTrue(optionalAccount.isPresent());
+        assertEquals(1L, optionalAccount.get().getUserId());
+        assertEquals(10031L, optionalAccount.get().getBalance());
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void balance_changes_should_be_inserted_as_entries() throws SQLException {
+        // when
+        final boolean deposited = accountRepository.deposit(10L, 500L);
+        final boolean withdrawn = accountRepository.withdraw(10L, 1L, 331L);
+
+        // then
+        assertTrue(deposited);
+        assertTrue(withdrawn);
+        assertEquals(10200L, accountRepository.fetchAccount(10L).get().getBalance());
+        assertEquals(List.of(500L, -331L), fetchEntryAmounts(10L));
+        assertEquals(10031L, fetchOpeningBalance(10L));
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void several_accounts_should_be_fetched_with_entries() throws Exception {
+        // given
+        accountRepository.deposit(10L, 500L);
+        journal.stop();
+        accountRepository.deposit(10L, 100L);
+
+        // when
+        final Map<Long, Account> accounts = accountRepository.fetchAccounts(List.of(10L, 30L, 123L));
+
+        // then
+        assertEquals(2, accounts.size());
+        assertEquals(10631L, accounts.get(10L).getBalance());
+        assertEquals(1412L, accounts.get(30L).getBalance());
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void should_not_withdraw_more_than_balance() throws SQLException {
+        // when
+        final boolean withdrawn = accountRepository.withdraw(10L, 1L, 10032L);
+
+        // then
+        assertFalse(withdrawn);
+        assertTrue(fetchEntryAmounts(10L).isEmpty());
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void should_not_deposit_to_non_existing_account() throws SQLException {
+        // when
+        final boolean deposited = accountRepository.deposit(123L, 100L);
+
+        // then
+        assertFalse(deposited);
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void applied_balance_should_keep_credits_made_while_account_is_locked() throws SQLException {
+        // given
+        final TransactionConnectionProvider transaction = new TransactionConnectionProvider();
+        final JournalAccountRepository transactionRepository = new JournalAccountRepository(transaction, journal);
+        final Account lockedAccount = transactionRepository.fetchAccount(10L, true).get();
+
+        // when
+        final boolean deposited = accountRepository.deposit(10L, 500L);
+        final boolean applied = transactionRepository.applyBalance(10L, lockedAccount.getBalance() - 1000L);
+        transaction.commit();
+
+        // then
+        assertTrue(deposited);
+        assertTrue(applied);
+        assertEquals(9531L, accountRepository.fetchAccount(10L).get().getBalance());
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void compacted_snapshot_should_keep_balance() throws Exception {
+        // given
+        accountRepository.deposit(10L, 500L);
+        accountRepository.deposit(20L, 133L);
+
+        // when
+        journal.stop();
+        accountRepository.deposit(10L, 200L);
+
+        // then
+        assertEquals(10531L, fetchSnapshotBalance(10L));
+        assertEquals(42300L, fetchSnapshotBalance(20L));
+        assertEquals(10731L, accountRepository.fetchAccount(10L).get().getBalance());
+        assertEquals(42300L, accountRepository.fetchAccount(20L).get().getBalance());
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void entries_after_pending_one_should_not_be_compacted() throws Exception {
+        // given
+        journal.allocateEntryId();
+        accountRepository.deposit(10L, 500L);
+
+        // when
+        journal.stop();
+
+        // then
+        assertNull(fetchSnapshotBalance(10L));
+        assertEquals(10531L, accountRepository.fetchAccount(10L).get().getBalance());
+    }
+
+    private List<Long> fetchEntryAmounts(final Long accountId) throws SQLException {
+        final List<Long> amounts = new ArrayList<>();
+        try (final Connection connection = connectionHolder.getConnection();
+             final PreparedStatement preparedStatement =
+                     connection.prepareStatement("select amount from ledger_entry where account_id = ? order by id")) {
+            preparedStatement.setLong(1, accountId);
+            try (final ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    amounts.add(resultSet.getLong(1));
+                }
+            }
+        }
+        return amounts;
+    }
+
+    private Long fetchOpeningBalance(final Long accountId) throws SQLException {
+        return fetchBalance("select balance from account where id = ?", accountId);
+    }
+
+    private Long fetchSnapshotBalance(final Long accountId) throws SQLException {
+        return fetchBalance("select balance from balance_snapshot where account_id = ?", accountId);
+    }
+
+    private Long fetchBalance(final String sql, final Long accountId) throws SQLException {
+        try (final Connection connection = connectionHolder.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setLong(1, accountId);
+            try (final ResultSet resultSet = preparedStatement.executeQuery()) {
+                return resultSet.next() ? Long.valueOf(resultSet.getLong(1)) : null;
+            }
+        }
+    }
+
+    /**
+     * Runs everything in a single transaction and postpones completion actions until commit.
+     */
+    private static class TransactionConnectionProvider implements ConnectionProvider {
+
+        private final Connection connection;
+
+        private final List<Runnable> afterCommitActions = new ArrayList<>();
+
+        TransactionConnectionProvider() throws SQLException {
+            this.connection = connectionHolder.getConnection();
+            this.connection.setAutoCommit(false);
+        }
+
+        @Override
+        public Connection currentConnection() {
+            return connection;
+        }
+
+        @Override
+        public void afterCommit(final Runnable action) {
+            afterCommitActions.add(action);
+        }
+
+        void commit() throws SQLException {
+            connection.commit();
+            connection.close();
+            afterCommitActions.forEach(Runnable::run);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.revolut.mtt.repository;
+
+import com.github.database.rider.core.api.connection.ConnectionHolder;
+import com.github.database.rider.core.api.dataset.DataSet;
+import com.github.database.rider.junit5.DBUnitExtension;
+import com.revolut.mtt.database.ConnectionProvider;
+import com.revolut.mtt.database.ResultCursor;
+import com.revolut.mtt.database.SchemaInit;
+import com.revolut.mtt.model.AccountTransfer;
+import com.revolut.mtt.model.Transfer;
+import org.h2.engine.Session;
+import org.h2.jdbc.JdbcConnection;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(DBUnitExtension.class)
+class TransferRepositoryTest {
+
+    private TransferRepository transferRepository;
+
+    private static ConnectionHolder connectionHolder = () -> DriverManager.getConnection("jdbc:h2:mem:mtt-test;DB_CLOSE_DELAY=-1");
+
+    @BeforeAll
+    static void beforeAll() throws SQLException {
+        SchemaInit.initSchema(connectionHolder.getConnection());
+    }
+
+    @BeforeEach
+    void setUp() {
+        this.transferRepository = new TransferRepository(connectionHolder::getConnection);
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void transfer_should_be_saved_for_both_accounts() throws SQLException {
+        // given
+        final Transfer transfer = new Transfer(1L, 10L, 20L, 1250L);
+
+        // when
+        transferRepository.saveTransfer(transfer);
+
+        // then
+        final List<AccountTransfer> sourceTransfers = fetchAll(10L, null, 10);
+        assertEquals(1, sourceTransfers.size());
+        assertEquals(20L, sourceTransfers.get(0).getCounterpartyAccountId());
+        assertEquals(-1250L, sourceTransfers.get(0).getAmount());
+        assertNotNull(sourceTransfers.get(0).getCreatedAt());
+        final List<AccountTransfer> destinationTransfers = fetchAll(20L, null, 10);
+        assertEquals(1, destinationTransfers.size());
+        assertEquals(sourceTransfers.get(0).getId(), destinationTransfers.get(0).getId());
+        assertEquals(10L, destinationTransfers.get(0).getCounterpartyAccountId());
+        assertEquals(1250L, destinationTransfers.get(0).getAmount());
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void transfers_should_be_paged_newest_first() throws SQLException {
+        // given
+        transferRepository.saveTransfers(List.of(
+                new Transfer(1L, 10L, 20L, 100L),
+                new Transfer(2L, 20L, 10L, 200L),
+                new Transfer(2L, 20L, 30L, 300L)));
+        transferRepository.saveTransfer(new Transfer(4L, 30L, 10L, 400L));
+
+        // when
+        final List<AccountTransfer> firstPage = fetchAll(10L, null, 2);
+        final List<AccountTransfer> secondPage = fetchAll(10L, firstPage.get(1).getId(), 2);
+
+        // then
+        assertEquals(2, firstPage.size());
+        assertEquals(400L, firstPage.get(0).getAmount());
+        assertEquals(200L, firstPage.get(1).getAmount());
+        assertTrue(firstPage.get(0).getId() > firstPage.get(1).getId());
+        assertEquals(1, secondPage.size());
+        assertEquals(-100L, secondPage.get(0).getAmount());
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void lazy_query_execution_should_be_reset_once_transaction_completes() throws SQLException {
+        // given
+        final Connection connection = connectionHolder.getConnection();
+        final List<Consumer<Boolean>> completionActions = new ArrayList<>();
+        final TransferRepository transactionalRepository = new TransferRepository(new ConnectionProvider() {
+            @Override
+            public Connection currentConnection() {
+                return connection;
+            }
+
+            @Override
+            public void afterCompletion(final Consumer<Boolean> action) {
+                completionActions.add(action);
+            }
+        });
+        final Session session = (Session) connection.unwrap(JdbcConnection.class).getSession();
+
+        // when
+        transactionalRepository.fetchTransfers(10L, null, 10).close();
+        final boolean lazyAfterCursorClosed = session.isLazyQueryExecution();
+        completionActions.forEach(action -> action.accept(true));
+
+        // then
+        assertTrue(lazyAfterCursorClosed);
+        assertFalse(session.isLazyQueryExecution());
+        connection.close();
+    }
+
+    private List<AccountTransfer> fetchAll(final Long accountId,
+                                           final Long beforeTransferId,
+                                           final int limit) throws SQLException {
+        final List<AccountTransfer> transfers = new ArrayList<>();
+        try (final ResultCursor<AccountTransfer> cursor =
+                     transferRepository.fetchTransfers(accountId, beforeTransferId, limit)) {
+            AccountTransfer transfer;
+            while ((transfer = cursor.next()) != null) {
+                transfers.add(transfer);
+            }
+        }
+        return transfers;
+    }
+}
@@ -10,9 +10,12 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 
+import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -107,4 +110,60 @@ class UserRepositoryTest {
         assertNotNull(user.getId());
         assertEquals("monica", user.getUsername());
     }
-}
\ No newline at end of file
+
+    @Test
+    @DataSet("existing_users.yml")
+    void should_create_new_users_in_order() throws SQLException {
+        // given
+        final List<User> newUsers = List.of(
+                User.builder().username("monica").build(),
+                User.builder().username("phoebe").build());
+
+        // when
+        final List<User> users = userRepository.createUsers(newUsers);
+
+        // then
+        assertEquals(2, users.size());
+        assertEquals("monica", users.get(0).getUsername());
+        assertEquals("phoebe", users.get(1).getUsername());
+        assertEquals(Optional.of(users.get(1)), userRepository.fetchUser(users.get(1).getId()));
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void should_fetch_existing_usernames_and_ids() throws SQLException {
+        // when
+        final Set<String> usernames = userRepository.fetchExistingUsernames(List.of("ross", "stive", "joey", "ross"));
+        final Set<Long> userIds = userRepository.fetchExistingUserIds(List.of(1L, 5L, 3L));
+
+        // then
+        assertEquals(Set.of("ross", "joey"), usernames);
+        assertEquals(Set.of(1L, 3L), userIds);
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void users_with_taken_usernames_should_be_skipped() throws SQLException {
+        // given
+        try (final Connection connection = connectionHolder.getConnection()) {
+            connection.setAutoCommit(false);
+            final UserRepository transactionalRepository = new UserRepository(() -> connection);
+
+            // when
+            final List<Optional<User>> createdUsers = transactionalRepository.createUsersIfAbsent(List.of(
+                    User.builder().username("monica").build(),
+                    User.builder().username("ross").build(),
+                    User.builder().username("phoebe").build()));
+            connection.commit();
+
+            // then
+            assertEquals(3, createdUsers.size());
+            assertTrue(createdUsers.get(0).isPresent());
+            assertFalse(createdUsers.get(1).isPresent());
+            assertTrue(createdUsers.get(2).isPresent());
+            assertEquals(Set.of("monica", "ross", "phoebe"),
+                    userRepository.fetchExistingUsernames(List.of("monica", "ross", "phoebe")));
+            assertEquals(createdUsers.get(0), userRepository.fetchUserByUsername("monica"));
+        }
+    }
+}
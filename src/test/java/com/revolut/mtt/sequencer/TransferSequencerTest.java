@@ -0,0 +1,218 @@
+package com.revolut.mtt.sequencer;
+
+import com.github.database.rider.core.api.connection.ConnectionHolder;
+import com.github.database.rider.core.api.dataset.DataSet;
+import com.github.database.rider.junit5.DBUnitExtension;
+import com.revolut.mtt.database.SchemaInit;
+import com.revolut.mtt.database.StatementCache;
+import com.revolut.mtt.idempotency.IdempotencyKey;
+import com.revolut.mtt.model.Account;
+import com.revolut.mtt.model.Transfer;
+import com.revolut.mtt.repository.AccountRepository;
+import com.revolut.mtt.repository.IdempotencyKeyRepository;
+import com.revolut.mtt.repository.PendingCreditRepository;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(DBUnitExtension.class)
+class TransferSequencerTest {
+
+    private static final String URL = "jdbc:h2:mem:mtt-test;DB_CLOSE_DELAY=-1";
+
+    private static ConnectionHolder connectionHolder = () -> DriverManager.getConnection(URL);
+
+    private TransferSequencer transferSequencer;
+
+    private JdbcDataSource dataSource;
+
+    private AccountRepository accountRepository;
+
+    private PendingCreditRepository pendingCreditRepository;
+
+    @BeforeAll
+    static void beforeAll() throws SQLException {
+        SchemaInit.initSchema(connectionHolder.getConnection());
+    }
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        // accounts 10 and 30 share a partition, account 20 is in another one
+        transferSequencer = new TransferSequencer(4, 16, 8, 1000, 3, 10);
+        dataSource = new JdbcDataSource();
+        dataSource.setURL(URL);
+        transferSequencer.start(dataSource, new StatementCache(8));
+        accountRepository = new AccountRepository(connectionHolder::getConnection);
+        pendingCreditRepository = new PendingCreditRepository(connectionHolder::getConnection);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        transferSequencer.stop();
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void transfer_within_partition_should_be_applied() throws Exception {
+        // when
+        final TransferSequencer.Outcome outcome = submit(new Transfer(1L, 10L, 30L, 1000L));
+
+        // then
+        assertEquals(TransferSequencer.Outcome.APPLIED, outcome);
+        assertEquals(9031L, balance(10L));
+        assertEquals(2412L, balance(30L));
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void transfer_between_partitions_should_be_applied() throws Exception {
+        // when
+        final TransferSequencer.Outcome outcome = submit(new Transfer(1L, 10L, 20L, 31L));
+
+        // then
+        assertEquals(TransferSequencer.Outcome.APPLIED, outcome);
+        assertEquals(10000L, balance(10L));
+        assertEquals(42198L, balance(20L));
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void applied_credit_should_not_be_left_pending() throws Exception {
+        // when
+        submit(new Transfer(1L, 10L, 20L, 31L));
+
+        // then
+        assertTrue(pendingCreditRepository.fetchPendingCredits().isEmpty());
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void pending_credit_of_previous_run_should_be_applied_on_start() throws Exception {
+        // given
+        transferSequencer.stop();
+        pendingCreditRepository.savePendingCredit(new Transfer(1L, 10L, 20L, 31L));
+
+        // when
+        transferSequencer = new TransferSequencer(4, 16, 8, 1000, 3, 10);
+        transferSequencer.start(dataSource, new StatementCache(8));
+        final TransferSequencer.Outcome outcome = submit(new Transfer(2L, 20L, 30L, 1L));
+
+        // then
+        assertEquals(TransferSequencer.Outcome.APPLIED, outcome);
+        assertEquals(42197L, balance(20L));
+        assertTrue(pendingCreditRepository.fetchPendingCredits().isEmpty());
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void failing_credit_should_be_retried_until_applied() throws Exception {
+        // given
+        setBalance(20L, Long.MAX_VALUE - 10);
+
+        // when
+        final TransferSequencer.Outcome outcome = submit(new Transfer(1L, 10L, 20L, 31L));
+        setBalance(20L, 42167L);
+
+        // then
+        assertEquals(TransferSequencer.Outcome.CREDIT_PENDING, outcome);
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (balance(20L) != 42198L && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertEquals(42198L, balance(20L));
+        assertTrue(pendingCreditRepository.fetchPendingCredits().isEmpty());
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void idempotency_key_should_be_saved_with_debit() throws Exception {
+        // when
+        final TransferSequencer.Outcome outcome = transferSequencer.submit(new Transfer(1L, 10L, 20L, 31L),
+                new IdempotencyKey("sequenced-key", "hash", 200)).get(5, TimeUnit.SECONDS);
+
+        // then
+        assertEquals(TransferSequencer.Outcome.APPLIED, outcome);
+        assertEquals(Optional.of(200), new IdempotencyKeyRepository(connectionHolder::getConnection)
+                .fetchRequest("sequenced-key")
+                .map(request -> request.getStatus().join()));
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void transfer_without_enough_amount_should_not_be_applied() throws Exception {
+        // when
+        final TransferSequencer.Outcome outcome = submit(new Transfer(4L, 30L, 20L, 10000L));
+
+        // then
+        assertEquals(TransferSequencer.Outcome.SOURCE_NOT_UPDATED, outcome);
+        assertEquals(1412L, balance(30L));
+        assertEquals(42167L, balance(20L));
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void transfer_to_missing_account_should_not_be_applied() throws Exception {
+        // when
+        final TransferSequencer.Outcome outcome = submit(new Transfer(1L, 10L, 99L, 100L));
+
+        // then
+        assertEquals(TransferSequencer.Outcome.DESTINATION_NOT_FOUND, outcome);
+        assertEquals(10031L, balance(10L));
+    }
+
+    @Test
+    @DataSet("existing_users.yml")
+    void concurrent_transfers_should_keep_total_balance() throws Exception {
+        // given
+        final long total = balance(10L) + balance(20L) + balance(30L);
+        final long[][] transfers = {{1L, 10L, 20L}, {2L, 20L, 30L}, {4L, 30L, 10L}, {2L, 20L, 10L}};
+
+        // when
+        final List<CompletableFuture<TransferSequencer.Outcome>> outcomes = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            final long[] transfer = transfers[i % transfers.length];
+            outcomes.add(transferSequencer.submit(new Transfer(transfer[0], transfer[1], transfer[2],
+                    (i % 7 + 1) * 100L)));
+        }
+        CompletableFuture.allOf(outcomes.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+
+        // then
+        assertTrue(outcomes.stream().anyMatch(outcome -> outcome.join() == TransferSequencer.Outcome.APPLIED));
+        assertEquals(total, balance(10L) + balance(20L) + balance(30L));
+    }
+
+    private TransferSequencer.Outcome submit(final Transfer transfer) throws Exception {
+        return transferSequencer.submit(transfer).get(5, TimeUnit.SECONDS);
+    }
+
+    private void setBalance(final Long accountId, final long balance) throws SQLException {
+        try (final Connection connection = connectionHolder.getConnection();
+             final PreparedStatement preparedStatement =
+                     connection.prepareStatement("update account set balance = ? where id = ?")) {
+            preparedStatement.setLong(1, balance);
+            preparedStatement.setLong(2, accountId);
+            preparedStatement.executeUpdate();
+        }
+    }
+
+    private long balance(final Long accountId) throws SQLException {
+        return accountRepository.fetchAccount(accountId)
+                .map(Account::getBalance)
+                .orElse(null);
+    }
+}